@@ -0,0 +1,180 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * Helper for implementing IndexFiles.  Handles the file of the index, whose
+ * pages are {@link BufferPool#PAGE_SIZE} bytes and are built by
+ * {@link #createPage}, and the lookup of the tuples its entries point to.
+ */
+public abstract class AbstractIndexFile implements IndexFile {
+
+    private static final long serialVersionUID = 1L;
+
+    private final File file;
+    private final int tableId;
+    private final TupleDesc td;
+    private final int keyField;
+    /** the open channel of the file, opened on first use */
+    private transient FileChannel channel;
+
+    /**
+     * @param f the file holding the index
+     * @param table the indexed table
+     * @param keyField the index of the indexed field in the table
+     */
+    protected AbstractIndexFile(File f, HeapFile table, int keyField) {
+        this.file = f;
+        this.tableId = table.getId();
+        this.td = table.getTupleDesc();
+        this.keyField = keyField;
+    }
+
+    /** An entry of an index: a key and the RecordId of a tuple that holds it. */
+    static class Entry {
+        final Field key;
+        final int page;
+        final int slot;
+
+        Entry(Field key, int page, int slot) {
+            this.key = key;
+            this.page = page;
+            this.slot = slot;
+        }
+    }
+
+    /**
+     * Collect the entries of a field of a table, for building an index.
+     * The pages of the table are read as they are on disk, so the table
+     * must be in the catalog and no transaction may be changing it, e.g.
+     * while the catalog is loaded.
+     *
+     * @return the entries, in the order of the tuples in the table
+     */
+    static List<Entry> entries(HeapFile table, int keyField) {
+        List<Entry> entries = new ArrayList<Entry>();
+        for (int i = 0; i < table.numPages(); i++) {
+            Page page = table.readPage(new HeapPageId(table.getId(), i));
+            if (!(page instanceof TuplePage))
+                continue;
+            Iterator<Tuple> it = ((TuplePage) page).iterator();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                entries.add(new Entry(t.getField(keyField), i, t.getRecordId().tupleno()));
+            }
+        }
+        return entries;
+    }
+
+    /** Write a page of an index being built. */
+    static void write(RandomAccessFile raf, int pgNo, Page page) throws IOException {
+        raf.seek((long) pgNo * BufferPool.PAGE_SIZE);
+        raf.write(page.getPageData());
+    }
+
+    /** Build a page of this index from bytes read from disk. */
+    abstract Page createPage(HeapPageId pid, byte[] data) throws IOException;
+
+    public File getFile() {
+        return file;
+    }
+
+    // see IndexFile.java for javadocs
+    public int getTableId() {
+        return tableId;
+    }
+
+    // see IndexFile.java for javadocs
+    public int getKeyField() {
+        return keyField;
+    }
+
+    Type getKeyType() {
+        return td.getFieldType(keyField);
+    }
+
+    int getKeyLength() {
+        return td.getFieldLength(keyField);
+    }
+
+    public int getId() {
+        return file.getAbsoluteFile().hashCode();
+    }
+
+    /** @return the TupleDesc of the indexed table */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of pages in the file */
+    public int numPages() {
+        return (int) (file.length() / BufferPool.PAGE_SIZE);
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (pid.pageNumber() >= numPages())
+            return null;
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(BufferPool.PAGE_SIZE);
+            long position = (long) pid.pageNumber() * BufferPool.PAGE_SIZE;
+            FileChannel ch = channel();
+            while (buffer.hasRemaining()) {
+                int n = ch.read(buffer, position + buffer.position());
+                if (n < 0)
+                    throw new EOFException("page is past the end of the index");
+            }
+            return createPage(new HeapPageId(getId(), pid.pageNumber()), buffer.array());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(page.getPageData());
+        long position = (long) page.getId().pageNumber() * BufferPool.PAGE_SIZE;
+        FileChannel ch = channel();
+        while (buffer.hasRemaining())
+            position += ch.write(buffer, position);
+    }
+
+    private synchronized FileChannel channel() throws IOException {
+        if (channel == null || !channel.isOpen())
+            channel = new RandomAccessFile(file, "rw").getChannel();
+        return channel;
+    }
+
+    // see IndexFile.java for javadocs
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * @return the key of a tuple stored in the table, read from the table
+     *         if the tuple does not carry it
+     * @throws DbException if the tuple has no RecordId
+     */
+    Field storedKey(TransactionId tid, Tuple t) throws DbException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null)
+            throw new DbException("only tuples stored in the table are indexed");
+        Field key = t.getField(keyField);
+        if (key == null)
+            key = fetch(tid, rid.getPageId().pageNumber(), rid.tupleno()).getField(keyField);
+        return key;
+    }
+
+    /** @return the tuple of the table in a slot of a page */
+    Tuple fetch(TransactionId tid, int pgNo, int slot) throws DbException, TransactionAbortedException {
+        TuplePage page = (TuplePage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(tableId, pgNo), Permissions.READ_ONLY);
+        return page.getTuple(slot);
+    }
+}
@@ -0,0 +1,382 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BTreeFile is a B+ tree index over one field of a table stored in a
+ * HeapFile.  Its leaves map each key to the RecordIds of the tuples that
+ * hold it, and its pages are read and locked through the BufferPool like
+ * the pages of the table, see {@link BTreePage}.
+ * <p>
+ * The iterators return the tuples of the table in key order.  Page 0 of
+ * the file names the root.  Leaves and
+ * internal pages are split when they overflow; pages emptied by deletes
+ * are not merged, so the tree only shrinks when it is built again.
+ *
+ * @see Catalog#addIndex
+ * @see IndexScan
+ */
+public class BTreeFile extends AbstractIndexFile {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Suffix of the name of an index file, after the table's file name and the field. */
+    static final String SUFFIX = ".btree";
+
+    /** Share of each page {@link #build} fills, leaving room for inserts. */
+    static final double FILL_FACTOR = 0.9;
+
+    private static final int META_PAGE = 0;
+
+    /**
+     * Open an index written by {@link #build}.
+     *
+     * @param f the file holding the index
+     * @param table the indexed table
+     * @param keyField the index of the indexed field in the table
+     */
+    public BTreeFile(File f, HeapFile table, int keyField) {
+        super(f, table, keyField);
+    }
+
+    /** @return the file holding the index of a field of the table stored in f */
+    static File indexFile(File f, int keyField) {
+        return new File(f.getPath() + "." + keyField + SUFFIX);
+    }
+
+    /** Compare the entries (k1, p1, s1) and (k2, p2, s2) by key and then by RecordId. */
+    static int compare(Field k1, int p1, int s1, Field k2, int p2, int s2) {
+        int c = BTreePage.compareKeys(k1, k2);
+        if (c != 0)
+            return c;
+        c = Integer.compare(p1, p2);
+        return c != 0 ? c : Integer.compare(s1, s2);
+    }
+
+    /**
+     * Build the index of a field of a table from the tuples of the table,
+     * sorting them and filling pages from the bottom up.  The table is read
+     * as {@link AbstractIndexFile#entries} reads it.
+     *
+     * @param f the file to write the index to
+     * @param table the table to index
+     * @param keyField the index of the field to index
+     * @return the new index; it still has to be added to the catalog
+     */
+    public static BTreeFile build(File f, HeapFile table, int keyField) throws IOException {
+        BTreeFile index = new BTreeFile(f, table, keyField);
+        List<Entry> entries = entries(table, keyField);
+        Collections.sort(entries, new Comparator<Entry>() {
+            public int compare(Entry a, Entry b) {
+                return BTreeFile.compare(a.key, a.page, a.slot, b.key, b.page, b.slot);
+            }
+        });
+
+        Type type = index.getKeyType();
+        int length = index.getKeyLength();
+        int id = index.getId();
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            raf.setLength(0);
+            int leafCap = Math.max(2, (int) (BTreePage.capacity(BTreePage.LEAF, type, length) * FILL_FACTOR));
+            int numLeaves = Math.max(1, (entries.size() + leafCap - 1) / leafCap);
+            int nextPage = 1;
+            // the first entry under each page of the level being built, and its page
+            List<Entry> firsts = new ArrayList<Entry>();
+            List<Integer> pages = new ArrayList<Integer>();
+            for (int l = 0; l < numLeaves; l++) {
+                int from = (int) ((long) entries.size() * l / numLeaves);
+                int to = (int) ((long) entries.size() * (l + 1) / numLeaves);
+                BTreePage leaf = new BTreePage(new HeapPageId(id, nextPage),
+                        BTreePage.createEmptyPageData(BTreePage.LEAF), type, length);
+                for (int i = from; i < to; i++)
+                    leaf.insertEntry(i - from, entries.get(i).key, entries.get(i).page, entries.get(i).slot, 0);
+                if (l + 1 < numLeaves)
+                    leaf.setNext(nextPage + 1);
+                write(raf, nextPage, leaf);
+                firsts.add(from < to ? entries.get(from) : null);
+                pages.add(nextPage++);
+            }
+
+            int fanout = Math.max(3, (int) (BTreePage.capacity(BTreePage.INTERNAL, type, length) * FILL_FACTOR) + 1);
+            while (pages.size() > 1) {
+                int numNodes = (pages.size() + fanout - 1) / fanout;
+                List<Entry> upperFirsts = new ArrayList<Entry>();
+                List<Integer> upperPages = new ArrayList<Integer>();
+                for (int n = 0; n < numNodes; n++) {
+                    int from = (int) ((long) pages.size() * n / numNodes);
+                    int to = (int) ((long) pages.size() * (n + 1) / numNodes);
+                    BTreePage node = new BTreePage(new HeapPageId(id, nextPage),
+                            BTreePage.createEmptyPageData(BTreePage.INTERNAL), type, length);
+                    node.setChild0(pages.get(from));
+                    for (int i = from + 1; i < to; i++) {
+                        Entry e = firsts.get(i);
+                        node.insertEntry(i - from - 1, e.key, e.page, e.slot, pages.get(i));
+                    }
+                    write(raf, nextPage, node);
+                    upperFirsts.add(firsts.get(from));
+                    upperPages.add(nextPage++);
+                }
+                firsts = upperFirsts;
+                pages = upperPages;
+            }
+
+            BTreePage meta = new BTreePage(new HeapPageId(id, META_PAGE),
+                    BTreePage.createEmptyPageData(BTreePage.META), type, length);
+            meta.setRoot(pages.get(0));
+            write(raf, META_PAGE, meta);
+        } finally {
+            raf.close();
+        }
+        return index;
+    }
+
+    // see AbstractIndexFile.java for javadocs
+    Page createPage(HeapPageId pid, byte[] data) throws IOException {
+        return new BTreePage(pid, data, this);
+    }
+
+    private BTreePage page(TransactionId tid, int pgNo, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        return (BTreePage) Database.getBufferPool().getPage(tid, new HeapPageId(getId(), pgNo), perm);
+    }
+
+    /**
+     * Append an empty page to the file and lock it for writing.
+     */
+    private BTreePage allocatePage(TransactionId tid, byte kind)
+            throws IOException, TransactionAbortedException, DbException {
+        HeapPageId pid;
+        synchronized (this) {
+            pid = new HeapPageId(getId(), numPages());
+            writePage(new BTreePage(pid, BTreePage.createEmptyPageData(kind), this));
+        }
+        return page(tid, pid.pageNumber(), Permissions.READ_WRITE);
+    }
+
+    /**
+     * Descend from the root to the leaf where an entry belongs, taking
+     * shared locks on the way.
+     *
+     * @param key the key of the entry, or null for the first leaf
+     * @param path if not null, the internal pages passed are added to it
+     * @param perm the lock to take on the leaf
+     */
+    private BTreePage findLeaf(TransactionId tid, Field key, int ridPage, int ridSlot,
+            List<Integer> path, Permissions perm) throws TransactionAbortedException, DbException {
+        BTreePage page = page(tid, page(tid, META_PAGE, Permissions.READ_ONLY).root(), Permissions.READ_ONLY);
+        while (page.kind() == BTreePage.INTERNAL) {
+            if (path != null)
+                path.add(page.getId().pageNumber());
+            int child = key == null ? page.child(0) : page.child(page.upperBound(key, ridPage, ridSlot));
+            page = page(tid, child, Permissions.READ_ONLY);
+        }
+        if (perm == Permissions.READ_WRITE)
+            page = page(tid, page.getId().pageNumber(), Permissions.READ_WRITE);
+        return page;
+    }
+
+    /**
+     * Add the entry of a tuple to the index.
+     *
+     * @param t a tuple stored in the indexed table, with its RecordId set
+     * @return the pages of the index that were changed
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        Field key = t.getField(getKeyField());
+        RecordId rid = t.getRecordId();
+        if (key == null || rid == null)
+            throw new DbException("only tuples stored in the table can be indexed");
+        int ridPage = rid.getPageId().pageNumber();
+        List<Integer> path = new ArrayList<Integer>();
+        BTreePage leaf = findLeaf(tid, key, ridPage, rid.tupleno(), path, Permissions.READ_WRITE);
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        insertEntry(tid, leaf, key, ridPage, rid.tupleno(), BTreePage.NO_PAGE, path, dirtied);
+        return dirtied;
+    }
+
+    /**
+     * Insert an entry into a page, splitting it if it is full and inserting
+     * the separator of the split into the parent, the last page of path.
+     *
+     * @param child on an internal page, the child that follows the entry
+     */
+    private void insertEntry(TransactionId tid, BTreePage page, Field key, int ridPage, int ridSlot,
+            int child, List<Integer> path, ArrayList<Page> dirtied)
+            throws DbException, IOException, TransactionAbortedException {
+        synchronized (page) {
+            if (page.count() < page.capacity()) {
+                page.insertEntry(page.upperBound(key, ridPage, ridSlot), key, ridPage, ridSlot, child);
+                page.markDirty(true, tid);
+                dirtied.add(page);
+                return;
+            }
+        }
+
+        BTreePage right = allocatePage(tid, page.kind());
+        int rightNo = right.getId().pageNumber();
+        Field sepKey;
+        int sepPage;
+        int sepSlot;
+        synchronized (page) {
+            synchronized (right) {
+                int mid = page.count() / 2;
+                if (page.kind() == BTreePage.LEAF) {
+                    page.moveEntries(mid, right);
+                    right.setNext(page.next());
+                    page.setNext(rightNo);
+                    sepKey = right.key(0);
+                    sepPage = right.ridPage(0);
+                    sepSlot = right.ridSlot(0);
+                } else {
+                    // the middle separator moves up rather than to the right
+                    sepKey = page.key(mid);
+                    sepPage = page.ridPage(mid);
+                    sepSlot = page.ridSlot(mid);
+                    right.setChild0(page.child(mid + 1));
+                    page.moveEntries(mid + 1, right);
+                    page.removeEntry(mid);
+                }
+                BTreePage target = compare(key, ridPage, ridSlot, sepKey, sepPage, sepSlot) < 0 ? page : right;
+                target.insertEntry(target.upperBound(key, ridPage, ridSlot), key, ridPage, ridSlot, child);
+                page.markDirty(true, tid);
+                right.markDirty(true, tid);
+            }
+        }
+        dirtied.add(page);
+        dirtied.add(right);
+
+        if (path.isEmpty()) {
+            // the root was split: the tree grows a level
+            BTreePage root = allocatePage(tid, BTreePage.INTERNAL);
+            BTreePage meta = page(tid, META_PAGE, Permissions.READ_WRITE);
+            synchronized (root) {
+                root.setChild0(page.getId().pageNumber());
+                root.insertEntry(0, sepKey, sepPage, sepSlot, rightNo);
+                root.markDirty(true, tid);
+            }
+            synchronized (meta) {
+                meta.setRoot(root.getId().pageNumber());
+                meta.markDirty(true, tid);
+            }
+            dirtied.add(root);
+            dirtied.add(meta);
+        } else {
+            BTreePage parent = page(tid, path.remove(path.size() - 1), Permissions.READ_WRITE);
+            insertEntry(tid, parent, sepKey, sepPage, sepSlot, rightNo, path, dirtied);
+        }
+    }
+
+    /**
+     * Remove the entry of a tuple from the index.  The key is read from the
+     * table if the tuple does not carry it, so this has to be called before
+     * the tuple is deleted from the table.
+     *
+     * @param t a tuple stored in the indexed table, with its RecordId set
+     * @return the leaf the entry was removed from
+     * @throws DbException if the index has no entry for the tuple
+     */
+    public Page deleteTuple(TransactionId tid, Tuple t) throws DbException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        Field key = storedKey(tid, t);
+        int ridPage = rid.getPageId().pageNumber();
+        BTreePage leaf = findLeaf(tid, key, ridPage, rid.tupleno(), null, Permissions.READ_WRITE);
+        synchronized (leaf) {
+            int pos = leaf.upperBound(key, ridPage, rid.tupleno()) - 1;
+            if (pos < 0 || leaf.compare(pos, key, ridPage, rid.tupleno()) != 0)
+                throw new DbException("the tuple has no entry in the index");
+            leaf.removeEntry(pos);
+            leaf.markDirty(true, tid);
+        }
+        return leaf;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return iterator(tid, null, false, null, false);
+    }
+
+    // see IndexFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid, Field key) {
+        return iterator(tid, key, true, key, true);
+    }
+
+    /**
+     * Returns an iterator over the tuples of the table whose keys fall in a
+     * range, in key order.
+     *
+     * @param lo the lowest key, or null for no lower bound
+     * @param loInclusive true if tuples with key lo are returned
+     * @param hi the highest key, or null for no upper bound
+     * @param hiInclusive true if tuples with key hi are returned
+     */
+    public DbFileIterator iterator(TransactionId tid, Field lo, boolean loInclusive, Field hi, boolean hiInclusive) {
+        return new BTreeFileIterator(tid, lo, loInclusive, hi, hiInclusive);
+    }
+
+    /** Walks the leaves from the lower bound to the upper bound. */
+    private class BTreeFileIterator extends AbstractDbFileIterator {
+        private static final long serialVersionUID = 1L;
+
+        private final TransactionId tid;
+        private final Field lo;
+        private final boolean loInclusive;
+        private final Field hi;
+        private final boolean hiInclusive;
+        private boolean open;
+        private BTreePage leaf;
+        private int pos;
+
+        BTreeFileIterator(TransactionId tid, Field lo, boolean loInclusive, Field hi, boolean hiInclusive) {
+            this.tid = tid;
+            this.lo = lo;
+            this.loInclusive = loInclusive;
+            this.hi = hi;
+            this.hiInclusive = hiInclusive;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            // entries with key lo sort after (lo, MIN) and before (lo, MAX)
+            int bound = loInclusive ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+            leaf = findLeaf(tid, lo, bound, bound, null, Permissions.READ_ONLY);
+            pos = lo == null ? 0 : leaf.upperBound(lo, bound, bound);
+            open = true;
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (!open)
+                return null;
+            while (leaf != null) {
+                if (pos < leaf.count()) {
+                    if (hi != null) {
+                        int c = BTreePage.compareKeys(leaf.key(pos), hi);
+                        if (c > 0 || (c == 0 && !hiInclusive)) {
+                            leaf = null;
+                            return null;
+                        }
+                    }
+                    Tuple t = fetch(tid, leaf.ridPage(pos), leaf.ridSlot(pos));
+                    pos++;
+                    return t;
+                }
+                int next = leaf.next();
+                leaf = next == BTreePage.NO_PAGE ? null : page(tid, next, Permissions.READ_ONLY);
+                pos = 0;
+            }
+            return null;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            open = false;
+            leaf = null;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package simpledb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * BTreePage is a page of a {@link BTreeFile}: the meta page, which names the
+ * root, an internal page, or a leaf.
+ * <p>
+ * Every entry of the tree is a key together with the RecordId of the tuple
+ * it came from, and entries are ordered by key and then by RecordId, so
+ * that duplicate keys are told apart.  A leaf holds entries in order and
+ * the page number of the next leaf.  An internal page holds n separators
+ * and n + 1 children: child 0, then each separator followed by the child
+ * holding the entries at or above it.
+ * <p>
+ * The layout is a kind byte, an int entry count, an int next leaf (the
+ * root on the meta page) and an int child 0, followed by the entries, each
+ * the key in its fixed-size form, the page and slot of the RecordId and,
+ * on internal pages, the child after it.
+ */
+public class BTreePage implements Page {
+
+    static final byte LEAF = 1;
+    static final byte INTERNAL = 2;
+    static final byte META = 3;
+
+    /** The next leaf of the last leaf, and the root of an empty meta page. */
+    static final int NO_PAGE = -1;
+
+    private static final int KIND = 0;
+    private static final int COUNT = 1;
+    private static final int NEXT = 5;
+    private static final int CHILD0 = 9;
+    private static final int ENTRIES = 13;
+
+    private final HeapPageId pid;
+    private final byte[] data;
+    private final ByteBuffer view;
+    private final Type keyType;
+    private final int keyLength;
+    private final int keySize;
+    private final int entrySize;
+    private volatile byte[] oldData;
+    private volatile TransactionId dirtier;
+
+    /**
+     * Read a page of an index in the catalog.
+     *
+     * @param id the id of the page
+     * @param data the bytes of the page
+     */
+    public BTreePage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data, (BTreeFile) Database.getCatalog().getDbFile(id.getTableId()));
+    }
+
+    BTreePage(HeapPageId id, byte[] data, BTreeFile file) throws IOException {
+        this(id, data, file.getKeyType(), file.getKeyLength());
+    }
+
+    BTreePage(HeapPageId id, byte[] data, Type keyType, int keyLength) throws IOException {
+        if (data.length < BufferPool.PAGE_SIZE)
+            throw new IOException("page data is shorter than a page");
+        this.pid = id;
+        this.data = Arrays.copyOf(data, BufferPool.PAGE_SIZE);
+        this.view = ByteBuffer.wrap(this.data);
+        this.keyType = keyType;
+        this.keyLength = keyLength;
+        this.keySize = keyType.getLen(keyLength);
+        this.entrySize = keySize + 8 + (kind() == INTERNAL ? 4 : 0);
+    }
+
+    /** @return the bytes of an empty page of the given kind */
+    static byte[] createEmptyPageData(byte kind) {
+        byte[] data = new byte[BufferPool.PAGE_SIZE];
+        ByteBuffer view = ByteBuffer.wrap(data);
+        view.put(KIND, kind);
+        view.putInt(NEXT, NO_PAGE);
+        view.putInt(CHILD0, NO_PAGE);
+        return data;
+    }
+
+    /** @return the number of entries a page of this kind holds at most */
+    static int capacity(byte kind, Type keyType, int keyLength) {
+        int size = keyType.getLen(keyLength) + 8 + (kind == INTERNAL ? 4 : 0);
+        return (BufferPool.PAGE_SIZE - ENTRIES) / size;
+    }
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /** @return {@link #LEAF}, {@link #INTERNAL} or {@link #META} */
+    public byte kind() {
+        return data[KIND];
+    }
+
+    /** @return the number of entries on the page */
+    public int count() {
+        return view.getInt(COUNT);
+    }
+
+    /** @return the most entries the page can hold */
+    public int capacity() {
+        return (BufferPool.PAGE_SIZE - ENTRIES) / entrySize;
+    }
+
+    /** @return the page number of the next leaf, or {@link #NO_PAGE} */
+    public int next() {
+        return view.getInt(NEXT);
+    }
+
+    void setNext(int pgNo) {
+        beforeChange();
+        view.putInt(NEXT, pgNo);
+    }
+
+    /** @return the page number of the root; for the meta page only */
+    public int root() {
+        return view.getInt(NEXT);
+    }
+
+    void setRoot(int pgNo) {
+        setNext(pgNo);
+    }
+
+    private int entryOffset(int i) {
+        return ENTRIES + i * entrySize;
+    }
+
+    /** @return the key of entry i */
+    public Field key(int i) {
+        return keyType.read(view, entryOffset(i));
+    }
+
+    /** @return the page number of the RecordId of entry i */
+    public int ridPage(int i) {
+        return view.getInt(entryOffset(i) + keySize);
+    }
+
+    /** @return the slot of the RecordId of entry i */
+    public int ridSlot(int i) {
+        return view.getInt(entryOffset(i) + keySize + 4);
+    }
+
+    /** @return child i of an internal page, 0 &lt;= i &lt;= count() */
+    public int child(int i) {
+        return i == 0 ? view.getInt(CHILD0) : view.getInt(entryOffset(i - 1) + keySize + 8);
+    }
+
+    void setChild0(int pgNo) {
+        beforeChange();
+        view.putInt(CHILD0, pgNo);
+    }
+
+    /**
+     * @return a negative number, zero or a positive number as key a is less
+     *         than, equal to or greater than key b
+     */
+    static int compareKeys(Field a, Field b) {
+        if (a.compare(Predicate.Op.LESS_THAN, b))
+            return -1;
+        return a.compare(Predicate.Op.GREATER_THAN, b) ? 1 : 0;
+    }
+
+    /** Compare entry i with the entry (key, page, slot). */
+    int compare(int i, Field key, int page, int slot) {
+        int offset = entryOffset(i);
+        int c;
+        if (keyType == Type.INT_TYPE)
+            c = Integer.compare(view.getInt(offset), ((IntField) key).getValue());
+        else
+            c = compareKeys(keyType.read(view, offset), key);
+        if (c != 0)
+            return c;
+        c = Integer.compare(view.getInt(offset + keySize), page);
+        return c != 0 ? c : Integer.compare(view.getInt(offset + keySize + 4), slot);
+    }
+
+    /**
+     * @return the number of entries at or below (key, page, slot); on an
+     *         internal page, the child to descend to for that entry
+     */
+    int upperBound(Field key, int page, int slot) {
+        int lo = 0;
+        int hi = count();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(mid, key, page, slot) <= 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /** Take the before-image if this is the first change since the last commit. */
+    private void beforeChange() {
+        if (oldData == null)
+            oldData = getPageData();
+    }
+
+    /**
+     * Insert an entry at position pos, and on an internal page the child
+     * that follows it.  The page must not be full.
+     */
+    void insertEntry(int pos, Field key, int page, int slot, int child) {
+        beforeChange();
+        int count = count();
+        int start = entryOffset(pos);
+        System.arraycopy(data, start, data, start + entrySize, entryOffset(count) - start);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(keySize);
+        try {
+            keyType.serialize(key, keyLength, new DataOutputStream(baos));
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        System.arraycopy(baos.toByteArray(), 0, data, start, keySize);
+        view.putInt(start + keySize, page);
+        view.putInt(start + keySize + 4, slot);
+        if (kind() == INTERNAL)
+            view.putInt(start + keySize + 8, child);
+        view.putInt(COUNT, count + 1);
+    }
+
+    /** Remove the entry at position pos, and on an internal page the child after it. */
+    void removeEntry(int pos) {
+        beforeChange();
+        int count = count();
+        int start = entryOffset(pos);
+        System.arraycopy(data, start + entrySize, data, start, entryOffset(count) - start - entrySize);
+        Arrays.fill(data, entryOffset(count - 1), entryOffset(count), (byte) 0);
+        view.putInt(COUNT, count - 1);
+    }
+
+    /**
+     * Move the entries from position from on to the empty page right, which
+     * is of the same kind.
+     */
+    void moveEntries(int from, BTreePage right) {
+        beforeChange();
+        right.beforeChange();
+        int count = count();
+        System.arraycopy(data, entryOffset(from), right.data, ENTRIES, entryOffset(count) - entryOffset(from));
+        Arrays.fill(data, entryOffset(from), entryOffset(count), (byte) 0);
+        right.view.putInt(COUNT, count - from);
+        view.putInt(COUNT, from);
+    }
+
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    /** An unchanged page is its own before-image. */
+    public BTreePage getBeforeImage() {
+        try {
+            byte[] before = oldData;
+            return new BTreePage(pid, before != null ? before : getPageData(), keyType, keyLength);
+        } catch (IOException e) {
+            // we parsed it OK before
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Drop the before-image, so that the current content becomes the before-image. */
+    public void setBeforeImage() {
+        oldData = null;
+    }
+}
@@ -0,0 +1,121 @@
+package simpledb;
+
+import java.io.IOException;
+
+/**
+ * BackgroundWriter is a daemon thread that trickles dirty pages of the
+ * BufferPool to disk, so that threads missing the cache find clean frames
+ * to evict instead of having to write a page themselves.  Pages dirtied by
+ * transactions that are still running are left alone (NO STEAL).
+ * <p>
+ * Every round it writes up to a fixed number of dirty pages, in order of
+ * table and page number so that the writes to each file are mostly
+ * sequential.  When fewer than the target number of frames are clean, it
+ * writes as many pages as it takes to reach the target and starts the next
+ * round right away instead of sleeping.
+ * <p>
+ * The writer is never interrupted: an interrupt during a write closes the
+ * table's FileChannel and may tear the page.  {@link #shutdown} wakes it
+ * through a monitor instead and waits for the round in progress.  A round
+ * that fails leaves its pages dirty, to be written at commit, and the
+ * writer backs off, doubling its sleep up to {@link #MAX_BACKOFF} times the
+ * interval until a round succeeds again.
+ *
+ * @see BufferPool#writeDirtyPages
+ */
+class BackgroundWriter implements Runnable {
+
+    private final BufferPool pool;
+    private final long intervalMillis;
+    private final int pagesPerRound;
+    /** The most times the interval the writer sleeps after failed rounds. */
+    static final int MAX_BACKOFF = 64;
+
+    private final Thread thread;
+    /** guards the sleep between rounds, so shutdown can end it */
+    private final Object wakeup = new Object();
+    private volatile boolean running = true;
+    private volatile Exception failure;
+
+    /**
+     * @param pool the buffer pool to write pages of
+     * @param intervalMillis how long to sleep between rounds
+     * @param pagesPerRound the most pages written in a round while enough
+     *        frames are clean
+     */
+    BackgroundWriter(BufferPool pool, long intervalMillis, int pagesPerRound) {
+        if (intervalMillis <= 0 || pagesPerRound <= 0)
+            throw new IllegalArgumentException("interval and pages per round must be positive");
+        this.pool = pool;
+        this.intervalMillis = intervalMillis;
+        this.pagesPerRound = pagesPerRound;
+        thread = new Thread(this, "simpledb-bgwriter");
+        thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /** Stop the writer and wait for the round in progress to finish. */
+    void shutdown() {
+        synchronized (wakeup) {
+            running = false;
+            wakeup.notifyAll();
+        }
+        if (Thread.currentThread() != thread) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /** @return the error of the last round if it failed, or null */
+    Exception getFailure() {
+        return failure;
+    }
+
+    /**
+     * Write one round of pages on the calling thread.
+     *
+     * @return true if the round wrote pages but fewer than the target
+     *         number of frames were clean, so the next round should start
+     *         right away
+     */
+    boolean writeRound() throws IOException {
+        // keep a quarter of the pool clean, like the cold frames of the replacer
+        int target = Math.max(1, pool.getNumPages() / 4);
+        int missing = target - pool.cleanFrames();
+        return pool.writeDirtyPages(Math.max(pagesPerRound, missing)) > 0 && missing > 0;
+    }
+
+    public void run() {
+        int backoff = 1;
+        while (running) {
+            boolean behind = false;
+            try {
+                behind = writeRound();
+                failure = null;
+                backoff = 1;
+            } catch (IOException | RuntimeException e) {
+                // the page that failed is still dirty; commit writes it or reports the error
+                failure = e;
+                Debug.log("background writer failed: %s", e);
+                backoff = Math.min(MAX_BACKOFF, backoff * 2);
+            }
+            if (behind)
+                continue;
+            synchronized (wakeup) {
+                if (!running)
+                    break;
+                try {
+                    wakeup.wait(intervalMillis * backoff);
+                } catch (InterruptedException e) {
+                    // nobody but shutdown stops the writer
+                }
+            }
+        }
+    }
+}
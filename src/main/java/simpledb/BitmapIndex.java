@@ -0,0 +1,262 @@
+package simpledb;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * BitmapIndex maps every value of chosen fields of a HeapFile to the set
+ * of tuples that hold it, as a {@link RoaringBitmap} of their positions:
+ * the page number shifted left past the bits of the slot number.  It suits
+ * fields with few distinct values, where the sets of several predicates
+ * can be intersected and united before any page is read, see
+ * {@link BitmapScan}.  Positions are ints, so only the pages whose
+ * positions fit in one are indexed, see {@link #coveredPages}; scans read
+ * the pages after them in full.
+ * <p>
+ * A set may hold positions whose tuples no longer have the value, but
+ * never lacks one that does, so scans test their predicates again on the
+ * tuples they fetch.  Inserts add their positions in memory.  Whenever a
+ * page is written, the positions of the page are set from the bytes
+ * written, unless the page was changed again meanwhile, so deletes drop
+ * out once their page is written.
+ * <p>
+ * The index is written to the file next to the table when the table is
+ * closed, and marked open in the file, on disk, before it is changed.  An
+ * index that was not closed, e.g. because the database crashed, or was
+ * kept for other fields, is built again from the pages.
+ *
+ * @see HeapFile#setBitmapFields
+ */
+class BitmapIndex {
+
+    /** Suffix of the name of the file holding the index, after the table's file name. */
+    static final String SUFFIX = ".bitmap";
+
+    private static final int CLOSED = 0x5d8b17a1;
+    private static final int OPEN = 0;
+
+    private final File file;
+    private final int[] fields;
+    /** bits of a position that hold the slot number */
+    private final int slotBits;
+    /** the number of pages whose positions, and the position after them, fit in an int */
+    private final int maxPages;
+    /** the positions of each value of each field, by the field's index in fields */
+    private final List<Map<Field, RoaringBitmap>> values;
+
+    private BitmapIndex(File file, int[] fields, int pageSize) {
+        this.file = file;
+        this.fields = fields.clone();
+        // pages whose tuples vary in size hold a varying number of them,
+        // but never more than they have bytes
+        this.slotBits = 32 - Integer.numberOfLeadingZeros(pageSize - 1);
+        this.maxPages = (1 << (31 - slotBits)) - 1;
+        this.values = new ArrayList<Map<Field, RoaringBitmap>>(fields.length);
+        for (int i = 0; i < fields.length; i++)
+            values.add(new HashMap<Field, RoaringBitmap>());
+    }
+
+    /**
+     * Open the index of some fields of a HeapFile, reading it from its file
+     * if it was closed there, or else from the pages of the table.
+     *
+     * @param hf the file the index describes
+     * @param fields the fields to index
+     */
+    static BitmapIndex open(HeapFile hf, int[] fields) throws IOException {
+        BitmapIndex index = new BitmapIndex(new File(hf.getFile().getPath() + SUFFIX),
+                fields, hf.getPageSize());
+        synchronized (index) {
+            if (!index.read()) {
+                for (int i = 0; i < hf.numPages(); i++) {
+                    Page page = hf.readPage(new HeapPageId(hf.getId(), i));
+                    if (page instanceof TuplePage)
+                        index.write(i, (TuplePage) page, false);
+                }
+            }
+            // changes from now on are not in the file until it is closed
+            RandomAccessFile raf = new RandomAccessFile(index.file, "rw");
+            try {
+                if (raf.length() >= 4) {
+                    raf.writeInt(OPEN);
+                    raf.getFD().sync();
+                }
+            } finally {
+                raf.close();
+            }
+        }
+        return index;
+    }
+
+    /** @return true if the file held the closed index of the same fields */
+    private boolean read() throws IOException {
+        if (file.length() == 0)
+            return false;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != CLOSED || in.readInt() != slotBits || in.readInt() != fields.length)
+                return false;
+            for (int f : fields) {
+                if (in.readInt() != f)
+                    return false;
+            }
+            for (int i = 0; i < fields.length; i++) {
+                int n = in.readInt();
+                for (int k = 0; k < n; k++) {
+                    Field value = in.readBoolean()
+                            ? new IntField(in.readInt()) : key(new StringField(in.readUTF(), Integer.MAX_VALUE));
+                    values.get(i).put(value, RoaringBitmap.read(in));
+                }
+            }
+            return true;
+        } finally {
+            in.close();
+        }
+    }
+
+    /** @return the value a map is keyed on: strings as plain StringFields */
+    private static Field key(Field value) {
+        if (value instanceof StringField) {
+            String s = ((StringField) value).getValue();
+            return new StringField(s, Math.max(Type.STRING_LEN, s.length()));
+        }
+        return value;
+    }
+
+    /** @return the number of pages at the start of the table that are indexed */
+    int coveredPages() {
+        return maxPages;
+    }
+
+    /** @return the position of a slot of a page, which must be covered or the one after */
+    int position(int pgNo, int slot) {
+        return (pgNo << slotBits) | slot;
+    }
+
+    /** @return the page of a position */
+    int pageOf(int position) {
+        return position >>> slotBits;
+    }
+
+    private void add(int position, Tuple t) {
+        for (int i = 0; i < fields.length; i++) {
+            Field value = t.getField(fields[i]);
+            if (value == null)
+                continue;
+            RoaringBitmap set = values.get(i).get(value);
+            if (set == null) {
+                set = new RoaringBitmap();
+                values.get(i).put(key(value), set);
+            }
+            set.add(position);
+        }
+    }
+
+    /** Add a tuple inserted into a page in memory, with its RecordId set. */
+    synchronized void insert(Tuple t) {
+        RecordId rid = t.getRecordId();
+        if (rid.getPageId().pageNumber() >= maxPages)
+            return;
+        add(position(rid.getPageId().pageNumber(), rid.tupleno()), t);
+    }
+
+    /**
+     * Record the tuples of a page that was written to disk.
+     *
+     * @param page the page as it was written
+     * @param changed true if tuples may have been inserted into the page
+     *        since its bytes were taken, so that they may not be in them
+     */
+    synchronized void write(int pgNo, TuplePage page, boolean changed) {
+        if (pgNo >= maxPages)
+            return;
+        if (!changed) {
+            int from = position(pgNo, 0);
+            int to = position(pgNo + 1, 0);
+            for (Map<Field, RoaringBitmap> map : values) {
+                Iterator<RoaringBitmap> it = map.values().iterator();
+                while (it.hasNext()) {
+                    RoaringBitmap set = it.next();
+                    set.removeRange(from, to);
+                    if (set.isEmpty())
+                        it.remove();
+                }
+            }
+        }
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            add(position(pgNo, t.getRecordId().tupleno()), t);
+        }
+    }
+
+    /**
+     * @return a new set of the positions of the tuples that may pass a
+     *         predicate, the union of the sets of the values that pass it,
+     *         or null if the field of the predicate is not indexed
+     */
+    synchronized RoaringBitmap matching(Predicate p) {
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i] != p.getField())
+                continue;
+            RoaringBitmap result = new RoaringBitmap();
+            Field operand = p.getOperand();
+            for (Map.Entry<Field, RoaringBitmap> e : values.get(i).entrySet()) {
+                Field value = e.getKey();
+                if (value.getType() != operand.getType() && !(operand instanceof StringField
+                        && value instanceof StringField))
+                    return null;
+                if (value.compare(p.getOp(), operand))
+                    result = result.or(e.getValue());
+            }
+            return result;
+        }
+        return null;
+    }
+
+    /** Write the index to its file and mark it closed there. */
+    synchronized void close() throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(OPEN);
+            out.writeInt(slotBits);
+            out.writeInt(fields.length);
+            for (int f : fields)
+                out.writeInt(f);
+            for (Map<Field, RoaringBitmap> map : values) {
+                out.writeInt(map.size());
+                for (Map.Entry<Field, RoaringBitmap> e : map.entrySet()) {
+                    boolean isInt = e.getKey() instanceof IntField;
+                    out.writeBoolean(isInt);
+                    if (isInt)
+                        out.writeInt(((IntField) e.getKey()).getValue());
+                    else
+                        out.writeUTF(((StringField) e.getKey()).getValue());
+                    e.getValue().write(out);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        // the index is complete only once all of it is on disk
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.getFD().sync();
+            raf.writeInt(CLOSED);
+        } finally {
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * BitmapScan reads the tuples of a table stored in a HeapFile that pass a
+ * condition through the {@link BitmapIndex} of the table.  The condition is
+ * a conjunction of disjunctions of predicates: predicates handed down by
+ * the Filters above, like they are to a SeqScan, must each hold, and of
+ * each group given to {@link #addAnyOf} one must.  Before any page is
+ * read, the sets of tuples of the predicates on indexed fields are united
+ * within each group and intersected across groups, and only the pages
+ * with a tuple left in the result are read, in order, unless their zone
+ * map or Bloom filters rule them out, and tested against the whole
+ * condition.  Groups with a predicate on a field that is not indexed are
+ * only tested on the pages.
+ */
+public class BitmapScan extends SeqScan {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    /** groups of predicates, of which one of each must hold */
+    private final List<List<Predicate>> condition = new ArrayList<List<Predicate>>();
+    private DbFileIterator itr;
+
+    /**
+     * Creates a scan of the tuples of a table that pass the predicates
+     * added to it, all of them until some are added.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan, which must be stored in a HeapFile
+     * @param tableAlias
+     *            the alias of the table, as for {@link SeqScan}
+     */
+    public BitmapScan(TransactionId tid, int tableid, String tableAlias) {
+        super(tid, tableid, tableAlias);
+        this.tid = tid;
+    }
+
+    /**
+     * Only return the tuples that pass a predicate from now on.  Takes
+     * effect the next time the scan is opened or rewound.
+     *
+     * @return true, as the scan applies every predicate
+     */
+    public boolean addPredicate(Predicate p) {
+        List<Predicate> group = Collections.singletonList(p);
+        if (!condition.contains(group))
+            condition.add(group);
+        return true;
+    }
+
+    /**
+     * Only return the tuples that pass at least one of some predicates from
+     * now on.  Takes effect the next time the scan is opened or rewound.
+     *
+     * @param predicates predicates over the fields of the scanned table
+     * @throws IllegalArgumentException if there are none
+     */
+    public void addAnyOf(List<Predicate> predicates) {
+        if (predicates.isEmpty())
+            throw new IllegalArgumentException("no predicates to pass");
+        condition.add(new ArrayList<Predicate>(predicates));
+    }
+
+    /**
+     * @return the set of the positions of the tuples that may pass the
+     *         condition, or null if the index cannot narrow them
+     */
+    private RoaringBitmap positions(BitmapIndex index) {
+        RoaringBitmap result = null;
+        for (List<Predicate> group : condition) {
+            RoaringBitmap any = new RoaringBitmap();
+            for (Predicate p : group) {
+                RoaringBitmap matching = index.matching(p);
+                if (matching == null) {
+                    any = null;
+                    break;
+                }
+                any = any.or(matching);
+            }
+            if (any != null)
+                result = result == null ? any : result.and(any);
+        }
+        return result;
+    }
+
+    /** @return the numbers of the pages that may hold tuples passing the condition, in order */
+    List<Integer> pages() throws DbException {
+        HeapFile file = heapFile();
+        BitmapIndex index;
+        try {
+            index = file.bitmapIndex();
+        } catch (IOException e) {
+            throw new DbException("could not open the bitmap index: " + e.getMessage());
+        }
+        RoaringBitmap positions = index == null ? null : positions(index);
+        List<Integer> pages = new ArrayList<Integer>();
+        if (positions == null) {
+            for (int i = 0; i < file.numPages(); i++)
+                pages.add(i);
+            return pages;
+        }
+        for (int pos = positions.next(0); pos >= 0; ) {
+            int pgNo = index.pageOf(pos);
+            pages.add(pgNo);
+            pos = positions.next(index.position(pgNo + 1, 0));
+        }
+        // the index has no positions for the pages after the ones it covers
+        for (int i = index.coveredPages(); i < file.numPages(); i++)
+            pages.add(i);
+        return pages;
+    }
+
+    private HeapFile heapFile() throws DbException {
+        DbFile file = Database.getCatalog().getDbFile(getTableId());
+        if (!(file instanceof HeapFile))
+            throw new DbException("a bitmap scan reads only tables stored in HeapFiles");
+        return (HeapFile) file;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        itr = new BitmapIterator(heapFile(), pages());
+        itr.open();
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        return itr.hasNext();
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        return itr.next();
+    }
+
+    public void close() {
+        if (itr != null)
+            itr.close();
+        itr = null;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        close();
+        open();
+    }
+
+    /**
+     * Reads the given pages of the file in order, reading the next ones
+     * ahead into the buffer pool as it goes, and returns their tuples that
+     * pass the condition.
+     */
+    private class BitmapIterator extends AbstractDbFileIterator {
+        private static final long serialVersionUID = 1L;
+
+        private final HeapFile file;
+        private final List<Integer> pages;
+        /** the groups of a single predicate, which the pages test themselves */
+        private final List<Predicate> required = new ArrayList<Predicate>();
+        private int next;
+        private int readAheadTo;
+        private Iterator<Tuple> tuples;
+
+        BitmapIterator(HeapFile file, List<Integer> pages) {
+            this.file = file;
+            this.pages = pages;
+            for (List<Predicate> group : condition) {
+                if (group.size() == 1)
+                    required.add(group.get(0));
+            }
+        }
+
+        public void open() {
+            next = 0;
+            readAheadTo = 0;
+            tuples = null;
+        }
+
+        public void rewind() {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            tuples = null;
+            next = pages.size();
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            while (true) {
+                while (tuples != null && tuples.hasNext()) {
+                    Tuple t = tuples.next();
+                    if (passes(t))
+                        return t;
+                }
+                if (next >= pages.size())
+                    return null;
+                readAhead();
+                int pgNo = pages.get(next++);
+                if (!file.mayPass(pgNo, required))
+                    continue;
+                PageId pid = new HeapPageId(file.getId(), pgNo);
+                TuplePage page = (TuplePage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+                tuples = file.pageIterator(page, required, null);
+            }
+        }
+
+        /** Request the next window of pages once half of the last one is read. */
+        private void readAhead() {
+            BufferPool pool = Database.getBufferPool();
+            int window = file.isMemoryMapped() ? 0 : pool.getReadAheadPages();
+            if (window <= 0 || readAheadTo - next > window / 2)
+                return;
+            int from = Math.max(readAheadTo, next + 1);
+            int to = Math.min(pages.size(), from + window);
+            if (from >= to)
+                return;
+            List<PageId> pids = new ArrayList<PageId>(to - from);
+            for (int i = from; i < to; i++)
+                pids.add(new HeapPageId(file.getId(), pages.get(i)));
+            pool.prefetch(file, pids);
+            readAheadTo = to;
+        }
+
+        private boolean passes(Tuple t) {
+            for (List<Predicate> group : condition) {
+                if (group.size() == 1)
+                    continue;
+                boolean any = false;
+                for (Predicate p : group) {
+                    if (p.filter(t)) {
+                        any = true;
+                        break;
+                    }
+                }
+                if (!any)
+                    return false;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * BloomFilterMap keeps a Bloom filter of the values of chosen fields of a
+ * HeapFile for every group of {@link #GROUP_PAGES} consecutive pages, so
+ * that a scan for a value that is equal to an operand can skip the groups
+ * that cannot hold it without reading their pages.  Unlike a
+ * {@link ZoneMap}, the filters serve fields whose values are not ordered
+ * on the pages.
+ * <p>
+ * A filter may hold values its pages do not, but never lacks one they do.
+ * Inserts add their values in memory, deletes leave the filters alone,
+ * and before a page is written the values on it are added and its group
+ * is written to the file next to the table, so the file holds at least the
+ * values of the pages on disk.  Recovery writes pages through the HeapFile
+ * and so keeps the file in step too.
+ * <p>
+ * The file starts with a header naming the fields and the size of the
+ * filters.  If it does not match the fields asked for, it is built again
+ * from the pages.
+ *
+ * @see HeapFile
+ * @see HeapFileEncoder
+ */
+class BloomFilterMap {
+
+    /** Suffix of the name of the file holding the filters, after the table's file name. */
+    static final String SUFFIX = ".bloom";
+
+    /** The number of consecutive pages one filter covers. */
+    static final int GROUP_PAGES = 8;
+
+    /** Bits of a filter per tuple a group can hold, for about 1% false positives. */
+    static final int BITS_PER_TUPLE = 10;
+
+    /** The number of bits a value sets in a filter. */
+    static final int HASHES = 7;
+
+    private final int[] fields;
+    private final Type[] types;
+    /** longs per filter */
+    private final int words;
+    private final int headerBytes;
+    private final RandomAccessFile raf;
+    /** the filters of group g, one after another in the order of the fields */
+    private long[][] groups = new long[0][];
+    private int size;
+
+    /**
+     * @param fields the fields to keep filters of
+     * @param types the types of the fields
+     * @param slotsPerPage the number of tuples a page holds, which sizes the filters
+     */
+    private BloomFilterMap(File file, int[] fields, Type[] types, int slotsPerPage) throws IOException {
+        this.fields = fields.clone();
+        this.types = types.clone();
+        this.words = Math.max(1, (slotsPerPage * GROUP_PAGES * BITS_PER_TUPLE + 63) / 64);
+        this.headerBytes = 12 + 4 * fields.length;
+        this.raf = new RandomAccessFile(file, "rw");
+    }
+
+    /**
+     * Create empty filters for a table being written from scratch,
+     * replacing any file there is.
+     *
+     * @param tableFile the file of the table
+     */
+    static BloomFilterMap create(File tableFile, int[] fields, Type[] types, int slotsPerPage)
+            throws IOException {
+        BloomFilterMap map = new BloomFilterMap(new File(tableFile.getPath() + SUFFIX),
+                fields, types, slotsPerPage);
+        map.raf.setLength(0);
+        map.raf.write(map.header());
+        return map;
+    }
+
+    /**
+     * Open the filters of some fields of a HeapFile.  Groups the stored
+     * filters do not cover, e.g. because the file is new or was kept for
+     * other fields, are filled in from the pages of the table.
+     *
+     * @param hf the file the filters describe
+     * @param fields the fields to keep filters of
+     */
+    static BloomFilterMap open(HeapFile hf, int[] fields) throws IOException {
+        Type[] types = new Type[fields.length];
+        for (int i = 0; i < fields.length; i++)
+            types[i] = hf.getTupleDesc().getFieldType(fields[i]);
+        BloomFilterMap map = new BloomFilterMap(new File(hf.getFile().getPath() + SUFFIX),
+                fields, types, hf.slotsPerPage());
+        int pages = hf.numPages();
+        int groupBytes = map.fields.length * map.words * 8;
+        synchronized (map) {
+            byte[] header = map.header();
+            byte[] stored = new byte[header.length];
+            int groups = 0;
+            if (map.raf.length() >= header.length) {
+                map.raf.readFully(stored);
+                if (Arrays.equals(header, stored))
+                    groups = (int) ((map.raf.length() - header.length) / groupBytes);
+            }
+            if (groups == 0) {
+                map.raf.setLength(0);
+                map.raf.write(header);
+            }
+            groups = Math.min(groups, (pages + GROUP_PAGES - 1) / GROUP_PAGES);
+            byte[] bytes = new byte[groups * groupBytes];
+            map.raf.readFully(bytes);
+            ByteBuffer view = ByteBuffer.wrap(bytes);
+            for (int g = 0; g < groups; g++) {
+                map.grow(g);
+                view.asLongBuffer().get(map.groups[g]);
+                view.position(view.position() + groupBytes);
+            }
+            for (int i = groups * GROUP_PAGES; i < pages; i++) {
+                Page page = hf.readPage(new HeapPageId(hf.getId(), i));
+                if (page instanceof TuplePage)
+                    map.write(i, (TuplePage) page);
+            }
+        }
+        return map;
+    }
+
+    private byte[] header() {
+        ByteBuffer header = ByteBuffer.allocate(headerBytes);
+        header.putInt(GROUP_PAGES).putInt(words).putInt(fields.length);
+        for (int f : fields)
+            header.putInt(f);
+        return header.array();
+    }
+
+    /** @return a 64 bit hash of the value of a field, alike for fields that are equal */
+    static long hash(Field f) {
+        long h;
+        if (f instanceof IntField) {
+            h = ((IntField) f).getValue();
+        } else {
+            // FNV-1a over the chars, as String.hashCode is only 32 bits
+            String s = ((StringField) f).getValue();
+            h = 0xcbf29ce484222325L;
+            for (int i = 0; i < s.length(); i++)
+                h = (h ^ s.charAt(i)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /** Make room for group g, whose filters start out empty. */
+    private void grow(int g) {
+        if (g < size)
+            return;
+        if (g >= groups.length)
+            groups = Arrays.copyOf(groups, Math.max(g + 1, groups.length * 2));
+        for (int i = size; i <= g; i++)
+            groups[i] = new long[fields.length * words];
+        size = g + 1;
+    }
+
+    /**
+     * Set or test the bits of a hash in the filter of field i of a group.
+     *
+     * @return true if all the bits were set before
+     */
+    private boolean probe(long[] group, int i, long h, boolean set) {
+        int bits = words * 64;
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32);
+        for (int k = 0; k < HASHES; k++) {
+            int bit = ((h1 + k * h2) & Integer.MAX_VALUE) % bits;
+            int word = i * words + (bit >>> 6);
+            long mask = 1L << bit;
+            if (!set && (group[word] & mask) == 0)
+                return false;
+            group[word] |= mask;
+        }
+        return true;
+    }
+
+    /** Add the value of field i of the filters to the filter of the group of a page. */
+    synchronized void add(int pgNo, int i, Field value) {
+        grow(pgNo / GROUP_PAGES);
+        probe(groups[pgNo / GROUP_PAGES], i, hash(value), true);
+    }
+
+    /** Add the values of a tuple inserted into a page in memory. */
+    synchronized void add(int pgNo, Tuple t) {
+        for (int i = 0; i < fields.length; i++) {
+            Field value = t.getField(fields[i]);
+            if (value != null)
+                add(pgNo, i, value);
+        }
+    }
+
+    /**
+     * Add the values of a page that is about to be written to disk, and
+     * write the filters of its group.
+     *
+     * @param page the page as it is going to be written
+     */
+    synchronized void write(int pgNo, TuplePage page) throws IOException {
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext())
+            add(pgNo, it.next());
+        grow(pgNo / GROUP_PAGES);
+        writeGroup(pgNo / GROUP_PAGES);
+    }
+
+    private void writeGroup(int g) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(fields.length * words * 8);
+        bytes.asLongBuffer().put(groups[g]);
+        raf.seek(headerBytes + (long) g * bytes.capacity());
+        raf.write(bytes.array());
+    }
+
+    /** Write the filters of every group. */
+    synchronized void flush() throws IOException {
+        for (int g = 0; g < size; g++)
+            writeGroup(g);
+    }
+
+    /**
+     * @return false if the filters show that no tuple of the group of a
+     *         page equals the operand of an EQUALS predicate, true if some
+     *         may or the group has no filters
+     */
+    synchronized boolean mayPass(int pgNo, List<Predicate> predicates) {
+        int g = pgNo / GROUP_PAGES;
+        if (g >= size)
+            return true;
+        for (Predicate p : predicates) {
+            if (p.getOp() != Predicate.Op.EQUALS)
+                continue;
+            for (int i = 0; i < fields.length; i++) {
+                if (fields[i] != p.getField())
+                    continue;
+                Field operand = p.getOperand();
+                boolean typed = types[i] == Type.INT_TYPE
+                        ? operand instanceof IntField : operand instanceof StringField;
+                if (typed && !probe(groups[g], i, hash(operand), false))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    synchronized void close() throws IOException {
+        raf.close();
+    }
+}
@@ -0,0 +1,117 @@
+package simpledb;
+
+/**
+ * BufferAccessStrategy gives an operator that touches many pages only once
+ * a small private ring of buffer pool frames.  Each page the operator reads
+ * into the pool takes the next slot of the ring, and the frame of the page
+ * that last held that slot is recycled for it, so a scan of a large table
+ * replaces its own pages over and over instead of the pages other queries
+ * keep using.
+ * <p>
+ * A frame is only recycled if no one else referenced its page since it was
+ * read.  Slots whose page cannot be recycled are skipped; if no slot can
+ * be, the page that held the next slot is left to the shared pool, and room
+ * is made the usual way.  Rings for writing jobs also recycle dirty frames
+ * by writing them out, once no running transaction holds their page.
+ *
+ * @see BufferPool#getPage(TransactionId, PageId, Permissions, BufferAccessStrategy)
+ */
+public class BufferAccessStrategy {
+
+    /** The kinds of jobs that get a ring, with the size of their ring in pages. */
+    public enum Type {
+        /** large sequential scans */
+        BULK_READ(32, false),
+        /** bulk loads, e.g. Insert into a large table */
+        BULK_WRITE(64, true);
+
+        final int ringPages;
+        final boolean writesDirty;
+
+        Type(int ringPages, boolean writesDirty) {
+            this.ringPages = ringPages;
+            this.writesDirty = writesDirty;
+        }
+    }
+
+    private final Type type;
+    private final PageId[] ring;
+    private int current = -1;
+
+    /**
+     * Create a strategy with a ring of the default size for the type, capped
+     * at a quarter of the buffer pool.
+     */
+    public BufferAccessStrategy(Type type) {
+        this(type, Math.max(1, Math.min(type.ringPages, Database.getBufferPool().getNumPages() / 4)));
+    }
+
+    /**
+     * @param type the kind of job the strategy is for
+     * @param ringPages the number of frames in the ring
+     */
+    public BufferAccessStrategy(Type type, int ringPages) {
+        if (ringPages <= 0)
+            throw new IllegalArgumentException("ring must have at least one frame");
+        this.type = type;
+        this.ring = new PageId[ringPages];
+    }
+
+    /**
+     * Choose the strategy for a job over a table: a ring if the table does
+     * not fit in the buffer pool, or null to use the shared pool as usual,
+     * so that tables that fit stay cached from one scan to the next.  The
+     * size of the table is taken from its {@link TableStats} if they were
+     * computed, and from the file otherwise.
+     *
+     * @param tableId the table the job reads or writes
+     * @param type the kind of job
+     */
+    public static BufferAccessStrategy forTable(int tableId, Type type) {
+        int poolPages = Database.getBufferPool().getNumPages();
+        return tablePages(tableId) > poolPages ? new BufferAccessStrategy(type) : null;
+    }
+
+    private static int tablePages(int tableId) {
+        TableStats stats = null;
+        try {
+            stats = TableStats.getTableStats(Database.getCatalog().getTableName(tableId));
+        } catch (RuntimeException e) {
+            // the table is not in the catalog by name, use the file
+        }
+        if (stats != null)
+            return stats.numPages();
+        DbFile file = Database.getCatalog().getDbFile(tableId);
+        return file instanceof HeapFile ? ((HeapFile) file).numPages() : 0;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /** @return the number of frames in the ring */
+    public int size() {
+        return ring.length;
+    }
+
+    /** @return true if dirty frames of the ring are written out to be recycled */
+    boolean writesDirty() {
+        return type.writesDirty;
+    }
+
+    /** @return the page holding the next slot, or null if the slot is free */
+    PageId peek() {
+        return ring[(current + 1) % ring.length];
+    }
+
+    /** Move on to the next slot, leaving its page in it. */
+    void skip() {
+        current = (current + 1) % ring.length;
+    }
+
+    /** Give the next slot to a page that is being read. */
+    void advance(PageId pid) {
+        skip();
+        ring[current] = pid;
+    }
+}
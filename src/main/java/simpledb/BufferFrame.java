@@ -0,0 +1,118 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * BufferFrame is a slot of the BufferPool holding one resident page.
+ * <p>
+ * A frame is published in the page table before its page has been read,
+ * so that concurrent requests for the same page wait on the single reader
+ * instead of issuing a second read.  The pin count keeps the frame from
+ * being chosen for eviction while a caller is still using the page.
+ *
+ * @see BufferPool
+ * @see ClockReplacer
+ */
+class BufferFrame {
+
+    final PageId pid;
+    /** the bytes of page data this frame accounts for in the pool */
+    final int bytes;
+    /** true while the bytes are counted against the pool's budget */
+    boolean accounted;
+
+    /** the off-heap buffer holding the page's bytes, guarded by this frame */
+    ByteBuffer buffer;
+
+    private volatile Page page;
+    private boolean done;
+    private DbException failure;
+
+    private final AtomicInteger pinCount = new AtomicInteger();
+
+    /** set on every hit, cleared by the clock hand */
+    volatile boolean referenced;
+    /** true if the page is read ahead rather than for a caller */
+    volatile boolean prefetched;
+    /** set once a page read ahead was asked for */
+    volatile boolean used;
+    /** set once a ring kept the page read ahead instead of recycling it */
+    volatile boolean spared;
+
+    // replacement state, guarded by the ClockReplacer
+    boolean hot;
+    boolean resident;
+    BufferFrame next;
+    BufferFrame prev;
+
+    BufferFrame(PageId pid, int bytes) {
+        this.pid = pid;
+        this.bytes = bytes;
+    }
+
+    /** Publish the page read from disk and wake up any waiting readers. */
+    synchronized void loaded(Page page) {
+        this.page = page;
+        done = true;
+        notifyAll();
+    }
+
+    /** Record that the read failed and wake up any waiting readers. */
+    synchronized void failed(DbException e) {
+        failure = e;
+        done = true;
+        notifyAll();
+    }
+
+    /**
+     * Return the page held by this frame, blocking while another thread is
+     * still reading it from disk.
+     *
+     * @throws DbException if the read of the page failed
+     */
+    Page awaitPage() throws DbException {
+        Page p = page;
+        if (p != null)
+            return p;
+        synchronized (this) {
+            while (!done) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new DbException("interrupted while waiting for page " + pid.pageNumber());
+                }
+            }
+            if (failure != null)
+                throw failure;
+            return page;
+        }
+    }
+
+    /** @return the page of this frame, or null if it is still being read */
+    Page getPage() {
+        return page;
+    }
+
+    /** Replace the cached page, e.g. after a DbFile handed back a new copy. */
+    void setPage(Page page) {
+        this.page = page;
+    }
+
+    void pin() {
+        pinCount.incrementAndGet();
+    }
+
+    void unpin() {
+        int c = pinCount.decrementAndGet();
+        if (c < 0) {
+            pinCount.incrementAndGet();
+            throw new IllegalStateException("page " + pid.pageNumber() + " is not pinned");
+        }
+    }
+
+    boolean isPinned() {
+        return pinCount.get() > 0;
+    }
+}
@@ -1,11 +1,22 @@
 package simpledb;
 
 import java.io.*;
-import java.sql.Timestamp;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -14,20 +25,100 @@ import java.util.Map;
  * <p>
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
- * locks to read/write the page.
+ * locks to read/write the page.  Locks are managed by a {@link LockManager}
+ * and held until the transaction completes.  Pages dirtied by a running
+ * transaction are written out when the transaction commits (FORCE).
+ * <p>
+ * Every page write is preceded by an UPDATE record in the {@link LogFile}
+ * (write-ahead logging).  The log cannot undo changes yet, so pages a
+ * running transaction dirtied are never written to make room (NO STEAL):
+ * eviction, the rings of a {@link BufferAccessStrategy} and the
+ * {@link BackgroundWriter}, started with {@link #startBackgroundWriter},
+ * only write dirty pages no running transaction holds, and so do
+ * checkpoints, with {@link #flushForCheckpoint}.  Only
+ * {@link #flushAllPages} writes every dirty page; the first before-image
+ * of each page written for a running transaction is kept until the
+ * transaction completes, and written back if it aborts.
+ * <p>
+ * The page table is a ConcurrentHashMap, so lookups of resident pages from
+ * many threads do not contend on a global monitor.  Replacement is done by
+ * a {@link ClockReplacer}, and frames can be pinned with {@link #pinPage}
+ * to keep them resident while they are in use.
+ * <p>
+ * The size of the pool is a memory budget in bytes.  It can be changed
+ * while the database is running with {@link #resize} or
+ * {@link #setMemoryBudget}, and single tables can be given a quota with
+ * {@link #setTableQuota} so that scanning them cannot push the pages of
+ * all other tables out of the pool.  Tables may use pages of different
+ * sizes (see {@link Catalog#getPageSize}); each frame counts the bytes of
+ * its own page against the budget, so small and large pages share the pool.
+ * <p>
+ * Scans can ask for pages to be read ahead with {@link #prefetch}; the
+ * reads are done by a small pool of I/O threads shared by all buffer pools.
+ * Jobs that touch many pages once, like scans of large tables and bulk
+ * inserts, pass a {@link BufferAccessStrategy} so that they recycle a small
+ * ring of frames instead of evicting the pages of everybody else.
  */
 public class BufferPool {
-    /** Bytes per page, including header. */
+    /** Bytes per page, including header, of tables that do not choose a page size. */
     public static final int PAGE_SIZE = 4096;
 
+    /** Smallest page size a table may choose. */
+    public static final int MIN_PAGE_SIZE = 1024;
+    /** Largest page size a table may choose. */
+    public static final int MAX_PAGE_SIZE = 256 * 1024;
+
     /** Default number of pages passed to the constructor. This is used by
     other classes. BufferPool should use the numPages argument to the
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
-    private int numPages;
-    private Map<PageId,Page> pages;
-    private Map<PageId,Timestamp> timeStamp;
-    private Date date = new Date();
+
+    /** System property giving the size of the buffer pool in bytes, e.g. 64m */
+    public static final String BUDGET_BYTES_PROPERTY = "simpledb.bufferpool.bytes";
+    /** System property giving the size of the buffer pool as a fraction of the heap */
+    public static final String BUDGET_HEAP_FRACTION_PROPERTY = "simpledb.bufferpool.heapFraction";
+    /** System property that starts the background writer with the given sleep time in milliseconds */
+    public static final String WRITER_INTERVAL_PROPERTY = "simpledb.bgwriter.intervalMillis";
+    /** System property giving the number of pages the background writer writes per round */
+    public static final String WRITER_PAGES_PROPERTY = "simpledb.bgwriter.pagesPerRound";
+
+    /** Default number of pages the background writer writes per round. */
+    public static final int DEFAULT_WRITER_PAGES = 64;
+
+    /** System property giving the number of pages scans read ahead, 0 to disable read-ahead */
+    public static final String READ_AHEAD_PROPERTY = "simpledb.readahead.pages";
+    /** System property giving the number of threads doing read-ahead */
+    public static final String IO_THREADS_PROPERTY = "simpledb.io.threads";
+
+    /** Default number of pages scans read ahead. */
+    public static final int DEFAULT_READ_AHEAD_PAGES = 16;
+
+    /** System property that keeps cached pages on the heap when set to false */
+    public static final String OFF_HEAP_PROPERTY = "simpledb.bufferpool.offHeap";
+
+    private static ExecutorService ioExecutor;
+
+    private volatile long maxBytes;
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final ConcurrentHashMap<PageId, BufferFrame> frames;
+    private final ClockReplacer replacer;
+    private final LockManager lockManager = new LockManager();
+    private final ConcurrentHashMap<Integer, Integer> tableQuotas = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, AtomicInteger> tableResident = new ConcurrentHashMap<>();
+    /** before-images of the pages written while their transaction was still running */
+    private final ConcurrentHashMap<TransactionId, Map<PageId, Page>> stolen = new ConcurrentHashMap<>();
+    /** guarded by its own lock, the writer takes the pool's monitor to write pages */
+    private final Object writerLock = new Object();
+    private BackgroundWriter writer;
+    private volatile int readAheadPages = DEFAULT_READ_AHEAD_PAGES;
+    /** frames claimed by read-ahead whose pages have not been read yet */
+    private final AtomicInteger readingAhead = new AtomicInteger();
+    private final ConcurrentHashMap<TransactionId, BufferAccessStrategy> strategies = new ConcurrentHashMap<>();
+    /** true to keep the bytes of cached pages in off-heap frames */
+    private final boolean offHeap;
+    /** off-heap frames for the bytes of cached pages, one arena per page size */
+    private final ConcurrentHashMap<Integer, PageArena> arenas = new ConcurrentHashMap<>();
+
     /**
      * Creates a BufferPool that caches up to numPages pages.
      *
@@ -35,10 +126,220 @@ public class BufferPool {
      */
     public BufferPool(int numPages) {
         // some code goes here
-        this.numPages = numPages;
-        pages  = new HashMap<>();
-        timeStamp  = new HashMap<>();
+        this.maxBytes = (long) numPages * PAGE_SIZE;
+        frames = new ConcurrentHashMap<>(numPages * 2);
+        replacer = new ClockReplacer(numPages);
+        offHeap = Boolean.parseBoolean(System.getProperty(OFF_HEAP_PROPERTY, "true"));
+    }
+
+    /**
+     * Check that a table may use pages of the given size: a power of two
+     * from {@link #MIN_PAGE_SIZE} to {@link #MAX_PAGE_SIZE}.
+     *
+     * @return the page size
+     * @throws IllegalArgumentException if the size is not allowed
+     */
+    public static int checkPageSize(int pageSize) {
+        if (pageSize < MIN_PAGE_SIZE || pageSize > MAX_PAGE_SIZE || Integer.bitCount(pageSize) != 1)
+            throw new IllegalArgumentException("page size must be a power of two from "
+                    + MIN_PAGE_SIZE + " to " + MAX_PAGE_SIZE + ": " + pageSize);
+        return pageSize;
+    }
+
+    /** Make an empty frame for a page, sized by the page size of its table. */
+    private static BufferFrame newFrame(PageId pid) {
+        return new BufferFrame(pid, Database.getCatalog().getPageSize(pid.getTableId()));
+    }
+
+    /**
+     * Size the pool from the {@link #BUDGET_BYTES_PROPERTY} or
+     * {@link #BUDGET_HEAP_FRACTION_PROPERTY} entry of the given properties,
+     * if either is set, and start the background writer if
+     * {@link #WRITER_INTERVAL_PROPERTY} is set.  The read-ahead window is
+     * taken from {@link #READ_AHEAD_PROPERTY}.
+     *
+     * @throws IllegalArgumentException if a value cannot be parsed
+     */
+    public void configure(Properties props) throws DbException {
+        String bytes = props.getProperty(BUDGET_BYTES_PROPERTY);
+        String fraction = props.getProperty(BUDGET_HEAP_FRACTION_PROPERTY);
+        if (bytes != null)
+            setMemoryBudget(parseBytes(bytes.trim()));
+        else if (fraction != null)
+            setHeapFraction(Double.parseDouble(fraction.trim()));
+
+        String readAhead = props.getProperty(READ_AHEAD_PROPERTY);
+        if (readAhead != null)
+            setReadAheadPages(Integer.parseInt(readAhead.trim()));
+
+        String interval = props.getProperty(WRITER_INTERVAL_PROPERTY);
+        if (interval != null) {
+            String pages = props.getProperty(WRITER_PAGES_PROPERTY);
+            startBackgroundWriter(Long.parseLong(interval.trim()),
+                    pages == null ? DEFAULT_WRITER_PAGES : Integer.parseInt(pages.trim()));
+        }
+    }
+
+    /**
+     * Start a background thread that writes dirty pages to disk, replacing
+     * the one that is running, if any.
+     *
+     * @param intervalMillis how long the writer sleeps between rounds
+     * @param pagesPerRound the most pages it writes per round while enough
+     *        frames are clean
+     */
+    public void startBackgroundWriter(long intervalMillis, int pagesPerRound) {
+        synchronized (writerLock) {
+            stopBackgroundWriter();
+            writer = new BackgroundWriter(this, intervalMillis, pagesPerRound);
+            writer.start();
+        }
+    }
+
+    /** Stop the background writer, if it is running. */
+    public void stopBackgroundWriter() {
+        synchronized (writerLock) {
+            if (writer != null) {
+                writer.shutdown();
+                writer = null;
+            }
+        }
+    }
+
+    /**
+     * @return the error that made the last round of the background writer
+     *         fail, or null if it succeeded or the writer is not running
+     */
+    public Exception getBackgroundWriterFailure() {
+        synchronized (writerLock) {
+            return writer == null ? null : writer.getFailure();
+        }
+    }
+
+    /** Parse a byte count with an optional k, m or g suffix. */
+    static long parseBytes(String s) {
+        long unit = 1;
+        char last = Character.toLowerCase(s.charAt(s.length() - 1));
+        if (last == 'k')
+            unit = 1L << 10;
+        else if (last == 'm')
+            unit = 1L << 20;
+        else if (last == 'g')
+            unit = 1L << 30;
+        if (unit != 1)
+            s = s.substring(0, s.length() - 1);
+        return Long.parseLong(s.trim()) * unit;
+    }
+
+    /**
+     * Change the number of pages this buffer pool caches.  When the pool
+     * shrinks, pages are evicted right away until it fits.
+     *
+     * @param numPages the new maximum number of pages
+     * @throws DbException if the pool cannot shrink because pages are pinned
+     */
+    public void resize(int numPages) throws DbException {
+        setMemoryBudget((long) numPages * PAGE_SIZE);
+    }
 
+    /**
+     * Change the number of bytes of page data this buffer pool caches.
+     * When the pool shrinks, pages are evicted right away until it fits.
+     *
+     * @param bytes the new memory budget, at least one page
+     * @throws DbException if the pool cannot shrink because pages are pinned
+     */
+    public void setMemoryBudget(long bytes) throws DbException {
+        if (bytes < PAGE_SIZE)
+            throw new IllegalArgumentException("buffer pool must hold at least one page");
+        maxBytes = bytes;
+        replacer.setCapacity(getNumPages());
+        while (usedBytes.get() > maxBytes)
+            evictPage(null);
+    }
+
+    /**
+     * Size the pool as a fraction of the maximum heap size of the JVM.
+     *
+     * @param fraction a value in (0, 1]
+     */
+    public void setHeapFraction(double fraction) throws DbException {
+        if (fraction <= 0 || fraction > 1)
+            throw new IllegalArgumentException("heap fraction must be in (0, 1]: " + fraction);
+        setMemoryBudget((long) (Runtime.getRuntime().maxMemory() * fraction));
+    }
+
+    /** @return the memory budget of this pool, in bytes */
+    public long getMemoryBudget() {
+        return maxBytes;
+    }
+
+    /** @return the bytes of page data currently held by this pool */
+    public long getResidentBytes() {
+        return usedBytes.get();
+    }
+
+    /** @return the maximum number of pages this pool caches */
+    public int getNumPages() {
+        return (int) Math.min(Integer.MAX_VALUE, maxBytes / PAGE_SIZE);
+    }
+
+    /**
+     * Set how many pages sequential scans read ahead.  The window is capped
+     * at a quarter of the pool, so pages read ahead are not evicted again
+     * before the scan gets to them.
+     *
+     * @param pages the number of pages, or 0 to disable read-ahead
+     */
+    public void setReadAheadPages(int pages) {
+        if (pages < 0)
+            throw new IllegalArgumentException("read-ahead window must not be negative: " + pages);
+        readAheadPages = pages;
+    }
+
+    /** @return the number of pages sequential scans should read ahead */
+    public int getReadAheadPages() {
+        return Math.min(readAheadPages, getNumPages() / 4);
+    }
+
+    /**
+     * Limit the number of pages of one table that may be resident at the
+     * same time.  Once a table reaches its quota, reading another of its
+     * pages evicts one of its own pages instead of a page of another table.
+     *
+     * @param tableId the table to limit
+     * @param maxPages the quota, or 0 to remove the quota of the table
+     */
+    public void setTableQuota(int tableId, int maxPages) throws DbException {
+        if (maxPages <= 0) {
+            tableQuotas.remove(tableId);
+            return;
+        }
+        tableQuotas.put(tableId, maxPages);
+        while (residentCount(tableId).get() > maxPages)
+            evictPage(tableId);
+    }
+
+    /** @return the quota of the table in pages, or 0 if it has none */
+    public int getTableQuota(int tableId) {
+        Integer quota = tableQuotas.get(tableId);
+        return quota == null ? 0 : quota;
+    }
+
+    /** @return true if the page is resident in this pool */
+    boolean isCached(PageId pid) {
+        return frames.containsKey(pid);
+    }
+
+    private AtomicInteger residentCount(int tableId) {
+        AtomicInteger count = tableResident.get(tableId);
+        if (count == null) {
+            AtomicInteger fresh = new AtomicInteger();
+            count = tableResident.putIfAbsent(tableId, fresh);
+            if (count == null)
+                count = fresh;
+        }
+        return count;
     }
 
     /**
@@ -59,22 +360,363 @@ public class BufferPool {
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
         // some code goes here
-        Page page = pages.get(pid);
-         if (page == null){
+        BufferAccessStrategy strategy = null;
+        if (tid != null && !strategies.isEmpty())
+            strategy = strategies.get(tid);
+        return getPage(tid, pid, perm, strategy);
+    }
+
+    /**
+     * Retrieve the specified page like {@link #getPage(TransactionId, PageId, Permissions)},
+     * reading it into a frame of the strategy's ring if it is not resident.
+     *
+     * @param strategy the ring to read the page into, or null to use the
+     *        shared pool
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferAccessStrategy strategy)
+        throws TransactionAbortedException, DbException {
+        if (tid != null)
+            lockManager.acquire(tid, pid, perm == Permissions.READ_WRITE);
+        for (int attempt = 0; ; attempt++) {
+            BufferFrame frame = frames.get(pid);
+            if (frame == null) {
+                BufferFrame fresh = newFrame(pid);
+                frame = frames.putIfAbsent(pid, fresh);
+                if (frame == null)
+                    return load(fresh, strategy);
+            }
+            // the first use of a page read ahead counts as its miss, not as a hit
+            if (frame.prefetched && !frame.used)
+                frame.used = true;
+            else
+                frame.referenced = true;
+            try {
+                return frame.awaitPage();
+            } catch (DbException e) {
+                // a failed read-ahead, whose frame is dropped already, is
+                // retried once by the scan that needs the page
+                if (!frame.prefetched || attempt > 0)
+                    throw e;
+            }
+        }
+    }
+
+    /**
+     * Use a strategy for the pages a transaction reads with
+     * {@link #getPage(TransactionId, PageId, Permissions)}, including those
+     * read by DbFiles on its behalf, e.g. while inserting tuples.
+     *
+     * @param strategy the strategy, or null to go back to the shared pool
+     */
+    public void setAccessStrategy(TransactionId tid, BufferAccessStrategy strategy) {
+        if (strategy == null)
+            strategies.remove(tid);
+        else
+            strategies.put(tid, strategy);
+    }
+
+    /**
+     * Retrieve the specified page like {@link #getPage} and pin it, so that
+     * it is not evicted until it is released with {@link #unpinPage}.
+     */
+    public Page pinPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        while (true) {
+            getPage(tid, pid, perm);
+            BufferFrame frame = frames.get(pid);
+            // fails if the frame was chosen for eviction in the meantime
+            if (frame != null && replacer.pin(frame))
+                return frame.awaitPage();
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Release a pin taken by {@link #pinPage}.
+     *
+     * @param pid the ID of the page to unpin
+     */
+    public void unpinPage(PageId pid) {
+        BufferFrame frame = frames.get(pid);
+        if (frame != null)
+            frame.unpin();
+    }
+
+    /**
+     * Start reading pages of a file into the pool in the background.  Pages
+     * that are already resident are skipped, and runs of consecutive pages
+     * of a HeapFile are read with a single read.  No locks are taken; the
+     * scan locks each page when it gets it with {@link #getPage}.
+     *
+     * @param file the file the pages belong to
+     * @param pids the pages to read, in order of page number
+     */
+    public void prefetch(DbFile file, List<PageId> pids) {
+        prefetch(file, pids, null);
+    }
+
+    /**
+     * Start reading pages in the background like {@link #prefetch(DbFile, List)},
+     * into the frames of the strategy's ring.
+     */
+    public void prefetch(final DbFile file, final List<PageId> pids, final BufferAccessStrategy strategy) {
+        ioExecutor().execute(new Runnable() {
+            public void run() {
+                readAhead(file, pids, strategy);
+            }
+        });
+    }
+
+    private static synchronized ExecutorService ioExecutor() {
+        if (ioExecutor == null) {
+            int threads = Integer.getInteger(IO_THREADS_PROPERTY, 4);
+            ioExecutor = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "simpledb-io");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return ioExecutor;
+    }
+
+    private void readAhead(DbFile file, List<PageId> pids, BufferAccessStrategy strategy) {
+        ArrayList<BufferFrame> claimed = new ArrayList<BufferFrame>();
+        for (PageId pid : pids) {
+            // frames being read cannot be evicted, so leave most of the pool
+            // to the pages that are asked for right now
+            if (readingAhead.get() >= Math.max(1, getNumPages() / 4))
+                break;
+            BufferFrame fresh = newFrame(pid);
+            fresh.prefetched = true;
+            if (frames.putIfAbsent(pid, fresh) != null)
+                continue;
+            readingAhead.incrementAndGet();
+            claimed.add(fresh);
+            try {
+                makeRoom(fresh, strategy);
+            } catch (DbException e) {
+                // the pool is full of pinned pages, read no further ahead
+                claimed.remove(claimed.size() - 1);
+                readingAhead.decrementAndGet();
+                drop(fresh);
+                fresh.failed(e);
+                break;
+            }
+        }
 
-             if (pages.size() == DEFAULT_PAGES) {
-                 evictPage();
-             }
-             DbFile dbFile = Database.getCatalog().getDbFile(pid.getTableId());
-             page = dbFile.readPage(pid);
-             pages.put(pid, page);
+        int i = 0;
+        while (i < claimed.size()) {
+            int j = i + 1;
+            while (j < claimed.size()
+                    && claimed.get(j).pid.pageNumber() == claimed.get(j - 1).pid.pageNumber() + 1)
+                j++;
+            List<Page> pages = null;
+            try {
+                if (file instanceof HeapFile)
+                    pages = ((HeapFile) file).readPages(claimed.get(i).pid.pageNumber(), j - i);
+            } catch (IOException e) {
+                // fall back to reading the pages one by one
+            }
+            for (int k = i; k < j; k++) {
+                BufferFrame frame = claimed.get(k);
+                Page page;
+                try {
+                    page = pages != null ? (k - i < pages.size() ? pages.get(k - i) : null)
+                            : file.readPage(frame.pid);
+                } catch (RuntimeException e) {
+                    page = null;
+                }
+                if (page == null) {
+                    drop(frame);
+                    frame.failed(new DbException("page " + frame.pid.pageNumber() + " could not be read ahead"));
+                } else {
+                    attach(frame, page);
+                    frame.loaded(page);
+                    replacer.admit(frame);
+                }
+                readingAhead.decrementAndGet();
+            }
+            i = j;
+        }
+    }
+
+    /**
+     * Read the page of a frame that was just published in the page table,
+     * making room for it first.  Only the thread that published the frame
+     * calls this; other threads asking for the same page wait on the frame.
+     */
+    private Page load(BufferFrame frame, BufferAccessStrategy strategy) throws DbException {
+        try {
+            makeRoom(frame, strategy);
+            DbFile file = Database.getCatalog().getDbFile(frame.pid.getTableId());
+            Page page = file.readPage(frame.pid);
+            if (page == null)
+                throw new DbException("page " + frame.pid.pageNumber() + " of table "
+                        + frame.pid.getTableId() + " could not be read");
+            attach(frame, page);
+            frame.loaded(page);
+            replacer.admit(frame);
+            return page;
+        } catch (DbException e) {
+            drop(frame);
+            frame.failed(e);
+            throw e;
+        } catch (RuntimeException e) {
+            drop(frame);
+            frame.failed(new DbException(e.toString()));
+            throw e;
+        }
+    }
+
+    /**
+     * Account for a frame that was just published in the page table and
+     * evict pages until the pool, and the quota of the frame's table, have
+     * room for it again.  With a strategy, the frame of the page that held
+     * the ring slot before is recycled first.
+     */
+    private void makeRoom(BufferFrame frame, BufferAccessStrategy strategy) throws DbException {
+        int tableId = frame.pid.getTableId();
+        usedBytes.addAndGet(frame.bytes);
+        AtomicInteger resident = residentCount(tableId);
+        resident.incrementAndGet();
+        frame.accounted = true;
+
+        if (strategy != null) {
+            // the ring is shared by a scan and the reads ahead for it
+            synchronized (strategy) {
+                boolean recycled = false;
+                for (int i = 0; i < strategy.size() && !recycled; i++) {
+                    PageId previous = strategy.peek();
+                    recycled = previous == null || recycle(previous, strategy);
+                    if (!recycled)
+                        strategy.skip();
+                }
+                strategy.advance(frame.pid);
+            }
+        }
+
+        Integer quota = tableQuotas.get(tableId);
+        if (quota != null) {
+            while (resident.get() > quota)
+                evictPage(tableId);
+        }
+        // a page larger than the whole budget may still be read, on its own
+        while (usedBytes.get() > maxBytes && usedBytes.get() > frame.bytes)
+            evictPage(null);
+    }
+
+    /**
+     * Drop the frame of a page that held a slot of a ring, unless someone
+     * else has used the page since it was read.
+     *
+     * @return true if the page is no longer resident
+     */
+    private boolean recycle(PageId pid, BufferAccessStrategy strategy) throws DbException {
+        BufferFrame frame = frames.get(pid);
+        if (frame == null)
+            return true;
+        Page page = frame.getPage();
+        if (page == null || frame.referenced || frame.isPinned())
+            return false;
+        // a page read ahead is kept until the scan gets to it, but for one
+        // turn of the ring only: a read ahead that ran late may have read a
+        // page the scan had passed already, and would hold its slot for good
+        if (frame.prefetched && !frame.used && !frame.spared) {
+            frame.spared = true;
+            return false;
+        }
+        if (page.isDirty() != null) {
+            if (!strategy.writesDirty())
+                return false;
+            try {
+                if (!flushPage(pid, false))
+                    return false;
+            } catch (IOException e) {
+                throw new DbException("could not write page " + pid.pageNumber()
+                        + " of the ring: " + e.getMessage());
+            }
+        }
+        if (!replacer.recycle(frame))
+            return false;
+        drop(frame);
+        return true;
+    }
+
+    /** Remove a frame from the page table and release the memory it accounts for. */
+    private void drop(BufferFrame frame) {
+        if (frames.remove(frame.pid, frame)) {
+            replacer.remove(frame);
+            if (frame.accounted) {
+                frame.accounted = false;
+                usedBytes.addAndGet(-frame.bytes);
+                residentCount(frame.pid.getTableId()).decrementAndGet();
+            }
+        }
+        detach(frame);
+    }
 
+    /**
+     * Move the bytes of a page that is being cached in a frame into an
+     * off-heap buffer of the arena.  Pages other than HeapPages, and all
+     * pages once direct memory runs out, stay on the heap; pages of mapped
+     * files stay in the mapping.
+     */
+    private void attach(BufferFrame frame, Page page) {
+        if (!offHeap || !(page instanceof HeapPage) || ((HeapPage) page).isMapped())
+            return;
+        synchronized (frame) {
+            if (frame.buffer != null)
+                return;
+            ByteBuffer buffer = arena(((HeapPage) page).getPageSize()).allocate();
+            if (buffer == null)
+                return;
+            ((HeapPage) page).moveTo(buffer);
+            frame.buffer = buffer;
         }
+        // the frame may have been dropped while the page was being read
+        if (frames.get(frame.pid) != frame)
+            detach(frame);
+    }
 
-        timeStamp.put(pid, new Timestamp(date.getTime()));
-        return page;
+    /**
+     * Move the page of a frame that leaves the pool back onto the heap, so
+     * that callers still holding it keep a valid page, and give its off-heap
+     * buffer back to the arena.
+     */
+    private void detach(BufferFrame frame) {
+        ByteBuffer buffer;
+        synchronized (frame) {
+            buffer = frame.buffer;
+            if (buffer == null)
+                return;
+            frame.buffer = null;
+            Page page = frame.getPage();
+            if (page instanceof HeapPage)
+                ((HeapPage) page).moveToHeap();
+        }
+        arena(buffer.capacity()).release(buffer);
+    }
 
+    /** @return the arena handing out frames of the given page size */
+    private PageArena arena(int pageSize) {
+        PageArena arena = arenas.get(pageSize);
+        if (arena == null) {
+            PageArena fresh = new PageArena(pageSize);
+            arena = arenas.putIfAbsent(pageSize, fresh);
+            if (arena == null)
+                arena = fresh;
+        }
+        return arena;
+    }
 
+    /** @return the bytes of direct memory allocated for cached pages */
+    public long getOffHeapBytes() {
+        long bytes = 0;
+        for (PageArena arena : arenas.values())
+            bytes += arena.getAllocatedBytes();
+        return bytes;
     }
 
     /**
@@ -89,6 +731,8 @@ public class BufferPool {
     public  void releasePage(TransactionId tid, PageId pid) {
         // some code goes here
         // not necessary for proj1
+        if (tid != null)
+            lockManager.release(tid, pid);
     }
 
     /**
@@ -99,13 +743,14 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for proj1
+        transactionComplete(tid, true);
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId p) {
         // some code goes here
         // not necessary for proj1
-        return false;
+        return tid != null && lockManager.holdsLock(tid, p);
     }
 
     /**
@@ -119,6 +764,37 @@ public class BufferPool {
         throws IOException {
         // some code goes here
         // not necessary for proj1
+        try {
+            if (commit) {
+                flushPages(tid);
+                for (PageId pid : lockManager.exclusivePages(tid)) {
+                    BufferFrame frame = frames.get(pid);
+                    Page page = frame == null ? null : frame.getPage();
+                    if (page != null)
+                        page.setBeforeImage();
+                }
+                stolen.remove(tid);
+            } else {
+                // dirty pages of tid never reached the disk and are dropped;
+                // pages that were written ahead get their before-image back
+                Map<PageId, Page> written = stolen.remove(tid);
+                // restore the disk first, so a page read ahead meanwhile is dropped too
+                if (written != null) {
+                    for (Page before : written.values())
+                        Database.getCatalog().getDbFile(before.getId().getTableId()).writePage(before);
+                }
+                for (PageId pid : lockManager.exclusivePages(tid)) {
+                    BufferFrame frame = frames.get(pid);
+                    Page page = frame == null ? null : frame.getPage();
+                    if (page != null && ((page.isDirty() != null && page.isDirty().equals(tid))
+                            || (written != null && written.containsKey(pid))))
+                        drop(frame);
+                }
+            }
+        } finally {
+            strategies.remove(tid);
+            lockManager.releaseAll(tid);
+        }
     }
 
     /**
@@ -130,6 +806,7 @@ public class BufferPool {
      * Marks any pages that were dirtied by the operation as dirty by calling
      * their markDirty bit, and updates cached versions of any pages that have 
      * been dirtied so that future requests see up-to-date pages. 
+     * The indexes of the table get an entry for the tuple as well.
      *
      * @param tid the transaction adding the tuple
      * @param tableId the table to add the tuple to
@@ -143,11 +820,85 @@ public class BufferPool {
         ArrayList<Page> list = file.insertTuple(tid, t);
         for (Page page : list) {
             page.markDirty(true,tid);
-            if (pages.containsKey(page.getId())) {
-                pages.put(page.getId(),page);
-            }
+            cachePage(page);
+        }
+        insertIndexEntries(tid, tableId, t);
+    }
 
+    /**
+     * Lock every page of a table exclusively for a transaction, without
+     * reading the pages, so that no other transaction reads or changes the
+     * tuples of the table until it completes.
+     */
+    void lockTable(TransactionId tid, HeapFile table) throws TransactionAbortedException {
+        for (int pgNo = 0; pgNo < table.numPages(); pgNo++)
+            lockManager.acquire(tid, new HeapPageId(table.getId(), pgNo), true);
+    }
 
+    /**
+     * Make pages a transaction appends to a table, bypassing the cache,
+     * undoable: lock each page exclusively for the transaction, log it with
+     * an empty page as its before-image, and keep that image to be written
+     * back if the transaction aborts.  Called before the pages are written.
+     *
+     * @param pages the pages about to be appended
+     */
+    void logAppend(TransactionId tid, HeapFile table, List<Page> pages)
+        throws IOException, TransactionAbortedException {
+        LogFile log = Database.getLogFile();
+        for (Page page : pages) {
+            lockManager.acquire(tid, page.getId(), true);
+            Page empty = table.createPage((HeapPageId) page.getId(), new byte[table.getPageSize()]);
+            log.logWrite(tid, empty, page);
+            rememberBeforeImage(tid, page, empty);
+        }
+        log.force();
+    }
+
+    /**
+     * Add a tuple that is already stored in a table to the indexes of the
+     * table, on behalf of the specified transaction.
+     *
+     * @param tid the transaction adding the entries
+     * @param tableId the table the tuple is stored in
+     * @param t the tuple, with its RecordId set
+     */
+    public void insertIndexEntries(TransactionId tid, int tableId, Tuple t)
+        throws DbException, IOException, TransactionAbortedException {
+        for (IndexFile index : Database.getCatalog().getIndexes(tableId)) {
+            for (Page page : index.insertTuple(tid, t)) {
+                page.markDirty(true, tid);
+                cachePage(page);
+            }
+        }
+    }
+
+    /**
+     * Make sure the pool holds the given version of a page that was dirtied
+     * by a DbFile, adding it to the pool if it is not resident.
+     */
+    private void cachePage(Page page) throws DbException {
+        PageId pid = page.getId();
+        BufferFrame frame = frames.get(pid);
+        if (frame != null) {
+            if (frame.getPage() != page) {
+                detach(frame);
+                frame.setPage(page);
+                attach(frame, page);
+            }
+            return;
+        }
+        BufferFrame fresh = newFrame(pid);
+        if (frames.putIfAbsent(pid, fresh) != null) {
+            cachePage(page);
+            return;
+        }
+        try {
+            makeRoom(fresh, null);
+        } finally {
+            attach(fresh, page);
+            fresh.loaded(page);
+            replacer.admit(fresh);
         }
     }
 
@@ -171,9 +922,109 @@ public class BufferPool {
         throws DbException, TransactionAbortedException {
         // some code goes here
         // not necessary for proj1
-        DbFile file = Database.getCatalog().getDbFile(t.getRecordId().getPageId().getTableId());
+        int tableId = t.getRecordId().getPageId().getTableId();
+        // the indexes may need to read the key from the tuple's page
+        for (IndexFile index : Database.getCatalog().getIndexes(tableId)) {
+            Page page = index.deleteTuple(tid, t);
+            page.markDirty(true, tid);
+            cachePage(page);
+        }
+        DbFile file = Database.getCatalog().getDbFile(tableId);
         Page page = file.deleteTuple(tid, t);
         page.markDirty(true,tid);
+        cachePage(page);
+    }
+
+    /**
+     * Add tuples to the specified table on behalf of transaction tid, like
+     * {@link #insertTuple} does one at a time.  A table stored in a HeapFile
+     * takes them a page at a time, so each page it fills is locked, dirtied
+     * and logged once, see {@link HeapFile#insertTuples}.  The tuples are
+     * taken from the iterator as many at a time as fill
+     * {@link HeapFile#APPEND_PAGES} pages, so any number of them can be
+     * added in bounded memory.
+     *
+     * @param tid the transaction adding the tuples
+     * @param tableId the table to add the tuples to
+     * @param tuples the tuples to add
+     * @return the number of tuples added
+     */
+    public int insertTuples(TransactionId tid, int tableId, Iterator<Tuple> tuples)
+        throws DbException, IOException, TransactionAbortedException {
+        DbFile file = Database.getCatalog().getDbFile(tableId);
+        if (!(file instanceof HeapFile)) {
+            int n = 0;
+            while (tuples.hasNext()) {
+                insertTuple(tid, tableId, tuples.next());
+                n++;
+            }
+            return n;
+        }
+        HeapFile table = (HeapFile) file;
+        int batchSize = HeapFile.APPEND_PAGES * Math.max(1, table.slotsPerPage());
+        List<Tuple> batch = new ArrayList<Tuple>();
+        int n = 0;
+        while (tuples.hasNext()) {
+            batch.clear();
+            while (batch.size() < batchSize && tuples.hasNext())
+                batch.add(tuples.next());
+            for (Page page : table.insertTuples(tid, batch)) {
+                page.markDirty(true, tid);
+                cachePage(page);
+            }
+            for (Tuple t : batch)
+                insertIndexEntries(tid, tableId, t);
+            n += batch.size();
+        }
+        return n;
+    }
+
+    /**
+     * Remove tuples from their tables on behalf of transaction tid, like
+     * {@link #deleteTuple} does one at a time.  Tables stored in HeapFiles
+     * give them up a page at a time, so each page is locked, dirtied and
+     * logged once, see {@link HeapFile#deleteTuples}.
+     *
+     * @param tid the transaction deleting the tuples
+     * @param tuples the tuples to delete, of any tables
+     * @return the number of tuples deleted
+     */
+    public int deleteTuples(TransactionId tid, Iterator<Tuple> tuples)
+        throws DbException, TransactionAbortedException {
+        Map<Integer, List<Tuple>> byTable = new LinkedHashMap<Integer, List<Tuple>>();
+        int n = 0;
+        while (tuples.hasNext()) {
+            Tuple t = tuples.next();
+            int tableId = t.getRecordId().getPageId().getTableId();
+            List<Tuple> list = byTable.get(tableId);
+            if (list == null) {
+                list = new ArrayList<Tuple>();
+                byTable.put(tableId, list);
+            }
+            list.add(t);
+            n++;
+        }
+        for (Map.Entry<Integer, List<Tuple>> e : byTable.entrySet()) {
+            DbFile file = Database.getCatalog().getDbFile(e.getKey());
+            if (!(file instanceof HeapFile)) {
+                for (Tuple t : e.getValue())
+                    deleteTuple(tid, t);
+                continue;
+            }
+            // the indexes may need to read the keys from the tuples' pages
+            for (IndexFile index : Database.getCatalog().getIndexes(e.getKey())) {
+                for (Tuple t : e.getValue()) {
+                    Page page = index.deleteTuple(tid, t);
+                    page.markDirty(true, tid);
+                    cachePage(page);
+                }
+            }
+            for (Page page : ((HeapFile) file).deleteTuples(tid, e.getValue())) {
+                page.markDirty(true, tid);
+                cachePage(page);
+            }
+        }
+        return n;
     }
 
     /**
@@ -184,8 +1035,8 @@ public class BufferPool {
     public synchronized void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for proj1
-        for (PageId pid : pages.keySet()) {
-            flushPage(pid);
+        for (PageId pid : frames.keySet()) {
+            flushPage(pid, true);
         }
 
     }
@@ -198,54 +1049,197 @@ public class BufferPool {
     public synchronized void discardPage(PageId pid) {
         // some code goes here
 	// not necessary for proj1
+        BufferFrame frame = frames.get(pid);
+        if (frame != null)
+            drop(frame);
     }
 
     /**
      * Flushes a certain page to disk
      * @param pid an ID indicating the page to flush
+     * @param steal whether to write the page if the transaction that dirtied
+     *        it is still running
+     * @return true if the page was written
      */
-    private synchronized  void flushPage(PageId pid) throws IOException {
+    private synchronized  boolean flushPage(PageId pid, boolean steal) throws IOException {
         // some code goes here
         // not necessary for proj1
-        Page page = pages.get(pid);
-        if (page.isDirty() != null) {
-            int tableId = pid.getTableId();
-            DbFile file = Database.getCatalog().getDbFile(tableId);
-            file.writePage(page);
-
+        BufferFrame frame = frames.get(pid);
+        Page page = frame == null ? null : frame.getPage();
+        if (page == null)
+            return false;
+        // DbFiles change pages and mark them dirty while holding the page's monitor
+        synchronized (page) {
+            TransactionId dirtier = page.isDirty();
+            if (dirtier == null || (!steal && lockManager.holdsLock(dirtier, pid)))
+                return false;
+            Page before = page.getBeforeImage();
+            LogFile log = Database.getLogFile();
+            log.logWrite(dirtier, before, page);
+            log.force();
+            writeLogged(dirtier, page, before);
+            return true;
         }
+    }
 
+    /**
+     * Write a dirty page whose UPDATE record is already on disk, and remember
+     * its before-image in case the transaction aborts.
+     */
+    private void writeLogged(TransactionId dirtier, Page page, Page before) throws IOException {
+        rememberBeforeImage(dirtier, page, before);
+        Database.getCatalog().getDbFile(page.getId().getTableId()).writePage(page);
+        page.markDirty(false, null);
+    }
 
+    /** Keep the first before-image of a page written while its transaction runs. */
+    private void rememberBeforeImage(TransactionId dirtier, Page page, Page before) {
+        Map<PageId, Page> written = stolen.get(dirtier);
+        if (written == null) {
+            Map<PageId, Page> fresh = Collections.synchronizedMap(new HashMap<PageId, Page>());
+            written = stolen.putIfAbsent(dirtier, fresh);
+            if (written == null)
+                written = fresh;
+        }
+        synchronized (written) {
+            if (!written.containsKey(page.getId()))
+                written.put(page.getId(), before);
+        }
     }
 
     /** Write all pages of the specified transaction to disk.
+     * Consecutive pages of a HeapFile are written together with one
+     * gathering write.
      */
     public synchronized  void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for proj1
+        // a transaction can only have dirtied pages it holds exclusive locks on,
+        // and does not change them while it commits, so the log is forced once
+        Map<Integer, List<Page>> dirty = new HashMap<Integer, List<Page>>();
+        LogFile log = Database.getLogFile();
+        for (PageId pid : lockManager.exclusivePages(tid)) {
+            BufferFrame frame = frames.get(pid);
+            Page page = frame == null ? null : frame.getPage();
+            if (page != null && page.isDirty() != null && page.isDirty().equals(tid)) {
+                log.logWrite(tid, page.getBeforeImage(), page);
+                List<Page> pages = dirty.get(pid.getTableId());
+                if (pages == null) {
+                    pages = new ArrayList<Page>();
+                    dirty.put(pid.getTableId(), pages);
+                }
+                pages.add(page);
+            }
+        }
+        if (dirty.isEmpty())
+            return;
+        log.force();
+        for (Map.Entry<Integer, List<Page>> e : dirty.entrySet()) {
+            DbFile file = Database.getCatalog().getDbFile(e.getKey());
+            if (!(file instanceof HeapFile)) {
+                for (Page page : e.getValue()) {
+                    synchronized (page) {
+                        writeLogged(tid, page, page.getBeforeImage());
+                    }
+                }
+                continue;
+            }
+            for (Page page : e.getValue())
+                rememberBeforeImage(tid, page, page.getBeforeImage());
+            ((HeapFile) file).writePages(e.getValue());
+            for (Page page : e.getValue())
+                page.markDirty(false, null);
+        }
     }
 
     /**
-     * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Write up to maxPages dirty pages that no running transaction holds to
+     * disk, in order of table and page number.  Used by the
+     * {@link BackgroundWriter} and by checkpoints.
+     *
+     * @return the number of pages written
      */
-    private synchronized  void evictPage() throws DbException {
+    int writeDirtyPages(int maxPages) throws IOException {
+        ArrayList<PageId> dirty = new ArrayList<PageId>();
+        for (BufferFrame frame : frames.values()) {
+            Page page = frame.getPage();
+            TransactionId dirtier = page == null ? null : page.isDirty();
+            if (dirtier != null && !lockManager.holdsLock(dirtier, frame.pid))
+                dirty.add(frame.pid);
+        }
+        Collections.sort(dirty, new Comparator<PageId>() {
+            public int compare(PageId a, PageId b) {
+                if (a.getTableId() != b.getTableId())
+                    return a.getTableId() < b.getTableId() ? -1 : 1;
+                return Integer.compare(a.pageNumber(), b.pageNumber());
+            }
+        });
+        int n = 0;
+        for (int i = 0; i < dirty.size() && n < maxPages; i++) {
+            if (flushPage(dirty.get(i), false))
+                n++;
+        }
+        return n;
+    }
+
+    /**
+     * Write the dirty pages no running transaction holds for a checkpoint,
+     * one at a time as the {@link BackgroundWriter} does, so transactions
+     * keep running while they are written.  The pages of running transactions are never on
+     * disk (NO STEAL), so the checkpoint does not need them.
+     *
+     * @see LogFile#logCheckpoint
+     */
+    public void flushForCheckpoint() throws IOException {
+        writeDirtyPages(Integer.MAX_VALUE);
+    }
+
+    /** @return the number of frames that are free or hold a clean, unpinned page */
+    int cleanFrames() {
+        int clean = Math.max(0, getNumPages() - frames.size());
+        for (BufferFrame frame : frames.values()) {
+            Page page = frame.getPage();
+            if (page != null && page.isDirty() == null && !frame.isPinned())
+                clean++;
+        }
+        return clean;
+    }
+
+    /**
+     * Discards a page from the buffer pool.  Clean pages are preferred; only
+     * when none is left is a dirty page that no running transaction holds
+     * written out, through the log, to make room.
+     *
+     * @param tableId if not null, only a page of this table is evicted
+     */
+    private void evictPage(Integer tableId) throws DbException {
         // some code goes here
         // not necessary for proj1
-        Map.Entry<PageId, Timestamp> LRUPage = timeStamp.entrySet().iterator().next();
-        for (Map.Entry<PageId,Timestamp> ts : timeStamp.entrySet()) {
-            if (LRUPage.getValue().after(ts.getValue()))
-                LRUPage = ts;
-        }
-        try {
-            flushPage(LRUPage.getKey());
-        } catch (IOException e) {
-            e.printStackTrace();
+        BufferFrame victim = replacer.victim(tableId);
+        if (victim == null) {
+            for (BufferFrame frame : frames.values()) {
+                Page page = frame.getPage();
+                if (page == null || page.isDirty() == null || frame.isPinned()
+                        || (tableId != null && frame.pid.getTableId() != tableId))
+                    continue;
+                try {
+                    if (!flushPage(frame.pid, false))
+                        continue;
+                } catch (IOException e) {
+                    throw new DbException("could not write page " + frame.pid.pageNumber()
+                            + " to make room: " + e.getMessage());
+                }
+                victim = replacer.victim(tableId);
+                if (victim != null)
+                    break;
+            }
         }
-        pages.remove(LRUPage.getKey());
-        timeStamp.remove(LRUPage.getKey());
+        if (victim == null)
+            throw new DbException("all pages in the buffer pool are pinned or dirty");
+        drop(victim);
     }
 
+    /** @return the default page size, see {@link Catalog#getPageSize} for the size of a table's pages */
     public static int getPageSize() {
         return PAGE_SIZE;
     }
@@ -0,0 +1,572 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * BulkLoader turns delimited text into pages of a HeapFile, in the format
+ * of {@link HeapPage}, using every core.  The input is read in blocks of
+ * whole lines, {@link #BLOCK_BYTES} at a time; the blocks are parsed into
+ * records by a pool of threads; and the records are laid out on full
+ * pages, in input order, and written {@link #WRITE_PAGES} pages at a time.
+ * At most two blocks per thread are in flight, so any amount of input is
+ * loaded in bounded memory.
+ * <p>
+ * Each line of the input holds the fields of one tuple, separated by the
+ * separator character: an int as a decimal number, and a string as its
+ * bytes, of which the first {@link Type#STRING_LEN} are kept, or the first
+ * n for a VARCHAR(n) field.  Spaces
+ * around a field, carriage returns and blank lines are ignored, and lines
+ * with the wrong number of fields or an int that does not parse are
+ * skipped and counted, see {@link #getSkippedLines}.
+ *
+ * @see HeapFileEncoder
+ */
+public class BulkLoader {
+
+    /** Bytes of input parsed by one task. */
+    static final int BLOCK_BYTES = 1 << 22;
+
+    /** Pages written by one write. */
+    static final int WRITE_PAGES = 256;
+
+    private final Type[] types;
+    /** the most characters kept of each string field */
+    private final int[] lengths;
+    private final byte separator;
+    private final int pageSize;
+    private final int recordBytes;
+    private final int slotsPerPage;
+    private final int headerBytes;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int[] bloomFields = new int[0];
+    /** the lines the last load or append skipped */
+    private volatile long skipped;
+
+    /**
+     * @param types the types of the fields of a line, INT_TYPE or STRING_TYPE
+     * @param separator the character between the fields of a line
+     * @param pageSize the number of bytes per page of the table
+     * @throws IllegalArgumentException if a type is not supported or the
+     *         page size is not allowed
+     */
+    public BulkLoader(Type[] types, char separator, int pageSize) {
+        this(types, defaultLengths(types.length), separator, pageSize);
+    }
+
+    /**
+     * @param types the types of the fields of a line, INT_TYPE,
+     *        STRING_TYPE or VARCHAR_TYPE
+     * @param lengths the declared length of each field, the n of
+     *        VARCHAR(n); ignored for the other types
+     * @param separator the character between the fields of a line
+     * @param pageSize the number of bytes per page of the table
+     * @throws IllegalArgumentException if a type is not supported or the
+     *         page size is not allowed
+     */
+    public BulkLoader(Type[] types, int[] lengths, char separator, int pageSize) {
+        int bytes = 0;
+        this.lengths = new int[types.length];
+        for (int i = 0; i < types.length; i++) {
+            Type t = types[i];
+            if (t != Type.INT_TYPE && t != Type.STRING_TYPE && t != Type.VARCHAR_TYPE)
+                throw new IllegalArgumentException("cannot load fields of type " + t);
+            this.lengths[i] = t == Type.VARCHAR_TYPE ? lengths[i] : Type.STRING_LEN;
+            bytes += t.getLen(this.lengths[i]);
+        }
+        if (separator > 0x7f)
+            throw new IllegalArgumentException("the separator must be an ASCII character");
+        this.types = types.clone();
+        this.separator = (byte) separator;
+        this.pageSize = BufferPool.checkPageSize(pageSize);
+        this.recordBytes = bytes;
+        this.slotsPerPage = (pageSize * 8) / (recordBytes * 8 + 1);
+        this.headerBytes = (slotsPerPage + 7) / 8;
+    }
+
+    private static int[] defaultLengths(int n) {
+        int[] lengths = new int[n];
+        Arrays.fill(lengths, Type.STRING_LEN);
+        return lengths;
+    }
+
+    /** Parse with this many threads, the number of cores by default. */
+    public void setThreads(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("need at least one thread");
+        this.threads = threads;
+    }
+
+    /** @return the number of malformed lines the last load or append skipped */
+    public long getSkippedLines() {
+        return skipped;
+    }
+
+    /**
+     * Build the Bloom filters of some fields next to the table files
+     * {@link #load} writes, see {@link BloomFilterMap}.
+     */
+    public void setBloomFields(int... fields) {
+        bloomFields = fields.clone();
+    }
+
+    /**
+     * Write a new table file holding the tuples of a text file, replacing
+     * any file there is.  An empty input gives a file of one empty page.
+     *
+     * @return the number of tuples loaded
+     */
+    public long load(File inFile, File outFile) throws IOException {
+        deleteSidecars(outFile);
+        FileSink sink = new FileSink(outFile);
+        InputStream in = new FileInputStream(inFile);
+        try {
+            long rows = run(in, sink);
+            sink.finish(rows == 0);
+            return rows;
+        } finally {
+            in.close();
+            sink.close();
+        }
+    }
+
+    /**
+     * Write a new table file holding rows of ints, replacing any file there
+     * is.  The rows are laid out directly, without text in between.
+     *
+     * @param rows the rows, each with as many ints as this loader has fields
+     * @return the number of tuples loaded
+     */
+    public long load(List<? extends List<Integer>> rows, File outFile) throws IOException {
+        for (Type t : types) {
+            if (t != Type.INT_TYPE)
+                throw new IllegalArgumentException("rows of ints need fields of INT_TYPE");
+        }
+        deleteSidecars(outFile);
+        FileSink sink = new FileSink(outFile);
+        try {
+            ByteBuffer records = ByteBuffer.allocate(Math.max(1, rows.size()) * recordBytes);
+            for (List<Integer> row : rows) {
+                if (row.size() != types.length)
+                    throw new RuntimeException("Tuple has " + row.size() + " fields, not "
+                            + types.length + ": (" + Utility.listToString(new ArrayList<Integer>(row)) + ")");
+                for (int v : row)
+                    records.putInt(v);
+            }
+            sink.add(records.array(), rows.size());
+            sink.finish(rows.isEmpty());
+            return rows.size();
+        } finally {
+            sink.close();
+        }
+    }
+
+    /**
+     * Append the tuples of a text file to a table, on new pages added after
+     * its last page, and add them to the indexes of the table as part of a
+     * transaction.  The transaction first locks every page of the table
+     * exclusively.  The new pages are locked and logged as they are
+     * appended, with empty pages as their before-images, so they are
+     * emptied again if the transaction aborts.
+     *
+     * @param table a table of HeapPages, with the fields of this loader
+     * @return the number of tuples appended
+     * @throws DbException if the table's pages are not laid out like the loader's
+     */
+    public long append(File inFile, HeapFile table, TransactionId tid)
+            throws IOException, DbException, TransactionAbortedException {
+        TupleDesc td = table.getTupleDesc();
+        boolean matches = td.numFields() == types.length && table.getPageSize() == pageSize
+                && table.createPage(new HeapPageId(table.getId(), 0), new byte[pageSize]) instanceof HeapPage;
+        for (int i = 0; matches && i < types.length; i++)
+            matches = td.getFieldType(i) == types[i] && td.getDictionary(i) == null
+                    && td.getFieldSize(i) == types[i].getLen(lengths[i]);
+        if (!matches)
+            throw new DbException("the table does not store tuples the way the loader lays them out");
+        BufferPool pool = Database.getBufferPool();
+        pool.lockTable(tid, table);
+        TableSink sink = new TableSink(table, tid);
+        InputStream in = new FileInputStream(inFile);
+        long rows;
+        try {
+            rows = run(in, sink);
+            sink.flush();
+        } catch (IOException e) {
+            if (sink.aborted != null)
+                throw sink.aborted;
+            throw e;
+        } finally {
+            in.close();
+        }
+        List<IndexFile> indexes = Database.getCatalog().getIndexes(table.getId());
+        if (!indexes.isEmpty()) {
+            for (int pgNo : sink.appended) {
+                Iterator<Tuple> it = ((TuplePage) table.readPage(new HeapPageId(table.getId(), pgNo))).iterator();
+                while (it.hasNext())
+                    pool.insertIndexEntries(tid, table.getId(), it.next());
+            }
+        }
+        return rows;
+    }
+
+    /** Delete the maps and indexes kept next to a table file. */
+    static void deleteSidecars(File outFile) {
+        // the maps and indexes of an earlier file by this name are rebuilt on
+        // first use, and its B+ tree and hash indexes when the catalog is loaded
+        for (String suffix : new String[] { FreeSpaceMap.SUFFIX, ZoneMap.SUFFIX,
+                BloomFilterMap.SUFFIX, BitmapIndex.SUFFIX })
+            new File(outFile.getPath() + suffix).delete();
+        final String prefix = outFile.getName() + ".";
+        File[] indexes = outFile.getAbsoluteFile().getParentFile().listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                if (!name.startsWith(prefix))
+                    return false;
+                for (String suffix : new String[] { BTreeFile.SUFFIX, HashIndexFile.SUFFIX }) {
+                    // named <table file>.<key field><suffix>
+                    if (name.endsWith(suffix) && name.length() > prefix.length() + suffix.length()
+                            && name.substring(prefix.length(), name.length() - suffix.length()).matches("\\d+"))
+                        return true;
+                }
+                return false;
+            }
+        });
+        if (indexes != null) {
+            for (File f : indexes)
+                f.delete();
+        }
+    }
+
+    /** The records parsed from a block of input. */
+    private static class Records {
+        byte[] bytes;
+        int count;
+        /** the malformed lines left out */
+        int skipped;
+    }
+
+    /**
+     * Read blocks of whole lines, parse them on the pool and hand the
+     * records to the sink in input order.
+     *
+     * @return the number of records
+     */
+    private long run(InputStream in, Sink sink) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "bulk-loader");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        ArrayDeque<Future<Records>> pending = new ArrayDeque<Future<Records>>();
+        long rows = 0;
+        skipped = 0;
+        try {
+            byte[] buf = new byte[BLOCK_BYTES];
+            int filled = 0;
+            boolean eof = false;
+            while (!eof || filled > 0) {
+                while (!eof && filled < buf.length) {
+                    int n = in.read(buf, filled, buf.length - filled);
+                    if (n < 0)
+                        eof = true;
+                    else
+                        filled += n;
+                }
+                int end = filled;
+                if (!eof) {
+                    while (end > 0 && buf[end - 1] != '\n')
+                        end--;
+                    if (end == 0) {
+                        // a line longer than a block
+                        buf = Arrays.copyOf(buf, buf.length * 2);
+                        continue;
+                    }
+                }
+                final byte[] block = Arrays.copyOf(buf, end);
+                System.arraycopy(buf, end, buf, 0, filled - end);
+                filled -= end;
+                pending.add(pool.submit(new Callable<Records>() {
+                    public Records call() {
+                        return parse(block);
+                    }
+                }));
+                while (pending.size() >= 2 * threads)
+                    rows += take(pending, sink);
+            }
+            while (!pending.isEmpty())
+                rows += take(pending, sink);
+            return rows;
+        } finally {
+            for (Future<Records> f : pending)
+                f.cancel(true);
+            pool.shutdownNow();
+        }
+    }
+
+    private int take(ArrayDeque<Future<Records>> pending, Sink sink) throws IOException {
+        Records records;
+        try {
+            records = pending.remove().get();
+        } catch (InterruptedException e) {
+            throw new IOException("interrupted while loading", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+        sink.add(records.bytes, records.count);
+        skipped += records.skipped;
+        return records.count;
+    }
+
+    /** Parse the lines of a block into records laid out as on a page. */
+    private Records parse(byte[] block) {
+        Records r = new Records();
+        r.bytes = new byte[Math.max(recordBytes, block.length / 2 / recordBytes * recordBytes)];
+        int[] starts = new int[types.length];
+        int[] ends = new int[types.length];
+        int[] ints = new int[types.length];
+        int pos = 0;
+        while (pos < block.length) {
+            int eol = pos;
+            while (eol < block.length && block[eol] != '\n')
+                eol++;
+            int end = eol;
+            while (end > pos && block[end - 1] == '\r')
+                end--;
+            int lineStart = pos;
+            pos = eol + 1;
+            if (end == lineStart)
+                continue;
+            int fields = 0;
+            int start = lineStart;
+            for (int i = lineStart; i <= end; i++) {
+                if (i == end || block[i] == separator) {
+                    if (fields < types.length) {
+                        starts[fields] = start;
+                        ends[fields] = i;
+                    }
+                    fields++;
+                    start = i + 1;
+                }
+            }
+            boolean bad = fields != types.length;
+            for (int f = 0; !bad && f < types.length; f++) {
+                int s = starts[f];
+                int e = ends[f];
+                while (s < e && (block[s] & 0xff) <= ' ')
+                    s++;
+                while (e > s && (block[e - 1] & 0xff) <= ' ')
+                    e--;
+                starts[f] = s;
+                ends[f] = e;
+                if (types[f] == Type.INT_TYPE) {
+                    try {
+                        ints[f] = parseInt(block, s, e);
+                    } catch (NumberFormatException ex) {
+                        bad = true;
+                    }
+                }
+            }
+            if (bad) {
+                r.skipped++;
+                continue;
+            }
+            if ((r.count + 1) * recordBytes > r.bytes.length)
+                r.bytes = Arrays.copyOf(r.bytes, r.bytes.length * 2);
+            int out = r.count * recordBytes;
+            for (int f = 0; f < types.length; f++) {
+                int s = starts[f];
+                int e = ends[f];
+                if (types[f] == Type.INT_TYPE) {
+                    int v = ints[f];
+                    r.bytes[out] = (byte) (v >>> 24);
+                    r.bytes[out + 1] = (byte) (v >>> 16);
+                    r.bytes[out + 2] = (byte) (v >>> 8);
+                    r.bytes[out + 3] = (byte) v;
+                } else {
+                    int len = Math.min(e - s, lengths[f]);
+                    r.bytes[out] = (byte) (len >>> 24);
+                    r.bytes[out + 1] = (byte) (len >>> 16);
+                    r.bytes[out + 2] = (byte) (len >>> 8);
+                    r.bytes[out + 3] = (byte) len;
+                    System.arraycopy(block, s, r.bytes, out + 4, len);
+                }
+                out += types[f].getLen(lengths[f]);
+            }
+            r.count++;
+        }
+        return r;
+    }
+
+    /**
+     * @return the int in the bytes
+     * @throws NumberFormatException if they are no int
+     */
+    private static int parseInt(byte[] b, int s, int e) {
+        return Integer.parseInt(new String(b, s, e - s, StandardCharsets.ISO_8859_1));
+    }
+
+    /** Takes records in input order. */
+    private interface Sink {
+        void add(byte[] records, int count) throws IOException;
+    }
+
+    /**
+     * Lays records out on pages in a buffer of WRITE_PAGES pages, handing
+     * the buffer on when it fills up.
+     */
+    private abstract class PageSink implements Sink {
+        final byte[] pages = new byte[WRITE_PAGES * pageSize];
+        /** the page and slot of the next record in the buffer */
+        int page;
+        int slot;
+        /** the number of pages handed on */
+        int written;
+
+        public void add(byte[] records, int count) throws IOException {
+            for (int i = 0; i < count; i++) {
+                int base = page * pageSize;
+                System.arraycopy(records, i * recordBytes, pages, base + headerBytes + slot * recordBytes, recordBytes);
+                pages[base + slot / 8] |= (byte) (1 << (slot % 8));
+                if (++slot == slotsPerPage) {
+                    slot = 0;
+                    if (++page == WRITE_PAGES)
+                        flush();
+                }
+            }
+        }
+
+        /** Hand on the pages in the buffer, including a page being filled. */
+        void flush() throws IOException {
+            int count = page + (slot > 0 ? 1 : 0);
+            if (count > 0)
+                write(count);
+            written += count;
+            Arrays.fill(pages, 0, count * pageSize, (byte) 0);
+            page = 0;
+            slot = 0;
+        }
+
+        /** Write the first pages of the buffer. */
+        abstract void write(int count) throws IOException;
+    }
+
+    /** Writes the pages to a new table file, building its Bloom filters. */
+    private class FileSink extends PageSink {
+        private final FileOutputStream out;
+        private final FileChannel channel;
+        private final BloomFilterMap blooms;
+
+        FileSink(File file) throws IOException {
+            out = new FileOutputStream(file);
+            channel = out.getChannel();
+            if (bloomFields.length == 0) {
+                blooms = null;
+            } else {
+                Type[] bloomTypes = new Type[bloomFields.length];
+                for (int i = 0; i < bloomFields.length; i++)
+                    bloomTypes[i] = types[bloomFields[i]];
+                blooms = BloomFilterMap.create(file, bloomFields, bloomTypes, slotsPerPage);
+            }
+        }
+
+        void write(int count) throws IOException {
+            if (blooms != null)
+                addToBlooms(count);
+            ByteBuffer b = ByteBuffer.wrap(pages, 0, count * pageSize);
+            while (b.hasRemaining())
+                channel.write(b);
+        }
+
+        private void addToBlooms(int count) {
+            ByteBuffer view = ByteBuffer.wrap(pages);
+            for (int p = 0; p < count; p++) {
+                for (int s = 0; s < slotsPerPage; s++) {
+                    if ((pages[p * pageSize + s / 8] & (1 << (s % 8))) == 0)
+                        break;
+                    int record = p * pageSize + headerBytes + s * recordBytes;
+                    for (int i = 0; i < bloomFields.length; i++) {
+                        int offset = record;
+                        for (int f = 0; f < bloomFields[i]; f++)
+                            offset += types[f].getLen(lengths[f]);
+                        Type type = types[bloomFields[i]];
+                        Field value = type == Type.INT_TYPE
+                                ? new IntField(view.getInt(offset))
+                                : new StringField(new String(pages, offset + 4, view.getInt(offset)),
+                                        lengths[bloomFields[i]], type);
+                        blooms.add(written + p, i, value);
+                    }
+                }
+            }
+        }
+
+        /** Write what is left, or an empty page if the file would be empty. */
+        void finish(boolean empty) throws IOException {
+            if (empty && page == 0 && slot == 0) {
+                page = 1;
+                write(1);
+                page = 0;
+            }
+            flush();
+            if (blooms != null)
+                blooms.flush();
+            channel.force(true);
+        }
+
+        void close() throws IOException {
+            if (blooms != null)
+                blooms.close();
+            out.close();
+        }
+    }
+
+    /** Appends the pages to a table on behalf of a transaction. */
+    private class TableSink extends PageSink {
+        private final HeapFile table;
+        private final TransactionId tid;
+        /** the numbers of the pages appended */
+        final List<Integer> appended = new ArrayList<Integer>();
+        /** set if locking a page failed, which stops the load */
+        TransactionAbortedException aborted;
+
+        TableSink(HeapFile table, TransactionId tid) {
+            this.table = table;
+            this.tid = tid;
+        }
+
+        void write(int count) throws IOException {
+            List<byte[]> data = new ArrayList<byte[]>(count);
+            for (int p = 0; p < count; p++)
+                data.add(Arrays.copyOfRange(pages, p * pageSize, (p + 1) * pageSize));
+            int first;
+            try {
+                first = table.appendPages(tid, data);
+            } catch (TransactionAbortedException e) {
+                aborted = e;
+                throw new IOException("transaction aborted while appending", e);
+            }
+            for (int p = 0; p < count; p++)
+                appended.add(first + p);
+        }
+    }
+}
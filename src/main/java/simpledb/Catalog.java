@@ -4,6 +4,7 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.*;
 
 /**
@@ -37,23 +38,38 @@ public class Catalog {
             this.pKey = pKey;
         }
 
+        public int getPageSize() {
+            return pageSize;
+        }
+
         public Table(DbFile file, String pKey) {
             this.file = file;
             this.pKey = pKey;
+            this.pageSize = file instanceof HeapFile
+                    ? ((HeapFile) file).getPageSize() : BufferPool.PAGE_SIZE;
+        }
+
+        /** @return the indexes of the table */
+        public List<IndexFile> getIndexes() {
+            return indexes;
         }
 
         private DbFile file;
         private String pKey;
+        private int pageSize;
+        private List<IndexFile> indexes = new ArrayList<IndexFile>();
 
     }
 
 
     Map<String,Table> tables ;
     Map<Integer, Table> tablesById;
+    Map<Integer, IndexFile> indexesById;
     public Catalog() {
         tables = new HashMap<>();
         // some code goes here
         tablesById = new HashMap<>();
+        indexesById = new HashMap<>();
 
     }
 
@@ -90,6 +106,33 @@ public class Catalog {
         addTable(file, (UUID.randomUUID()).toString());
     }
 
+    /**
+     * Add an index of a table to the catalog.  The BufferPool keeps the
+     * index up to date as tuples are inserted into and deleted from the
+     * table, and queries filtering on the indexed field may read the table
+     * through it.
+     * @param index the index; index.getTableId() must be in the catalog
+     */
+    public void addIndex(IndexFile index) {
+        Table table = tablesById.get(index.getTableId());
+        if (table == null)
+            throw new NoSuchElementException("no such table");
+        table.getIndexes().add(index);
+        indexesById.put(index.getId(), index);
+    }
+
+    /**
+     * Returns the indexes of the specified table.
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *     function passed to addTable
+     * @return the indexes of the table, empty if it has none or is not in
+     *     the catalog
+     */
+    public List<IndexFile> getIndexes(int tableid) {
+        Table t = tablesById.get(tableid);
+        return t != null ? t.getIndexes() : Collections.<IndexFile>emptyList();
+    }
+
     /**e
      * Return the id of the table with a specified name,
      * @throws NoSuchElementException if the table doesn't exist
@@ -120,6 +163,8 @@ public class Catalog {
                 td = entry.getValue().getFile().getTupleDesc();
 
         }
+        if (td == null && indexesById.containsKey(tableid))
+            td = indexesById.get(tableid).getTupleDesc();
         if (td != null) {
             return td;
         }else
@@ -140,12 +185,26 @@ public class Catalog {
                 df = entry.getValue().getFile();
 
         }
+        if (df == null)
+            df = indexesById.get(tableid);
         if (df != null) {
             return df;
         }else
             throw new NoSuchElementException();
     }
 
+    /**
+     * Returns the number of bytes of the pages of the specified table, the
+     * page size of its HeapFile, or {@link BufferPool#PAGE_SIZE} for other
+     * files and for tables that are not in the catalog.
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *     function passed to addTable
+     */
+    public int getPageSize(int tableid) {
+        Table t = tablesById.get(tableid);
+        return t != null ? t.getPageSize() : BufferPool.PAGE_SIZE;
+    }
+
     public String getPrimaryKey(int tableid) {
         // some code goes here
         String pKey = null;
@@ -176,15 +235,46 @@ public class Catalog {
         return null;
     }
 
-    /** Delete all tables from the catalog */
+    /** Delete all tables from the catalog, closing the files they hold open */
     public void clear() {
+        for (Table table : tablesById.values()) {
+            try {
+                if (table.getFile() instanceof HeapFile)
+                    ((HeapFile) table.getFile()).close();
+                else if (table.getFile() instanceof ColumnFile)
+                    ((ColumnFile) table.getFile()).close();
+                for (IndexFile index : table.getIndexes())
+                    index.close();
+                TupleDesc td = table.getFile().getTupleDesc();
+                for (int i = 0; i < td.numFields(); i++) {
+                    if (td.getDictionary(i) != null)
+                        td.getDictionary(i).close();
+                }
+            } catch (IOException e) {
+                // nothing more to release
+            }
+        }
         tables = new HashMap<>();
         tablesById = new HashMap<>();
+        indexesById = new HashMap<>();
         // some code goes here
     }
 
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line is of the form <tt>name (field type [pk [hash]] [dict] [bloom] [bitmap], ...) [storage] [pagesize=n]</tt>,
+     * where type is <tt>int</tt>, <tt>string</tt>, or <tt>varchar(n)</tt>, a string field
+     * marked <tt>dict</tt> is stored dictionary encoded, see {@link Dictionary}, a field
+     * marked <tt>bloom</tt> of a table stored in a HeapFile has Bloom filters kept of it,
+     * see {@link HeapFile#setBloomFields}, one marked <tt>bitmap</tt> has a bitmap index,
+     * see {@link HeapFile#setBitmapFields}, the optional
+     * storage is <tt>heap</tt>, the default, <tt>slotted</tt> for a {@link SlottedFile},
+     * <tt>pax</tt> for a {@link PaxFile}, or <tt>column</tt> for a {@link ColumnFile},
+     * and pagesize gives the bytes per page of the table, {@link BufferPool#PAGE_SIZE} by default.
+     * The primary key of a table stored in a HeapFile is indexed with a {@link BTreeFile},
+     * or with a {@link HashIndexFile} if it is marked <tt>pk hash</tt>, which is built from
+     * the table the first time the schema is loaded.  So is the {@link ColumnFile} of a table
+     * stored in columns, from the HeapFile that <tt>convert</tt> wrote for it.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -195,48 +285,171 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(new File(catalogFile)));
 
             while ((line = br.readLine()) != null) {
-                //assume line is of the format name (field type, field type, ...)
+                //assume line is of the format name (field type, field type, ...) storage
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
-                String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
+                // varchar(n) has parentheses of its own
+                String fields = line.substring(line.indexOf("(") + 1, line.lastIndexOf(")")).trim();
+                String storage = "heap";
+                int pageSize = BufferPool.PAGE_SIZE;
+                for (String option : line.substring(line.lastIndexOf(")") + 1).trim().toLowerCase().split("\\s+")) {
+                    if (option.startsWith("pagesize="))
+                        pageSize = Integer.parseInt(option.substring(9));
+                    else if (!option.isEmpty())
+                        storage = option;
+                }
                 String[] els = fields.split(",");
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
+                ArrayList<Integer> lengths = new ArrayList<Integer>();
+                ArrayList<Boolean> encoded = new ArrayList<Boolean>();
                 String primaryKey = "";
+                boolean hashKey = false;
+                ArrayList<Integer> bloomFields = new ArrayList<Integer>();
+                ArrayList<Integer> bitmapFields = new ArrayList<Integer>();
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
-                    if (els2[1].trim().toLowerCase().equals("int"))
+                    String type = els2[1].trim().toLowerCase();
+                    if (type.equals("int")) {
                         types.add(Type.INT_TYPE);
-                    else if (els2[1].trim().toLowerCase().equals("string"))
+                        lengths.add(Type.STRING_LEN);
+                    } else if (type.equals("string")) {
                         types.add(Type.STRING_TYPE);
-                    else {
+                        lengths.add(Type.STRING_LEN);
+                    } else if (type.equals("varchar")) {
+                        types.add(Type.VARCHAR_TYPE);
+                        lengths.add(Type.STRING_LEN);
+                    } else if (type.startsWith("varchar(") && type.endsWith(")")) {
+                        types.add(Type.VARCHAR_TYPE);
+                        lengths.add(Integer.parseInt(type.substring(8, type.length() - 1).trim()));
+                    } else {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
-                    if (els2.length == 3) {
-                        if (els2[2].trim().equals("pk"))
+                    encoded.add(false);
+                    for (int k = 2; k < els2.length; k++) {
+                        if (els2[k].trim().equals("pk"))
                             primaryKey = els2[0].trim();
+                        else if (els2[k].trim().equals("hash") && primaryKey.equals(els2[0].trim()))
+                            hashKey = true;
+                        else if (els2[k].trim().equals("dict") && types.get(types.size() - 1) != Type.INT_TYPE)
+                            encoded.set(encoded.size() - 1, true);
+                        else if (els2[k].trim().equals("bloom"))
+                            bloomFields.add(names.size() - 1);
+                        else if (els2[k].trim().equals("bitmap"))
+                            bitmapFields.add(names.size() - 1);
                         else {
-                            System.out.println("Unknown annotation " + els2[2]);
+                            System.out.println("Unknown annotation " + els2[k]);
                             System.exit(0);
                         }
                     }
                 }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
-                TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                int[] lengthAr = new int[lengths.size()];
+                for (int i = 0; i < lengthAr.length; i++)
+                    lengthAr[i] = lengths.get(i);
+                File tableFile = new File(baseFolder+"/"+name + ".dat");
+                Dictionary[] dictionaryAr = new Dictionary[lengthAr.length];
+                for (int i = 0; i < dictionaryAr.length; i++) {
+                    if (encoded.get(i))
+                        dictionaryAr[i] = Dictionary.open(Dictionary.dictionaryFile(tableFile, i), typeAr[i],
+                                typeAr[i] == Type.STRING_TYPE ? Type.STRING_LEN : lengthAr[i]);
+                }
+                TupleDesc t = new TupleDesc(typeAr, namesAr, lengthAr, dictionaryAr);
+                DbFile tabHf;
+                if (storage.equals("heap"))
+                    tabHf = new HeapFile(tableFile, t, pageSize);
+                else if (storage.equals("slotted"))
+                    tabHf = new SlottedFile(tableFile, t, pageSize);
+                else if (storage.equals("pax"))
+                    tabHf = new PaxFile(tableFile, t, pageSize);
+                else if (storage.equals("column"))
+                    tabHf = openColumnFile(tableFile, t, new TupleDesc(typeAr, namesAr, lengthAr), pageSize);
+                else {
+                    System.out.println("Unknown storage " + storage);
+                    System.exit(0);
+                    return;
+                }
+                if (!bloomFields.isEmpty() && tabHf instanceof HeapFile) {
+                    int[] bloomAr = new int[bloomFields.size()];
+                    for (int i = 0; i < bloomAr.length; i++)
+                        bloomAr[i] = bloomFields.get(i);
+                    ((HeapFile) tabHf).setBloomFields(bloomAr);
+                }
+                if (!bitmapFields.isEmpty() && tabHf instanceof HeapFile) {
+                    int[] bitmapAr = new int[bitmapFields.size()];
+                    for (int i = 0; i < bitmapAr.length; i++)
+                        bitmapAr[i] = bitmapFields.get(i);
+                    ((HeapFile) tabHf).setBitmapFields(bitmapAr);
+                }
                 addTable(tabHf,name,primaryKey);
+                if (!primaryKey.isEmpty() && tabHf instanceof HeapFile) {
+                    int keyField = names.indexOf(primaryKey);
+                    if (hashKey) {
+                        File indexFile = HashIndexFile.indexFile(tableFile, keyField);
+                        if (indexFile.length() == 0)
+                            addIndex(HashIndexFile.build(indexFile, (HeapFile) tabHf, keyField));
+                        else
+                            addIndex(new HashIndexFile(indexFile, (HeapFile) tabHf, keyField));
+                    } else {
+                        File indexFile = BTreeFile.indexFile(tableFile, keyField);
+                        if (indexFile.length() == 0)
+                            addIndex(BTreeFile.build(indexFile, (HeapFile) tabHf, keyField));
+                        else
+                            addIndex(new BTreeFile(indexFile, (HeapFile) tabHf, keyField));
+                    }
+                }
                 System.out.println("Added table : " + name + " with schema " + t);
             }
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(0);
-        } catch (IndexOutOfBoundsException e) {
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
             System.out.println ("Invalid catalog entry : " + line);
             System.exit(0);
         }
     }
-}
 
+    /**
+     * Open the ColumnFile of a table, building it first if the table file
+     * is still the HeapFile that <tt>convert</tt> wrote.  The HeapFile is
+     * moved aside, and deleted once the index of the columns is in place,
+     * so a build cut short is started again from it.
+     *
+     * @param tableFile the table file named in the schema
+     * @param td the schema of the table
+     * @param heapTd the schema of the HeapFile, without dictionaries
+     * @param pageSize the bytes per page of the HeapFile
+     */
+    private ColumnFile openColumnFile(File tableFile, TupleDesc td, TupleDesc heapTd, int pageSize)
+            throws IOException {
+        File heapFile = new File(tableFile.getPath() + ".heap");
+        if (!heapFile.exists()) {
+            if (!tableFile.exists() || ColumnFile.columnFile(tableFile, 0).exists())
+                return new ColumnFile(tableFile, td);
+            Files.move(tableFile.toPath(), heapFile.toPath());
+        } else if (tableFile.exists()) {
+            // built, but the HeapFile was not deleted yet
+            heapFile.delete();
+            BulkLoader.deleteSidecars(heapFile);
+            return new ColumnFile(tableFile, td);
+        }
+
+        // in the catalog while it is read, by a name no table can have
+        HeapFile heap = new HeapFile(heapFile, heapTd, pageSize);
+        addTable(heap, heapFile.getName());
+        ColumnFile columns;
+        try {
+            columns = ColumnFile.build(tableFile, td, heap);
+        } finally {
+            tables.remove(heapFile.getName());
+            tablesById.remove(heap.getId());
+            heap.close();
+        }
+        heapFile.delete();
+        BulkLoader.deleteSidecars(heapFile);
+        return columns;
+    }
+}
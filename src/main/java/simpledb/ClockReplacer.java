@@ -0,0 +1,179 @@
+package simpledb;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * ClockReplacer chooses eviction victims for the BufferPool.
+ * <p>
+ * It is a simplified CLOCK-Pro: resident frames sit on a circular list that
+ * a single hand sweeps.  Frames are either cold or hot.  A newly read page
+ * starts cold and is evicted on the first pass of the hand unless it was
+ * referenced again in the meantime, so a large sequential scan only ever
+ * cycles through the cold frames.  A cold frame that was referenced is
+ * promoted to hot; a hot frame that was not referenced since the last pass
+ * is demoted to cold.  Pages evicted while cold are remembered in a bounded
+ * non-resident list, and a page that comes back while still remembered
+ * there is admitted as hot directly.
+ * <p>
+ * Hits only set the referenced bit of the frame, which does not need the
+ * replacer's monitor; admitting, removing and choosing a victim are all
+ * O(1) amortized.
+ *
+ * @see BufferPool
+ */
+class ClockReplacer {
+
+    private int capacity;
+    private int size;
+    private int hotCount;
+    private BufferFrame hand;
+    private final LinkedHashMap<PageId, Boolean> nonResident;
+
+    /**
+     * @param capacity the number of frames of the BufferPool
+     */
+    ClockReplacer(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.nonResident = new LinkedHashMap<PageId, Boolean>() {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<PageId, Boolean> eldest) {
+                return size() > ClockReplacer.this.capacity;
+            }
+        };
+    }
+
+    /** Change the number of frames the replacer balances hot and cold pages for. */
+    synchronized void setCapacity(int capacity) {
+        this.capacity = Math.max(1, capacity);
+    }
+
+    /** The most frames allowed to be hot; the rest is kept for cold pages. */
+    private int maxHot() {
+        return capacity - Math.max(1, capacity / 4);
+    }
+
+    /** Start tracking a frame whose page was just read into the pool. */
+    synchronized void admit(BufferFrame f) {
+        if (f.resident)
+            return;
+        f.hot = nonResident.remove(f.pid) != null && hotCount < maxHot();
+        if (f.hot)
+            hotCount++;
+        f.referenced = false;
+        f.resident = true;
+        if (hand == null) {
+            f.next = f;
+            f.prev = f;
+            hand = f;
+        } else {
+            // insert right behind the hand, so it is the last one visited
+            f.next = hand;
+            f.prev = hand.prev;
+            hand.prev.next = f;
+            hand.prev = f;
+        }
+        size++;
+    }
+
+    /** Stop tracking a frame that is dropped from the pool without eviction. */
+    synchronized void remove(BufferFrame f) {
+        if (f.resident)
+            unlink(f);
+    }
+
+    /**
+     * Pin a frame, unless the hand has already chosen it as a victim.
+     *
+     * @return true if the frame was pinned
+     */
+    synchronized boolean pin(BufferFrame f) {
+        if (!f.resident)
+            return false;
+        f.pin();
+        return true;
+    }
+
+    /**
+     * Pick the next frame to evict and stop tracking it.  Pinned frames and
+     * frames holding dirty pages are skipped.
+     *
+     * @param tableId if not null, only frames of this table are considered;
+     *        the hand passes frames of other tables without changing them
+     * @return the victim, or null if every candidate frame is pinned or dirty
+     */
+    synchronized BufferFrame victim(Integer tableId) {
+        // every frame changes state at most three times before it is evicted
+        for (int i = 0, limit = 3 * size + 1; i < limit && hand != null; i++) {
+            BufferFrame f = hand;
+            hand = hand.next;
+            if (f.isPinned())
+                continue;
+            Page page = f.getPage();
+            if (page != null && page.isDirty() != null)
+                continue;
+            if (tableId != null && f.pid.getTableId() != tableId)
+                continue;
+            if (f.hot) {
+                if (f.referenced) {
+                    f.referenced = false;
+                } else {
+                    f.hot = false;
+                    hotCount--;
+                }
+            } else if (f.referenced) {
+                f.referenced = false;
+                if (hotCount < maxHot()) {
+                    f.hot = true;
+                    hotCount++;
+                }
+            } else {
+                unlink(f);
+                nonResident.put(f.pid, Boolean.TRUE);
+                return f;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stop tracking a frame recycled by a {@link BufferAccessStrategy}, if it
+     * is still unpinned, clean and unreferenced.  Unlike a victim, it is not
+     * remembered as recently evicted.
+     *
+     * @return true if the frame may be dropped
+     */
+    synchronized boolean recycle(BufferFrame f) {
+        Page page = f.getPage();
+        if (!f.resident || f.isPinned() || f.referenced
+                || (page != null && page.isDirty() != null))
+            return false;
+        unlink(f);
+        return true;
+    }
+
+    /** @return the number of frames being tracked */
+    synchronized int size() {
+        return size;
+    }
+
+    private void unlink(BufferFrame f) {
+        if (f.next == f) {
+            hand = null;
+        } else {
+            f.prev.next = f.next;
+            f.next.prev = f.prev;
+            if (hand == f)
+                hand = f.next;
+        }
+        f.next = null;
+        f.prev = null;
+        f.resident = false;
+        if (f.hot) {
+            f.hot = false;
+            hotCount--;
+        }
+        size--;
+    }
+}
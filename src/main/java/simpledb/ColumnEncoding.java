@@ -0,0 +1,276 @@
+package simpledb;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * ColumnEncoding compresses the values of one column of a chunk of rows
+ * of a {@link ColumnFile}.  INT_TYPE columns are written with whichever of
+ * these encodings is smallest for the chunk:
+ * <ul>
+ * <li>PLAIN, four bytes per value;
+ * <li>RLE, a list of (value, run length) pairs, for columns with long runs
+ *     of equal values, e.g. sorted low-cardinality columns;
+ * <li>BITPACK, the values minus the smallest one, each packed into as few
+ *     bits as the largest of them needs;
+ * <li>DELTA, the differences between consecutive values, bit-packed the
+ *     same way, for ids, timestamps and other nearly sorted columns.
+ * </ul>
+ * String columns are written PLAIN, as length-prefixed bytes, or RLE.
+ * <p>
+ * An encoded chunk starts with a byte naming its encoding and the number of
+ * values it holds.
+ */
+final class ColumnEncoding {
+
+    static final byte PLAIN = 0;
+    static final byte RLE = 1;
+    static final byte BITPACK = 2;
+    static final byte DELTA = 3;
+
+    private ColumnEncoding() {
+    }
+
+    /** Encode the first count values of an INT_TYPE column. */
+    static byte[] encodeInts(int[] values, int count) {
+        long min = Integer.MAX_VALUE;
+        long max = Integer.MIN_VALUE;
+        int runs = 0;
+        long minDelta = Long.MAX_VALUE;
+        long maxDelta = Long.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            min = Math.min(min, values[i]);
+            max = Math.max(max, values[i]);
+            if (i == 0 || values[i] != values[i - 1])
+                runs++;
+            if (i > 0) {
+                long delta = (long) values[i] - values[i - 1];
+                minDelta = Math.min(minDelta, delta);
+                maxDelta = Math.max(maxDelta, delta);
+            }
+        }
+        int packWidth = count == 0 ? 0 : width(max - min);
+        int deltaWidth = count <= 1 ? 0 : width(maxDelta - minDelta);
+
+        long plainSize = 4L * count;
+        long rleSize = 4 + 8L * runs;
+        long packSize = 5 + packedBytes(count, packWidth);
+        long deltaSize = 13 + packedBytes(Math.max(0, count - 1), deltaWidth);
+        long best = Math.min(Math.min(plainSize, rleSize), Math.min(packSize, deltaSize));
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream((int) best + 5);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            if (best == rleSize) {
+                dos.writeByte(RLE);
+                dos.writeInt(count);
+                dos.writeInt(runs);
+                int i = 0;
+                while (i < count) {
+                    int j = i + 1;
+                    while (j < count && values[j] == values[i])
+                        j++;
+                    dos.writeInt(values[i]);
+                    dos.writeInt(j - i);
+                    i = j;
+                }
+            } else if (best == packSize) {
+                dos.writeByte(BITPACK);
+                dos.writeInt(count);
+                dos.writeInt((int) min);
+                dos.writeByte(packWidth);
+                long[] offsets = new long[count];
+                for (int i = 0; i < count; i++)
+                    offsets[i] = values[i] - min;
+                pack(offsets, count, packWidth, dos);
+            } else if (best == deltaSize) {
+                dos.writeByte(DELTA);
+                dos.writeInt(count);
+                dos.writeInt(count == 0 ? 0 : values[0]);
+                dos.writeLong(count <= 1 ? 0 : minDelta);
+                dos.writeByte(deltaWidth);
+                long[] deltas = new long[Math.max(0, count - 1)];
+                for (int i = 1; i < count; i++)
+                    deltas[i - 1] = (long) values[i] - values[i - 1] - minDelta;
+                pack(deltas, deltas.length, deltaWidth, dos);
+            } else {
+                dos.writeByte(PLAIN);
+                dos.writeInt(count);
+                for (int i = 0; i < count; i++)
+                    dos.writeInt(values[i]);
+            }
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
+            throw new RuntimeException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    /** Decode an INT_TYPE chunk written by {@link #encodeInts}. */
+    static int[] decodeInts(byte[] data) throws IOException {
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        byte encoding = dis.readByte();
+        int count = dis.readInt();
+        int[] values = new int[count];
+        switch (encoding) {
+        case PLAIN:
+            for (int i = 0; i < count; i++)
+                values[i] = dis.readInt();
+            break;
+        case RLE: {
+            int runs = dis.readInt();
+            int i = 0;
+            for (int r = 0; r < runs; r++) {
+                int value = dis.readInt();
+                int length = dis.readInt();
+                Arrays.fill(values, i, i + length, value);
+                i += length;
+            }
+            break;
+        }
+        case BITPACK: {
+            long min = dis.readInt();
+            int width = dis.readByte();
+            long[] offsets = unpack(dis, count, width);
+            for (int i = 0; i < count; i++)
+                values[i] = (int) (min + offsets[i]);
+            break;
+        }
+        case DELTA: {
+            if (count == 0)
+                break;
+            values[0] = dis.readInt();
+            long minDelta = dis.readLong();
+            int width = dis.readByte();
+            long[] deltas = unpack(dis, count - 1, width);
+            for (int i = 1; i < count; i++)
+                values[i] = (int) (values[i - 1] + deltas[i - 1] + minDelta);
+            break;
+        }
+        default:
+            throw new IOException("unknown column encoding " + encoding);
+        }
+        return values;
+    }
+
+    /** Encode the first count values of a string column. */
+    static byte[] encodeStrings(String[] values, int count) {
+        int runs = 0;
+        long plainSize = 0;
+        long rleSize = 0;
+        for (int i = 0; i < count; i++) {
+            plainSize += 4 + values[i].length();
+            if (i == 0 || !values[i].equals(values[i - 1])) {
+                runs++;
+                rleSize += 8 + values[i].length();
+            }
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream((int) Math.min(plainSize, rleSize) + 9);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            if (rleSize < plainSize) {
+                dos.writeByte(RLE);
+                dos.writeInt(count);
+                dos.writeInt(runs);
+                int i = 0;
+                while (i < count) {
+                    int j = i + 1;
+                    while (j < count && values[j].equals(values[i]))
+                        j++;
+                    writeString(values[i], dos);
+                    dos.writeInt(j - i);
+                    i = j;
+                }
+            } else {
+                dos.writeByte(PLAIN);
+                dos.writeInt(count);
+                for (int i = 0; i < count; i++)
+                    writeString(values[i], dos);
+            }
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
+            throw new RuntimeException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    /** Decode a string chunk written by {@link #encodeStrings}. */
+    static String[] decodeStrings(byte[] data) throws IOException {
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        byte encoding = dis.readByte();
+        int count = dis.readInt();
+        String[] values = new String[count];
+        if (encoding == PLAIN) {
+            for (int i = 0; i < count; i++)
+                values[i] = readString(dis);
+        } else if (encoding == RLE) {
+            int runs = dis.readInt();
+            int i = 0;
+            for (int r = 0; r < runs; r++) {
+                String value = readString(dis);
+                int length = dis.readInt();
+                Arrays.fill(values, i, i + length, value);
+                i += length;
+            }
+        } else {
+            throw new IOException("unknown column encoding " + encoding);
+        }
+        return values;
+    }
+
+    private static void writeString(String s, DataOutputStream dos) throws IOException {
+        dos.writeInt(s.length());
+        dos.writeBytes(s);
+    }
+
+    private static String readString(DataInputStream dis) throws IOException {
+        byte[] bytes = new byte[dis.readInt()];
+        dis.readFully(bytes);
+        return new String(bytes);
+    }
+
+    /** @return the number of bits needed for unsigned values up to max */
+    private static int width(long max) {
+        return 64 - Long.numberOfLeadingZeros(max);
+    }
+
+    private static long packedBytes(int count, int width) {
+        return ((long) count * width + 7) / 8;
+    }
+
+    /** Write values of width bits each, lowest bits first; width is at most 56. */
+    private static void pack(long[] values, int count, int width, DataOutputStream dos) throws IOException {
+        long acc = 0;
+        int bits = 0;
+        for (int i = 0; i < count; i++) {
+            acc |= values[i] << bits;
+            bits += width;
+            while (bits >= 8) {
+                dos.writeByte((int) acc);
+                acc >>>= 8;
+                bits -= 8;
+            }
+        }
+        if (bits > 0)
+            dos.writeByte((int) acc);
+    }
+
+    private static long[] unpack(DataInputStream dis, int count, int width) throws IOException {
+        long[] values = new long[count];
+        long mask = width == 64 ? -1L : (1L << width) - 1;
+        long acc = 0;
+        int bits = 0;
+        for (int i = 0; i < count; i++) {
+            while (bits < width) {
+                acc |= (long) (dis.readByte() & 0xff) << bits;
+                bits += 8;
+            }
+            values[i] = acc & mask;
+            acc >>>= width;
+            bits -= width;
+        }
+        return values;
+    }
+}
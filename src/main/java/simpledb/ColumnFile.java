@@ -0,0 +1,445 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * ColumnFile is a DbFile that stores each column of a table in a file of
+ * its own, so that a scan reads only the columns a query uses.
+ * <p>
+ * Rows are cut into chunks of {@link #ROWS_PER_CHUNK} rows, and row i is
+ * the same row in every column.  Each column file holds the encoded
+ * chunks of its column one after another, see {@link ColumnEncoding}; the
+ * table's own file is an index of where each chunk of each column starts.
+ * The chunks are read through the BufferPool as {@link ColumnPage}s.
+ * <p>
+ * A ColumnFile is written as a whole by {@link #build}, e.g. from a
+ * HeapFile, and is read-only after that: it suits reporting tables that
+ * are reloaded rather than updated.  It is chosen with the
+ * <tt>column</tt> storage keyword of a catalog schema; the catalog builds
+ * it from the HeapFile that <tt>convert</tt> wrote for the table the
+ * first time the schema is loaded.
+ *
+ * @see SeqScan#setColumns
+ */
+public class ColumnFile implements DbFile {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Rows per chunk, so an INT_TYPE chunk decodes to one default page. */
+    static final int ROWS_PER_CHUNK = 1024;
+
+    private final File file;
+    private final TupleDesc td;
+    /** the number of rows, and where the chunks are; read on first use */
+    private transient volatile Index index;
+    /** the open channels of the column files, opened on first use */
+    private transient FileChannel[] channels;
+
+    /** Where each chunk of each column is stored. */
+    private static class Index {
+        int numRows;
+        long[][] offsets;
+        int[][] lengths;
+
+        int numChunks() {
+            return offsets.length;
+        }
+    }
+
+    /**
+     * @param f the index file of the table; column j is stored in the file
+     *        of the same name followed by <tt>.j</tt>
+     * @param td the schema of the table
+     */
+    public ColumnFile(File f, TupleDesc td) {
+        this.file = f;
+        this.td = td;
+    }
+
+    /** @return the file holding column j of a table whose index is in f */
+    static File columnFile(File f, int column) {
+        return new File(f.getPath() + "." + column);
+    }
+
+    /**
+     * Write the tuples of an iterator as a column file.
+     *
+     * @param f the index file of the table to write
+     * @param td the schema of the tuples
+     * @param source the tuples, e.g. from {@link HeapFile#iterator}
+     * @return the new file; it still has to be added to the catalog
+     */
+    public static ColumnFile build(File f, TupleDesc td, DbFileIterator source)
+            throws IOException, DbException, TransactionAbortedException {
+        int numFields = td.numFields();
+        DataOutputStream[] outs = new DataOutputStream[numFields];
+        long[] written = new long[numFields];
+        List<long[]> offsets = new ArrayList<long[]>();
+        List<int[]> lengths = new ArrayList<int[]>();
+        int[][] ints = new int[numFields][];
+        String[][] strings = new String[numFields][];
+        for (int j = 0; j < numFields; j++) {
+            outs[j] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(columnFile(f, j)), 1 << 16));
+            if (td.getFieldType(j) == Type.INT_TYPE)
+                ints[j] = new int[ROWS_PER_CHUNK];
+            else
+                strings[j] = new String[ROWS_PER_CHUNK];
+        }
+        int numRows = 0;
+        try {
+            source.open();
+            int rows = 0;
+            while (true) {
+                boolean more = source.hasNext();
+                if (rows == ROWS_PER_CHUNK || (!more && rows > 0)) {
+                    long[] chunkOffsets = new long[numFields];
+                    int[] chunkLengths = new int[numFields];
+                    for (int j = 0; j < numFields; j++) {
+                        byte[] chunk = ints[j] != null
+                                ? ColumnEncoding.encodeInts(ints[j], rows)
+                                : ColumnEncoding.encodeStrings(strings[j], rows);
+                        outs[j].write(chunk);
+                        chunkOffsets[j] = written[j];
+                        chunkLengths[j] = chunk.length;
+                        written[j] += chunk.length;
+                    }
+                    offsets.add(chunkOffsets);
+                    lengths.add(chunkLengths);
+                    rows = 0;
+                }
+                if (!more)
+                    break;
+                Tuple t = source.next();
+                for (int j = 0; j < numFields; j++) {
+                    if (ints[j] != null)
+                        ints[j][rows] = ((IntField) t.getField(j)).getValue();
+                    else
+                        strings[j][rows] = ((StringField) t.getField(j)).getValue();
+                }
+                rows++;
+                numRows++;
+            }
+        } finally {
+            source.close();
+            for (DataOutputStream out : outs)
+                out.close();
+        }
+
+        // the index is written last and moved into place, so a file whose
+        // index is there has all its columns
+        File tmp = new File(f.getPath() + ".tmp");
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            dos.writeInt(numFields);
+            dos.writeInt(ROWS_PER_CHUNK);
+            dos.writeInt(numRows);
+            dos.writeInt(offsets.size());
+            for (int c = 0; c < offsets.size(); c++) {
+                for (int j = 0; j < numFields; j++) {
+                    dos.writeLong(offsets.get(c)[j]);
+                    dos.writeInt(lengths.get(c)[j]);
+                }
+            }
+        } finally {
+            dos.close();
+        }
+        Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return new ColumnFile(f, td);
+    }
+
+    /**
+     * Write the tuples of a HeapFile as a column file.  The pages of the
+     * table are read as they are on disk, so the table must be in the
+     * catalog and no transaction may be changing it, e.g. while the catalog
+     * is loaded.
+     *
+     * @param f the index file of the table to write
+     * @param td the schema of the column file
+     * @param table the table whose tuples to write
+     * @return the new file; it still has to be added to the catalog
+     */
+    public static ColumnFile build(File f, TupleDesc td, final HeapFile table) throws IOException {
+        DbFileIterator tuples = new AbstractDbFileIterator() {
+            private int pgNo;
+            private Iterator<Tuple> it;
+
+            public void open() {
+                pgNo = 0;
+                it = null;
+            }
+
+            public void rewind() {
+                close();
+                open();
+            }
+
+            protected Tuple readNext() {
+                while (it == null || !it.hasNext()) {
+                    if (pgNo >= table.numPages())
+                        return null;
+                    Page page = table.readPage(new HeapPageId(table.getId(), pgNo++));
+                    it = page instanceof TuplePage ? ((TuplePage) page).iterator() : null;
+                }
+                return it.next();
+            }
+        };
+        try {
+            return build(f, td, tuples);
+        } catch (DbException | TransactionAbortedException e) {
+            throw new IOException("could not read " + table.getFile() + ": " + e.getMessage(), e);
+        }
+    }
+
+    private Index index() throws IOException {
+        Index idx = index;
+        if (idx != null)
+            return idx;
+        synchronized (this) {
+            if (index != null)
+                return index;
+            idx = new Index();
+            if (!file.exists()) {
+                idx.offsets = new long[0][];
+                idx.lengths = new int[0][];
+            } else {
+                DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                try {
+                    int numFields = dis.readInt();
+                    if (numFields != td.numFields() || dis.readInt() != ROWS_PER_CHUNK)
+                        throw new IOException("column file does not match its schema");
+                    idx.numRows = dis.readInt();
+                    int chunks = dis.readInt();
+                    idx.offsets = new long[chunks][numFields];
+                    idx.lengths = new int[chunks][numFields];
+                    for (int c = 0; c < chunks; c++) {
+                        for (int j = 0; j < numFields; j++) {
+                            idx.offsets[c][j] = dis.readLong();
+                            idx.lengths[c][j] = dis.readInt();
+                        }
+                    }
+                } finally {
+                    dis.close();
+                }
+            }
+            index = idx;
+            return idx;
+        }
+    }
+
+    /** @return the number of rows of the table */
+    public int numRows() throws IOException {
+        return index().numRows;
+    }
+
+    /** @return the number of chunks of rows of the table */
+    public int numChunks() throws IOException {
+        return index().numChunks();
+    }
+
+    /** @return the number of bytes stored for a column */
+    public long columnBytes(int column) {
+        return columnFile(file, column).length();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getId() {
+        return file.getAbsoluteFile().hashCode();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        int numFields = td.numFields();
+        int chunk = pid.pageNumber() / numFields;
+        int column = pid.pageNumber() % numFields;
+        try {
+            Index idx = index();
+            if (chunk >= idx.numChunks())
+                return null;
+            ByteBuffer buffer = ByteBuffer.allocate(idx.lengths[chunk][column]);
+            long position = idx.offsets[chunk][column];
+            FileChannel ch = channel(column);
+            while (buffer.hasRemaining()) {
+                int n = ch.read(buffer, position + buffer.position());
+                if (n < 0)
+                    throw new EOFException("chunk is past the end of the column file");
+            }
+            return new ColumnPage(new HeapPageId(getId(), pid.pageNumber()), td, buffer.array());
+        } catch (IOException e) {
+            throw new RuntimeException("could not read chunk " + chunk + " of column " + column
+                    + " of " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    private synchronized FileChannel channel(int column) throws IOException {
+        if (channels == null)
+            channels = new FileChannel[td.numFields()];
+        if (channels[column] == null || !channels[column].isOpen())
+            channels[column] = new RandomAccessFile(columnFile(file, column), "r").getChannel();
+        return channels[column];
+    }
+
+    /**
+     * Close the column files.  They are opened again if the file is used
+     * after that.
+     */
+    public synchronized void close() throws IOException {
+        if (channels == null)
+            return;
+        for (int j = 0; j < channels.length; j++) {
+            if (channels[j] != null)
+                channels[j].close();
+            channels[j] = null;
+        }
+    }
+
+    /** Column files are read-only. */
+    public void writePage(Page page) throws IOException {
+        throw new IOException("column files are read-only");
+    }
+
+    /** Column files are read-only; rebuild the file with {@link #build} instead. */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t) throws DbException {
+        throw new DbException("column files are read-only");
+    }
+
+    /** Column files are read-only; rebuild the file with {@link #build} instead. */
+    public Page deleteTuple(TransactionId tid, Tuple t) throws DbException {
+        throw new DbException("column files are read-only");
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return iterator(tid, Collections.<Predicate>emptyList(), null);
+    }
+
+    /**
+     * Returns an iterator over the rows of the table that pass all the given
+     * predicates, reading only the columns the predicates and the caller use.
+     *
+     * @param predicates predicates over the fields of the table
+     * @param columns for each field of the table, true if the caller uses
+     *        it, or null for all fields; other fields of the tuples are null
+     */
+    public DbFileIterator iterator(TransactionId tid, List<Predicate> predicates, boolean[] columns) {
+        boolean[] read = new boolean[td.numFields()];
+        for (int j = 0; j < read.length; j++)
+            read[j] = columns == null || columns[j];
+        for (Predicate p : predicates)
+            read[p.getField()] = true;
+        return new ColumnFileIterator(tid, new ArrayList<Predicate>(predicates), read);
+    }
+
+    /** Iterates over the rows of the file chunk by chunk. */
+    private class ColumnFileIterator implements DbFileIterator {
+        private static final long serialVersionUID = 1L;
+
+        private final TransactionId tid;
+        private final List<Predicate> predicates;
+        private final boolean[] read;
+        private ColumnPage[] pages;
+        private int chunk;
+        private int row;
+        private boolean open;
+
+        ColumnFileIterator(TransactionId tid, List<Predicate> predicates, boolean[] read) {
+            this.tid = tid;
+            this.predicates = predicates;
+            this.read = read;
+        }
+
+        public void open() {
+            pages = null;
+            chunk = -1;
+            row = 0;
+            open = true;
+        }
+
+        /** Read the needed columns of the next chunk. */
+        private boolean nextChunk() throws DbException, TransactionAbortedException {
+            int chunks;
+            try {
+                chunks = numChunks();
+            } catch (IOException e) {
+                throw new DbException("could not read column file index: " + e.getMessage());
+            }
+            if (chunk + 1 >= chunks)
+                return false;
+            chunk++;
+            row = 0;
+            int numFields = td.numFields();
+            pages = new ColumnPage[numFields];
+            for (int j = 0; j < numFields; j++) {
+                if (read[j]) {
+                    PageId pid = new HeapPageId(getId(), chunk * numFields + j);
+                    pages[j] = (ColumnPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+                }
+            }
+            return true;
+        }
+
+        private int rows() {
+            for (ColumnPage page : pages) {
+                if (page != null)
+                    return page.getNumRows();
+            }
+            // no column is read, e.g. for count(*); any column tells the rows
+            return Math.min(ROWS_PER_CHUNK, index.numRows - chunk * ROWS_PER_CHUNK);
+        }
+
+        private boolean matches(int r) {
+            for (Predicate p : predicates) {
+                if (!pages[p.getField()].getField(r).compare(p.getOp(), p.getOperand()))
+                    return false;
+            }
+            return true;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (!open)
+                return false;
+            while (true) {
+                if (pages != null) {
+                    int rows = rows();
+                    while (row < rows && !matches(row))
+                        row++;
+                    if (row < rows)
+                        return true;
+                }
+                if (!nextChunk())
+                    return false;
+            }
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            if (!hasNext())
+                throw new NoSuchElementException("no tuple");
+            Tuple t = new Tuple(td);
+            for (int j = 0; j < pages.length; j++)
+                t.setField(j, pages[j] != null ? pages[j].getField(row) : null);
+            t.setRecordId(new RecordId(new HeapPageId(getId(), chunk * td.numFields()), row));
+            row++;
+            return t;
+        }
+
+        public void rewind() {
+            open();
+        }
+
+        public void close() {
+            open = false;
+            pages = null;
+        }
+    }
+}
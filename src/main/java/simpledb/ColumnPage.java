@@ -0,0 +1,84 @@
+package simpledb;
+
+import java.io.IOException;
+
+/**
+ * ColumnPage is the chunk of one column of a {@link ColumnFile}: the values
+ * of that column for a run of consecutive rows, decoded from their
+ * {@link ColumnEncoding}.  Column pages are only ever read; the file is
+ * written as a whole by {@link ColumnFile#build}.
+ * <p>
+ * The page number of a chunk is <tt>chunk * numFields + column</tt>, so
+ * the pages of a chunk of rows are next to each other.
+ */
+public class ColumnPage implements Page {
+
+    private final HeapPageId pid;
+    private final byte[] data;
+    private final Type type;
+    private final int length;
+    private final int[] ints;
+    private final String[] strings;
+
+    /**
+     * Decode a column page from the bytes of its chunk, taking the type of
+     * the column from the catalog.
+     *
+     * @param id the id of the page
+     * @param data the encoded chunk
+     */
+    public ColumnPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, Database.getCatalog().getTupleDesc(id.getTableId()), data);
+    }
+
+    ColumnPage(HeapPageId id, TupleDesc td, byte[] data) throws IOException {
+        int column = id.pageNumber() % td.numFields();
+        this.pid = id;
+        this.data = data;
+        this.type = td.getFieldType(column);
+        this.length = td.getFieldLength(column);
+        if (type == Type.INT_TYPE) {
+            ints = ColumnEncoding.decodeInts(data);
+            strings = null;
+        } else {
+            ints = null;
+            strings = ColumnEncoding.decodeStrings(data);
+        }
+    }
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /** @return the number of rows of the chunk */
+    public int getNumRows() {
+        return ints != null ? ints.length : strings.length;
+    }
+
+    /** @return the value of the column in a row of the chunk */
+    public Field getField(int row) {
+        if (ints != null)
+            return new IntField(ints[row]);
+        return new StringField(strings[row], type == Type.STRING_TYPE ? Type.STRING_LEN : length, type);
+    }
+
+    /** @return the encoded chunk */
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    /** Column pages are never changed, so they are never dirty. */
+    public void markDirty(boolean dirty, TransactionId tid) {
+    }
+
+    public TransactionId isDirty() {
+        return null;
+    }
+
+    public ColumnPage getBeforeImage() {
+        return this;
+    }
+
+    public void setBeforeImage() {
+    }
+}
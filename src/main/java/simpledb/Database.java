@@ -21,6 +21,12 @@ public class Database {
     private Database() {
     	_catalog = new Catalog();
     	_bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES);
+        try {
+            _bufferpool.configure(System.getProperties());
+        } catch (DbException e) {
+            // cannot happen, the pool is still empty
+            e.printStackTrace();
+        }
     	try {
             _logfile = new LogFile(new File(LOGFILENAME));
         } catch(IOException e) {
@@ -50,12 +56,14 @@ public class Database {
         buffer pool and return it
     */
     public static BufferPool resetBufferPool(int pages) {
+        _instance._bufferpool.stopBackgroundWriter();
         _instance._bufferpool = new BufferPool(pages);
         return _instance._bufferpool;
     }
 
     //reset the database, used for unit tests only.
     public static void reset() {
+        _instance._bufferpool.stopBackgroundWriter();
     	_instance = new Database();
     }
 
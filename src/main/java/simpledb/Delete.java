@@ -1,5 +1,8 @@
 package simpledb;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * The delete operator. Delete reads tuples from its child operator and removes
  * them from the table they belong to.
@@ -7,6 +10,10 @@ package simpledb;
 public class Delete extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** The most tuples read from the child before they are deleted together. */
+    static final int BATCH_TUPLES = 4096;
+
     private TransactionId transId;
     DbIterator child;
     DbIterator[] children;
@@ -52,11 +59,12 @@ public class Delete extends Operator {
     /**
      * Deletes tuples as they are read from the child operator. Deletes are
      * processed via the buffer pool (which can be accessed via the
-     * Database.getBufferPool() method.
+     * Database.getBufferPool() method, in batches of up to BATCH_TUPLES,
+     * a page at a time.
      * 
      * @return A 1-field tuple containing the number of deleted records.
      * @see Database#getBufferPool
-     * @see BufferPool#deleteTuple
+     * @see BufferPool#deleteTuples
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
@@ -66,9 +74,13 @@ public class Delete extends Operator {
             hasOpen = true;
         int num = 0;
         child.open();
+        List<Tuple> batch = new ArrayList<Tuple>();
         while (child.hasNext()) {
-            Database.getBufferPool().deleteTuple(transId, child.next());
-            num++;
+            batch.add(child.next());
+            if (batch.size() == BATCH_TUPLES || !child.hasNext()) {
+                num += Database.getBufferPool().deleteTuples(transId, batch.iterator());
+                batch.clear();
+            }
         }
         Tuple tuple = new Tuple(new TupleDesc(new Type[]{Type.INT_TYPE}));
         tuple.setField(0, new IntField(num));
@@ -0,0 +1,63 @@
+package simpledb;
+
+/**
+ * A StringField read from a dictionary-encoded column, which carries the
+ * code of its value in the column's {@link Dictionary}.
+ * <p>
+ * Two fields of the same dictionary are equal exactly when their codes are,
+ * so equality tests, and the hash tables of joins and group-bys keyed on
+ * such fields, compare ints rather than strings.  A DictField is equal to a
+ * plain StringField with the same value, and hashes like one.
+ */
+public class DictField extends StringField {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient Dictionary dictionary;
+    private final int code;
+    private final int hash;
+
+    DictField(String s, int maxSize, Type type, Dictionary dictionary, int code) {
+        super(s, maxSize, type);
+        this.dictionary = dictionary;
+        this.code = code;
+        this.hash = getValue().hashCode();
+    }
+
+    /** @return the code of the value in its dictionary */
+    public int getCode() {
+        return code;
+    }
+
+    /** @return the dictionary the code belongs to */
+    public Dictionary getDictionary() {
+        return dictionary;
+    }
+
+    public int hashCode() {
+        return hash;
+    }
+
+    public boolean equals(Object field) {
+        if (field instanceof DictField && dictionary != null
+                && ((DictField) field).dictionary == dictionary)
+            return ((DictField) field).code == code;
+        return super.equals(field);
+    }
+
+    /**
+     * Compare the specified field to the value of this Field.  EQUALS and
+     * NOT_EQUALS are decided on codes; a plain StringField operand is looked
+     * up in the dictionary, and a value that is not in it matches nothing.
+     *
+     * @see Field#compare
+     */
+    public boolean compare(Predicate.Op op, Field val) {
+        if (dictionary != null && (op == Predicate.Op.EQUALS || op == Predicate.Op.NOT_EQUALS)) {
+            DictField other = dictionary.lookup((StringField) val);
+            boolean equal = other != null && other.code == code;
+            return op == Predicate.Op.EQUALS ? equal : !equal;
+        }
+        return super.compare(op, val);
+    }
+}
@@ -0,0 +1,212 @@
+package simpledb;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Dictionary maps the distinct values of a dictionary-encoded string column
+ * to small integer codes, so that pages store each value of the column as a
+ * four-byte code instead of the whole string.
+ * <p>
+ * Codes are handed out in the order values are first seen and are never
+ * reused, so they are not ordered like the strings: equality can be decided
+ * on codes, while ordering comparisons and LIKE use the strings.  Each code
+ * is decoded to one shared {@link DictField}, so reading a column builds no
+ * strings.
+ * <p>
+ * The values are stored in a file next to the table, appended and forced to
+ * disk as soon as a new value gets its code, before any page holding the
+ * code can be written.  A code whose insert is rolled back stays in the
+ * dictionary.
+ *
+ * @see TupleDesc#getDictionary
+ */
+public class Dictionary {
+
+    /** Suffix of the name of the file holding a dictionary. */
+    static final String SUFFIX = ".dict";
+
+    /** Bytes taken by a code on a page. */
+    static final int CODE_SIZE = 4;
+
+    private final Type type;
+    private final int maxSize;
+    private final RandomAccessFile raf;
+    private final Map<String, DictField> codes = new HashMap<String, DictField>();
+    /** field of each code; a reader that finds no field takes the lock to be sure */
+    private volatile DictField[] fields = new DictField[16];
+    private int size;
+    /** the last value found by {@link #lookup} */
+    private volatile Lookup last;
+
+    /** A value looked up, and its field. */
+    private static final class Lookup {
+        final StringField key;
+        final DictField field;
+
+        Lookup(StringField key, DictField field) {
+            this.key = key;
+            this.field = field;
+        }
+    }
+
+    /**
+     * Create a dictionary that is kept in memory only.
+     *
+     * @param maxSize the longest string of the column, as for {@link StringField}
+     */
+    public Dictionary(int maxSize) {
+        this(Type.STRING_TYPE, maxSize);
+    }
+
+    /**
+     * Create a dictionary of a column of the given type that is kept in
+     * memory only.
+     *
+     * @param type the type of the column, STRING_TYPE or VARCHAR_TYPE
+     * @param maxSize the longest string of the column, as for {@link StringField}
+     */
+    public Dictionary(Type type, int maxSize) {
+        this(type, maxSize, null);
+    }
+
+    private Dictionary(Type type, int maxSize, RandomAccessFile raf) {
+        this.type = type;
+        this.maxSize = maxSize;
+        this.raf = raf;
+    }
+
+    /** @return the file holding the dictionary of a column of the table stored in f */
+    static File dictionaryFile(File f, int column) {
+        return new File(f.getPath() + "." + column + SUFFIX);
+    }
+
+    /**
+     * Open the dictionary stored in a file, creating the file if there is
+     * none.
+     *
+     * @param f the file of the dictionary
+     * @param maxSize the longest string of the column
+     */
+    public static Dictionary open(File f, int maxSize) throws IOException {
+        return open(f, Type.STRING_TYPE, maxSize);
+    }
+
+    /**
+     * Open the dictionary of a column of the given type stored in a file,
+     * creating the file if there is none.
+     *
+     * @param f the file of the dictionary
+     * @param type the type of the column, STRING_TYPE or VARCHAR_TYPE
+     * @param maxSize the longest string of the column
+     */
+    public static Dictionary open(File f, Type type, int maxSize) throws IOException {
+        Dictionary d = new Dictionary(type, maxSize, new RandomAccessFile(f, "rw"));
+        synchronized (d) {
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+            long end = 0;
+            try {
+                long length = f.length();
+                while (end + 4 <= length) {
+                    int len = dis.readInt();
+                    if (end + 4 + len > length)
+                        break;
+                    byte[] bytes = new byte[len];
+                    dis.readFully(bytes);
+                    d.add(new String(bytes));
+                    end += 4 + len;
+                }
+            } finally {
+                dis.close();
+            }
+            // drop a value whose append was cut short
+            d.raf.setLength(end);
+            d.raf.seek(end);
+        }
+        return d;
+    }
+
+    private DictField add(String s) {
+        DictField field = new DictField(s, maxSize, type, this, size);
+        if (size == fields.length)
+            fields = Arrays.copyOf(fields, size * 2);
+        fields[size++] = field;
+        codes.put(field.getValue(), field);
+        return field;
+    }
+
+    /** @return the number of distinct values in the dictionary */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Return the code of a value, giving it a new code if it has none.
+     *
+     * @param s the value; it is cut to the longest string of the column
+     * @throws IOException if a new value could not be stored
+     */
+    public synchronized int encode(String s) throws IOException {
+        if (s.length() > maxSize)
+            s = s.substring(0, maxSize);
+        DictField field = codes.get(s);
+        if (field != null)
+            return field.getCode();
+        if (raf != null) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(4 + s.length());
+            DataOutputStream dos = new DataOutputStream(baos);
+            dos.writeInt(s.length());
+            dos.writeBytes(s);
+            raf.write(baos.toByteArray());
+            raf.getFD().sync();
+        }
+        return add(s).getCode();
+    }
+
+    /**
+     * @return the field of a code, or null if the code is not in the
+     *         dictionary, e.g. because it was read from a page being
+     *         replaced
+     */
+    public DictField decode(int code) {
+        DictField[] f = fields;
+        if (code >= 0 && code < f.length && f[code] != null)
+            return f[code];
+        synchronized (this) {
+            return code >= 0 && code < size ? fields[code] : null;
+        }
+    }
+
+    /**
+     * Look up the field of a value without adding it.  The answer for the
+     * last value found is remembered, so a predicate compared against every
+     * tuple of a scan costs one reference comparison per tuple.
+     *
+     * @return the field of the value, or null if the value has no code
+     */
+    public DictField lookup(StringField s) {
+        if (s instanceof DictField && ((DictField) s).getDictionary() == this)
+            return (DictField) s;
+        Lookup l = last;
+        if (l != null && l.key == s)
+            return l.field;
+        String value = s.getValue();
+        if (value.length() > maxSize)
+            value = value.substring(0, maxSize);
+        DictField found;
+        synchronized (this) {
+            found = codes.get(value);
+        }
+        if (found != null)
+            last = new Lookup(s, found);
+        return found;
+    }
+
+    /** Close the file of the dictionary. */
+    public synchronized void close() throws IOException {
+        if (raf != null)
+            raf.close();
+    }
+}
@@ -10,6 +10,8 @@ public class Filter extends Operator {
     private static final long serialVersionUID = 1L;
     private Predicate predicate;
     private DbIterator child;
+    /** true if the scan below applies the predicate already */
+    private boolean pushed;
 
     /**
      * Constructor accepts a predicate to apply and a child operator to read
@@ -40,10 +42,25 @@ public class Filter extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
+        pushed = pushDown(predicate);
         super.open();
         child.open();
     }
 
+    /**
+     * Hand a predicate to the SeqScan below this filter and any filters
+     * directly under it, so that the scan tests it on its pages.
+     *
+     * @return true if the scan applies the predicate
+     */
+    boolean pushDown(Predicate p) {
+        if (child instanceof SeqScan)
+            return ((SeqScan) child).addPredicate(p);
+        if (child instanceof Filter)
+            return ((Filter) child).pushDown(p);
+        return false;
+    }
+
     public void close() {
         // some code goes here
         child.close();
@@ -68,7 +85,7 @@ public class Filter extends Operator {
         // some code goes here
         while (child.hasNext()){
             Tuple tuple = child.next();
-            if (predicate.filter(tuple))
+            if (pushed || predicate.filter(tuple))
                 return tuple;
         }
 
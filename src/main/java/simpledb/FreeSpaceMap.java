@@ -0,0 +1,109 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap keeps a one-byte summary of the free slots of every page of
+ * a HeapFile, so that an insert can pick a page with room without reading
+ * the pages that have none.
+ * <p>
+ * The summary of a page is 0 if the page is full, and otherwise the share
+ * of its slots that are free, scaled to 1..255.  It is stored in a file
+ * next to the table, one byte per page, and that byte is written whenever
+ * the page itself is written, so the file describes the pages on disk.
+ * Changes to pages in the buffer pool only update the map in memory.
+ * <p>
+ * The map is a hint: callers check the page they are handed, and report
+ * what they found with {@link #update}.
+ *
+ * @see HeapFile
+ */
+class FreeSpaceMap {
+
+    /** Suffix of the name of the file holding the map, after the table's file name. */
+    static final String SUFFIX = ".fsm";
+
+    private final int slotsPerPage;
+    private final RandomAccessFile raf;
+    private byte[] levels = new byte[64];
+    private int size;
+    /** pages whose level is not 0 */
+    private final BitSet free = new BitSet();
+
+    private FreeSpaceMap(File file, int slotsPerPage) throws IOException {
+        this.slotsPerPage = slotsPerPage;
+        this.raf = new RandomAccessFile(file, "rw");
+    }
+
+    /**
+     * Open the map of a HeapFile.  Pages the stored map does not cover, e.g.
+     * because the map is new, are read from the table to fill it in.
+     *
+     * @param hf the file the map describes
+     * @param slotsPerPage the number of tuple slots on a page of the file
+     */
+    static FreeSpaceMap open(HeapFile hf, int slotsPerPage) throws IOException {
+        FreeSpaceMap map = new FreeSpaceMap(new File(hf.getFile().getPath() + SUFFIX), slotsPerPage);
+        int pages = hf.numPages();
+        synchronized (map) {
+            byte[] stored = new byte[(int) Math.min(map.raf.length(), pages)];
+            map.raf.readFully(stored);
+            for (int i = 0; i < stored.length; i++)
+                map.set(i, stored[i] & 0xff);
+            for (int i = stored.length; i < pages; i++) {
+                Page page = hf.readPage(new HeapPageId(hf.getId(), i));
+                if (page instanceof TuplePage)
+                    map.write(i, ((TuplePage) page).getNumEmptySlots());
+            }
+        }
+        return map;
+    }
+
+    /**
+     * @return the lowest page number at or after from that has free slots,
+     *         or -1 if there is none
+     */
+    synchronized int findFree(int from) {
+        return free.nextSetBit(from);
+    }
+
+    /** @return the summary of a page, 0 if it is full or unknown */
+    synchronized int level(int pgNo) {
+        return pgNo < size ? levels[pgNo] & 0xff : 0;
+    }
+
+    /** Record the number of free slots of a page that changed in memory. */
+    synchronized void update(int pgNo, int freeSlots) {
+        set(pgNo, toLevel(freeSlots));
+    }
+
+    /** Record the number of free slots of a page that was written to disk. */
+    synchronized void write(int pgNo, int freeSlots) throws IOException {
+        int level = toLevel(freeSlots);
+        set(pgNo, level);
+        raf.seek(pgNo);
+        raf.write(level);
+    }
+
+    synchronized void close() throws IOException {
+        raf.close();
+    }
+
+    private int toLevel(int freeSlots) {
+        if (freeSlots <= 0)
+            return 0;
+        return Math.max(1, (int) ((long) freeSlots * 255 / slotsPerPage));
+    }
+
+    private void set(int pgNo, int level) {
+        if (pgNo >= levels.length)
+            levels = Arrays.copyOf(levels, Math.max(pgNo + 1, levels.length * 2));
+        size = Math.max(size, pgNo + 1);
+        levels[pgNo] = (byte) level;
+        free.set(pgNo, level != 0);
+    }
+}
@@ -0,0 +1,420 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * HashIndexFile is a linear hashing index over one field of a table stored
+ * in a HeapFile.  Its buckets map each key to the RecordIds of the tuples
+ * that hold it, and its pages are read and locked through the BufferPool
+ * like the pages of the table, see {@link HashPage}.
+ * <p>
+ * Looking a key up reads the meta page, page 0, and the bucket the key
+ * hashes to, plus the overflow pages chained to the bucket if it has
+ * outgrown its first page.  With level l and split pointer s, a key whose
+ * hash is h is in bucket h mod (n 2^l), n being {@link #INITIAL_BUCKETS},
+ * or in bucket h mod (n 2^(l+1)) if the first is below s.  Whenever an
+ * insert has to chain an overflow page to a bucket, bucket s is split:
+ * its entries are divided between it and bucket s + n 2^l and s moves
+ * on, so that buckets are split in turn and chains stay short.  Only
+ * these splits change the meta page, so inserts into buckets with room
+ * share it.
+ * <p>
+ * The first page of bucket b is page 2b + 1 and overflow pages take the
+ * even pages from 2 on, so that buckets can be added at their page
+ * without moving overflow pages out of the way.  Pages emptied by deletes
+ * stay in their chain and buckets are never merged.
+ *
+ * @see Catalog#addIndex
+ * @see IndexScan
+ * @see IndexNestedLoopJoin
+ */
+public class HashIndexFile extends AbstractIndexFile {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Suffix of the name of an index file, after the table's file name and the field. */
+    static final String SUFFIX = ".hash";
+
+    /** The number of buckets at level 0; a power of two. */
+    static final int INITIAL_BUCKETS = 4;
+
+    /** Share of each bucket page {@link #build} fills on average, leaving room for inserts. */
+    static final double FILL_FACTOR = 0.75;
+
+    private static final int META_PAGE = 0;
+
+    /**
+     * Open an index written by {@link #build}.
+     *
+     * @param f the file holding the index
+     * @param table the indexed table
+     * @param keyField the index of the indexed field in the table
+     */
+    public HashIndexFile(File f, HeapFile table, int keyField) {
+        super(f, table, keyField);
+    }
+
+    /** @return the file holding the index of a field of the table stored in f */
+    static File indexFile(File f, int keyField) {
+        return new File(f.getPath() + "." + keyField + SUFFIX);
+    }
+
+    /** @return the hash of a key, spread over all bits and non-negative */
+    static int hash(Field key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h & Integer.MAX_VALUE;
+    }
+
+    /** @return the bucket a key with hash h is in, at a level and split pointer */
+    static int bucket(int h, int level, int split) {
+        int n = INITIAL_BUCKETS << level;
+        int b = h & (n - 1);
+        return b < split ? h & (2 * n - 1) : b;
+    }
+
+    /** @return the page number of the first page of bucket b */
+    static int bucketPage(int b) {
+        return 2 * b + 1;
+    }
+
+    /**
+     * Build the index of a field of a table from the tuples of the table,
+     * with as many buckets as it takes to fill them to {@link #FILL_FACTOR}.
+     * The table is read as {@link AbstractIndexFile#entries} reads it.
+     *
+     * @param f the file to write the index to
+     * @param table the table to index
+     * @param keyField the index of the field to index
+     * @return the new index; it still has to be added to the catalog
+     */
+    public static HashIndexFile build(File f, HeapFile table, int keyField) throws IOException {
+        HashIndexFile index = new HashIndexFile(f, table, keyField);
+        List<Entry> entries = entries(table, keyField);
+
+        Type type = index.getKeyType();
+        int length = index.getKeyLength();
+        int capacity = HashPage.capacity(type, length);
+        int level = 0;
+        while ((long) (INITIAL_BUCKETS << level) * capacity * FILL_FACTOR < entries.size())
+            level++;
+        int numBuckets = INITIAL_BUCKETS << level;
+        List<List<Entry>> buckets = new ArrayList<List<Entry>>();
+        for (int b = 0; b < numBuckets; b++)
+            buckets.add(new ArrayList<Entry>());
+        for (Entry e : entries)
+            buckets.get(bucket(hash(e.key), level, 0)).add(e);
+
+        int id = index.getId();
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            raf.setLength(0);
+            int free = 2;
+            for (int b = 0; b < numBuckets; b++) {
+                int pgNo = bucketPage(b);
+                HashPage page = new HashPage(new HeapPageId(id, pgNo),
+                        HashPage.createEmptyPageData(HashPage.BUCKET), type, length);
+                for (Entry e : buckets.get(b)) {
+                    if (page.count() == capacity) {
+                        // a bucket of many duplicates
+                        page.setOverflow(free);
+                        write(raf, pgNo, page);
+                        pgNo = free;
+                        free += 2;
+                        page = new HashPage(new HeapPageId(id, pgNo),
+                                HashPage.createEmptyPageData(HashPage.BUCKET), type, length);
+                    }
+                    page.addEntry(e.key, e.page, e.slot);
+                }
+                write(raf, pgNo, page);
+            }
+            HashPage meta = new HashPage(new HeapPageId(id, META_PAGE),
+                    HashPage.createEmptyPageData(HashPage.META), type, length);
+            meta.setMeta(level, 0, free);
+            write(raf, META_PAGE, meta);
+        } finally {
+            raf.close();
+        }
+        return index;
+    }
+
+    // see AbstractIndexFile.java for javadocs
+    Page createPage(HeapPageId pid, byte[] data) throws IOException {
+        return new HashPage(pid, data, this);
+    }
+
+    private HashPage page(TransactionId tid, int pgNo, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        return (HashPage) Database.getBufferPool().getPage(tid, new HeapPageId(getId(), pgNo), perm);
+    }
+
+    /**
+     * Retrieve a page and pin it in the buffer pool, so that changes made
+     * to it later in the same operation are not made to a copy the pool
+     * has already evicted.
+     *
+     * @param pins the pages pinned so far, to unpin when the operation ends
+     */
+    private HashPage pinned(TransactionId tid, int pgNo, Permissions perm, List<PageId> pins)
+            throws TransactionAbortedException, DbException {
+        PageId pid = new HeapPageId(getId(), pgNo);
+        HashPage page = (HashPage) Database.getBufferPool().pinPage(tid, pid, perm);
+        pins.add(pid);
+        return page;
+    }
+
+    /**
+     * Write an empty bucket page at a page number and lock it for writing.
+     */
+    private HashPage newPage(TransactionId tid, int pgNo, List<PageId> pins)
+            throws IOException, TransactionAbortedException, DbException {
+        HeapPageId pid = new HeapPageId(getId(), pgNo);
+        writePage(new HashPage(pid, HashPage.createEmptyPageData(HashPage.BUCKET), this));
+        return pinned(tid, pgNo, Permissions.READ_WRITE, pins);
+    }
+
+    /**
+     * Allocate an overflow page and chain it after the last page of a
+     * bucket.  The caller holds the write lock on the meta page.
+     */
+    private HashPage chainOverflow(TransactionId tid, HashPage meta, HashPage last, ArrayList<Page> dirtied,
+            List<PageId> pins)
+            throws IOException, TransactionAbortedException, DbException {
+        int pgNo;
+        synchronized (meta) {
+            pgNo = meta.free();
+            meta.setMeta(meta.level(), meta.split(), pgNo + 2);
+            meta.markDirty(true, tid);
+        }
+        HashPage overflow = newPage(tid, pgNo, pins);
+        synchronized (last) {
+            last.setOverflow(pgNo);
+            last.markDirty(true, tid);
+        }
+        dirtied.add(meta);
+        dirtied.add(last);
+        return overflow;
+    }
+
+    /**
+     * Add the entry of a tuple to the index, splitting the next bucket in
+     * turn if the entry needs an overflow page.
+     *
+     * @param t a tuple stored in the indexed table, with its RecordId set
+     * @return the pages of the index that were changed
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        Field key = t.getField(getKeyField());
+        RecordId rid = t.getRecordId();
+        if (key == null || rid == null)
+            throw new DbException("only tuples stored in the table can be indexed");
+        int ridPage = rid.getPageId().pageNumber();
+        List<PageId> pins = new ArrayList<PageId>();
+        try {
+            HashPage meta = pinned(tid, META_PAGE, Permissions.READ_ONLY, pins);
+            ArrayList<Page> dirtied = new ArrayList<Page>();
+            HashPage page = pinned(tid, bucketPage(bucket(hash(key), meta.level(), meta.split())),
+                    Permissions.READ_WRITE, pins);
+            while (true) {
+                synchronized (page) {
+                    if (page.count() < page.capacity()) {
+                        page.addEntry(key, ridPage, rid.tupleno());
+                        page.markDirty(true, tid);
+                        dirtied.add(page);
+                        return dirtied;
+                    }
+                }
+                if (page.overflow() == HashPage.NO_PAGE)
+                    break;
+                page = pinned(tid, page.overflow(), Permissions.READ_WRITE, pins);
+            }
+
+            meta = pinned(tid, META_PAGE, Permissions.READ_WRITE, pins);
+            HashPage overflow = chainOverflow(tid, meta, page, dirtied, pins);
+            synchronized (overflow) {
+                overflow.addEntry(key, ridPage, rid.tupleno());
+                overflow.markDirty(true, tid);
+            }
+            dirtied.add(overflow);
+            split(tid, meta, dirtied, pins);
+            return dirtied;
+        } finally {
+            for (PageId pid : pins)
+                Database.getBufferPool().unpinPage(pid);
+        }
+    }
+
+    /**
+     * Split the bucket the split pointer names, moving the entries that
+     * hash to the new bucket at the next level there, and advance the
+     * split pointer.  The caller holds the write lock on the meta page.
+     */
+    private void split(TransactionId tid, HashPage meta, ArrayList<Page> dirtied, List<PageId> pins)
+            throws DbException, IOException, TransactionAbortedException {
+        int level = meta.level();
+        int s = meta.split();
+        int n = INITIAL_BUCKETS << level;
+        List<HashPage> chain = new ArrayList<HashPage>();
+        List<Entry> stay = new ArrayList<Entry>();
+        List<Entry> move = new ArrayList<Entry>();
+        int pgNo = bucketPage(s);
+        while (pgNo != HashPage.NO_PAGE) {
+            HashPage page = pinned(tid, pgNo, Permissions.READ_WRITE, pins);
+            synchronized (page) {
+                for (int i = 0; i < page.count(); i++) {
+                    Entry e = new Entry(page.key(i), page.ridPage(i), page.ridSlot(i));
+                    if (bucket(hash(e.key), level + 1, 0) == s)
+                        stay.add(e);
+                    else
+                        move.add(e);
+                }
+                page.clear();
+                page.markDirty(true, tid);
+            }
+            chain.add(page);
+            pgNo = page.overflow();
+        }
+        List<HashPage> newChain = new ArrayList<HashPage>();
+        newChain.add(newPage(tid, bucketPage(s + n), pins));
+        fill(tid, meta, chain, stay, dirtied, pins);
+        fill(tid, meta, newChain, move, dirtied, pins);
+        synchronized (meta) {
+            if (s + 1 == n)
+                meta.setMeta(level + 1, 0, meta.free());
+            else
+                meta.setMeta(level, s + 1, meta.free());
+            meta.markDirty(true, tid);
+        }
+        dirtied.add(meta);
+    }
+
+    /**
+     * Add entries to the empty pages of a bucket, chaining overflow pages
+     * to it if they do not fit.
+     */
+    private void fill(TransactionId tid, HashPage meta, List<HashPage> chain, List<Entry> entries,
+            ArrayList<Page> dirtied, List<PageId> pins) throws DbException, IOException, TransactionAbortedException {
+        int i = 0;
+        for (Entry e : entries) {
+            HashPage page = chain.get(i);
+            if (page.count() == page.capacity()) {
+                if (++i == chain.size())
+                    chain.add(chainOverflow(tid, meta, page, dirtied, pins));
+                page = chain.get(i);
+            }
+            synchronized (page) {
+                page.addEntry(e.key, e.page, e.slot);
+            }
+        }
+        for (HashPage page : chain) {
+            page.markDirty(true, tid);
+            dirtied.add(page);
+        }
+    }
+
+    /**
+     * Remove the entry of a tuple from the index.  The key is read from the
+     * table if the tuple does not carry it, so this has to be called before
+     * the tuple is deleted from the table.
+     *
+     * @param t a tuple stored in the indexed table, with its RecordId set
+     * @return the page the entry was removed from
+     * @throws DbException if the index has no entry for the tuple
+     */
+    public Page deleteTuple(TransactionId tid, Tuple t) throws DbException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        Field key = storedKey(tid, t);
+        int ridPage = rid.getPageId().pageNumber();
+        HashPage meta = page(tid, META_PAGE, Permissions.READ_ONLY);
+        int pgNo = bucketPage(bucket(hash(key), meta.level(), meta.split()));
+        while (pgNo != HashPage.NO_PAGE) {
+            HashPage page = page(tid, pgNo, Permissions.READ_ONLY);
+            for (int i = 0; i < page.count(); i++) {
+                if (!page.matches(i, key, ridPage, rid.tupleno()))
+                    continue;
+                page = page(tid, pgNo, Permissions.READ_WRITE);
+                synchronized (page) {
+                    page.removeEntry(i);
+                    page.markDirty(true, tid);
+                }
+                return page;
+            }
+            pgNo = page.overflow();
+        }
+        throw new DbException("the tuple has no entry in the index");
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new HashIndexIterator(tid, null);
+    }
+
+    // see IndexFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid, Field key) {
+        return new HashIndexIterator(tid, key);
+    }
+
+    /** Walks the chain of the bucket of a key, or of every bucket in turn. */
+    private class HashIndexIterator extends AbstractDbFileIterator {
+        private static final long serialVersionUID = 1L;
+
+        private final TransactionId tid;
+        private final Field key;
+        private int bucket;
+        private int numBuckets;
+        private HashPage page;
+        private int pos;
+
+        HashIndexIterator(TransactionId tid, Field key) {
+            this.tid = tid;
+            this.key = key;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            HashPage meta = page(tid, META_PAGE, Permissions.READ_ONLY);
+            if (key != null) {
+                bucket = bucket(hash(key), meta.level(), meta.split());
+                numBuckets = bucket + 1;
+            } else {
+                bucket = 0;
+                numBuckets = (INITIAL_BUCKETS << meta.level()) + meta.split();
+            }
+            page = page(tid, bucketPage(bucket), Permissions.READ_ONLY);
+            pos = 0;
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            while (page != null) {
+                while (pos < page.count()) {
+                    int i = pos++;
+                    if (key == null || page.matches(i, key))
+                        return fetch(tid, page.ridPage(i), page.ridSlot(i));
+                }
+                pos = 0;
+                if (page.overflow() != HashPage.NO_PAGE)
+                    page = page(tid, page.overflow(), Permissions.READ_ONLY);
+                else if (++bucket < numBuckets)
+                    page = page(tid, bucketPage(bucket), Permissions.READ_ONLY);
+                else
+                    page = null;
+            }
+            return null;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            page = null;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package simpledb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * HashPage is a page of a {@link HashIndexFile}: the meta page, which holds
+ * the state of the linear hashing, or a bucket page, the first page of a
+ * bucket or an overflow page chained to it.
+ * <p>
+ * A bucket page is a kind byte, an int entry count and the int page number
+ * of the next overflow page of the bucket, followed by the entries in no
+ * particular order, each a key in its fixed-size form and the page and
+ * slot of the RecordId of a tuple holding it.  The meta page is the kind
+ * byte followed by the level, the next bucket to split and the page number
+ * of the next overflow page to allocate.
+ */
+public class HashPage implements Page {
+
+    static final byte BUCKET = 1;
+    static final byte META = 2;
+
+    /** The overflow page of the last page of a bucket. */
+    static final int NO_PAGE = -1;
+
+    private static final int KIND = 0;
+    private static final int COUNT = 1;
+    private static final int OVERFLOW = 5;
+    private static final int ENTRIES = 9;
+
+    private static final int LEVEL = 1;
+    private static final int SPLIT = 5;
+    private static final int FREE = 9;
+
+    private final HeapPageId pid;
+    private final byte[] data;
+    private final ByteBuffer view;
+    private final Type keyType;
+    private final int keyLength;
+    private final int keySize;
+    private final int entrySize;
+    private volatile byte[] oldData;
+    private volatile TransactionId dirtier;
+
+    /**
+     * Read a page of an index in the catalog.
+     *
+     * @param id the id of the page
+     * @param data the bytes of the page
+     */
+    public HashPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data, (HashIndexFile) Database.getCatalog().getDbFile(id.getTableId()));
+    }
+
+    HashPage(HeapPageId id, byte[] data, HashIndexFile file) throws IOException {
+        this(id, data, file.getKeyType(), file.getKeyLength());
+    }
+
+    HashPage(HeapPageId id, byte[] data, Type keyType, int keyLength) throws IOException {
+        if (data.length < BufferPool.PAGE_SIZE)
+            throw new IOException("page data is shorter than a page");
+        this.pid = id;
+        this.data = Arrays.copyOf(data, BufferPool.PAGE_SIZE);
+        this.view = ByteBuffer.wrap(this.data);
+        this.keyType = keyType;
+        this.keyLength = keyLength;
+        this.keySize = keyType.getLen(keyLength);
+        this.entrySize = keySize + 8;
+    }
+
+    /** @return the bytes of an empty page of the given kind */
+    static byte[] createEmptyPageData(byte kind) {
+        byte[] data = new byte[BufferPool.PAGE_SIZE];
+        ByteBuffer view = ByteBuffer.wrap(data);
+        view.put(KIND, kind);
+        if (kind == BUCKET)
+            view.putInt(OVERFLOW, NO_PAGE);
+        return data;
+    }
+
+    /** @return the number of entries a bucket page holds at most */
+    static int capacity(Type keyType, int keyLength) {
+        return (BufferPool.PAGE_SIZE - ENTRIES) / (keyType.getLen(keyLength) + 8);
+    }
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /** @return {@link #BUCKET} or {@link #META} */
+    public byte kind() {
+        return data[KIND];
+    }
+
+    /** @return the number of entries on the page */
+    public int count() {
+        return view.getInt(COUNT);
+    }
+
+    /** @return the most entries the page can hold */
+    public int capacity() {
+        return (BufferPool.PAGE_SIZE - ENTRIES) / entrySize;
+    }
+
+    /** @return the page number of the next overflow page, or {@link #NO_PAGE} */
+    public int overflow() {
+        return view.getInt(OVERFLOW);
+    }
+
+    void setOverflow(int pgNo) {
+        beforeChange();
+        view.putInt(OVERFLOW, pgNo);
+    }
+
+    /** @return the level of the hashing; for the meta page only */
+    public int level() {
+        return view.getInt(LEVEL);
+    }
+
+    /** @return the next bucket to split; for the meta page only */
+    public int split() {
+        return view.getInt(SPLIT);
+    }
+
+    /** @return the next overflow page to allocate; for the meta page only */
+    public int free() {
+        return view.getInt(FREE);
+    }
+
+    void setMeta(int level, int split, int free) {
+        beforeChange();
+        view.putInt(LEVEL, level);
+        view.putInt(SPLIT, split);
+        view.putInt(FREE, free);
+    }
+
+    private int entryOffset(int i) {
+        return ENTRIES + i * entrySize;
+    }
+
+    /** @return the key of entry i */
+    public Field key(int i) {
+        return keyType.read(view, entryOffset(i));
+    }
+
+    /** @return the page number of the RecordId of entry i */
+    public int ridPage(int i) {
+        return view.getInt(entryOffset(i) + keySize);
+    }
+
+    /** @return the slot of the RecordId of entry i */
+    public int ridSlot(int i) {
+        return view.getInt(entryOffset(i) + keySize + 4);
+    }
+
+    /** @return true if the key of entry i equals key */
+    boolean matches(int i, Field key) {
+        if (keyType == Type.INT_TYPE)
+            return view.getInt(entryOffset(i)) == ((IntField) key).getValue();
+        return keyType.read(view, entryOffset(i)).compare(Predicate.Op.EQUALS, key);
+    }
+
+    /** @return true if entry i is the entry (key, page, slot) */
+    boolean matches(int i, Field key, int page, int slot) {
+        return ridPage(i) == page && ridSlot(i) == slot && matches(i, key);
+    }
+
+    /** Take the before-image if this is the first change since the last commit. */
+    private void beforeChange() {
+        if (oldData == null)
+            oldData = getPageData();
+    }
+
+    /** Add an entry after the others.  The page must not be full. */
+    void addEntry(Field key, int page, int slot) {
+        beforeChange();
+        int count = count();
+        int start = entryOffset(count);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(keySize);
+        try {
+            keyType.serialize(key, keyLength, new DataOutputStream(baos));
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        System.arraycopy(baos.toByteArray(), 0, data, start, keySize);
+        view.putInt(start + keySize, page);
+        view.putInt(start + keySize + 4, slot);
+        view.putInt(COUNT, count + 1);
+    }
+
+    /** Remove entry i, moving the last entry into its place. */
+    void removeEntry(int i) {
+        beforeChange();
+        int count = count();
+        System.arraycopy(data, entryOffset(count - 1), data, entryOffset(i), entrySize);
+        Arrays.fill(data, entryOffset(count - 1), entryOffset(count), (byte) 0);
+        view.putInt(COUNT, count - 1);
+    }
+
+    /** Remove all entries, keeping the overflow page. */
+    void clear() {
+        beforeChange();
+        Arrays.fill(data, ENTRIES, entryOffset(count()), (byte) 0);
+        view.putInt(COUNT, 0);
+    }
+
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    /** An unchanged page is its own before-image. */
+    public HashPage getBeforeImage() {
+        try {
+            byte[] before = oldData;
+            return new HashPage(pid, before != null ? before : getPageData(), keyType, keyLength);
+        } catch (IOException e) {
+            // we parsed it OK before
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Drop the before-image, so that the current content becomes the before-image. */
+    public void setBeforeImage() {
+        oldData = null;
+    }
+}
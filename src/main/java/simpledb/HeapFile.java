@@ -1,10 +1,13 @@
 package simpledb;
 
-import javax.xml.crypto.Data;
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
@@ -18,6 +21,15 @@ import java.util.*;
  */
 public class HeapFile implements DbFile {
 
+    /** System property that makes new HeapFiles memory-mapped when set to true */
+    public static final String MMAP_PROPERTY = "simpledb.heapfile.mmap";
+
+    /** Bytes per mapped segment of the file, 8192 pages of the default size. */
+    static final int SEGMENT_BYTES = 8192 * BufferPool.PAGE_SIZE;
+
+    /** The most empty pages {@link #insertTuples} appends in one write. */
+    static final int APPEND_PAGES = 64;
+
     /**
      * Constructs a heap file backed by the specified file.
      *
@@ -27,10 +39,208 @@ public class HeapFile implements DbFile {
      */
     private File file;
     private TupleDesc td;
+    /** the number of bytes of each page of the file */
+    private final int pageSize;
+    private volatile boolean memoryMapped = Boolean.getBoolean(MMAP_PROPERTY);
+    /** read-only mappings of the file, one per segment, grown as the file grows */
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    /** the open channel of the file, opened on first use */
+    private FileChannel channel;
+    /** the number of pages in the file, or -1 until it is first asked for */
+    private final AtomicInteger pageCount = new AtomicInteger(-1);
+    /** held while a gathering write moves the position of the channel */
+    private final Object positionLock = new Object();
+    /** held while pages are appended, so two appends never take the same number */
+    private final Object appendLock = new Object();
+    /** free slots per page, opened by the first insert or write */
+    private volatile FreeSpaceMap freeSpace;
+    /** value ranges per page, opened by the first insert, write or scan with predicates */
+    private volatile ZoneMap zones;
+    /** the fields Bloom filters are kept of, none unless set */
+    private volatile int[] bloomFields = new int[0];
+    /** Bloom filters per group of pages, opened by the first insert, write or scan with predicates */
+    private volatile BloomFilterMap blooms;
+    /** the fields bitmap indexed, none unless set */
+    private volatile int[] bitmapFields = new int[0];
+    /** value to tuple bitmaps, opened by the first insert, write or bitmap scan */
+    private volatile BitmapIndex bitmaps;
+
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Constructs a heap file with pages of the given size.  Large pages suit
+     * tables that are mostly scanned; see {@link BufferPool#checkPageSize}
+     * for the sizes allowed.
+     *
+     * @param f the file that stores the on-disk backing store for this heap file
+     * @param td the schema of the tuples of the file
+     * @param pageSize the number of bytes of each page
+     * @throws IllegalArgumentException if the page size is not allowed
+     */
+    public HeapFile(File f, TupleDesc td, int pageSize) {
         // some code goes here
         this.file = f;
         this.td = td;
+        this.pageSize = BufferPool.checkPageSize(pageSize);
+    }
+
+    /** @return the number of bytes of each page of the file */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Whether runs of pages may be read and written with single system
+     * calls, bypassing {@link #readPage} and {@link #writePage}.  Subclasses
+     * that override those methods to read or write pages some other way
+     * return false, so every page goes through them.
+     */
+    protected boolean supportsBatchedIo() {
+        return true;
+    }
+
+    /**
+     * Build a page of this file from bytes read from disk.  Subclasses that
+     * store their tuples in another page layout override this and
+     * {@link #slotsPerPage}.
+     */
+    TuplePage createPage(HeapPageId pid, byte[] data) throws IOException {
+        return new HeapPage(pid, data);
+    }
+
+    /** Build a page of this file over a read-only view of its bytes in the mapping of the file. */
+    TuplePage createPage(HeapPageId pid, ByteBuffer mapped) throws IOException {
+        return new HeapPage(pid, mapped);
+    }
+
+    /** @return the number of tuples of the file's TupleDesc an empty page can hold */
+    int slotsPerPage() {
+        return (pageSize * 8) / (td.getSize() * 8 + 1);
+    }
+
+    /**
+     * Iterate over the tuples of a page of this file that pass the
+     * predicates.  Pages that store rows decode every field anyway, so the
+     * columns are only a hint that subclasses storing columns can use.
+     *
+     * @param columns the fields callers use, or null for all of them; other
+     *        fields of the tuples may be left null
+     */
+    Iterator<Tuple> pageIterator(TuplePage page, List<Predicate> predicates, boolean[] columns) {
+        return page.iterator(predicates);
+    }
+
+    /**
+     * Serve page reads straight from a read-only memory mapping of the file
+     * instead of reading them into a buffer.  Pages read this way use the
+     * operating system's page cache as their storage until they are first
+     * changed; writes still go through {@link #writePage}.  Suited to
+     * tables that are mostly read.
+     */
+    public void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+        if (!memoryMapped) {
+            synchronized (this) {
+                segments = new MappedByteBuffer[0];
+            }
+        }
+    }
+
+    /**
+     * Keep Bloom filters of the values of some fields, so that scans for
+     * a value equal to a constant skip the groups of pages that cannot hold
+     * it.  The filters are kept in a file next to the table, see
+     * {@link BloomFilterMap}.
+     *
+     * @param fields the fields to keep filters of, none to keep none
+     */
+    public synchronized void setBloomFields(int... fields) throws IOException {
+        for (int f : fields) {
+            if (f < 0 || f >= td.numFields())
+                throw new IllegalArgumentException("no field " + f);
+        }
+        if (blooms != null) {
+            blooms.close();
+            blooms = null;
+        }
+        bloomFields = fields.clone();
+    }
+
+    /** @return the fields Bloom filters are kept of */
+    public int[] getBloomFields() {
+        return bloomFields.clone();
+    }
+
+    /**
+     * Keep a bitmap index of some fields with few distinct values, which
+     * {@link BitmapScan} reads.  The index is kept in a file next to the
+     * table, see {@link BitmapIndex}.
+     *
+     * @param fields the fields to index, none to keep no index
+     */
+    public synchronized void setBitmapFields(int... fields) throws IOException {
+        for (int f : fields) {
+            if (f < 0 || f >= td.numFields())
+                throw new IllegalArgumentException("no field " + f);
+        }
+        if (bitmaps != null) {
+            bitmaps.close();
+            bitmaps = null;
+        }
+        bitmapFields = fields.clone();
+    }
+
+    /** @return the fields with a bitmap index */
+    public int[] getBitmapFields() {
+        return bitmapFields.clone();
+    }
+
+    /** @return true if pages are read from a memory mapping of the file */
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    /**
+     * Return a read-only view of the bytes of a page in the mapping of the
+     * file.  The segment holding the page is mapped, or mapped again with
+     * the pages the file gained, if it does not cover the page yet.
+     */
+    private ByteBuffer mappedPage(int pgNo) throws IOException {
+        int segmentPages = SEGMENT_BYTES / pageSize;
+        int seg = pgNo / segmentPages;
+        int end = (pgNo % segmentPages + 1) * pageSize;
+        MappedByteBuffer[] segs = segments;
+        MappedByteBuffer segment = seg < segs.length ? segs[seg] : null;
+        if (segment == null || segment.capacity() < end)
+            segment = mapSegment(seg, end);
+        ByteBuffer view = segment.duplicate();
+        view.position(end - pageSize);
+        view.limit(end);
+        return view.slice();
+    }
+
+    private synchronized MappedByteBuffer mapSegment(int seg, int end) throws IOException {
+        MappedByteBuffer[] segs = segments;
+        if (seg < segs.length && segs[seg] != null && segs[seg].capacity() >= end)
+            return segs[seg];
+        long start = (long) seg * SEGMENT_BYTES;
+        FileChannel ch = channel();
+        long length = ch.size() - start;
+        length -= length % pageSize;
+        length = Math.min(length, (long) SEGMENT_BYTES);
+        if (length < end)
+            throw new IOException("page is past the end of the file");
+        // the mapping stays valid even if the channel is closed
+        MappedByteBuffer segment = ch.map(FileChannel.MapMode.READ_ONLY, start, length);
+        if (seg >= segs.length)
+            segs = Arrays.copyOf(segs, seg + 1);
+        else
+            segs = segs.clone();
+        segs[seg] = segment;
+        segments = segs;
+        return segment;
     }
 
     /**
@@ -72,22 +282,47 @@ public class HeapFile implements DbFile {
         // some code goes here
         int pgNo = pid.pageNumber();
         HeapPageId heapPid = (HeapPageId) pid;
-        if (pgNo < numPages()) {
-            int pageSize = BufferPool.PAGE_SIZE;
-            int offset = pgNo * pageSize;
-            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
-//                ByteBuffer buffer = ByteBuffer.allocate(pageSize);
-//                raf.getChannel().read(buffer, offset);
-                byte[] buffer = new byte[pageSize];
-                raf.seek(offset);
-                raf.read(buffer, 0, pageSize);
-                return new HeapPage(heapPid, buffer);
-
-            } catch (IOException x) {
+        try {
+            // the file may have been extended by someone else
+            if (pgNo >= numPages() && pgNo >= refreshNumPages())
+                return null;
+            if (memoryMapped)
+                return noteRead(createPage(heapPid, mappedPage(pgNo)));
+            byte[] buffer = new byte[pageSize];
+            readFully(ByteBuffer.wrap(buffer), (long) pgNo * pageSize);
+            return noteRead(createPage(heapPid, buffer));
+        } catch (IOException x) {
+            return null;
+        }
+    }
 
-            }
+    /**
+     * Read a run of consecutive pages with a single read, for read-ahead.
+     * Pages past the end of the file are left out.
+     *
+     * @param firstPage the number of the first page to read
+     * @param count the number of pages to read
+     * @return the pages read, in order of page number
+     */
+    List<Page> readPages(int firstPage, int count) throws IOException {
+        count = Math.max(0, Math.min(count, numPages() - firstPage));
+        List<Page> pages = new ArrayList<>(count);
+        if (count == 0)
+            return pages;
+        if (!supportsBatchedIo() || memoryMapped) {
+            // a subclass may read pages its own way, so go through readPage; mapped
+            // pages cost no read
+            for (int i = 0; i < count; i++)
+                pages.add(readPage(new HeapPageId(getId(), firstPage + i)));
+            return pages;
         }
-        return null;
+        byte[] run = new byte[count * pageSize];
+        readFully(ByteBuffer.wrap(run), (long) firstPage * pageSize);
+        for (int i = 0; i < count; i++) {
+            byte[] data = Arrays.copyOfRange(run, i * pageSize, (i + 1) * pageSize);
+            pages.add(noteRead(createPage(new HeapPageId(getId(), firstPage + i), data)));
+        }
+        return pages;
     }
 
     // see DbFile.java for javadocs
@@ -95,46 +330,319 @@ public class HeapFile implements DbFile {
         // some code goes here
         // not necessary for proj1
         // some code goes here
-        PageId pid = page.getId();
-        int pageno = pid.pageNumber();
-        HeapPageId heapPid = (HeapPageId) pid;
-        int pageSize = BufferPool.PAGE_SIZE;
-        int offset = pageno * pageSize;
-        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
-//            ByteBuffer buffer = ByteBuffer.wrap(page.getPageData());
-//            raf.getChannel().write(buffer, startPos);
-            byte[] buffer = new byte[pageSize];
-            raf.seek(offset);
-            raf.write(buffer, 0, pageSize);
-            raf.close();
-        } catch (IOException x) {
+        int pageno = page.getId().pageNumber();
+        int version = zoneMap().version(pageno);
+        ByteBuffer buffer = ByteBuffer.wrap(page.getPageData());
+        noteWriting(page, buffer.array());
+        for (int attempt = 0; ; attempt++) {
+            try {
+                FileChannel ch = channel();
+                long position = (long) pageno * pageSize;
+                buffer.rewind();
+                while (buffer.hasRemaining())
+                    position += ch.write(buffer, position);
+                break;
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (ClosedChannelException e) {
+                if (attempt > 0)
+                    throw e;
+            }
+        }
+        grow(pageno + 1);
+        noteWritten(page, buffer.array(), version);
+    }
 
+    /**
+     * Write pages with as few system calls as possible: each run of
+     * consecutive page numbers goes out in a single gathering write.
+     *
+     * @param pages pages of this file, in any order
+     */
+    public void writePages(List<Page> pages) throws IOException {
+        if (!supportsBatchedIo()) {
+            // a subclass may write pages its own way, so go through writePage
+            for (Page page : pages)
+                writePage(page);
+            return;
         }
+        List<Page> sorted = new ArrayList<Page>(pages);
+        Collections.sort(sorted, new Comparator<Page>() {
+            public int compare(Page a, Page b) {
+                return Integer.compare(a.getId().pageNumber(), b.getId().pageNumber());
+            }
+        });
+        int i = 0;
+        while (i < sorted.size()) {
+            int j = i + 1;
+            while (j < sorted.size() && sorted.get(j).getId().pageNumber()
+                    == sorted.get(j - 1).getId().pageNumber() + 1)
+                j++;
+            ByteBuffer[] run = new ByteBuffer[j - i];
+            int[] versions = new int[j - i];
+            for (int k = i; k < j; k++) {
+                versions[k - i] = zoneMap().version(sorted.get(k).getId().pageNumber());
+                run[k - i] = ByteBuffer.wrap(sorted.get(k).getPageData());
+                noteWriting(sorted.get(k), run[k - i].array());
+            }
+            int first = sorted.get(i).getId().pageNumber();
+            writeRun(run, (long) first * pageSize);
+            grow(first + j - i);
+            for (int k = i; k < j; k++)
+                noteWritten(sorted.get(k), run[k - i].array(), versions[k - i]);
+            i = j;
+        }
+    }
 
+    private void writeRun(ByteBuffer[] run, long position) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                FileChannel ch = channel();
+                for (ByteBuffer b : run)
+                    b.rewind();
+                // FileChannel has no positional gathering write
+                synchronized (positionLock) {
+                    ch.position(position);
+                    while (run[run.length - 1].hasRemaining())
+                        ch.write(run);
+                }
+                return;
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (ClosedChannelException e) {
+                if (attempt > 0)
+                    throw e;
+            }
+        }
+    }
+
+    /** Fill a buffer from the file, starting at the given position. */
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                FileChannel ch = channel();
+                buffer.clear();
+                long pos = position;
+                while (buffer.hasRemaining()) {
+                    int n = ch.read(buffer, pos);
+                    if (n < 0)
+                        throw new EOFException("page is past the end of the file");
+                    pos += n;
+                }
+                return;
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (ClosedChannelException e) {
+                // closed under us, e.g. by the interrupt of another thread
+                if (attempt > 0)
+                    throw e;
+            }
+        }
     }
 
     /**
-     * Returns the number of pages in this HeapFile.
+     * Return the open channel of the file, opening it if it is not open yet
+     * or was closed, e.g. because a thread using it was interrupted.
+     */
+    private synchronized FileChannel channel() throws IOException {
+        if (channel == null || !channel.isOpen())
+            channel = new RandomAccessFile(file, "rw").getChannel();
+        return channel;
+    }
+
+    /**
+     * Close the channel of the file.  It is opened again if the file is used
+     * after that.
+     */
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+        if (freeSpace != null) {
+            freeSpace.close();
+            freeSpace = null;
+        }
+        if (zones != null) {
+            zones.close();
+            zones = null;
+        }
+        if (blooms != null) {
+            blooms.close();
+            blooms = null;
+        }
+        if (bitmaps != null) {
+            bitmaps.close();
+            bitmaps = null;
+        }
+    }
+
+    /** Return the free-space map of the file, opening it on first use. */
+    private FreeSpaceMap freeSpaceMap() throws IOException {
+        FreeSpaceMap map = freeSpace;
+        if (map != null)
+            return map;
+        synchronized (this) {
+            if (freeSpace == null)
+                freeSpace = FreeSpaceMap.open(this, slotsPerPage());
+            return freeSpace;
+        }
+    }
+
+    /** Return the zone map of the file, opening it on first use. */
+    private ZoneMap zoneMap() throws IOException {
+        ZoneMap map = zones;
+        if (map != null)
+            return map;
+        synchronized (this) {
+            if (zones == null)
+                zones = ZoneMap.open(this);
+            return zones;
+        }
+    }
+
+    /**
+     * Return the Bloom filters of the file, opening them on first use.
+     *
+     * @return the filters, or null if none are kept
+     */
+    private BloomFilterMap bloomMap() throws IOException {
+        BloomFilterMap map = blooms;
+        if (map != null || bloomFields.length == 0)
+            return map;
+        synchronized (this) {
+            if (blooms == null && bloomFields.length > 0)
+                blooms = BloomFilterMap.open(this, bloomFields);
+            return blooms;
+        }
+    }
+
+    /**
+     * Return the bitmap index of the file, opening it on first use.
+     *
+     * @return the index, or null if none is kept
+     */
+    BitmapIndex bitmapIndex() throws IOException {
+        BitmapIndex index = bitmaps;
+        if (index != null || bitmapFields.length == 0)
+            return index;
+        synchronized (this) {
+            if (bitmaps == null && bitmapFields.length > 0)
+                bitmaps = BitmapIndex.open(this, bitmapFields);
+            return bitmaps;
+        }
+    }
+
+    /**
+     * @return false if the zone map or the Bloom filters show that no tuple
+     *         of a page passes all the predicates, so that a scan need not
+     *         read the page
+     */
+    boolean mayPass(int pgNo, List<Predicate> predicates) throws DbException {
+        if (predicates.isEmpty())
+            return true;
+        try {
+            if (!zoneMap().mayPass(pgNo, predicates))
+                return false;
+            BloomFilterMap map = bloomMap();
+            return map == null || map.mayPass(pgNo, predicates);
+        } catch (IOException e) {
+            throw new DbException("could not open the page summaries: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Add the values of a page that is about to be written to the Bloom
+     * filters, which must hold them before the page is on disk.
+     *
+     * @param data the bytes to be written
+     */
+    private void noteWriting(Page page, byte[] data) throws IOException {
+        BloomFilterMap map = bloomMap();
+        if (map != null && page instanceof TuplePage) {
+            int pgNo = page.getId().pageNumber();
+            map.write(pgNo, createPage(new HeapPageId(getId(), pgNo), data));
+        }
+    }
+
+    /**
+     * Record the free slots, value ranges and bitmap positions of a page
+     * that was just written.
+     *
+     * @param data the bytes written
+     * @param version the zone map version of the page before they were taken
+     */
+    private void noteWritten(Page page, byte[] data, int version) throws IOException {
+        if (page instanceof TuplePage) {
+            int pgNo = page.getId().pageNumber();
+            freeSpaceMap().write(pgNo, ((TuplePage) page).getNumEmptySlots());
+            TuplePage written = createPage(new HeapPageId(getId(), pgNo), data);
+            boolean changed = zoneMap().version(pgNo) != version;
+            zoneMap().write(pgNo, written, version);
+            BitmapIndex index = bitmapIndex();
+            if (index != null)
+                index.write(pgNo, written, changed);
+        }
+    }
+
+    /** Record the free slots of a page that was read, if the map is open. */
+    private Page noteRead(Page page) {
+        FreeSpaceMap map = freeSpace;
+        if (map != null && page instanceof TuplePage)
+            map.update(page.getId().pageNumber(), ((TuplePage) page).getNumEmptySlots());
+        return page;
+    }
+
+    /**
+     * Returns the number of pages in this HeapFile.  The count is kept by
+     * the file as pages are written, rather than taken from the file system
+     * on every call.
      */
     public int numPages() {
         // some code goes here
-        int num = 0;
+        int num = pageCount.get();
+        return num >= 0 ? num : refreshNumPages();
+    }
 
-            num =  (int) Math.ceil(file.length() / BufferPool.PAGE_SIZE);
+    /** Take the number of pages from the length of the file again. */
+    private int refreshNumPages() {
+        int num = (int) (file.length() / pageSize);
+        grow(num);
+        return pageCount.get();
+    }
 
-        return  num;
+    private void grow(int num) {
+        int cur;
+        do {
+            cur = pageCount.get();
+            if (cur >= num)
+                return;
+        } while (!pageCount.compareAndSet(cur, num));
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
-        HeapPageId pid = getFreePage(tid).getId();
-        HeapPage page = (HeapPage)Database
+        PageId pid = getFreePage(tid).getId();
+        TuplePage page = (TuplePage) Database
                 .getBufferPool()
                 .getPage(tid, pid,Permissions.READ_WRITE);
 
-        page.insertTuple(t);
+        // the monitor of the page keeps the background writer from writing
+        // it between the change and markDirty
+        synchronized (page) {
+            page.insertTuple(t);
+            page.markDirty(true, tid);
+            freeSpaceMap().update(pid.pageNumber(), page.getNumEmptySlots());
+            zoneMap().widen(pid.pageNumber(), t);
+            BloomFilterMap map = bloomMap();
+            if (map != null)
+                map.add(pid.pageNumber(), t);
+            BitmapIndex index = bitmapIndex();
+            if (index != null)
+                index.insert(t);
+        }
         ArrayList<Page> arrayList = new ArrayList<>();
         arrayList.add(page);
         return arrayList;
@@ -142,29 +650,143 @@ public class HeapFile implements DbFile {
     }
 
     /**
+     * Find a page with a free slot, taking candidates from the free-space
+     * map, or append an empty page if no page has room.  Only candidate
+     * pages are read, each under a shared lock that is released again if
+     * the page turns out to be full.
      *
-     * @param tid the
-     * @return
-     * @throws TransactionAbortedException
-     * @throws DbException
-     * @throws IOException
+     * @param tid the transaction that is inserting
+     * @return a page with at least one free slot
      */
-    private HeapPage getFreePage(TransactionId tid) throws TransactionAbortedException, DbException, IOException {
+    private TuplePage getFreePage(TransactionId tid) throws TransactionAbortedException, DbException, IOException {
+        TuplePage free = findFreePage(tid);
+        if (free != null)
+            return free;
+        synchronized (appendLock) {
+            HeapPageId pid = new HeapPageId(getId(), numPages());
+            TuplePage page = createPage(pid, new byte[pageSize]);
+            writePage(page); // append this new page to the DbFile
+            return page;
+        }
+    }
+
+    /** @return a page with at least one free slot, or null if no page has one */
+    private TuplePage findFreePage(TransactionId tid) throws TransactionAbortedException, DbException, IOException {
         BufferPool buf = Database.getBufferPool();
-        for (int i = 0; i < numPages(); i++) {
+        FreeSpaceMap map = freeSpaceMap();
+        for (int i = map.findFree(0); i >= 0 && i < numPages(); i = map.findFree(i + 1)) {
             PageId pid = new HeapPageId(getId(), i);
-            HeapPage page = (HeapPage) buf.getPage(tid, pid, Permissions.READ_WRITE);
-            if (page.getNumEmptySlots() > 0) {
+            // look with a shared lock first, so full pages are not locked exclusively
+            boolean held = buf.holdsLock(tid, pid);
+            TuplePage page = (TuplePage) buf.getPage(tid, pid, Permissions.READ_ONLY);
+            int empty = page.getNumEmptySlots();
+            if (empty > 0) {
                  return page;
             }
+            map.update(i, empty);
+            if (!held)
+                buf.releasePage(tid, pid);
 
         }
-        HeapPageId pid = new HeapPageId(getId(), numPages());
-        HeapPage page = new HeapPage(pid, new byte[BufferPool.PAGE_SIZE]);
-        writePage(page); // append this new page to the DbFile
-        return page;
+        return null;
+    }
 
+    /**
+     * Inserts tuples on behalf of a transaction a page at a time: each page
+     * with room is locked and changed once, and filled before the next one
+     * is taken.  When no page has room, the empty pages the rest of the
+     * tuples need are appended at once, up to {@link #APPEND_PAGES}.
+     *
+     * @param tid The transaction performing the update
+     * @param tuples The tuples to add, updated to reflect where they are stored
+     * @return the pages that were modified, each once
+     */
+    public ArrayList<Page> insertTuples(TransactionId tid, List<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        BufferPool buf = Database.getBufferPool();
+        ArrayList<Page> modified = new ArrayList<Page>();
+        int next = 0;
+        while (next < tuples.size()) {
+            TuplePage free = findFreePage(tid);
+            if (free == null) {
+                appendEmptyPages(tuples.size() - next);
+                continue;
+            }
+            PageId pid = free.getId();
+            TuplePage page = (TuplePage) buf.getPage(tid, pid, Permissions.READ_WRITE);
+            int first = next;
+            synchronized (page) {
+                BloomFilterMap map = bloomMap();
+                BitmapIndex index = bitmapIndex();
+                // dirty before the first change, so an abort drops the page
+                // even if a later tuple of the batch fails
+                if (page.getNumEmptySlots() > 0)
+                    page.markDirty(true, tid);
+                while (next < tuples.size() && page.getNumEmptySlots() > 0) {
+                    Tuple t = tuples.get(next++);
+                    page.insertTuple(t);
+                    zoneMap().widen(pid.pageNumber(), t);
+                    if (map != null)
+                        map.add(pid.pageNumber(), t);
+                    if (index != null)
+                        index.insert(t);
+                }
+                freeSpaceMap().update(pid.pageNumber(), page.getNumEmptySlots());
+            }
+            if (next > first && !modified.contains(page))
+                modified.add(page);
+        }
+        return modified;
+    }
+
+    /** Append enough empty pages for some tuples, up to APPEND_PAGES. */
+    private void appendEmptyPages(int tuples) throws IOException {
+        int perPage = Math.max(1, createPage(new HeapPageId(getId(), 0), new byte[pageSize]).getNumEmptySlots());
+        int count = Math.min(APPEND_PAGES, (tuples + perPage - 1) / perPage);
+        List<byte[]> data = new ArrayList<byte[]>(count);
+        for (int i = 0; i < count; i++)
+            data.add(new byte[pageSize]);
+        appendPages(data);
+    }
+
+    /**
+     * Append empty pages after the last page of the file, bypassing the
+     * buffer pool, and keep its maps up to date as for any write.
+     *
+     * @param data the bytes of each page, in order
+     * @return the number of the first page appended
+     */
+    int appendPages(List<byte[]> data) throws IOException {
+        try {
+            return appendPages(null, data);
+        } catch (TransactionAbortedException e) {
+            // pages appended for no transaction are not locked
+            throw new AssertionError(e);
+        }
+    }
 
+    /**
+     * Append pages after the last page of the file, bypassing the buffer
+     * pool, and keep its maps and indexes up to date as for any write.
+     *
+     * @param tid the transaction the pages hold tuples of, which locks and
+     *        logs them so that an abort empties them again, or null for
+     *        empty pages
+     * @param data the bytes of each page, in order
+     * @return the number of the first page appended
+     */
+    int appendPages(TransactionId tid, List<byte[]> data)
+            throws IOException, TransactionAbortedException {
+        synchronized (appendLock) {
+            int first = numPages();
+            List<Page> pages = new ArrayList<Page>(data.size());
+            for (int i = 0; i < data.size(); i++)
+                pages.add(createPage(new HeapPageId(getId(), first + i), data.get(i)));
+            if (tid != null)
+                Database.getBufferPool().logAppend(tid, this, pages);
+            writePages(pages);
+            return first;
+        }
     }
 
     // see DbFile.java for javadocs
@@ -172,82 +794,172 @@ public class HeapFile implements DbFile {
             TransactionAbortedException {
         // some code goes here
         PageId pageId = t.getRecordId().getPageId();
-        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
-        page.deleteTuple(t);
+        TuplePage page = (TuplePage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
+        synchronized (page) {
+            page.deleteTuple(t);
+            page.markDirty(true, tid);
+            try {
+                freeSpaceMap().update(pageId.pageNumber(), page.getNumEmptySlots());
+            } catch (IOException e) {
+                // the map only serves as a hint
+            }
+        }
         return page;
         // not necessary for proj1
     }
 
+    /**
+     * Removes tuples on behalf of a transaction a page at a time: each page
+     * holding some of them is locked and changed once.
+     *
+     * @param tid The transaction performing the update
+     * @param tuples tuples of this file, in any order
+     * @return the pages that were modified, each once
+     * @throws DbException if a tuple is not a member of the file
+     */
+    public ArrayList<Page> deleteTuples(TransactionId tid, List<Tuple> tuples)
+            throws DbException, TransactionAbortedException {
+        Map<PageId, List<Tuple>> byPage = new LinkedHashMap<PageId, List<Tuple>>();
+        for (Tuple t : tuples) {
+            RecordId rid = t.getRecordId();
+            if (rid == null || rid.getPageId().getTableId() != getId())
+                throw new DbException("tuple is not a member of the file");
+            List<Tuple> onPage = byPage.get(rid.getPageId());
+            if (onPage == null) {
+                onPage = new ArrayList<Tuple>();
+                byPage.put(rid.getPageId(), onPage);
+            }
+            onPage.add(t);
+        }
+        BufferPool buf = Database.getBufferPool();
+        ArrayList<Page> modified = new ArrayList<Page>(byPage.size());
+        for (Map.Entry<PageId, List<Tuple>> e : byPage.entrySet()) {
+            PageId pid = e.getKey();
+            TuplePage page = (TuplePage) buf.getPage(tid, pid, Permissions.READ_WRITE);
+            synchronized (page) {
+                page.markDirty(true, tid);
+                for (Tuple t : e.getValue())
+                    page.deleteTuple(t);
+                try {
+                    freeSpaceMap().update(pid.pageNumber(), page.getNumEmptySlots());
+                } catch (IOException ex) {
+                    // the map only serves as a hint
+                }
+            }
+            modified.add(page);
+        }
+        return modified;
+    }
+
+    /**
+     * Iterates over the tuples of the file page by page.  As long as pages
+     * are visited one after another, the next pages are read ahead into the
+     * buffer pool in the background, half a window before the scan needs
+     * them.  Tables larger than the pool are scanned through a ring of
+     * frames, see {@link BufferAccessStrategy}.  Pages on which the zone
+     * map shows no tuple can pass the iterator's predicates are not read,
+     * and tuples that fail them are skipped on the page without being built.
+     */
     class HeapFileIterator implements DbFileIterator {
-        private boolean isOpened = false;
+        /** consecutive pages visited before read-ahead starts */
+        private static final int SEQUENTIAL_THRESHOLD = 2;
+
         private TransactionId tid;
         private HeapFile file;
         private int currentPage;
         private Iterator<Tuple> pageIter;
         private int tableId;
+        private List<Predicate> predicates;
+        private boolean[] columns;
+
+        private BufferAccessStrategy strategy;
+        private int lastPage;
+        private int sequential;
+        /** pages before this one have been read or requested */
+        private int readAheadTo;
 
         public HeapFileIterator(TransactionId tid, HeapFile file) {
+            this(tid, file, Collections.<Predicate>emptyList());
+        }
+
+        public HeapFileIterator(TransactionId tid, HeapFile file, List<Predicate> predicates) {
+            this(tid, file, predicates, null);
+        }
+
+        public HeapFileIterator(TransactionId tid, HeapFile file, List<Predicate> predicates, boolean[] columns) {
             this.tid = tid;
             this.file = file;
+            this.predicates = predicates;
+            this.columns = columns;
             tableId = file.getId();
         }
 
         @Override
-
         public void open() throws DbException, TransactionAbortedException {
-            if (!isOpened) {
-                currentPage = 0;
-                pageIter = getPageIterator(currentPage);
-            }
+            currentPage = -1;
+            strategy = BufferAccessStrategy.forTable(tableId, BufferAccessStrategy.Type.BULK_READ);
+            lastPage = -1;
+            sequential = 0;
+            readAheadTo = 0;
+            pageIter = file.numPages() > 0 ? Collections.<Tuple>emptyIterator() : null;
+        }
 
+        private Iterator<Tuple> getPageIterator(int pgNo) throws TransactionAbortedException, DbException {
+            readAhead(pgNo);
+            HeapPageId pid = new HeapPageId(tableId, pgNo);
+            TuplePage page = (TuplePage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY, strategy);
+            return file.pageIterator(page, predicates, columns);
         }
 
-        private Iterator<Tuple> getPageIterator(int currentPage) throws TransactionAbortedException, DbException {
-            HeapPageId pid = new HeapPageId(tableId, currentPage);
-            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
-            return page.iterator();
+        /**
+         * Request the next window of pages once the scan looks sequential,
+         * leaving out the pages the scan is going to skip.
+         */
+        private void readAhead(int pgNo) throws DbException {
+            sequential = pgNo == lastPage + 1 ? sequential + 1 : 0;
+            lastPage = pgNo;
+            readAheadTo = Math.max(readAheadTo, pgNo + 1);
+            BufferPool pool = Database.getBufferPool();
+            // the operating system reads ahead in mapped files itself
+            int window = file.isMemoryMapped() ? 0 : pool.getReadAheadPages();
+            if (strategy != null)
+                window = Math.min(window, strategy.size() / 4);
+            if (window <= 0 || sequential < SEQUENTIAL_THRESHOLD
+                    || readAheadTo - pgNo - 1 > window / 2)
+                return;
+            int count = Math.min(window, file.numPages() - readAheadTo);
+            if (count <= 0)
+                return;
+            List<PageId> pids = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                if (file.mayPass(readAheadTo + i, predicates))
+                    pids.add(new HeapPageId(tableId, readAheadTo + i));
+            }
+            if (!pids.isEmpty())
+                pool.prefetch(file, pids, strategy);
+            readAheadTo += count;
         }
 
         @Override
         public boolean hasNext() throws DbException, TransactionAbortedException {
-            if (pageIter == null) {
-                return false;
-            } else if (pageIter.hasNext())
-                return true;
-
-            if (currentPage >= file.numPages()) {
-                return false;
-            } else {
-                int pgNo = currentPage;
-                pgNo++;
-                while (pgNo < file.numPages()) {
-                    Iterator<Tuple> iter = getPageIterator(pgNo);
-                    if (iter.hasNext()) return true;
-                    pgNo++;
-                }
+            if (pageIter == null)
                 return false;
+            while (!pageIter.hasNext()) {
+                do {
+                    if (currentPage + 1 >= file.numPages())
+                        return false;
+                    currentPage++;
+                } while (!file.mayPass(currentPage, predicates));
+                pageIter = getPageIterator(currentPage);
             }
+            return true;
         }
 
         @Override
         public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
             if (!hasNext())
                 throw new NoSuchElementException("no tuple");
-            else {
-                if (pageIter.hasNext())
-                    return pageIter.next();
-                else {
-                    currentPage++;
-                    while (currentPage < file.numPages()) {
-                        pageIter = getPageIterator(currentPage);
-                        if (pageIter.hasNext()) return pageIter.next();
-                        currentPage++;
-                    }
-
-                }
-
-            }
-            throw new NoSuchElementException("no tuple");
+            return pageIter.next();
         }
 
         @Override
@@ -259,7 +971,6 @@ public class HeapFile implements DbFile {
 
         @Override
         public void close() {
-            isOpened = false;
             pageIter = null;
 
         }
@@ -355,5 +1066,29 @@ public class HeapFile implements DbFile {
 
     }
 
+    /**
+     * Returns an iterator over the tuples of the file that pass all the given
+     * predicates.  The predicates are tested against the bytes of each page,
+     * so tuples that fail them are never built.
+     *
+     * @param predicates predicates over the fields of the file's TupleDesc
+     */
+    public DbFileIterator iterator(TransactionId tid, List<Predicate> predicates) {
+        return new HeapFileIterator(tid, this, new ArrayList<Predicate>(predicates));
+    }
+
+    /**
+     * Returns an iterator over the tuples of the file that pass all the given
+     * predicates, of which the caller only uses some fields.  Files that
+     * store their pages column by column decode only those fields.
+     *
+     * @param predicates predicates over the fields of the file's TupleDesc
+     * @param columns for each field of the file's TupleDesc, true if the
+     *        caller uses it; other fields of the tuples may be left null
+     */
+    public DbFileIterator iterator(TransactionId tid, List<Predicate> predicates, boolean[] columns) {
+        return new HeapFileIterator(tid, this, new ArrayList<Predicate>(predicates), columns.clone());
+    }
+
 }
 
@@ -2,24 +2,40 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
- * Each instance of HeapPage stores data for one page of HeapFiles and 
+ * Each instance of HeapPage stores data for one page of HeapFiles and
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * A HeapPage is a view over the bytes of the page in their on-disk format.
+ * Tuples are decoded when they are read and encoded into the page when
+ * they are inserted, so a cached page costs little more than its bytes.
+ * The BufferPool moves the bytes of the pages it caches into off-heap
+ * frames with {@link #moveTo}, and back onto the heap with
+ * {@link #moveToHeap} before it reuses a frame.
  *
  * @see HeapFile
  * @see BufferPool
  *
  */
-public class HeapPage implements Page {
+public class HeapPage implements TuplePage {
 
     HeapPageId pid;
     TupleDesc td;
-    byte header[];
-    Tuple tuples[];
     int numSlots;
-
-    byte[] oldData;
+    private final int headerSize;
+    private final int tupleSize;
+    /** the size of the pages of the table, see {@link Catalog#getPageSize} */
+    private final int pageSize;
+    /** the bytes of the page; replaced, never changed in place, when the page moves */
+    private volatile ByteBuffer data;
+    /** the header bitmap, 64 slots to a word; slot i is bit i % 64 of word i / 64 */
+    private final long[] slots;
+    private volatile int usedSlots;
+
+    /** the page as it was before its first change since the last commit, or null if unchanged */
+    private volatile byte[] oldData;
     private boolean isDirty;
     private TransactionId dirtyTrans;
 
@@ -28,48 +44,72 @@ public class HeapPage implements Page {
      * The format of a HeapPage is a set of header bytes indicating
      * the slots of the page that are in use, some number of tuple slots.
      *  Specifically, the number of tuples is equal to: <p>
-     *          floor((BufferPool.PAGE_SIZE*8) / (tuple size * 8 + 1))
+     *          floor((page size*8) / (tuple size * 8 + 1))
      * <p> where tuple size is the size of tuples in this
-     * database table, which can be determined via {@link Catalog#getTupleDesc}.
+     * database table, which can be determined via {@link Catalog#getTupleDesc},
+     * and page size is the table's page size, see {@link Catalog#getPageSize}.
      * The number of 8-bit header words is equal to:
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
-     * @see BufferPool#PAGE_SIZE
+     * @see Catalog#getPageSize
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.tupleSize = td.getSize();
+        this.pageSize = Database.getCatalog().getPageSize(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-
-        try{
-            // allocate and read the actual records of this page
-            tuples = new Tuple[numSlots];
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        this.headerSize = getHeaderSize();
+        if (data.length < pageSize)
+            throw new IOException("page data is shorter than a page");
+
+        // keep a private copy, with empty slots and padding zeroed like
+        // getPageData has always written them
+        byte[] copy = Arrays.copyOf(data, pageSize);
+        for (int i = 0; i < numSlots; i++) {
+            if ((copy[i / 8] & (1 << (i % 8))) == 0)
+                Arrays.fill(copy, slotOffset(i), slotOffset(i) + tupleSize, (byte) 0);
         }
-        dis.close();
+        Arrays.fill(copy, slotOffset(numSlots), pageSize, (byte) 0);
+        this.data = ByteBuffer.wrap(copy);
+        this.slots = readHeader();
+        // the before-image is taken when the page is first changed
+    }
 
-        setBeforeImage();
+    /**
+     * Create a HeapPage that reads its bytes straight from a read-only
+     * buffer, e.g. a slice of a memory-mapped HeapFile, without copying
+     * them.  The bytes are copied onto the heap the first time the page is
+     * changed, and the buffer is never written.
+     *
+     * @param id the id of the page
+     * @param mapped a read-only buffer of exactly one page
+     * @see HeapFile#setMemoryMapped
+     */
+    HeapPage(HeapPageId id, ByteBuffer mapped) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.tupleSize = td.getSize();
+        this.pageSize = Database.getCatalog().getPageSize(id.getTableId());
+        this.numSlots = getNumTuples();
+        this.headerSize = getHeaderSize();
+        if (mapped.capacity() < pageSize)
+            throw new IOException("page data is shorter than a page");
+        this.data = mapped.asReadOnlyBuffer();
+        this.slots = readHeader();
+        // the before-image is taken when the page is first changed
     }
 
     /** Retrieve the number of tuples on this page.
         @return the number of tuples on this page
     */
-    private int getNumTuples() {        
+    private int getNumTuples() {
         // some code goes here
 
-        return (BufferPool.PAGE_SIZE * 8 ) / ( td.getSize() * 8 + 1);
+        return (pageSize * 8 ) / ( tupleSize * 8 + 1);
 
     }
 
@@ -87,14 +127,59 @@ public class HeapPage implements Page {
             return (numSlots / 8) + 1;
         else
             return numSlots /8;
-                 
+
+    }
+
+    /** Load the header bytes into words, counting the used slots. */
+    private long[] readHeader() {
+        long[] words = new long[(numSlots + 63) >>> 6];
+        for (int b = 0; b < headerSize; b++)
+            words[b >>> 3] |= (long) (data.get(b) & 0xff) << ((b & 7) << 3);
+        if ((numSlots & 63) != 0)
+            words[words.length - 1] &= (1L << numSlots) - 1;
+        int count = 0;
+        for (long w : words)
+            count += Long.bitCount(w);
+        usedSlots = count;
+        return words;
+    }
+
+    /** @return the first used slot at or after from, or -1 if there is none */
+    private int nextUsedSlot(int from) {
+        if (from >= numSlots)
+            return -1;
+        int w = from >>> 6;
+        long word = slots[w] & (-1L << from);
+        while (word == 0) {
+            if (++w == slots.length)
+                return -1;
+            word = slots[w];
+        }
+        return (w << 6) + Long.numberOfTrailingZeros(word);
     }
-    
+
+    /** @return the first free slot, or -1 if the page is full */
+    private int nextFreeSlot() {
+        for (int w = 0; w < slots.length; w++) {
+            long word = ~slots[w];
+            if (word != 0) {
+                int i = (w << 6) + Long.numberOfTrailingZeros(word);
+                return i < numSlots ? i : -1;
+            }
+        }
+        return -1;
+    }
+
+    private int slotOffset(int slot) {
+        return headerSize + slot * tupleSize;
+    }
+
     /** Return a view of this page before it was modified
-        -- used by recovery */
+        -- used by recovery.  An unchanged page is its own before-image. */
     public HeapPage getBeforeImage(){
         try {
-            return new HeapPage(pid,oldData);
+            byte[] before = oldData;
+            return new HeapPage(pid, before != null ? before : getPageData());
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -102,9 +187,13 @@ public class HeapPage implements Page {
         }
         return null;
     }
-    
+
+    /**
+     * Drop the before-image, so that the current content becomes the
+     * before-image.  The next change to the page takes a new one.
+     */
     public void setBeforeImage() {
-        oldData = getPageData().clone();
+        oldData = null;
     }
 
     /**
@@ -116,37 +205,128 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Copy the bytes of this page into a frame and use the frame from now
+     * on.  Changes to the page hold the page's monitor, so none is lost
+     * while the bytes are copied.
+     *
+     * @param frame a buffer of exactly one page
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
+    synchronized void moveTo(ByteBuffer frame) {
+        ByteBuffer src = data.duplicate();
+        src.clear();
+        ByteBuffer dst = frame.duplicate();
+        dst.clear();
+        dst.put(src);
+        data = frame;
+    }
+
+    /** Copy the bytes of this page back into a buffer of its own on the heap. */
+    synchronized void moveToHeap() {
+        data = ByteBuffer.wrap(getPageData());
+    }
+
+    /** @return true if the bytes of this page are kept outside the heap */
+    boolean isOffHeap() {
+        return data.isDirect();
+    }
+
+    /** @return true if the page still reads its bytes from a mapped file */
+    boolean isMapped() {
+        return data.isReadOnly();
+    }
+
+    /**
+     * Prepare the page for a change: take the before-image if this is the
+     * first change since the last commit, and give a page that reads from a
+     * mapped file bytes of its own.  Callers hold the page's monitor.
+     */
+    private void ensureWritable() {
+        if (oldData == null)
+            oldData = getPageData();
+        if (data.isReadOnly())
+            data = ByteBuffer.wrap(getPageData());
+    }
+
+    /**
+     * Return the value of one field of the tuple in a slot, read straight
+     * from the bytes of the page at the offset the TupleDesc gives for it,
+     * without building the rest of the tuple.
+     *
+     * @param slot a used slot of this page
+     * @param field the index of the field in the page's TupleDesc
+     */
+    public Field getField(int slot, int field) {
+        int offset = slotOffset(slot) + td.getFieldOffset(field);
+        ByteBuffer buf;
+        Field f;
+        do {
+            // a frame is only reused once the page moved off it, so the
+            // value is good if the page is still on the frame afterwards
+            buf = data;
+            f = td.readField(field, buf, offset);
+        } while (buf != data);
+        return f;
+    }
 
-        // read fields in the tuple
+    /**
+     * Build the tuple in a slot.  Readers do not take the page's monitor.
+     *
+     * @param slot a used slot of this page
+     */
+    public Tuple getTuple(int slot) {
         Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
+        int offset = slotOffset(slot);
+        ByteBuffer buf;
+        do {
+            buf = data;
+            for (int j=0; j<td.numFields(); j++)
+                t.setField(j, td.readField(j, buf, offset + td.getFieldOffset(j)));
+        } while (buf != data);
+        t.setRecordId(new RecordId(pid, slot));
+        return t;
+    }
+
+    /**
+     * @return true if the tuple in a slot passes all the predicates; only
+     *         the fields they test are read
+     */
+    private boolean matches(int slot, List<Predicate> predicates) {
+        for (Predicate p : predicates) {
+            if (!getField(slot, p.getField()).compare(p.getOp(), p.getOperand()))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Encode a tuple into the bytes of a slot.  Values of dictionary-encoded
+     * fields are added to their dictionaries, which may write to disk.
+     *
+     * @throws DbException if a dictionary could not be written
+     */
+    private byte[] encode(Tuple t) throws DbException {
+        byte[] bytes = new byte[tupleSize];
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(tupleSize);
+        DataOutputStream dos = new DataOutputStream(baos);
         try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+            for (int j=0; j<td.numFields(); j++)
+                td.writeField(j, t.getField(j), dos);
+            dos.flush();
+        } catch (IOException e) {
+            throw new DbException("could not encode the tuple: " + e.getMessage());
         }
+        System.arraycopy(baos.toByteArray(), 0, bytes, 0, Math.min(baos.size(), tupleSize));
+        return bytes;
+    }
 
-        return t;
+    /**
+     * Copy the bytes of an encoded tuple into a slot.
+     */
+    private void writeTuple(int slotId, byte[] bytes) {
+        ensureWritable();
+        ByteBuffer dst = data.duplicate();
+        dst.position(slotOffset(slotId));
+        dst.put(bytes);
     }
 
     /**
@@ -161,64 +341,15 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.PAGE_SIZE;
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.PAGE_SIZE - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        byte[] bytes = new byte[pageSize];
+        ByteBuffer buf;
+        do {
+            buf = data;
+            ByteBuffer src = buf.duplicate();
+            src.clear();
+            src.get(bytes);
+        } while (buf != data);
+        return bytes;
     }
 
     /**
@@ -235,6 +366,19 @@ public class HeapPage implements Page {
         return new byte[len]; //all 0
     }
 
+    /**
+     * @param pageSize the page size of the table
+     * @return the bytes of an empty page of the given size
+     */
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize]; //all 0
+    }
+
+    /** @return the number of bytes of this page */
+    public int getPageSize() {
+        return pageSize;
+    }
+
     /**
      * Delete the specified tuple from the page;  the tuple should be updated to reflect
      *   that it is no longer stored on any page.
@@ -242,15 +386,18 @@ public class HeapPage implements Page {
      *         already empty.
      * @param t The tuple to delete
      */
-    public void deleteTuple(Tuple t) throws DbException {
+    public synchronized void deleteTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
-        int tno = t.getRecordId().tno;
-        if (tno > numSlots || !isSlotUsed(tno) || !tuples[tno].equals(t)) {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()))
+            throw new DbException("tuple is not on this page");
+        int tno = rid.tupleno();
+        if (tno < 0 || tno >= numSlots || !isSlotUsed(tno)) {
             throw new DbException("tuple doesn't exist");
         } else {
-            tuples[tno] = null;
             markSlotUsed(tno, false);
+            writeTuple(tno, new byte[tupleSize]);
         }
     }
 
@@ -261,21 +408,18 @@ public class HeapPage implements Page {
      *         is mismatch.
      * @param t The tuple to add.
      */
-    public void insertTuple(Tuple t) throws DbException {
+    public synchronized void insertTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
-
-        if (getNumEmptySlots() ==0){
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("tupledesc of the tuple doesn't match the page");
+        int i = nextFreeSlot();
+        if (i < 0)
             throw new DbException("insert tuple into full page");
-        }
-        for (int i = 0; i < numSlots ; i++) {
-            if (!isSlotUsed(i)) {
-                t.setRecordId(new RecordId(getId(), i));
-                tuples[i] = t;
-                markSlotUsed(i, true);
-                return;
-            }
-        }
+        // encode before touching the page, so a failure leaves it as it was
+        writeTuple(i, encode(t));
+        markSlotUsed(i, true);
+        t.setRecordId(new RecordId(getId(), i));
     }
 
     /**
@@ -309,13 +453,7 @@ public class HeapPage implements Page {
      */
     public int getNumEmptySlots() {
         // some code goes here
-
-        int count = 0;
-        for (int i = 0; i < numSlots ; i++) {
-            if (!isSlotUsed(i))
-                count++;
-        }
-        return count;
+        return numSlots - usedSlots;
     }
 
     /**
@@ -323,43 +461,28 @@ public class HeapPage implements Page {
      */
     public boolean isSlotUsed(int i) {
         // some code goes here
-        int pos =  i / 8; //floor comes for  free
-        byte b = header[pos];
-
-        int bitoffset  = i % 8;
-
-        byte bimask = 0;
-        bimask |= (1 << bitoffset);
-        if ((bimask & b) == bimask)
-           return true;
-        else
-            return false;
+        return (slots[i >>> 6] & (1L << i)) != 0;
     }
 
     /**
      * Abstraction to fill or clear a slot on this page.
      */
-    public void markSlotUsed(int i, boolean value) {
+    public synchronized void markSlotUsed(int i, boolean value) {
         // some code goes here
         // not necessary for lab1
-        // some code goes here
-        int pos =  i / 8; //floor comes for  free
-        byte b = header[pos];
-
-        int bitoffset  = i % 8;
-
-        byte bitmask = 0;
-        if(value){
-
-            b |= (1 << bitoffset);
-
-        }else {
-
-            bitmask |= (1 << bitoffset);
-            bitmask = (byte) ~bitmask;
-            b &= bitmask;
+        if (isSlotUsed(i) == value)
+            return;
+        ensureWritable();
+        if (value) {
+            slots[i >>> 6] |= 1L << i;
+            usedSlots++;
+        } else {
+            slots[i >>> 6] &= ~(1L << i);
+            usedSlots--;
         }
-        header[pos] =b;
+        // keep the header bytes of the page in step with the words
+        int pos =  i / 8; //floor comes for  free
+        data.put(pos, (byte) (slots[i >>> 6] >>> ((pos & 7) << 3)));
     }
 
     /**
@@ -368,32 +491,41 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         // some code goes here
+        return iterator(Collections.<Predicate>emptyList());
+    }
+
+    /**
+     * @return an iterator over the tuples on this page that pass all the
+     *         given predicates.  The predicates are tested against the bytes
+     *         of the page, and only the tuples that pass are built.
+     * @param predicates predicates over the fields of the page's TupleDesc
+     */
+    public Iterator<Tuple> iterator(final List<Predicate> predicates) {
         return new Iterator<Tuple>() {
             int current = 0;
+            /** the slot hasNext last found, so it is tested only once */
+            int found = -1;
             public boolean hasNext() {
-                for (int i = current; i < numSlots ; i++) {
-                    if (isSlotUsed(i))
-                        return true;
-                }
-                return false;
+                if (found == current)
+                    return current >= 0;
+                current = nextUsedSlot(current);
+                while (current >= 0 && !matches(current, predicates))
+                    current = nextUsedSlot(current + 1);
+                found = current;
+                return current >= 0;
             }
 
             public Tuple next() {
-                while (current < numSlots){
-                    if(isSlotUsed(current)){
-                        return tuples[current++];
-                    }
-
-                }
-                return null;
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return getTuple(current++);
             }
 
             public void remove() {
-                //throw new  UnsupportedEncodingException("");
+                throw new UnsupportedOperationException();
             }
         };
 
     }
 
 }
-
@@ -0,0 +1,38 @@
+package simpledb;
+
+import java.io.IOException;
+
+/**
+ * IndexFile is a DbFile that indexes one field of a table stored in a
+ * HeapFile, mapping each key to the RecordIds of the tuples that hold it.
+ * <p>
+ * As a DbFile, an index holds the tuples of its table: {@link #insertTuple}
+ * and {@link #deleteTuple} add and remove the entry of a tuple already
+ * stored in the table, which the BufferPool does for every index of a
+ * table it changes, and the iterators fetch the tuples of the entries from
+ * the table.
+ *
+ * @see Catalog#addIndex
+ * @see IndexScan
+ */
+public interface IndexFile extends DbFile {
+
+    /** @return the id of the indexed table */
+    public int getTableId();
+
+    /** @return the index of the indexed field in the table */
+    public int getKeyField();
+
+    /**
+     * Returns an iterator over the tuples of the table whose key equals a
+     * value.
+     *
+     * @param key the key to look up
+     */
+    public DbFileIterator iterator(TransactionId tid, Field key);
+
+    /**
+     * Close the file.  It is opened again if the index is used after that.
+     */
+    public void close() throws IOException;
+}
@@ -0,0 +1,159 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexNestedLoopJoin joins two children on the equality of a field of
+ * each, where the inner child reads a table through a scan and the joined
+ * field of the table is indexed.  Rather than reading the whole inner
+ * table for every outer tuple, it looks the value of the outer tuple up in
+ * the index, which for a {@link HashIndexFile} takes a couple of page
+ * reads.  The inner child is never opened: the predicates of the Filters
+ * over its scan are tested on the tuples the index returns instead.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private JoinPredicate predicate;
+    private DbIterator outer;
+    private DbIterator inner;
+    private IndexFile index;
+    private TransactionId tid;
+    /** the predicates of the Filters over the inner scan */
+    private List<Predicate> innerPredicates;
+    private Tuple current;
+    private DbFileIterator matches;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            an EQUALS predicate over a field of the outer child and the
+     *            indexed field of the inner child
+     * @param outer
+     *            the child whose tuples are looked up
+     * @param inner
+     *            a scan of the indexed table, under any number of Filters
+     * @param index
+     *            the index over the joined field of the inner table, as
+     *            returned by {@link #findIndex}
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, DbIterator outer, DbIterator inner, IndexFile index) {
+        this.predicate = p;
+        this.outer = outer;
+        this.inner = inner;
+        this.index = index;
+    }
+
+    /**
+     * Find an index to probe for the tuples of a child that have a value in
+     * a field: one over that field of the table the child scans, if the
+     * child is a scan under any number of Filters, a {@link HashIndexFile}
+     * before a {@link BTreeFile}.
+     *
+     * @return the index, or null if there is none
+     */
+    public static IndexFile findIndex(DbIterator inner, int field) {
+        while (inner instanceof Filter)
+            inner = ((Filter) inner).getChildren()[0];
+        if (!(inner instanceof SeqScan))
+            return null;
+        IndexFile found = null;
+        for (IndexFile index : Database.getCatalog().getIndexes(((SeqScan) inner).getTableId())) {
+            if (index.getKeyField() != field)
+                continue;
+            if (index instanceof HashIndexFile)
+                return index;
+            found = index;
+        }
+        return found;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return predicate;
+    }
+
+    /** @return the index the join probes */
+    public IndexFile getIndex() {
+        return index;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return TupleDesc.merge(outer.getTupleDesc(), inner.getTupleDesc());
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        innerPredicates = new ArrayList<Predicate>();
+        DbIterator scan = inner;
+        while (scan instanceof Filter) {
+            innerPredicates.add(((Filter) scan).getPredicate());
+            scan = ((Filter) scan).getChildren()[0];
+        }
+        tid = ((SeqScan) scan).getTransactionId();
+        super.open();
+        outer.open();
+    }
+
+    public void close() {
+        super.close();
+        closeMatches();
+        current = null;
+        outer.close();
+    }
+
+    private void closeMatches() {
+        if (matches != null)
+            matches.close();
+        matches = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        closeMatches();
+        current = null;
+        outer.rewind();
+    }
+
+    /**
+     * Returns the next outer tuple joined with an inner tuple the index
+     * returns for it, or null if there are no more.
+     *
+     * @see Tuple#merge
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (matches != null) {
+                while (matches.hasNext()) {
+                    Tuple t = matches.next();
+                    if (passes(t))
+                        return Tuple.merge(current, t);
+                }
+                closeMatches();
+            }
+            if (!outer.hasNext())
+                return null;
+            current = outer.next();
+            matches = index.iterator(tid, current.getField(predicate.getField1()));
+            matches.open();
+        }
+    }
+
+    private boolean passes(Tuple t) {
+        for (Predicate p : innerPredicates) {
+            if (!p.filter(t))
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { outer, inner };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        outer = children[0];
+        inner = children[1];
+    }
+}
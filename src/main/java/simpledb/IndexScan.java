@@ -0,0 +1,149 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * IndexScan reads the tuples of a table through an {@link IndexFile} over
+ * one of its fields, visiting only the pages of the keys asked for: the
+ * leaves of a range of keys, in key order, of a {@link BTreeFile}, or the
+ * bucket of one key of a {@link HashIndexFile}.  Predicates on the indexed
+ * field, handed down by the Filters above like they are to a SeqScan,
+ * narrow the keys read; the Filters test all other predicates themselves.
+ */
+public class IndexScan extends SeqScan {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final IndexFile index;
+    private Field lo;
+    private boolean loInclusive;
+    private Field hi;
+    private boolean hiInclusive;
+    private DbFileIterator itr;
+
+    /**
+     * Creates a scan of all tuples of the table of an index, in key order
+     * if it is a BTreeFile.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param index
+     *            the index to read the table through
+     * @param tableAlias
+     *            the alias of the table, as for {@link SeqScan}
+     */
+    public IndexScan(TransactionId tid, IndexFile index, String tableAlias) {
+        super(tid, index.getTableId(), tableAlias);
+        this.tid = tid;
+        this.index = index;
+    }
+
+    /**
+     * Creates a scan of the tuples of the table of an index whose key
+     * passes a predicate.
+     *
+     * @param op an operator {@link #addPredicate} accepts
+     * @param operand the value the keys are compared with
+     */
+    public IndexScan(TransactionId tid, IndexFile index, String tableAlias, Predicate.Op op, Field operand) {
+        this(tid, index, tableAlias);
+        if (!addPredicate(new Predicate(index.getKeyField(), op, operand)))
+            throw new IllegalArgumentException("an index scan cannot apply " + op);
+    }
+
+    /** @return the index the scan reads */
+    public IndexFile getIndex() {
+        return index;
+    }
+
+    /**
+     * Only return the tuples that pass a predicate from now on, if it is an
+     * EQUALS, GREATER_THAN, GREATER_THAN_OR_EQ, LESS_THAN or LESS_THAN_OR_EQ
+     * comparison of the indexed field and the index is a BTreeFile, or the
+     * first EQUALS comparison of the indexed field otherwise.  Takes effect
+     * the next time the scan is opened or rewound.
+     *
+     * @return true if the scan applies the predicate
+     */
+    public boolean addPredicate(Predicate p) {
+        if (p.getField() != index.getKeyField())
+            return false;
+        Field v = p.getOperand();
+        if (!(index instanceof BTreeFile)) {
+            // a hash index can only look up one key
+            if (p.getOp() != Predicate.Op.EQUALS || (lo != null && BTreePage.compareKeys(v, lo) != 0))
+                return false;
+            lo = hi = v;
+            loInclusive = hiInclusive = true;
+            return true;
+        }
+        switch (p.getOp()) {
+        case EQUALS:
+            raiseLow(v, true);
+            lowerHigh(v, true);
+            return true;
+        case GREATER_THAN:
+            raiseLow(v, false);
+            return true;
+        case GREATER_THAN_OR_EQ:
+            raiseLow(v, true);
+            return true;
+        case LESS_THAN:
+            lowerHigh(v, false);
+            return true;
+        case LESS_THAN_OR_EQ:
+            lowerHigh(v, true);
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    private void raiseLow(Field v, boolean inclusive) {
+        int c = lo == null ? 1 : BTreePage.compareKeys(v, lo);
+        if (c > 0 || (c == 0 && !inclusive)) {
+            lo = v;
+            loInclusive = inclusive;
+        }
+    }
+
+    private void lowerHigh(Field v, boolean inclusive) {
+        int c = hi == null ? -1 : BTreePage.compareKeys(v, hi);
+        if (c < 0 || (c == 0 && !inclusive)) {
+            hi = v;
+            hiInclusive = inclusive;
+        }
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        if (index instanceof BTreeFile)
+            itr = ((BTreeFile) index).iterator(tid, lo, loInclusive, hi, hiInclusive);
+        else if (lo != null)
+            itr = index.iterator(tid, lo);
+        else
+            itr = index.iterator(tid);
+        itr.open();
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        return itr.hasNext();
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        return itr.next();
+    }
+
+    public void close() {
+        if (itr != null)
+            itr.close();
+        itr = null;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        close();
+        open();
+    }
+}
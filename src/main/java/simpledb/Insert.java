@@ -1,6 +1,8 @@
 package simpledb;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Vector;
 
 /**
@@ -10,6 +12,10 @@ import java.util.Vector;
 public class Insert extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** The most tuples read from the child before they are inserted together. */
+    static final int BATCH_TUPLES = 4096;
+
     private DbIterator[] children;
     private Vector<Tuple> numsVec;
 
@@ -66,7 +72,8 @@ public class Insert extends Operator {
     /**
      * Inserts tuples read from child into the tableid specified by the
      * constructor. It returns a one field tuple containing the number of
-     * inserted records. Inserts should be passed through BufferPool. An
+     * inserted records. Inserts should be passed through BufferPool, which
+     * takes them in batches of up to BATCH_TUPLES, a page at a time. An
      * instances of BufferPool is available via Database.getBufferPool(). Note
      * that insert DOES NOT need check to see if a particular tuple is a
      * duplicate before inserting it.
@@ -74,26 +81,38 @@ public class Insert extends Operator {
      * @return A 1-field tuple containing the number of inserted records, or
      *         null if called more than once.
      * @see Database#getBufferPool
-     * @see BufferPool#insertTuple
+     * @see BufferPool#insertTuples
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
          int num = 0;
         if (!hasFetched) {
             hasFetched = true;
+            // a large table is filled through a ring of frames
+            BufferPool pool = Database.getBufferPool();
+            BufferAccessStrategy strategy = tid == null ? null
+                    : BufferAccessStrategy.forTable(tableId, BufferAccessStrategy.Type.BULK_WRITE);
+            if (strategy != null)
+                pool.setAccessStrategy(tid, strategy);
             try {
                 child.open();
+                List<Tuple> batch = new ArrayList<Tuple>();
                 while (child.hasNext()){
-                    try {
-                        Database.getBufferPool().insertTuple(tid,tableId,child.next());
-                        num ++;
-                    } catch (IOException e) {
-                        e.printStackTrace();
+                    batch.add(child.next());
+                    if (batch.size() == BATCH_TUPLES || !child.hasNext()) {
+                        try {
+                            num += pool.insertTuples(tid, tableId, batch.iterator());
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        }
+                        batch.clear();
                     }
-
                 }
             } catch (TransactionAbortedException e) {
                 e.printStackTrace();
+            } finally {
+                if (strategy != null)
+                    pool.setAccessStrategy(tid, null);
             }
             Tuple tuple = new Tuple(getTupleDesc());
             tuple.setField(0, new IntField(num));
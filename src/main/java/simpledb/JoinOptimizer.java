@@ -68,7 +68,17 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        // probe an index of the inner table for each outer tuple if there is one
+        IndexFile index = null;
+        if (lj.p == Predicate.Op.EQUALS && !(lj instanceof LogicalSubplanJoinNode)) {
+            index = IndexNestedLoopJoin.findIndex(plan2, t2id);
+            if (index != null && plan1.getTupleDesc().getFieldType(t1id) != plan2.getTupleDesc().getFieldType(t2id))
+                index = null;
+        }
+        if (index != null)
+            j = new IndexNestedLoopJoin(p, plan1, plan2, index);
+        else
+            j = new Join(p,plan1,plan2);
 
         return j;
 
@@ -0,0 +1,236 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * LockManager implements page-level strict two-phase locking for the
+ * BufferPool.
+ * <p>
+ * Pages are locked in shared or exclusive mode; a transaction holding the
+ * only shared lock on a page can upgrade it to an exclusive one.  Locks are
+ * held until {@link #releaseAll} is called when the transaction completes.
+ * <p>
+ * The lock table is split into shards, each with its own monitor, so that
+ * transactions locking different pages rarely contend.  A transaction that
+ * already holds a sufficient lock does not touch the lock table at all.
+ * <p>
+ * Before a transaction blocks, the edges from it to the transactions it
+ * waits for are added to a wait-for graph.  If that closes a cycle, the
+ * requesting transaction is aborted with a TransactionAbortedException.
+ *
+ * @see BufferPool#getPage
+ */
+class LockManager {
+
+    /** How long a blocked transaction sleeps before re-checking for deadlocks. */
+    private static final long WAIT_MILLIS = 100;
+
+    private static class PageLock {
+        TransactionId exclusive;
+        final Set<TransactionId> shared = new HashSet<TransactionId>();
+
+        /** @return the transactions that keep tid from getting this lock */
+        Set<TransactionId> blockers(TransactionId tid, boolean wantExclusive) {
+            Set<TransactionId> blockers = new HashSet<TransactionId>();
+            if (exclusive != null && !exclusive.equals(tid))
+                blockers.add(exclusive);
+            if (wantExclusive) {
+                for (TransactionId other : shared) {
+                    if (!other.equals(tid))
+                        blockers.add(other);
+                }
+            }
+            return blockers;
+        }
+
+        boolean isFree() {
+            return exclusive == null && shared.isEmpty();
+        }
+    }
+
+    private static class Shard {
+        final HashMap<PageId, PageLock> locks = new HashMap<PageId, PageLock>();
+    }
+
+    private final Shard[] shards;
+    private final int shardMask;
+
+    /** pages locked by each transaction, mapped to true if the lock is exclusive */
+    private final ConcurrentHashMap<TransactionId, ConcurrentHashMap<PageId, Boolean>> held =
+            new ConcurrentHashMap<TransactionId, ConcurrentHashMap<PageId, Boolean>>();
+
+    /** the wait-for graph; guarded by itself */
+    private final HashMap<TransactionId, Set<TransactionId>> waitsFor =
+            new HashMap<TransactionId, Set<TransactionId>>();
+
+    LockManager() {
+        int n = 16;
+        while (n < Runtime.getRuntime().availableProcessors() * 4)
+            n <<= 1;
+        shards = new Shard[n];
+        for (int i = 0; i < n; i++)
+            shards[i] = new Shard();
+        shardMask = n - 1;
+    }
+
+    private Shard shardFor(PageId pid) {
+        int h = pid.hashCode();
+        h ^= (h >>> 16);
+        return shards[h & shardMask];
+    }
+
+    /**
+     * Acquire a lock on a page for a transaction, blocking until it is
+     * granted.
+     *
+     * @param tid the transaction requesting the lock
+     * @param pid the page to lock
+     * @param exclusive true for an exclusive lock, false for a shared one
+     * @throws TransactionAbortedException if waiting for the lock would
+     *         deadlock, or the thread was interrupted while waiting
+     */
+    void acquire(TransactionId tid, PageId pid, boolean exclusive)
+        throws TransactionAbortedException {
+        ConcurrentHashMap<PageId, Boolean> mine = held.get(tid);
+        if (mine != null) {
+            Boolean heldExclusive = mine.get(pid);
+            if (heldExclusive != null && (heldExclusive || !exclusive))
+                return;
+        }
+
+        Shard shard = shardFor(pid);
+        synchronized (shard) {
+            PageLock lock;
+            try {
+                while (true) {
+                    // look the lock up again after waiting, it is dropped once free
+                    lock = shard.locks.get(pid);
+                    if (lock == null) {
+                        lock = new PageLock();
+                        shard.locks.put(pid, lock);
+                    }
+                    Set<TransactionId> blockers = lock.blockers(tid, exclusive);
+                    if (blockers.isEmpty())
+                        break;
+                    waitFor(tid, blockers);
+                    try {
+                        shard.wait(WAIT_MILLIS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new TransactionAbortedException();
+                    }
+                }
+            } finally {
+                stopWaiting(tid);
+            }
+
+            if (exclusive) {
+                lock.shared.remove(tid);
+                lock.exclusive = tid;
+            } else if (lock.exclusive == null || !lock.exclusive.equals(tid)) {
+                lock.shared.add(tid);
+            }
+        }
+
+        if (mine == null) {
+            ConcurrentHashMap<PageId, Boolean> fresh = new ConcurrentHashMap<PageId, Boolean>();
+            mine = held.putIfAbsent(tid, fresh);
+            if (mine == null)
+                mine = fresh;
+        }
+        if (exclusive || !mine.containsKey(pid))
+            mine.put(pid, exclusive);
+    }
+
+    /**
+     * Record that tid waits for the given transactions, and abort tid if
+     * that closes a cycle in the wait-for graph.
+     */
+    private void waitFor(TransactionId tid, Set<TransactionId> blockers)
+        throws TransactionAbortedException {
+        synchronized (waitsFor) {
+            waitsFor.put(tid, blockers);
+            Set<TransactionId> visited = new HashSet<TransactionId>();
+            ArrayList<TransactionId> stack = new ArrayList<TransactionId>(blockers);
+            while (!stack.isEmpty()) {
+                TransactionId t = stack.remove(stack.size() - 1);
+                if (t.equals(tid)) {
+                    waitsFor.remove(tid);
+                    throw new TransactionAbortedException();
+                }
+                if (visited.add(t)) {
+                    Set<TransactionId> next = waitsFor.get(t);
+                    if (next != null)
+                        stack.addAll(next);
+                }
+            }
+        }
+    }
+
+    private void stopWaiting(TransactionId tid) {
+        synchronized (waitsFor) {
+            waitsFor.remove(tid);
+        }
+    }
+
+    /**
+     * Release the lock a transaction holds on a page.
+     */
+    void release(TransactionId tid, PageId pid) {
+        ConcurrentHashMap<PageId, Boolean> mine = held.get(tid);
+        if (mine != null)
+            mine.remove(pid);
+        unlock(tid, pid);
+    }
+
+    private void unlock(TransactionId tid, PageId pid) {
+        Shard shard = shardFor(pid);
+        synchronized (shard) {
+            PageLock lock = shard.locks.get(pid);
+            if (lock == null)
+                return;
+            if (lock.exclusive != null && lock.exclusive.equals(tid))
+                lock.exclusive = null;
+            lock.shared.remove(tid);
+            if (lock.isFree())
+                shard.locks.remove(pid);
+            shard.notifyAll();
+        }
+    }
+
+    /**
+     * Release all locks held by a transaction.
+     */
+    void releaseAll(TransactionId tid) {
+        ConcurrentHashMap<PageId, Boolean> mine = held.remove(tid);
+        stopWaiting(tid);
+        if (mine == null)
+            return;
+        for (PageId pid : mine.keySet())
+            unlock(tid, pid);
+    }
+
+    /** @return true if the transaction holds a lock on the page */
+    boolean holdsLock(TransactionId tid, PageId pid) {
+        ConcurrentHashMap<PageId, Boolean> mine = held.get(tid);
+        return mine != null && mine.containsKey(pid);
+    }
+
+    /** @return the pages the transaction holds an exclusive lock on */
+    Set<PageId> exclusivePages(TransactionId tid) {
+        Set<PageId> pages = new HashSet<PageId>();
+        ConcurrentHashMap<PageId, Boolean> mine = held.get(tid);
+        if (mine != null) {
+            for (Map.Entry<PageId, Boolean> e : mine.entrySet()) {
+                if (e.getValue())
+                    pages.add(e.getKey());
+            }
+        }
+        return pages;
+    }
+}
@@ -275,7 +275,14 @@ public class LogFile {
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            // pages may have other constructors; take the one over page bytes
+            Constructor<?> pageConst = pageConsts[0];
+            for (Constructor<?> c : pageConsts) {
+                Class<?>[] params = c.getParameterTypes();
+                if (params.length == 2 && params[1] == byte[].class)
+                    pageConst = c;
+            }
+            newPage = (Page)pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException e){
@@ -318,6 +325,9 @@ public class LogFile {
 
     /** Checkpoint the log and write a checkpoint record. */
     public void logCheckpoint() throws IOException {
+        // write out the pages of finished transactions first, one at a time,
+        // so transactions keep running while they reach the disk
+        Database.getBufferPool().flushForCheckpoint();
         //make sure we have buffer pool lock before proceeding
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
@@ -327,7 +337,6 @@ public class LogFile {
                 Set<Long> keys = tidToFirstLogRecord.keySet();
                 Iterator<Long> els = keys.iterator();
                 force();
-                Database.getBufferPool().flushAllPages();
                 startCpOffset = raf.getFilePointer();
                 raf.writeInt(CHECKPOINT_RECORD);
                 raf.writeLong(-1); //no tid , but leave space for convenience
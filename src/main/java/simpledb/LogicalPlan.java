@@ -6,6 +6,9 @@ import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.NoSuchElementException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * LogicalPlan represents a logical query plan that has been through
@@ -22,6 +25,13 @@ import java.util.NoSuchElementException;
  * best implementations for joins.
  */
 public class LogicalPlan {
+    /**
+     * Range filters are answered through an index only if the statistics
+     * expect them to pass fewer than this share of the table's tuples;
+     * otherwise reading the tuples one by one costs more than a scan.
+     */
+    public static final double INDEX_SCAN_SELECTIVITY = 0.1;
+
     private Vector<LogicalJoinNode> joins;
     private Vector<LogicalScanNode> tables;
     private Vector<LogicalFilterNode> filters;
@@ -271,6 +281,134 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /**
+     * Collect the unqualified names of the fields the query uses anywhere:
+     * in the select list, filters, joins, grouping, aggregate and ordering.
+     * Names are compared without their table, since fields of joined tables
+     * are looked up by name alone.
+     *
+     * @return the names, or null if the query selects all fields
+     */
+    private Set<String> referencedFieldNames() {
+        Set<String> names = new HashSet<String>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.aggOp == null && si.fname.endsWith(".*"))
+                return null;
+            names.add(pureName(si.fname));
+        }
+        for (LogicalFilterNode lf : filters)
+            names.add(lf.fieldPureName);
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1PureName);
+            if (!(lj instanceof LogicalSubplanJoinNode))
+                names.add(lj.f2PureName);
+        }
+        for (String name : new String[] { groupByField, aggField, oByField }) {
+            if (name != null)
+                names.add(pureName(name));
+        }
+        return names;
+    }
+
+    private static String pureName(String name) {
+        return name.substring(name.lastIndexOf('.') + 1);
+    }
+
+    /** @return the indexes of the fields of td whose names are in names */
+    private static List<Integer> fieldsNamed(TupleDesc td, Set<String> names) {
+        List<Integer> fields = new ArrayList<Integer>();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (names.contains(td.getFieldName(i)))
+                fields.add(i);
+        }
+        return fields;
+    }
+
+    /**
+     * Pick an index to read a table through: one over a field an EQUALS
+     * filter of the table tests, a {@link HashIndexFile} before a
+     * {@link BTreeFile}, or, failing that, the BTreeFile over a field a
+     * range filter tests that the statistics expect to pass the fewest
+     * tuples, if that is under {@link #INDEX_SCAN_SELECTIVITY}.  The
+     * filters then hand their predicates down to the {@link IndexScan}.
+     *
+     * @param stats the statistics of the table, or null if there are none
+     * @return the index, or null to scan the whole table
+     */
+    private IndexFile chooseIndex(LogicalScanNode table, TableStats stats) {
+        List<IndexFile> indexes = Database.getCatalog().getIndexes(table.t);
+        if (indexes.isEmpty())
+            return null;
+        TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+        IndexFile equal = null;
+        IndexFile best = null;
+        double bestSelectivity = INDEX_SCAN_SELECTIVITY;
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.tableAlias.equals(table.alias))
+                continue;
+            int field;
+            Field constant;
+            try {
+                field = td.fieldNameToIndex(lf.fieldQuantifiedName);
+                if (td.getFieldType(field) == Type.INT_TYPE)
+                    constant = new IntField(Integer.parseInt(lf.c));
+                else
+                    constant = new StringField(lf.c, Type.STRING_LEN);
+            } catch (NoSuchElementException | NumberFormatException e) {
+                // reported when the filter itself is planned
+                continue;
+            }
+            for (IndexFile index : indexes) {
+                if (index.getKeyField() != field)
+                    continue;
+                if (lf.p == Predicate.Op.EQUALS) {
+                    if (index instanceof HashIndexFile)
+                        return index;
+                    equal = index;
+                    continue;
+                }
+                if (!(index instanceof BTreeFile) || lf.p == Predicate.Op.NOT_EQUALS
+                        || lf.p == Predicate.Op.LIKE || stats == null)
+                    continue;
+                double selectivity = stats.estimateSelectivity(field, lf.p, constant);
+                if (selectivity < bestSelectivity) {
+                    best = index;
+                    bestSelectivity = selectivity;
+                }
+            }
+        }
+        return equal != null ? equal : best;
+    }
+
+    /**
+     * @return true if a filter of the table tests a field with a bitmap
+     *         index, so that a {@link BitmapScan} reads only the pages of
+     *         the tuples that may pass
+     */
+    private boolean bitmapFiltered(LogicalScanNode table) {
+        DbFile file = Database.getCatalog().getDbFile(table.t);
+        if (!(file instanceof HeapFile))
+            return false;
+        int[] fields = ((HeapFile) file).getBitmapFields();
+        TupleDesc td = file.getTupleDesc();
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.tableAlias.equals(table.alias))
+                continue;
+            int field;
+            try {
+                field = td.fieldNameToIndex(lf.fieldQuantifiedName);
+            } catch (NoSuchElementException e) {
+                // reported when the filter itself is planned
+                continue;
+            }
+            for (int f : fields) {
+                if (f == field)
+                    return true;
+            }
+        }
+        return false;
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link DbIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned DbIterator will run as a part of
@@ -289,18 +427,27 @@ public class LogicalPlan {
         HashMap<String,String> equivMap = new HashMap<String,String>();
         HashMap<String,Double> filterSelectivities = new HashMap<String, Double>();
         HashMap<String,TableStats> statsMap = new HashMap<String,TableStats>();
+        Set<String> usedNames = referencedFieldNames();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
             SeqScan ss = null;
+            String baseTableName = Database.getCatalog().getTableName(table.t);
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDbFile(table.t).getId(), table.alias);
+                IndexFile index = chooseIndex(table, baseTableStats.get(baseTableName));
+                if (index != null)
+                    ss = new IndexScan(t, index, table.alias);
+                else if (bitmapFiltered(table))
+                    ss = new BitmapScan(t, table.t, table.alias);
+                else
+                    ss = new SeqScan(t, Database.getCatalog().getDbFile(table.t).getId(), table.alias);
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
+            if (usedNames != null)
+                ss.setColumns(fieldsNamed(ss.getTupleDesc(), usedNames));
             
             subplanMap.put(table.alias,ss);
-            String baseTableName = Database.getCatalog().getTableName(table.t);
             statsMap.put(baseTableName, baseTableStats.get(baseTableName));
             filterSelectivities.put(table.alias, 1.0);
 
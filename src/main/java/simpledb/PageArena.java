@@ -0,0 +1,74 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * PageArena hands out page-sized frames carved from large direct
+ * ByteBuffers, so that the bytes of cached pages live outside the Java heap.
+ * <p>
+ * Slabs are allocated as the pool fills up and are never returned to the
+ * operating system; a released frame goes to the back of the free list and
+ * is handed out again before a new slab is allocated.  Reusing released
+ * frames last gives threads that still hold a detached page's old view some
+ * time to finish with it.
+ *
+ * @see BufferPool
+ * @see HeapPage#moveTo
+ */
+class PageArena {
+
+    /** Bytes per slab, 64 frames of the default page size. */
+    static final int SLAB_BYTES = 64 * BufferPool.PAGE_SIZE;
+    /** Fewest frames per slab, for large pages. */
+    static final int MIN_SLAB_FRAMES = 4;
+
+    private final int frameSize;
+    private final int slabFrames;
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<ByteBuffer>();
+    private long allocatedBytes;
+    private boolean exhausted;
+
+    /**
+     * @param frameSize the number of bytes of each frame
+     */
+    PageArena(int frameSize) {
+        this.frameSize = frameSize;
+        this.slabFrames = Math.max(MIN_SLAB_FRAMES, SLAB_BYTES / frameSize);
+    }
+
+    /**
+     * Take a free frame, allocating a new slab if none is left.
+     *
+     * @return a buffer of exactly one frame, or null if direct memory ran
+     *         out; callers then keep the page on the heap
+     */
+    synchronized ByteBuffer allocate() {
+        if (free.isEmpty() && !exhausted) {
+            ByteBuffer slab;
+            try {
+                slab = ByteBuffer.allocateDirect(frameSize * slabFrames);
+            } catch (OutOfMemoryError e) {
+                exhausted = true;
+                return null;
+            }
+            allocatedBytes += slab.capacity();
+            for (int i = 0; i < slabFrames; i++) {
+                slab.limit((i + 1) * frameSize);
+                slab.position(i * frameSize);
+                free.addLast(slab.slice());
+            }
+        }
+        return free.pollFirst();
+    }
+
+    /** Give a frame back to the arena. */
+    synchronized void release(ByteBuffer frame) {
+        free.addLast(frame);
+    }
+
+    /** @return the bytes of direct memory held by the arena */
+    synchronized long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+}
@@ -4,6 +4,8 @@ import Zql.*;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -365,14 +367,18 @@ public class Parser {
                     IntField f = new IntField(new Integer(zc.getValue()));
                     t.setField(i, f);
                 } else if (zc.getType() == ZConstant.STRING) {
-                    if (td.getFieldType(i) != Type.STRING_TYPE) {
+                    if (td.getFieldType(i) == Type.VARCHAR_TYPE) {
+                        t.setField(i, new StringField(zc.getValue(),
+                                td.getFieldLength(i), Type.VARCHAR_TYPE));
+                    } else if (td.getFieldType(i) != Type.STRING_TYPE) {
                         throw new simpledb.ParsingException("Value "
                                 + zc.getValue()
                                 + " is a string, expected an integer.");
+                    } else {
+                        StringField f = new StringField(zc.getValue(),
+                                Type.STRING_LEN);
+                        t.setField(i, f);
                     }
-                    StringField f = new StringField(zc.getValue(),
-                            Type.STRING_LEN);
-                    t.setField(i, f);
                 } else {
                     throw new simpledb.ParsingException(
                             "Only string or int fields are supported.");
@@ -427,6 +433,73 @@ public class Parser {
 
     }
 
+    /** COPY table FROM 'file' [DELIMITER 'c'], which Zql does not parse */
+    private static final Pattern COPY = Pattern.compile(
+            "(?is)\\s*copy\\s+(\\w+)\\s+from\\s+'([^']*)'(?:\\s+delimiter\\s+'(.)')?\\s*;?\\s*");
+
+    /** the most bytes of a statement looked at to tell whether it is a COPY */
+    private static final int COPY_MAX = 4096;
+
+    /**
+     * Read a COPY statement off a stream, up to and including its ';', or
+     * leave the stream as it was if the next statement is not a COPY.
+     *
+     * @param is a stream that supports mark and reset
+     * @return the statement, or null if it is not a COPY
+     */
+    private static String readCopyStatement(InputStream is) throws IOException {
+        is.mark(COPY_MAX);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int c;
+        while (bytes.size() < COPY_MAX && (c = is.read()) >= 0) {
+            bytes.write(c);
+            if (c == ';')
+                break;
+        }
+        String stmt = bytes.toString("UTF-8");
+        if (stmt.matches("(?is)\\s*copy\\s.*"))
+            return stmt;
+        is.reset();
+        return null;
+    }
+
+    /**
+     * Append the lines of a text file to a table with a {@link BulkLoader},
+     * and add them to the indexes of the table as part of a transaction,
+     * which locks the whole table and empties the new pages if it aborts.
+     */
+    public void handleCopyStatement(String stmt, TransactionId tid)
+            throws TransactionAbortedException, DbException, IOException,
+            simpledb.ParsingException {
+        Matcher m = COPY.matcher(stmt);
+        if (!m.matches())
+            throw new simpledb.ParsingException(
+                    "Expected COPY table FROM 'file' [DELIMITER 'c'] : " + stmt.trim());
+        int id;
+        try {
+            id = Database.getCatalog().getTableId(m.group(1));
+        } catch (NoSuchElementException e) {
+            throw new simpledb.ParsingException("Unknown table : " + m.group(1));
+        }
+        DbFile file = Database.getCatalog().getDbFile(id);
+        if (!(file instanceof HeapFile))
+            throw new DbException("COPY only loads tables stored in HeapFiles");
+        HeapFile table = (HeapFile) file;
+        TupleDesc td = table.getTupleDesc();
+        Type[] types = new Type[td.numFields()];
+        int[] lengths = new int[td.numFields()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = td.getFieldType(i);
+            lengths[i] = td.getFieldLength(i);
+        }
+        char separator = m.group(3) == null ? ',' : m.group(3).charAt(0);
+        BulkLoader loader = new BulkLoader(types, lengths, separator, table.getPageSize());
+        long rows = loader.append(new File(m.group(2)), table, tid);
+        System.out.println(rows + " rows copied into " + m.group(1) + ".");
+        if (loader.getSkippedLines() > 0)
+            System.out.println(loader.getSkippedLines() + " malformed lines skipped.");
+    }
+
     public void handleTransactStatement(ZTransactStmt s)
             throws TransactionAbortedException, DbException, IOException,
             simpledb.ParsingException, Zql.ParseException {
@@ -503,8 +576,10 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
-            ZStatement s = p.readStatement();
+            if (!is.markSupported())
+                is = new BufferedInputStream(is);
+            String copy = readCopyStatement(is);
+            ZStatement s = copy == null ? new ZqlParser(is).readStatement() : null;
 
             Query query = null;
             if (s instanceof ZTransactStmt)
@@ -517,7 +592,9 @@ public class Parser {
                             + curtrans.getId().getId());
                 }
                 try {
-                    if (s instanceof ZInsert)
+                    if (copy != null)
+                        handleCopyStatement(copy, curtrans.getId());
+                    else if (s instanceof ZInsert)
                         query = handleInsertStatement((ZInsert) s,
                                 curtrans.getId());
                     else if (s instanceof ZDelete)
@@ -530,7 +607,7 @@ public class Parser {
                         System.out
                                 .println("Can't parse "
                                         + s
-                                        + "\n -- parser only handles SQL transactions, insert, delete, and select statements");
+                                        + "\n -- parser only handles SQL transactions, insert, delete, copy, and select statements");
                     }
                     if (query != null)
                         query.execute();
@@ -581,7 +658,7 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "copy" };
 
     public static void main(String argv[]) throws IOException {
 
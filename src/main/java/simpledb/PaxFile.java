@@ -0,0 +1,51 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * PaxFile is a HeapFile whose pages are {@link PaxPage}s, storing the
+ * tuples of each page column by column.  Scans that are told which fields
+ * they need, see {@link SeqScan#setColumns}, decode only those.  It is
+ * chosen with the <tt>pax</tt> storage keyword of a catalog schema.
+ *
+ * @see Catalog#loadSchema
+ */
+public class PaxFile extends HeapFile {
+
+    private static final long serialVersionUID = 1L;
+
+    public PaxFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    public PaxFile(File f, TupleDesc td, int pageSize) {
+        super(f, td, pageSize);
+    }
+
+    @Override
+    TuplePage createPage(HeapPageId pid, byte[] data) throws IOException {
+        return new PaxPage(pid, data);
+    }
+
+    /** PAX pages are not read in place; the mapped bytes are copied. */
+    @Override
+    TuplePage createPage(HeapPageId pid, ByteBuffer mapped) throws IOException {
+        byte[] data = new byte[mapped.remaining()];
+        mapped.duplicate().get(data);
+        return new PaxPage(pid, data);
+    }
+
+    @Override
+    int slotsPerPage() {
+        return PaxPage.numSlots(getTupleDesc(), getPageSize());
+    }
+
+    @Override
+    Iterator<Tuple> pageIterator(TuplePage page, List<Predicate> predicates, boolean[] columns) {
+        return ((PaxPage) page).iterator(predicates, columns);
+    }
+}
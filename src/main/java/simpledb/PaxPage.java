@@ -0,0 +1,258 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * PaxPage stores the tuples of a page column by column: after the header
+ * bitmap of used slots, which is laid out like the one of a
+ * {@link HeapPage}, the page holds one mini-column per field, each an array
+ * of the values of that field for all slots.  A scan that needs only a few
+ * fields of a wide table reads them from a few short, dense arrays, and
+ * never decodes the others.
+ * <p>
+ * A page holds as many slots as a HeapPage for the same TupleDesc, and the
+ * value of field j of slot i is at
+ * <tt>header + numSlots * offset(j) + i * length(j)</tt>, where offset(j)
+ * is the offset of field j in a row of the TupleDesc.
+ *
+ * @see PaxFile
+ */
+public class PaxPage implements TuplePage {
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    private final int pageSize;
+    private final int numSlots;
+    private final int headerSize;
+    /** the offset of the mini-column of each field */
+    private final int[] columnStart;
+    /** the bytes of a value of each field */
+    private final int[] columnWidth;
+
+    private final byte[] data;
+    private final ByteBuffer view;
+    private int usedSlots;
+
+    /** the page as it was before its first change since the last commit, or null if unchanged */
+    private volatile byte[] oldData;
+    private volatile TransactionId dirtier;
+
+    /**
+     * Create a PaxPage from the bytes of a page read from disk.
+     *
+     * @param id the id of the page
+     * @param data the bytes of the page
+     * @throws IOException if the data is shorter than a page
+     */
+    public PaxPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.pageSize = Database.getCatalog().getPageSize(id.getTableId());
+        if (data.length < pageSize)
+            throw new IOException("page data is shorter than a page");
+        this.numSlots = numSlots(td, pageSize);
+        this.headerSize = (numSlots + 7) / 8;
+        this.columnStart = new int[td.numFields()];
+        this.columnWidth = new int[td.numFields()];
+        for (int j = 0; j < td.numFields(); j++) {
+            columnStart[j] = headerSize + numSlots * td.getFieldOffset(j);
+            columnWidth[j] = td.getFieldSize(j);
+        }
+        this.data = Arrays.copyOf(data, pageSize);
+        this.view = ByteBuffer.wrap(this.data);
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(i))
+                usedSlots++;
+        }
+    }
+
+    /** @return the number of slots of a page of the given size for the TupleDesc */
+    static int numSlots(TupleDesc td, int pageSize) {
+        return (pageSize * 8) / (td.getSize() * 8 + 1);
+    }
+
+    /** @return an empty page of the default page size; a page of zeros */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.PAGE_SIZE];
+    }
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    public synchronized int getNumEmptySlots() {
+        return numSlots - usedSlots;
+    }
+
+    /** @return true if the slot holds a tuple */
+    public synchronized boolean isSlotUsed(int i) {
+        return i >= 0 && i < numSlots && (data[i / 8] & (1 << (i % 8))) != 0;
+    }
+
+    private void markSlotUsed(int i, boolean used) {
+        if (used)
+            data[i / 8] |= (byte) (1 << (i % 8));
+        else
+            data[i / 8] &= (byte) ~(1 << (i % 8));
+    }
+
+    /** Take the before-image if this is the first change since the last commit. */
+    private void beforeChange() {
+        if (oldData == null)
+            oldData = getPageData();
+    }
+
+    public synchronized void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("tupledesc of the tuple doesn't match the page");
+        if (usedSlots == numSlots)
+            throw new DbException("page is full");
+        int slot = 0;
+        while (isSlotUsed(slot))
+            slot++;
+
+        // encode every field before touching the page, so a failure to
+        // write a dictionary leaves it as it was
+        byte[][] values = new byte[td.numFields()][];
+        for (int j = 0; j < td.numFields(); j++) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(columnWidth[j]);
+            try {
+                td.writeField(j, t.getField(j), new DataOutputStream(baos));
+            } catch (IOException e) {
+                throw new DbException("could not encode the tuple: " + e.getMessage());
+            }
+            values[j] = baos.toByteArray();
+        }
+        beforeChange();
+        for (int j = 0; j < td.numFields(); j++)
+            System.arraycopy(values[j], 0, data, columnStart[j] + slot * columnWidth[j], columnWidth[j]);
+        markSlotUsed(slot, true);
+        usedSlots++;
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    public synchronized void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()))
+            throw new DbException("tuple is not on this page");
+        int slot = rid.tupleno();
+        if (!isSlotUsed(slot))
+            throw new DbException("tuple doesn't exist");
+
+        beforeChange();
+        for (int j = 0; j < td.numFields(); j++) {
+            int start = columnStart[j] + slot * columnWidth[j];
+            Arrays.fill(data, start, start + columnWidth[j], (byte) 0);
+        }
+        markSlotUsed(slot, false);
+        usedSlots--;
+    }
+
+    /** Return the value of one field of the tuple in a slot. */
+    public synchronized Field getField(int slot, int field) {
+        return td.readField(field, view, columnStart[field] + slot * columnWidth[field]);
+    }
+
+    /** Build the tuple in a slot. */
+    public Tuple getTuple(int slot) {
+        return getTuple(slot, null);
+    }
+
+    /**
+     * Build the tuple in a slot, decoding only some of its fields.
+     *
+     * @param columns the fields to decode, or null for all of them; the
+     *        other fields of the tuple are left null
+     */
+    public synchronized Tuple getTuple(int slot, boolean[] columns) {
+        Tuple t = new Tuple(td);
+        for (int j = 0; j < td.numFields(); j++)
+            t.setField(j, columns == null || columns[j] ? getField(slot, j) : null);
+        t.setRecordId(new RecordId(pid, slot));
+        return t;
+    }
+
+    public synchronized byte[] getPageData() {
+        return data.clone();
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    /** An unchanged page is its own before-image. */
+    public PaxPage getBeforeImage() {
+        try {
+            byte[] before = oldData;
+            return new PaxPage(pid, before != null ? before : getPageData());
+        } catch (IOException e) {
+            // we parsed it OK before
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Drop the before-image, so that the current content becomes the before-image. */
+    public void setBeforeImage() {
+        oldData = null;
+    }
+
+    public Iterator<Tuple> iterator() {
+        return iterator(Collections.<Predicate>emptyList(), null);
+    }
+
+    public Iterator<Tuple> iterator(List<Predicate> predicates) {
+        return iterator(predicates, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples on this page that pass all the
+     * given predicates, decoding only the given fields of each tuple.
+     *
+     * @param columns the fields to decode, or null for all of them; the
+     *        other fields of the tuples are left null
+     */
+    public Iterator<Tuple> iterator(final List<Predicate> predicates, final boolean[] columns) {
+        return new Iterator<Tuple>() {
+            int current = 0;
+            /** the slot hasNext last found, so it is tested only once */
+            int found = -1;
+
+            public boolean hasNext() {
+                if (found == current)
+                    return current < numSlots;
+                while (current < numSlots && (!isSlotUsed(current) || !matches(current)))
+                    current++;
+                found = current;
+                return current < numSlots;
+            }
+
+            private boolean matches(int slot) {
+                for (Predicate p : predicates) {
+                    if (!getField(slot, p.getField()).compare(p.getOp(), p.getOperand()))
+                        return false;
+                }
+                return true;
+            }
+
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return getTuple(current++, columns);
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
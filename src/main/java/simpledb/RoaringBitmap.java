@@ -0,0 +1,400 @@
+package simpledb;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A compressed set of non-negative ints, laid out like a Roaring bitmap:
+ * the values are split into containers by their high 16 bits, and each
+ * container keeps the low 16 bits of its values either as a sorted array,
+ * while it holds at most {@link #ARRAY_MAX} of them, or as a bitmap of
+ * 65536 bits once it holds more.  Sparse sets thus take two bytes per
+ * value and dense ones one bit, and intersections and unions work a
+ * container at a time, on words where both sides are bitmaps.
+ *
+ * @see BitmapIndex
+ */
+public class RoaringBitmap {
+
+    /** The most values a container keeps as an array. */
+    static final int ARRAY_MAX = 4096;
+
+    /** words of a container kept as a bitmap */
+    private static final int WORDS = 1 << 10;
+
+    /** The low 16 bits of the values that share their high 16 bits. */
+    private static final class Container {
+        /** the values in order, while there are at most ARRAY_MAX, else null */
+        char[] array;
+        /** a bit per value, once there are more than ARRAY_MAX, else null */
+        long[] bits;
+        int card;
+
+        Container() {
+            array = new char[4];
+        }
+
+        /** @return a container of the set bits, kept as an array if there are few */
+        static Container ofBits(long[] bits) {
+            Container c = new Container();
+            c.array = null;
+            c.bits = bits;
+            for (long w : bits)
+                c.card += Long.bitCount(w);
+            if (c.card <= ARRAY_MAX)
+                c.toArray();
+            return c;
+        }
+
+        /** @return a container of the first card values of an array */
+        static Container ofArray(char[] array, int card) {
+            Container c = new Container();
+            c.array = array;
+            c.card = card;
+            return c;
+        }
+
+        Container copy() {
+            Container c = new Container();
+            c.array = array == null ? null : Arrays.copyOf(array, Math.max(card, 1));
+            c.bits = bits == null ? null : bits.clone();
+            c.card = card;
+            return c;
+        }
+
+        /** @return the index of the first array value at least low */
+        private int lowerBound(int low) {
+            int i = Arrays.binarySearch(array, 0, card, (char) low);
+            return i >= 0 ? i : -i - 1;
+        }
+
+        boolean contains(char low) {
+            if (bits != null)
+                return (bits[low >>> 6] & (1L << low)) != 0;
+            return Arrays.binarySearch(array, 0, card, low) >= 0;
+        }
+
+        void add(char low) {
+            if (bits != null) {
+                long mask = 1L << low;
+                if ((bits[low >>> 6] & mask) == 0) {
+                    bits[low >>> 6] |= mask;
+                    card++;
+                }
+                return;
+            }
+            int i = Arrays.binarySearch(array, 0, card, low);
+            if (i >= 0)
+                return;
+            if (card == ARRAY_MAX) {
+                toBits();
+                add(low);
+                return;
+            }
+            i = -i - 1;
+            if (card == array.length)
+                array = Arrays.copyOf(array, Math.min(ARRAY_MAX, card * 2));
+            System.arraycopy(array, i, array, i + 1, card - i);
+            array[i] = low;
+            card++;
+        }
+
+        /** Remove the values from lo up to hi, inclusive. */
+        void removeRange(int lo, int hi) {
+            if (bits == null) {
+                int from = lowerBound(lo);
+                int to = hi + 1 > Character.MAX_VALUE ? card : lowerBound(hi + 1);
+                System.arraycopy(array, to, array, from, card - to);
+                card -= to - from;
+                return;
+            }
+            for (int v = lo; v <= hi; v++) {
+                long mask = 1L << v;
+                if ((bits[v >>> 6] & mask) != 0) {
+                    bits[v >>> 6] &= ~mask;
+                    card--;
+                }
+            }
+            if (card <= ARRAY_MAX)
+                toArray();
+        }
+
+        /** @return the least value at least low, or -1 if there is none */
+        int next(int low) {
+            if (bits == null) {
+                int i = lowerBound(low);
+                return i < card ? array[i] : -1;
+            }
+            int w = low >>> 6;
+            long word = bits[w] & (-1L << low);
+            while (word == 0) {
+                if (++w == WORDS)
+                    return -1;
+                word = bits[w];
+            }
+            return w * 64 + Long.numberOfTrailingZeros(word);
+        }
+
+        private void toBits() {
+            bits = new long[WORDS];
+            for (int i = 0; i < card; i++)
+                bits[array[i] >>> 6] |= 1L << array[i];
+            array = null;
+        }
+
+        private void toArray() {
+            array = new char[Math.max(card, 1)];
+            int n = 0;
+            for (int w = 0; w < WORDS; w++) {
+                long word = bits[w];
+                while (word != 0) {
+                    array[n++] = (char) (w * 64 + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            bits = null;
+        }
+
+        Container and(Container o) {
+            if (bits != null && o.bits != null) {
+                long[] r = new long[WORDS];
+                for (int w = 0; w < WORDS; w++)
+                    r[w] = bits[w] & o.bits[w];
+                return ofBits(r);
+            }
+            if (bits != null)
+                return o.and(this);
+            char[] r = new char[Math.max(1, Math.min(card, o.card))];
+            int n = 0;
+            if (o.bits != null) {
+                for (int i = 0; i < card; i++) {
+                    if (o.contains(array[i]))
+                        r[n++] = array[i];
+                }
+                return ofArray(r, n);
+            }
+            int i = 0, j = 0;
+            while (i < card && j < o.card) {
+                if (array[i] < o.array[j])
+                    i++;
+                else if (array[i] > o.array[j])
+                    j++;
+                else {
+                    r[n++] = array[i++];
+                    j++;
+                }
+            }
+            return ofArray(r, n);
+        }
+
+        Container or(Container o) {
+            if (bits != null || o.bits != null) {
+                Container big = bits != null ? this : o;
+                Container other = big == this ? o : this;
+                long[] r = big.bits.clone();
+                if (other.bits != null) {
+                    for (int w = 0; w < WORDS; w++)
+                        r[w] |= other.bits[w];
+                } else {
+                    for (int i = 0; i < other.card; i++)
+                        r[other.array[i] >>> 6] |= 1L << other.array[i];
+                }
+                return ofBits(r);
+            }
+            char[] r = new char[Math.max(1, card + o.card)];
+            int n = 0, i = 0, j = 0;
+            while (i < card || j < o.card) {
+                if (j == o.card || (i < card && array[i] < o.array[j]))
+                    r[n++] = array[i++];
+                else if (i == card || o.array[j] < array[i])
+                    r[n++] = o.array[j++];
+                else {
+                    r[n++] = array[i++];
+                    j++;
+                }
+            }
+            Container c = ofArray(r, n);
+            if (n > ARRAY_MAX)
+                c.toBits();
+            return c;
+        }
+    }
+
+    /** the high 16 bits of the values of each container, in order */
+    private char[] keys = new char[0];
+    private Container[] containers = new Container[0];
+    private int size;
+
+    /** @return the index of the container of the high bits, or -(insertion point) - 1 */
+    private int find(int high) {
+        return Arrays.binarySearch(keys, 0, size, (char) high);
+    }
+
+    private void append(int high, Container c) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, Math.max(4, size * 2));
+            containers = Arrays.copyOf(containers, keys.length);
+        }
+        keys[size] = (char) high;
+        containers[size++] = c;
+    }
+
+    private void removeContainer(int i) {
+        System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+        System.arraycopy(containers, i + 1, containers, i, size - i - 1);
+        containers[--size] = null;
+    }
+
+    /** Add a value to the set. */
+    public void add(int value) {
+        if (value < 0)
+            throw new IllegalArgumentException("negative value " + value);
+        int i = find(value >>> 16);
+        if (i < 0) {
+            i = -i - 1;
+            append(0, null);
+            System.arraycopy(keys, i, keys, i + 1, size - i - 1);
+            System.arraycopy(containers, i, containers, i + 1, size - i - 1);
+            keys[i] = (char) (value >>> 16);
+            containers[i] = new Container();
+        }
+        containers[i].add((char) value);
+    }
+
+    /** @return true if the set holds a value */
+    public boolean contains(int value) {
+        if (value < 0)
+            return false;
+        int i = find(value >>> 16);
+        return i >= 0 && containers[i].contains((char) value);
+    }
+
+    /**
+     * Remove the values of a range from the set.
+     *
+     * @param from the least value removed
+     * @param to one past the greatest value removed
+     */
+    public void removeRange(int from, int to) {
+        from = Math.max(from, 0);
+        for (int i = 0; i < size && from < to; ) {
+            int base = keys[i] << 16;
+            int lo = Math.max(from, base);
+            int hi = Math.min(to - 1, base + 0xffff);
+            if (lo <= hi) {
+                containers[i].removeRange(lo - base, hi - base);
+                if (containers[i].card == 0) {
+                    removeContainer(i);
+                    continue;
+                }
+            }
+            i++;
+        }
+    }
+
+    /** @return the number of values in the set */
+    public int cardinality() {
+        int n = 0;
+        for (int i = 0; i < size; i++)
+            n += containers[i].card;
+        return n;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** @return the least value of the set at least from, or -1 if there is none */
+    public int next(int from) {
+        from = Math.max(from, 0);
+        int i = find(from >>> 16);
+        if (i >= 0) {
+            int low = containers[i].next(from & 0xffff);
+            if (low >= 0)
+                return (keys[i] << 16) | low;
+            i++;
+        } else {
+            i = -i - 1;
+        }
+        // containers are never empty
+        return i < size ? (keys[i] << 16) | containers[i].next(0) : -1;
+    }
+
+    /** @return a new set of the values in both this set and another */
+    public RoaringBitmap and(RoaringBitmap o) {
+        RoaringBitmap r = new RoaringBitmap();
+        int i = 0, j = 0;
+        while (i < size && j < o.size) {
+            if (keys[i] < o.keys[j])
+                i++;
+            else if (keys[i] > o.keys[j])
+                j++;
+            else {
+                Container c = containers[i].and(o.containers[j]);
+                if (c.card > 0)
+                    r.append(keys[i], c);
+                i++;
+                j++;
+            }
+        }
+        return r;
+    }
+
+    /** @return a new set of the values in this set or another */
+    public RoaringBitmap or(RoaringBitmap o) {
+        RoaringBitmap r = new RoaringBitmap();
+        int i = 0, j = 0;
+        while (i < size || j < o.size) {
+            if (j == o.size || (i < size && keys[i] < o.keys[j]))
+                r.append(keys[i], containers[i++].copy());
+            else if (i == size || o.keys[j] < keys[i])
+                r.append(o.keys[j], o.containers[j++].copy());
+            else
+                r.append(keys[i], containers[i++].or(o.containers[j++]));
+        }
+        return r;
+    }
+
+    /** Write the set to a stream, to be read back with {@link #read}. */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            Container c = containers[i];
+            out.writeChar(keys[i]);
+            out.writeInt(c.card);
+            if (c.bits != null) {
+                for (long w : c.bits)
+                    out.writeLong(w);
+            } else {
+                for (int k = 0; k < c.card; k++)
+                    out.writeChar(c.array[k]);
+            }
+        }
+    }
+
+    /** Read a set written with {@link #write}. */
+    public static RoaringBitmap read(DataInputStream in) throws IOException {
+        RoaringBitmap r = new RoaringBitmap();
+        int n = in.readInt();
+        for (int i = 0; i < n; i++) {
+            char key = in.readChar();
+            int card = in.readInt();
+            Container c;
+            if (card > ARRAY_MAX) {
+                long[] bits = new long[WORDS];
+                for (int w = 0; w < WORDS; w++)
+                    bits[w] = in.readLong();
+                c = Container.ofBits(bits);
+            } else {
+                char[] array = new char[Math.max(card, 1)];
+                for (int k = 0; k < card; k++)
+                    array[k] = in.readChar();
+                c = Container.ofArray(array, card);
+            }
+            r.append(key, c);
+        }
+        return r;
+    }
+}
@@ -16,6 +16,10 @@ public class SeqScan implements DbIterator {
     private String tableAlias;
     private DbFileIterator itr;
     private DbFileIterator savedItr;
+    /** predicates of the Filters above, tested on the pages before tuples are built */
+    private List<Predicate> predicates = new ArrayList<Predicate>();
+    /** the fields the operators above use, or null if they may use all of them */
+    private boolean[] columns;
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -49,6 +53,16 @@ public class SeqScan implements DbIterator {
         return Database.getCatalog().getTableName(tableId);
     }
     
+    /** @return the id of the table the operator scans */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /** @return the transaction the scan runs as a part of */
+    public TransactionId getTransactionId() {
+        return transId;
+    }
+
     /**
      * @return Return the alias of the table this operator scans. 
      * */
@@ -82,11 +96,61 @@ public class SeqScan implements DbIterator {
 
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
-        DbFile dbFile = Database.getCatalog().getDbFile(tableId);
-        itr = dbFile.iterator(transId);
+        itr = fileIterator();
         itr.open();
     }
 
+    private DbFileIterator fileIterator() {
+        DbFile dbFile = Database.getCatalog().getDbFile(tableId);
+        if (dbFile instanceof ColumnFile)
+            return ((ColumnFile) dbFile).iterator(transId, predicates, columns);
+        if (columns != null && dbFile instanceof HeapFile)
+            return ((HeapFile) dbFile).iterator(transId, predicates, columns);
+        if (!predicates.isEmpty() && dbFile instanceof HeapFile)
+            return ((HeapFile) dbFile).iterator(transId, predicates);
+        return dbFile.iterator(transId);
+    }
+
+    /**
+     * Tell the scan which fields the operators above it use.  Tables that
+     * store their pages column by column then decode only those fields, and
+     * column stores read only those columns; the other fields of the tuples
+     * returned are left null.  Takes effect the
+     * next time the scan is opened or rewound.
+     *
+     * @param fields indexes of fields of the scanned table, or null if all
+     *        of them may be used
+     */
+    public void setColumns(Collection<Integer> fields) {
+        if (fields == null) {
+            columns = null;
+            return;
+        }
+        boolean[] used = new boolean[getTupleDesc().numFields()];
+        for (int i : fields)
+            used[i] = true;
+        columns = used;
+    }
+
+    /**
+     * Only return the tuples that pass a predicate from now on.  Filters
+     * directly above the scan hand their predicates down with this method,
+     * so that the tuples they would reject are not built at all.  Takes
+     * effect the next time the scan is opened or rewound.
+     *
+     * @param p a predicate over the fields of the scanned table
+     * @return true if the scan applies the predicate, false if the table is
+     *         not stored in a HeapFile or ColumnFile and it does not
+     */
+    public boolean addPredicate(Predicate p) {
+        DbFile dbFile = Database.getCatalog().getDbFile(tableId);
+        if (!(dbFile instanceof HeapFile || dbFile instanceof ColumnFile))
+            return false;
+        if (!predicates.contains(p))
+            predicates.add(p);
+        return true;
+    }
+
     /**
      * Returns the TupleDesc with field names from the underlying HeapFile,
      * prefixed with the tableAlias string from the constructor. This prefix
@@ -120,8 +184,7 @@ public class SeqScan implements DbIterator {
     public void rewind() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
-        DbFile dbFile = Database.getCatalog().getDbFile(tableId);
-        itr = dbFile.iterator(transId);
+        itr = fileIterator();
         itr.open();
     }
 }
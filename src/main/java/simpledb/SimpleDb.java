@@ -8,7 +8,7 @@ public class SimpleDb {
         // convert a file
         if(args[0].equals("convert")) {
         try {
-            if (args.length<3 || args.length>5){
+            if (args.length<3 || args.length>6){
                 System.err.println("Unexpected number of arguments to convert ");
                 return;
             }
@@ -16,6 +16,8 @@ public class SimpleDb {
             File targetDatFile=new File(args[1].replaceAll(".txt", ".dat"));
             int numOfAttributes=Integer.parseInt(args[2]);
             Type[] ts = new Type[numOfAttributes];
+            int[] lengths = new int[numOfAttributes];
+            Arrays.fill(lengths, Type.STRING_LEN);
             char fieldSeparator=',';
 
             if (args.length == 3) 
@@ -31,21 +33,30 @@ public class SimpleDb {
                 }
                 int index=0;
                 for (String s: typeStringAr) {
-                        if (s.toLowerCase().equals("int"))
+                        String type = s.toLowerCase().trim();
+                        if (type.equals("int"))
                             ts[index++]=Type.INT_TYPE;
-                        else if (s.toLowerCase().equals("string"))
+                        else if (type.equals("string"))
                                 ts[index++]=Type.STRING_TYPE;
-                            else {
+                        else if (type.equals("varchar"))
+                                ts[index++]=Type.VARCHAR_TYPE;
+                        else if (type.startsWith("varchar(") && type.endsWith(")")) {
+                                lengths[index] = Integer.parseInt(type.substring(8, type.length() - 1).trim());
+                                ts[index++]=Type.VARCHAR_TYPE;
+                            } else {
                                 System.err.println("Unknown type " + s);
                                 return;
                             }
                 }
-                if (args.length==5)
+                if (args.length>=5)
                     fieldSeparator=args[4].charAt(0);
             }
+            // an optional last argument gives the page size of the table
+            int pageSize = args.length == 6
+                    ? BufferPool.checkPageSize(Integer.parseInt(args[5])) : BufferPool.PAGE_SIZE;
 
             HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
-                        BufferPool.PAGE_SIZE,numOfAttributes,ts,fieldSeparator);
+                        pageSize,numOfAttributes,ts,lengths,fieldSeparator,new int[0]);
 
         } catch (IOException e) {
                 throw new RuntimeException(e);
@@ -0,0 +1,43 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * SlottedFile is a HeapFile whose pages are {@link SlottedPage}s, so tuples
+ * with VARCHAR_TYPE fields only take the room their values need.  It is
+ * chosen with the <tt>slotted</tt> storage keyword of a catalog schema.
+ *
+ * @see Catalog#loadSchema
+ */
+public class SlottedFile extends HeapFile {
+
+    private static final long serialVersionUID = 1L;
+
+    public SlottedFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    public SlottedFile(File f, TupleDesc td, int pageSize) {
+        super(f, td, pageSize);
+    }
+
+    @Override
+    TuplePage createPage(HeapPageId pid, byte[] data) throws IOException {
+        return new SlottedPage(pid, data);
+    }
+
+    /** Slotted pages are not read in place; the mapped bytes are copied. */
+    @Override
+    TuplePage createPage(HeapPageId pid, ByteBuffer mapped) throws IOException {
+        byte[] data = new byte[mapped.remaining()];
+        mapped.duplicate().get(data);
+        return new SlottedPage(pid, data);
+    }
+
+    @Override
+    int slotsPerPage() {
+        return SlottedPage.maxTuples(getTupleDesc(), getPageSize());
+    }
+}
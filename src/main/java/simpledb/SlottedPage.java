@@ -0,0 +1,290 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * SlottedPage stores tuples of varying size, packed at the end of the page
+ * and found through a slot directory at its start.  It is the page of a
+ * {@link SlottedFile}.
+ * <p>
+ * The page starts with the number of entries of the slot directory and the
+ * offset where tuple data begins, followed by the directory, each entry the
+ * offset and length of a tuple, or zeros for an empty slot.  Tuples are
+ * stored with {@link Type#serializeCompact}, so VARCHAR_TYPE fields only
+ * take the bytes of their value.  All integers are 4 bytes, and a page of
+ * zeros is an empty page.
+ * <p>
+ * Deleting a tuple moves the tuples stored below it up over the gap, so the
+ * free space of a page is always in one piece, between the directory and
+ * the tuple data.  Slots keep their numbers, so RecordIds stay valid.
+ *
+ * @see SlottedFile
+ */
+public class SlottedPage implements TuplePage {
+
+    /** bytes before the slot directory */
+    static final int HEADER_SIZE = 8;
+    /** bytes per entry of the slot directory */
+    static final int SLOT_SIZE = 8;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    private byte[] data;
+    private final ByteBuffer view;
+    private final int maxTupleSize;
+    private final int pageSize;
+
+    /** the page as it was before its first change since the last commit, or null if unchanged */
+    private volatile byte[] oldData;
+    private volatile TransactionId dirtier;
+
+    /**
+     * Create a SlottedPage from the bytes of a page read from disk.
+     *
+     * @param id the id of the page
+     * @param data the bytes of the page
+     * @throws IOException if the data is not a valid page
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.pageSize = Database.getCatalog().getPageSize(id.getTableId());
+        if (data.length < pageSize)
+            throw new IOException("page data is shorter than a page");
+        this.data = Arrays.copyOf(data, pageSize);
+        this.view = ByteBuffer.wrap(this.data);
+        this.maxTupleSize = td.getSize();
+        int start = dataStart();
+        if (start < directoryEnd() || start > pageSize)
+            throw new IOException("slot directory overlaps tuple data");
+    }
+
+    /**
+     * @return the most tuples of the largest size a page of the given size
+     *         for the TupleDesc can hold
+     */
+    static int maxTuples(TupleDesc td, int pageSize) {
+        return (pageSize - HEADER_SIZE) / (td.getSize() + SLOT_SIZE);
+    }
+
+    /** @return an empty page; a page of zeros */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.PAGE_SIZE];
+    }
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /** @return the number of entries of the slot directory */
+    public int getNumSlots() {
+        return view.getInt(0);
+    }
+
+    private int dataStart() {
+        int start = view.getInt(4);
+        return start == 0 ? pageSize : start;
+    }
+
+    private int directoryEnd() {
+        return HEADER_SIZE + getNumSlots() * SLOT_SIZE;
+    }
+
+    private int slotOffset(int slot) {
+        return view.getInt(HEADER_SIZE + slot * SLOT_SIZE);
+    }
+
+    private int slotLength(int slot) {
+        return view.getInt(HEADER_SIZE + slot * SLOT_SIZE + 4);
+    }
+
+    private void setSlot(int slot, int offset, int length) {
+        view.putInt(HEADER_SIZE + slot * SLOT_SIZE, offset);
+        view.putInt(HEADER_SIZE + slot * SLOT_SIZE + 4, length);
+    }
+
+    /** @return the number of unused bytes between the directory and the tuple data */
+    public synchronized int getFreeSpace() {
+        return dataStart() - directoryEnd();
+    }
+
+    /** @return true if the slot holds a tuple */
+    public synchronized boolean isSlotUsed(int slot) {
+        return slot >= 0 && slot < getNumSlots() && slotLength(slot) != 0;
+    }
+
+    public synchronized int getNumEmptySlots() {
+        return Math.max(0, getFreeSpace() / (maxTupleSize + SLOT_SIZE));
+    }
+
+    /** Take the before-image if this is the first change since the last commit. */
+    private void beforeChange() {
+        if (oldData == null)
+            oldData = getPageData();
+    }
+
+    /**
+     * Encode a tuple in its compact form.  Values of dictionary-encoded
+     * fields are added to their dictionaries, which may write to disk.
+     *
+     * @throws DbException if a dictionary could not be written
+     */
+    private byte[] encode(Tuple t) throws DbException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(maxTupleSize);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int j = 0; j < td.numFields(); j++)
+                td.writeFieldCompact(j, t.getField(j), dos);
+            dos.flush();
+        } catch (IOException e) {
+            throw new DbException("could not encode the tuple: " + e.getMessage());
+        }
+        return baos.toByteArray();
+    }
+
+    public synchronized void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("tupledesc of the tuple doesn't match the page");
+        byte[] bytes = encode(t);
+        int slots = getNumSlots();
+        int slot = 0;
+        while (slot < slots && slotLength(slot) != 0)
+            slot++;
+        int needed = bytes.length + (slot == slots ? SLOT_SIZE : 0);
+        if (needed > getFreeSpace())
+            throw new DbException("not enough room on the page for the tuple");
+
+        beforeChange();
+        int start = dataStart() - bytes.length;
+        System.arraycopy(bytes, 0, data, start, bytes.length);
+        if (slot == slots)
+            view.putInt(0, slots + 1);
+        view.putInt(4, start);
+        setSlot(slot, start, bytes.length);
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    /**
+     * Delete a tuple, moving the tuples stored before it in the data area
+     * over the space it took.
+     */
+    public synchronized void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()))
+            throw new DbException("tuple is not on this page");
+        int slot = rid.tupleno();
+        if (!isSlotUsed(slot))
+            throw new DbException("tuple doesn't exist");
+
+        beforeChange();
+        int offset = slotOffset(slot);
+        int length = slotLength(slot);
+        int start = dataStart();
+        System.arraycopy(data, start, data, start + length, offset - start);
+        Arrays.fill(data, start, start + length, (byte) 0);
+        int slots = getNumSlots();
+        for (int i = 0; i < slots; i++) {
+            if (slotLength(i) != 0 && slotOffset(i) < offset)
+                setSlot(i, slotOffset(i) + length, slotLength(i));
+        }
+        setSlot(slot, 0, 0);
+        // empty entries at the end of the directory are given back
+        while (slots > 0 && slotLength(slots - 1) == 0)
+            slots--;
+        view.putInt(0, slots);
+        int newStart = start + length;
+        view.putInt(4, newStart == pageSize ? 0 : newStart);
+    }
+
+    /**
+     * Return the value of one field of the tuple in a slot, skipping over
+     * the fields before it without building them.
+     */
+    public synchronized Field getField(int slot, int field) {
+        int pos = slotOffset(slot);
+        for (int j = 0; j < field; j++)
+            pos += td.storedLen(j, view, pos);
+        return td.readField(field, view, pos);
+    }
+
+    /** Build the tuple in a slot. */
+    public synchronized Tuple getTuple(int slot) {
+        Tuple t = new Tuple(td);
+        int pos = slotOffset(slot);
+        for (int j = 0; j < td.numFields(); j++) {
+            t.setField(j, td.readField(j, view, pos));
+            pos += td.storedLen(j, view, pos);
+        }
+        t.setRecordId(new RecordId(pid, slot));
+        return t;
+    }
+
+    public synchronized byte[] getPageData() {
+        return data.clone();
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    /** An unchanged page is its own before-image. */
+    public SlottedPage getBeforeImage() {
+        try {
+            byte[] before = oldData;
+            return new SlottedPage(pid, before != null ? before : getPageData());
+        } catch (IOException e) {
+            // we parsed it OK before
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Drop the before-image, so that the current content becomes the before-image. */
+    public void setBeforeImage() {
+        oldData = null;
+    }
+
+    public Iterator<Tuple> iterator() {
+        return iterator(Collections.<Predicate>emptyList());
+    }
+
+    public Iterator<Tuple> iterator(final List<Predicate> predicates) {
+        return new Iterator<Tuple>() {
+            int current = 0;
+            /** the slot hasNext last found, so it is tested only once */
+            int found = -1;
+
+            public boolean hasNext() {
+                if (found == current)
+                    return current < getNumSlots();
+                while (current < getNumSlots() && (!isSlotUsed(current) || !matches(current)))
+                    current++;
+                found = current;
+                return current < getNumSlots();
+            }
+
+            private boolean matches(int slot) {
+                for (Predicate p : predicates) {
+                    if (!getField(slot, p.getField()).compare(p.getOp(), p.getOperand()))
+                        return false;
+                }
+                return true;
+            }
+
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return getTuple(current++);
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
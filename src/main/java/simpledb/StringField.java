@@ -9,8 +9,9 @@ public class StringField implements Field {
 
 	private static final long serialVersionUID = 1L;
 
-	private String value;
-	private int maxSize;
+	private final String value;
+	private final int maxSize;
+	private final Type type;
 
 	public String getValue() {
 		return value;
@@ -25,7 +26,23 @@ public class StringField implements Field {
 	 *            The maximum size of this string
 	 */
 	public StringField(String s, int maxSize) {
+		this(s, maxSize, Type.STRING_TYPE);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param s
+	 *            The value of this field.
+	 * @param maxSize
+	 *            The maximum size of this string
+	 * @param type
+	 *            The type of the field the string was read from,
+	 *            STRING_TYPE or VARCHAR_TYPE
+	 */
+	public StringField(String s, int maxSize, Type type) {
 		this.maxSize = maxSize;
+		this.type = type;
 
 		if (s.length() > maxSize)
 			value = s.substring(0, maxSize);
@@ -110,6 +127,6 @@ public class StringField implements Field {
 	 */
 	public Type getType() {
 
-		return Type.STRING_TYPE;
+		return type;
 	}
 }
@@ -1,6 +1,9 @@
 package simpledb;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 import simpledb.TupleDesc.TDItem;
@@ -27,9 +30,24 @@ public class TupleDesc implements Serializable {
          * */
         String fieldName;
 
+        /**
+         * The declared length of the field, the n of VARCHAR(n)
+         * */
+        int fieldLength;
+
+        /**
+         * The dictionary of a dictionary-encoded string field, or null
+         * */
+        transient Dictionary dictionary;
+
         public TDItem(Type t, String n) {
+            this(t, n, Type.STRING_LEN);
+        }
+
+        public TDItem(Type t, String n, int length) {
             this.fieldName = n;
             this.fieldType = t;
+            this.fieldLength = length;
         }
 
         public String toString() {
@@ -38,6 +56,8 @@ public class TupleDesc implements Serializable {
     }
 
     private List<TDItem> tuple = new ArrayList<TDItem>();
+    /** byte offset of each field in a tuple, and the tuple size last; computed on first use */
+    private transient int[] offsets;
 
     /**
      * @return
@@ -72,6 +92,53 @@ public class TupleDesc implements Serializable {
         // some code goes here
     }
 
+    /**
+     * Create a new TupleDesc whose VARCHAR_TYPE fields have the given
+     * lengths.
+     *
+     * @param typeAr
+     *            array specifying the number of and types of fields in this
+     *            TupleDesc. It must contain at least one entry.
+     * @param fieldAr
+     *            array specifying the names of the fields. Note that names may
+     *            be null.
+     * @param lengthAr
+     *            array specifying the declared length of each field, the n
+     *            of VARCHAR(n); ignored for the other types.
+     */
+    public TupleDesc(Type[] typeAr, String[] fieldAr, int[] lengthAr) {
+        for(int i =0; i < typeAr.length; i++){
+            tuple.add(new TDItem(typeAr[i], fieldAr[i], lengthAr[i]));
+        }
+    }
+
+    /**
+     * Create a new TupleDesc some of whose string fields are dictionary
+     * encoded: they are stored on pages as the codes of their values in the
+     * given dictionaries, see {@link Dictionary}.
+     *
+     * @param typeAr
+     *            array specifying the number of and types of fields in this
+     *            TupleDesc. It must contain at least one entry.
+     * @param fieldAr
+     *            array specifying the names of the fields. Note that names may
+     *            be null.
+     * @param lengthAr
+     *            array specifying the declared length of each field, the n
+     *            of VARCHAR(n); ignored for the other types.
+     * @param dictionaryAr
+     *            array specifying the dictionary of each field, null for
+     *            fields that are stored as they are.
+     */
+    public TupleDesc(Type[] typeAr, String[] fieldAr, int[] lengthAr, Dictionary[] dictionaryAr) {
+        this(typeAr, fieldAr, lengthAr);
+        for (int i = 0; i < typeAr.length; i++) {
+            if (dictionaryAr[i] != null && typeAr[i] == Type.INT_TYPE)
+                throw new IllegalArgumentException("only string fields can be dictionary encoded");
+            tuple.get(i).dictionary = dictionaryAr[i];
+        }
+    }
+
     /**
      * Constructor. Create a new tuple desc with typeAr.length fields with
      * fields of the specified types, with anonymous (unnamed) fields.
@@ -125,6 +192,29 @@ public class TupleDesc implements Serializable {
         return tuple.get(i).fieldType;
     }
 
+    /**
+     * Gets the declared length of the ith field, the n of VARCHAR(n).
+     *
+     * @param i
+     *            The index of the field. It must be a valid index.
+     * @return the declared length of the ith field
+     */
+    public int getFieldLength(int i) throws NoSuchElementException {
+        return tuple.get(i).fieldLength;
+    }
+
+    /**
+     * Gets the dictionary of the ith field, if it is dictionary encoded.
+     *
+     * @param i
+     *            The index of the field. It must be a valid index.
+     * @return the dictionary of the ith field, or null if its values are
+     *         stored as they are
+     */
+    public Dictionary getDictionary(int i) throws NoSuchElementException {
+        return tuple.get(i).dictionary;
+    }
+
     /**
      * Find the index of the field with a given name.
      *
@@ -151,15 +241,103 @@ public class TupleDesc implements Serializable {
 
     /**
      * @return The size (in bytes) of tuples corresponding to this TupleDesc.
-     *         Note that tuples from a given TupleDesc are of a fixed size.
+     *         Note that tuples from a given TupleDesc are of a fixed size;
+     *         for VARCHAR_TYPE fields this is the most they may take.
      */
     public int getSize() {
         // some code goes here
-        int i = 0;
-        for(TDItem item : tuple){
-            i += item.fieldType.getLen();
+        return offsets()[tuple.size()];
+    }
+
+    /**
+     * @return the offset in bytes of the ith field from the start of a tuple
+     *         in its serialized form, as stored on a page.
+     * @param i
+     *            The index of the field. It must be a valid index.
+     */
+    public int getFieldOffset(int i) {
+        if (i < 0 || i >= tuple.size())
+            throw new NoSuchElementException("no field " + i);
+        return offsets()[i];
+    }
+
+    private int[] offsets() {
+        int[] o = offsets;
+        if (o == null) {
+            o = new int[tuple.size() + 1];
+            for (int i = 0; i < tuple.size(); i++)
+                o[i + 1] = o[i] + getFieldSize(i);
+            offsets = o;
         }
-        return i;
+        return o;
+    }
+
+    /**
+     * @return the number of bytes the ith field takes on a page in its
+     *         fixed-size form
+     */
+    public int getFieldSize(int i) {
+        TDItem item = tuple.get(i);
+        return item.dictionary != null ? Dictionary.CODE_SIZE : item.fieldType.getLen(item.fieldLength);
+    }
+
+    /**
+     * Read the ith field of a tuple from a page, decoding it if it is
+     * dictionary encoded.
+     *
+     * @param i the index of the field
+     * @param buf the bytes of the page
+     * @param offset the offset of the field in buf
+     * @return the field, or null for a code its dictionary does not have
+     */
+    public Field readField(int i, ByteBuffer buf, int offset) {
+        TDItem item = tuple.get(i);
+        if (item.dictionary != null)
+            return item.dictionary.decode(buf.getInt(offset));
+        return item.fieldType.read(buf, offset);
+    }
+
+    /**
+     * @return the number of bytes taken by the ith field stored in its
+     *         compact form at the given offset of a buffer
+     */
+    public int storedLen(int i, ByteBuffer buf, int offset) {
+        TDItem item = tuple.get(i);
+        if (item.dictionary != null)
+            return Dictionary.CODE_SIZE;
+        return item.fieldType.storedLen(buf, offset, item.fieldLength);
+    }
+
+    /**
+     * Write the ith field of a tuple in the fixed-size form
+     * {@link #readField} reads, taking {@link #getFieldSize} bytes.  The
+     * value of a dictionary-encoded field is added to its dictionary if
+     * it is not there yet.
+     */
+    public void writeField(int i, Field f, DataOutputStream dos) throws IOException {
+        TDItem item = tuple.get(i);
+        if (item.dictionary != null)
+            dos.writeInt(encode(item.dictionary, f));
+        else
+            item.fieldType.serialize(f, item.fieldLength, dos);
+    }
+
+    /**
+     * Write the ith field of a tuple in its shortest form, which
+     * {@link #readField} also reads.
+     */
+    public void writeFieldCompact(int i, Field f, DataOutputStream dos) throws IOException {
+        TDItem item = tuple.get(i);
+        if (item.dictionary != null)
+            dos.writeInt(encode(item.dictionary, f));
+        else
+            item.fieldType.serializeCompact(f, item.fieldLength, dos);
+    }
+
+    private static int encode(Dictionary dictionary, Field f) throws IOException {
+        if (f instanceof DictField && ((DictField) f).getDictionary() == dictionary)
+            return ((DictField) f).getCode();
+        return dictionary.encode(((StringField) f).getValue());
     }
 
     /**
@@ -184,7 +362,10 @@ public class TupleDesc implements Serializable {
     /**
      * Compares the specified object with this TupleDesc for equality. Two
      * TupleDescs are considered equal if they are the same size and if the n-th
-     * type in this TupleDesc is equal to the n-th type in td.
+     * type in this TupleDesc is equal to the n-th type in td, with the same
+     * declared length for VARCHAR_TYPE fields.  Dictionaries do not matter:
+     * a tuple's string values are encoded with the dictionaries of the
+     * TupleDesc it is written with.
      *
      * @param o
      *            the Object to be compared for equality with this TupleDesc.
@@ -199,7 +380,10 @@ public class TupleDesc implements Serializable {
         if(tuple.size() != td.tuple.size() )
             return false;
         for(int i =0;i<tuple.size();i++){
-            if(tuple.get(i).fieldType != td.tuple.get(i).fieldType)
+            TDItem a = tuple.get(i), b = td.tuple.get(i);
+            if(a.fieldType != b.fieldType)
+                return false;
+            if(a.fieldType == Type.VARCHAR_TYPE && a.fieldLength != b.fieldLength)
                 return false;
         }
         return true;
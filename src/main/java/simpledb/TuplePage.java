@@ -0,0 +1,49 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * TuplePage is a page of a HeapFile: a page that stores tuples in slots,
+ * whatever its layout.
+ *
+ * @see HeapPage
+ * @see SlottedPage
+ * @see HeapFile
+ */
+interface TuplePage extends Page {
+
+    /**
+     * Adds the specified tuple to the page, setting its RecordId.
+     *
+     * @throws DbException if the page has no room for the tuple or its
+     *         TupleDesc does not match
+     */
+    void insertTuple(Tuple t) throws DbException;
+
+    /**
+     * Delete the specified tuple from the page.
+     *
+     * @throws DbException if this tuple is not on this page, or its slot is
+     *         already empty
+     */
+    void deleteTuple(Tuple t) throws DbException;
+
+    /**
+     * @return the number of tuples that can still be inserted into the page;
+     *         pages whose tuples vary in size count tuples of the largest size
+     */
+    int getNumEmptySlots();
+
+    /** @return the tuple in a used slot of the page, with its RecordId set */
+    Tuple getTuple(int slot);
+
+    /** @return an iterator over all tuples on this page */
+    Iterator<Tuple> iterator();
+
+    /**
+     * @return an iterator over the tuples on this page that pass all the
+     *         given predicates
+     */
+    Iterator<Tuple> iterator(List<Predicate> predicates);
+}
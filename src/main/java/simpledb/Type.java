@@ -2,6 +2,7 @@ package simpledb;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Class representing a type in SimpleDB.
@@ -24,6 +25,11 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field read(ByteBuffer buf, int offset) {
+            return new IntField(buf.getInt(offset));
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -42,10 +48,88 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field read(ByteBuffer buf, int offset) {
+            int strLen = Math.max(0, Math.min(buf.getInt(offset), STRING_LEN));
+            byte bs[] = new byte[strLen];
+            ByteBuffer src = buf.duplicate();
+            src.position(offset + 4);
+            src.get(bs);
+            return new StringField(new String(bs), STRING_LEN);
+        }
+
+        @Override
+        public void serialize(Field f, int length, DataOutputStream dos) throws IOException {
+            writeString(f, STRING_LEN, true, dos);
+        }
+
+    }, VARCHAR_TYPE() {
+        @Override
+        public int getLen() {
+            return STRING_LEN+4;
+        }
+
+        @Override
+        public int getLen(int length) {
+            return length+4;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                int strLen = dis.readInt();
+                byte bs[] = new byte[strLen];
+                dis.readFully(bs);
+                return new StringField(new String(bs), strLen, VARCHAR_TYPE);
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field read(ByteBuffer buf, int offset) {
+            int strLen = Math.max(0, Math.min(buf.getInt(offset), buf.limit() - offset - 4));
+            byte bs[] = new byte[strLen];
+            ByteBuffer src = buf.duplicate();
+            src.position(offset + 4);
+            src.get(bs);
+            return new StringField(new String(bs), strLen, VARCHAR_TYPE);
+        }
+
+        @Override
+        public int storedLen(ByteBuffer buf, int offset, int length) {
+            return 4 + buf.getInt(offset);
+        }
+
+        @Override
+        public void serialize(Field f, int length, DataOutputStream dos) throws IOException {
+            writeString(f, length, true, dos);
+        }
+
+        @Override
+        public void serializeCompact(Field f, int length, DataOutputStream dos) throws IOException {
+            writeString(f, length, false, dos);
+        }
     };
     
     public static final int STRING_LEN = 128;
 
+    /**
+     * Write a string field as its length followed by its characters, at
+     * most max of them, padded with zeros to max characters if pad is set.
+     */
+    private static void writeString(Field f, int max, boolean pad, DataOutputStream dos)
+            throws IOException {
+        String s = ((StringField) f).getValue();
+        if (s.length() > max)
+            s = s.substring(0, max);
+        dos.writeInt(s.length());
+        dos.writeBytes(s);
+        for (int i = s.length(); pad && i < max; i++)
+            dos.write((byte) 0);
+    }
+
   /**
    * @return the number of bytes required to store a field of this type.
    */
@@ -60,4 +144,57 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object with the contents
+   *   stored at the given offset of a buffer, in the format written by
+   *   {@link Field#serialize}.  The position of the buffer is not changed.
+   * @param buf the buffer to read from
+   * @param offset the offset of the field in the buffer
+   */
+    public abstract Field read(ByteBuffer buf, int offset);
+
+  /**
+   * @return the number of bytes required to store a field of this type
+   *   declared with the given length, e.g. the n of VARCHAR(n).  Only
+   *   VARCHAR_TYPE takes the length into account.
+   * @param length the declared length of the field
+   */
+    public int getLen(int length) {
+        return getLen();
+    }
+
+  /**
+   * Write a field of this type in the fixed-size form {@link #read} reads,
+   * taking exactly {@link #getLen(int)} bytes.
+   * @param f the field to write
+   * @param length the declared length of the field
+   * @param dos the stream to write to
+   */
+    public void serialize(Field f, int length, DataOutputStream dos) throws IOException {
+        f.serialize(dos);
+    }
+
+  /**
+   * Write a field of this type in its shortest form, which {@link #read}
+   * also reads.  VARCHAR_TYPE fields are not padded; other types are
+   * written in their fixed-size form.
+   * @param f the field to write
+   * @param length the declared length of the field
+   * @param dos the stream to write to
+   */
+    public void serializeCompact(Field f, int length, DataOutputStream dos) throws IOException {
+        serialize(f, length, dos);
+    }
+
+  /**
+   * @return the number of bytes taken by the field stored in its compact
+   *   form at the given offset of a buffer
+   * @param buf the buffer holding the field
+   * @param offset the offset of the field in the buffer
+   * @param length the declared length of the field
+   */
+    public int storedLen(ByteBuffer buf, int offset, int length) {
+        return getLen(length);
+    }
+
 }
@@ -0,0 +1,239 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * ZoneMap keeps the lowest and highest value of every field on every page
+ * of a HeapFile, so that a scan can skip the pages on which a predicate
+ * cannot hold without reading them.
+ * <p>
+ * Values are summarized as longs: an int field by its value, a string
+ * field by its first {@link #PREFIX_CHARS} characters, which orders
+ * strings like String.compareTo does except that strings sharing the
+ * prefix summarize alike.  Predicates on ints are decided exactly, and
+ * predicates on strings only where the prefixes differ.
+ * <p>
+ * The summary may be wider than the page but never narrower.  Inserts
+ * widen it in memory.  Whenever a page is written, the summary of the
+ * bytes written replaces it in memory, unless the page was changed again
+ * meanwhile, and in the file next to the table, so deletes narrow the
+ * summary once their page is written.  The file holds the summaries of the
+ * pages on disk, {@link #RECORD_BYTES} per field and page, after a header
+ * that marks it open while the map is in use.  A page reaches the disk
+ * before its summary does, so a map that was not closed may be narrower
+ * than its pages and is built again from the pages when it is opened.
+ *
+ * @see HeapFile
+ */
+class ZoneMap {
+
+    /** Suffix of the name of the file holding the map, after the table's file name. */
+    static final String SUFFIX = ".zone";
+
+    /** The number of leading characters that summarize a string. */
+    static final int PREFIX_CHARS = 4;
+
+    /** Bytes of the file per field of a page: the lowest and highest value. */
+    static final int RECORD_BYTES = 16;
+
+    /** Bytes of the header of the file, which holds whether the map was closed. */
+    static final int HEADER_BYTES = 16;
+
+    private static final int CLOSED = 0x2f0e3a91;
+    private static final int OPEN = 0;
+
+    private final TupleDesc td;
+    private final int numFields;
+    private final RandomAccessFile raf;
+    /** lowest and highest value of field f of page p at index p * numFields + f */
+    private long[] mins = new long[0];
+    private long[] maxs = new long[0];
+    /** changes to each page in memory, to tell if a page changed while it was written */
+    private int[] versions = new int[0];
+    private int size;
+
+    private ZoneMap(File file, TupleDesc td) throws IOException {
+        this.td = td;
+        this.numFields = td.numFields();
+        this.raf = new RandomAccessFile(file, "rw");
+    }
+
+    /**
+     * Open the map of a HeapFile.  Pages the stored map does not cover, e.g.
+     * because the map is new or was not closed, are read from the table to
+     * fill it in.
+     *
+     * @param hf the file the map describes
+     */
+    static ZoneMap open(HeapFile hf) throws IOException {
+        ZoneMap map = new ZoneMap(new File(hf.getFile().getPath() + SUFFIX), hf.getTupleDesc());
+        int pages = hf.numPages();
+        int pageBytes = map.numFields * RECORD_BYTES;
+        synchronized (map) {
+            int stored = 0;
+            if (map.raf.length() >= HEADER_BYTES && map.raf.readInt() == CLOSED)
+                stored = (int) Math.min((map.raf.length() - HEADER_BYTES) / pageBytes, pages);
+            byte[] bytes = new byte[stored * pageBytes];
+            map.raf.seek(HEADER_BYTES);
+            map.raf.readFully(bytes);
+            ByteBuffer view = ByteBuffer.wrap(bytes);
+            for (int i = 0; i < stored; i++) {
+                map.grow(i);
+                for (int f = 0; f < map.numFields; f++) {
+                    map.mins[i * map.numFields + f] = view.getLong();
+                    map.maxs[i * map.numFields + f] = view.getLong();
+                }
+            }
+            for (int i = stored; i < pages; i++) {
+                Page page = hf.readPage(new HeapPageId(hf.getId(), i));
+                if (page instanceof TuplePage)
+                    map.write(i, (TuplePage) page, map.version(i));
+            }
+            // from now on pages may be written before their summaries
+            map.raf.seek(0);
+            map.raf.writeInt(OPEN);
+            map.raf.getFD().sync();
+        }
+        return map;
+    }
+
+    /** @return the summary of a value of a field; ints keep their value */
+    static long key(Field f) {
+        if (f instanceof IntField)
+            return ((IntField) f).getValue();
+        String s = ((StringField) f).getValue();
+        long k = 0;
+        for (int i = 0; i < PREFIX_CHARS; i++)
+            k = (k << 16) | (i < s.length() ? s.charAt(i) : 0);
+        // flip the sign bit, so that signed comparison orders the chars as unsigned
+        return k ^ Long.MIN_VALUE;
+    }
+
+    /** Make room for page pgNo, which starts out summarizing no tuples. */
+    private void grow(int pgNo) {
+        if (pgNo < size)
+            return;
+        int capacity = mins.length / Math.max(1, numFields);
+        if (pgNo >= capacity) {
+            int pages = Math.max(pgNo + 1, capacity * 2);
+            mins = Arrays.copyOf(mins, pages * numFields);
+            maxs = Arrays.copyOf(maxs, pages * numFields);
+            versions = Arrays.copyOf(versions, pages);
+        }
+        Arrays.fill(mins, size * numFields, (pgNo + 1) * numFields, Long.MAX_VALUE);
+        Arrays.fill(maxs, size * numFields, (pgNo + 1) * numFields, Long.MIN_VALUE);
+        size = pgNo + 1;
+    }
+
+    /** @return a number that changes whenever a page is widened in memory */
+    synchronized int version(int pgNo) {
+        return pgNo < size ? versions[pgNo] : 0;
+    }
+
+    /** Widen the summary of a page to a tuple inserted into it in memory. */
+    synchronized void widen(int pgNo, Tuple t) {
+        grow(pgNo);
+        versions[pgNo]++;
+        for (int f = 0; f < numFields; f++) {
+            Field value = t.getField(f);
+            if (value == null)
+                continue;
+            long k = key(value);
+            int i = pgNo * numFields + f;
+            mins[i] = Math.min(mins[i], k);
+            maxs[i] = Math.max(maxs[i], k);
+        }
+    }
+
+    /**
+     * Record the summary of a page that was written to disk.
+     *
+     * @param page the page as it was written
+     * @param version the version of the page before its bytes were taken
+     */
+    synchronized void write(int pgNo, TuplePage page, int version) throws IOException {
+        long[] lo = new long[numFields];
+        long[] hi = new long[numFields];
+        Arrays.fill(lo, Long.MAX_VALUE);
+        Arrays.fill(hi, Long.MIN_VALUE);
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            for (int f = 0; f < numFields; f++) {
+                long k = key(t.getField(f));
+                lo[f] = Math.min(lo[f], k);
+                hi[f] = Math.max(hi[f], k);
+            }
+        }
+        ByteBuffer record = ByteBuffer.allocate(numFields * RECORD_BYTES);
+        for (int f = 0; f < numFields; f++)
+            record.putLong(lo[f]).putLong(hi[f]);
+        raf.seek(HEADER_BYTES + (long) pgNo * numFields * RECORD_BYTES);
+        raf.write(record.array());
+
+        // tuples inserted since the bytes were taken may not be in them
+        boolean changed = version(pgNo) != version;
+        grow(pgNo);
+        for (int f = 0; f < numFields; f++) {
+            int i = pgNo * numFields + f;
+            mins[i] = changed ? Math.min(mins[i], lo[f]) : lo[f];
+            maxs[i] = changed ? Math.max(maxs[i], hi[f]) : hi[f];
+        }
+    }
+
+    /**
+     * @return false if no tuple of a page can pass all the predicates, true
+     *         if some may or the page is not summarized
+     */
+    synchronized boolean mayPass(int pgNo, List<Predicate> predicates) {
+        if (pgNo >= size)
+            return true;
+        for (Predicate p : predicates) {
+            int i = pgNo * numFields + p.getField();
+            if (mins[i] > maxs[i])
+                return false; // no tuples
+            if (!mayPass(mins[i], maxs[i], p))
+                return false;
+        }
+        return true;
+    }
+
+    private boolean mayPass(long min, long max, Predicate p) {
+        Type type = td.getFieldType(p.getField());
+        Field operand = p.getOperand();
+        boolean exact = type == Type.INT_TYPE;
+        if (exact ? !(operand instanceof IntField) : !(operand instanceof StringField))
+            return true;
+        long v = key(operand);
+        switch (p.getOp()) {
+        case EQUALS:
+            return v >= min && v <= max;
+        case GREATER_THAN:
+            return exact ? max > v : max >= v;
+        case GREATER_THAN_OR_EQ:
+            return max >= v;
+        case LESS_THAN:
+            return exact ? min < v : min <= v;
+        case LESS_THAN_OR_EQ:
+            return min <= v;
+        case NOT_EQUALS:
+            return !exact || min != v || max != v;
+        default:
+            return true;
+        }
+    }
+
+    /** Mark the map closed, once the summaries of all pages are on disk. */
+    synchronized void close() throws IOException {
+        raf.getFD().sync();
+        raf.seek(0);
+        raf.writeInt(CLOSED);
+        raf.close();
+    }
+}
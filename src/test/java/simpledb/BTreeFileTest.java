@@ -0,0 +1,137 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static simpledb.IndexTestUtil.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BTreeFileTest extends SimpleDbTestBase {
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile table;
+    private BTreeFile index;
+
+    /** A table of 5000 random rows, indexed on its first field. */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        table = SystemTestUtil.createRandomHeapFile(2, 5000, 1000, null, tuples, "c");
+        File f = File.createTempFile("index", BTreeFile.SUFFIX);
+        f.deleteOnExit();
+        index = BTreeFile.build(f, table, 0);
+        Database.getCatalog().addIndex(index);
+    }
+
+    /**
+     * The built tree has more than one level, holds every tuple in key
+     * order, and answers equality and range scans.
+     */
+    @Test public void buildAndScan() throws Exception {
+        // 5000 entries do not fit in one leaf
+        assertTrue(index.numPages() > 3);
+        TransactionId tid = new TransactionId();
+        assertEquals(expected(tuples, Integer.MIN_VALUE, Integer.MAX_VALUE),
+                keys(new IndexScan(tid, index, "t")));
+        assertEquals(expected(tuples, 500, 500),
+                keys(new IndexScan(tid, index, "t", Predicate.Op.EQUALS, new IntField(500))));
+        IndexScan range = new IndexScan(tid, index, "t", Predicate.Op.GREATER_THAN, new IntField(100));
+        assertTrue(range.addPredicate(new Predicate(0, Predicate.Op.LESS_THAN_OR_EQ, new IntField(200))));
+        assertTrue(!range.addPredicate(new Predicate(1, Predicate.Op.EQUALS, new IntField(3))));
+        assertEquals(expected(tuples, 101, 200), keys(range));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Tuples inserted and deleted through the BufferPool are added to and
+     * removed from the index, through page splits, and an aborted insert
+     * leaves no entry behind.
+     */
+    @Test public void maintenance() throws Exception {
+        // the pages a transaction dirties stay in the pool until it commits
+        Database.resetBufferPool(500);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 3000; i++) {
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            row.add(i % 7 == 0 ? 2000 + i : 555);
+            row.add(i);
+            tuples.add(row);
+            Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[] { row.get(0), i }));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, table.getId(), "t");
+        scan.open();
+        int deleted = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            if (((IntField) t.getField(1)).getValue() % 2 == 0) {
+                Database.getBufferPool().deleteTuple(tid, t);
+                deleted++;
+            }
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        List<ArrayList<Integer>> kept = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(1) % 2 != 0)
+                kept.add(t);
+        }
+        assertEquals(tuples.size() - deleted, kept.size());
+        tuples = new ArrayList<ArrayList<Integer>>(kept);
+
+        tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[] { 555, 1 }));
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        assertEquals(expected(tuples, Integer.MIN_VALUE, Integer.MAX_VALUE),
+                keys(new IndexScan(tid, index, "t")));
+        assertEquals(expected(tuples, 555, 555),
+                keys(new IndexScan(tid, index, "t", Predicate.Op.EQUALS, new IntField(555))));
+        assertEquals(expected(tuples, 2000, Integer.MAX_VALUE),
+                keys(new IndexScan(tid, index, "t", Predicate.Op.GREATER_THAN_OR_EQ, new IntField(2000))));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** The planner reads a table through its index for an equality filter on the key. */
+    @Test public void plannerPicksIndex() throws Exception {
+        String name = Database.getCatalog().getTableName(table.getId());
+        Map<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(table.getId(), 1000));
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.c0", Predicate.Op.EQUALS, "42");
+        lp.addProjectField("t.c0", null);
+        lp.addProjectField("t.c1", null);
+        TransactionId tid = new TransactionId();
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+
+        DbIterator leaf = plan;
+        while (leaf instanceof Operator)
+            leaf = ((Operator) leaf).getChildren()[0];
+        assertTrue(leaf instanceof IndexScan);
+        assertEquals(expected(tuples, 42, 42), keys(plan));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeFileTest.class);
+    }
+}
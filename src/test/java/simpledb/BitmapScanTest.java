@@ -0,0 +1,282 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class BitmapScanTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 20000;
+
+
+    private File file;
+    private CountingHeapFile table;
+
+    /**
+     * A table whose second field cycles through 5 values on every page and
+     * whose third field takes 10 values, each on a run of pages.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < ROWS; i++)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, i % 5, i / (ROWS / 10))));
+        file = File.createTempFile("bitmap", ".dat");
+        file.deleteOnExit();
+        new File(file.getPath() + FreeSpaceMap.SUFFIX).deleteOnExit();
+        new File(file.getPath() + ZoneMap.SUFFIX).deleteOnExit();
+        new File(file.getPath() + BitmapIndex.SUFFIX).deleteOnExit();
+        HeapFileEncoder.convert(tuples, file, BufferPool.PAGE_SIZE, 3);
+        table = open();
+    }
+
+    private CountingHeapFile open() throws Exception {
+        CountingHeapFile hf = new CountingHeapFile(file, Utility.getTupleDesc(3, "c"));
+        hf.setBitmapFields(1, 2);
+        Database.getCatalog().addTable(hf, "bitmaps");
+        return hf;
+    }
+
+    private static Predicate equal(int field, int value) {
+        return new Predicate(field, Predicate.Op.EQUALS, new IntField(value));
+    }
+
+    /** @return the first fields of the tuples a scan returns, from a cold buffer pool */
+    private TreeSet<Integer> scan(BitmapScan scan) throws Exception {
+        table.coldStart();
+        TreeSet<Integer> keys = new TreeSet<Integer>();
+        scan.open();
+        while (scan.hasNext())
+            assertTrue(keys.add(((IntField) scan.next().getField(0)).getValue()));
+        scan.close();
+        return keys;
+    }
+
+    /** @return the keys below ROWS whose second field is in c1 and third in c2 */
+    private static TreeSet<Integer> expected(int[] c1, int[] c2) {
+        TreeSet<Integer> keys = new TreeSet<Integer>();
+        for (int i = 0; i < ROWS; i++) {
+            if (Arrays.binarySearch(c1, i % 5) >= 0 && Arrays.binarySearch(c2, i / (ROWS / 10)) >= 0)
+                keys.add(i);
+        }
+        return keys;
+    }
+
+    /**
+     * A scan intersects and unites the bitmaps of its predicates, reads
+     * only the pages of the tuples left, and tests the rest of the
+     * condition on them.
+     */
+    @Test public void combinesPredicates() throws Exception {
+        TransactionId tid = new TransactionId();
+        // the first scan builds the index and the zone map from the pages
+        BitmapScan scan = new BitmapScan(tid, table.getId(), "b");
+        scan.addPredicate(equal(2, 0));
+        scan(scan);
+        scan = new BitmapScan(tid, table.getId(), "b");
+        scan.addPredicate(equal(2, 3));
+        assertEquals(expected(new int[] { 0, 1, 2, 3, 4 }, new int[] { 3 }), scan(scan));
+        int pages = table.numPages();
+        // a tenth of the pages, and some read twice by read-ahead
+        int run = pages / 5;
+        assertTrue(table.reads <= run);
+
+        scan = new BitmapScan(tid, table.getId(), "b");
+        scan.addPredicate(equal(2, 3));
+        scan.addPredicate(equal(1, 2));
+        assertEquals(expected(new int[] { 2 }, new int[] { 3 }), scan(scan));
+        assertTrue(table.reads <= run);
+
+        scan = new BitmapScan(tid, table.getId(), "b");
+        scan.addAnyOf(Arrays.asList(equal(2, 3), equal(2, 7)));
+        scan.addAnyOf(Arrays.asList(equal(1, 0), new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(3))));
+        assertEquals(expected(new int[] { 0, 4 }, new int[] { 3, 7 }), scan(scan));
+        assertTrue(table.reads <= 2 * run);
+
+        // predicates on fields without an index are tested on the pages
+        scan = new BitmapScan(tid, table.getId(), "b");
+        scan.addPredicate(equal(2, 9));
+        scan.addPredicate(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(ROWS - 10)));
+        TreeSet<Integer> keys = expected(new int[] { 0, 1, 2, 3, 4 }, new int[] { 9 });
+        assertEquals(keys.headSet(ROWS - 10), scan(scan));
+
+        scan = new BitmapScan(tid, table.getId(), "b");
+        scan.addPredicate(equal(2, 10));
+        assertEquals(0, scan(scan).size());
+        assertEquals(0, table.reads);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Inserted tuples are found at once, deleted ones are not returned, and
+     * the index is read back from its file once the table is closed.
+     */
+    @Test public void maintenance() throws Exception {
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[] { -1, 2, 3 }));
+        BitmapScan scan = new BitmapScan(tid, table.getId(), "b");
+        scan.addPredicate(equal(2, 3));
+        scan.addPredicate(equal(1, 2));
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            n++;
+            if (((IntField) t.getField(0)).getValue() % 2 == 0)
+                Database.getBufferPool().deleteTuple(tid, t);
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        TreeSet<Integer> matched = expected(new int[] { 2 }, new int[] { 3 });
+        assertEquals(matched.size() + 1, n);
+        TreeSet<Integer> keys = new TreeSet<Integer>();
+        keys.add(-1);
+        for (int k : matched) {
+            if (k % 2 != 0)
+                keys.add(k);
+        }
+
+        Database.getBufferPool().flushAllPages();
+        table.close();
+        table = open();
+        tid = new TransactionId();
+        scan = new BitmapScan(tid, table.getId(), "b");
+        scan.addPredicate(equal(2, 3));
+        scan.addPredicate(equal(1, 2));
+        assertEquals(keys, scan(scan));
+        assertTrue("read " + table.reads + " pages", table.reads <= table.numPages() / 5);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * An index that was not closed, as after a crash, may lack tuples of
+     * pages that were written, and is built again from the pages when the
+     * table is opened.
+     */
+    @Test public void rebuildsUnclosedIndex() throws Exception {
+        table.bitmapIndex();
+        table.close();
+        table = open();
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[] { -1, 2, 3 }));
+        Database.getBufferPool().transactionComplete(tid);
+
+        // the files as they are on disk, with the index still marked open
+        File copy = File.createTempFile("bitmap", ".dat");
+        copy.deleteOnExit();
+        for (String suffix : new String[] { FreeSpaceMap.SUFFIX, ZoneMap.SUFFIX, BitmapIndex.SUFFIX })
+            new File(copy.getPath() + suffix).deleteOnExit();
+        Files.copy(file.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Files.copy(new File(file.getPath() + BitmapIndex.SUFFIX).toPath(),
+                new File(copy.getPath() + BitmapIndex.SUFFIX).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        file = copy;
+        table = open();
+
+        tid = new TransactionId();
+        BitmapScan scan = new BitmapScan(tid, table.getId(), "b");
+        scan.addPredicate(equal(2, 3));
+        scan.addPredicate(equal(1, 2));
+        TreeSet<Integer> keys = expected(new int[] { 2 }, new int[] { 3 });
+        keys.add(-1);
+        assertEquals(keys, scan(scan));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** The planner scans a table through its bitmap index for a filter on an indexed field. */
+    @Test public void plannerUsesIndex() throws Exception {
+        Map<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("bitmaps", new TableStats(table.getId(), 1000));
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "b");
+        lp.addFilter("b.c2", Predicate.Op.EQUALS, "5");
+        lp.addFilter("b.c1", Predicate.Op.EQUALS, "1");
+        lp.addProjectField("b.c0", null);
+        TransactionId tid = new TransactionId();
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        DbIterator leaf = plan;
+        while (leaf instanceof Operator)
+            leaf = ((Operator) leaf).getChildren()[0];
+        assertTrue(leaf instanceof BitmapScan);
+        TreeSet<Integer> keys = new TreeSet<Integer>();
+        plan.open();
+        while (plan.hasNext())
+            keys.add(((IntField) plan.next().getField(0)).getValue());
+        plan.close();
+        assertEquals(expected(new int[] { 1 }, new int[] { 5 }), keys);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Roaring bitmaps hold the same values as a sorted set through every change. */
+    @Test public void roaringBitmap() throws Exception {
+        Random rand = new Random(7);
+        RoaringBitmap a = new RoaringBitmap();
+        RoaringBitmap b = new RoaringBitmap();
+        TreeSet<Integer> sa = new TreeSet<Integer>();
+        TreeSet<Integer> sb = new TreeSet<Integer>();
+        // dense and sparse containers
+        for (int i = 0; i < 20000; i++) {
+            int v = rand.nextInt(1 << 16);
+            a.add(v);
+            sa.add(v);
+            v = rand.nextInt(1 << 22);
+            b.add(v);
+            sb.add(v);
+        }
+        for (int i = 0; i < 3000; i++) {
+            int v = (1 << 16) + rand.nextInt(1 << 16);
+            a.add(v);
+            sa.add(v);
+        }
+        a.removeRange(100, 40000);
+        sa.subSet(100, 40000).clear();
+        assertEquals(sa, values(a));
+        assertEquals(sb, values(b));
+        TreeSet<Integer> and = new TreeSet<Integer>(sa);
+        and.retainAll(sb);
+        assertEquals(and, values(a.and(b)));
+        TreeSet<Integer> or = new TreeSet<Integer>(sa);
+        or.addAll(sb);
+        assertEquals(or, values(a.or(b)));
+        assertEquals(or.size(), a.or(b).cardinality());
+        assertTrue(a.contains(sa.first()) && !a.contains(150));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        a.write(new DataOutputStream(bytes));
+        RoaringBitmap read = RoaringBitmap.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(sa, values(read));
+    }
+
+    private static TreeSet<Integer> values(RoaringBitmap r) {
+        TreeSet<Integer> values = new TreeSet<Integer>();
+        for (int v = r.next(0); v >= 0; v = r.next(v + 1))
+            values.add(v);
+        return values;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BitmapScanTest.class);
+    }
+}
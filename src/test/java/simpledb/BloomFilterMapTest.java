@@ -0,0 +1,148 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class BloomFilterMapTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 20000;
+
+
+    private File file;
+    private CountingHeapFile table;
+
+    /**
+     * A table whose second field holds the even numbers below 2 * ROWS in
+     * scrambled order, so that the zone map cannot tell the pages apart.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        File text = File.createTempFile("bloom", ".txt");
+        text.deleteOnExit();
+        FileWriter w = new FileWriter(text);
+        for (int i = 0; i < ROWS; i++)
+            w.write(i + "," + 2 * ((i * 7919) % ROWS) + "\n");
+        w.close();
+        file = File.createTempFile("bloom", ".dat");
+        file.deleteOnExit();
+        new File(file.getPath() + FreeSpaceMap.SUFFIX).deleteOnExit();
+        new File(file.getPath() + ZoneMap.SUFFIX).deleteOnExit();
+        new File(file.getPath() + BloomFilterMap.SUFFIX).deleteOnExit();
+        HeapFileEncoder.convert(text, file, BufferPool.PAGE_SIZE, 2,
+                new Type[] { Type.INT_TYPE, Type.INT_TYPE }, ',', new int[] { 1 });
+        table = open();
+    }
+
+    private CountingHeapFile open() throws Exception {
+        CountingHeapFile hf = new CountingHeapFile(file, Utility.getTupleDesc(2));
+        hf.setBloomFields(1);
+        Database.getCatalog().addTable(hf, "bloom");
+        return hf;
+    }
+
+
+    private static Predicate equal(int field, int value) {
+        return new Predicate(field, Predicate.Op.EQUALS, new IntField(value));
+    }
+
+    /**
+     * An equality scan reads only the groups whose filters may hold the
+     * value, the filters built with the table are used, inserted values are
+     * found before and after the table is opened again, and deleted ones
+     * stay in the filters.
+     */
+    @Test public void skipsGroups() throws Exception {
+        int pages = table.numPages();
+        assertTrue(pages > 2 * BloomFilterMap.GROUP_PAGES);
+        // the first scan fills in the zone map from the pages
+        assertEquals(1, table.count(equal(0, 0)));
+        assertEquals(1, table.count(equal(1, 2 * 1234)));
+        assertTrue("read " + table.reads + " pages", table.reads <= 2 * BloomFilterMap.GROUP_PAGES);
+        // odd values are in the range of every page but in no filter, but for false positives
+        int read = 0;
+        for (int v = 1; v < 40; v += 2) {
+            assertEquals(0, table.count(equal(1, v)));
+            read += table.reads;
+        }
+        assertTrue("read " + read + " pages", read < 2 * pages);
+        // fields without filters are read in full
+        assertEquals(1, table.count(new Predicate(0, Predicate.Op.EQUALS, new IntField(9999))));
+        assertEquals(1, table.reads);
+        assertEquals(ROWS / 2, table.count(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(ROWS))));
+        assertEquals(pages, table.reads);
+
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[] { -1, 777 }));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(1, table.count(equal(1, 777)));
+
+        Database.getBufferPool().flushAllPages();
+        table.close();
+        table = open();
+        assertEquals(1, table.count(equal(1, 777)));
+        assertEquals(1, table.count(equal(1, 2 * 4321)));
+        assertTrue(table.reads <= 2 * BloomFilterMap.GROUP_PAGES);
+    }
+
+    /** Filters of a field marked bloom in a catalog file are built from the table. */
+    @Test public void catalogTable() throws Exception {
+        // the pages a transaction dirties stay in the pool until it commits
+        Database.resetBufferPool(500);
+        File dir = File.createTempFile("bloom", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        File schema = new File(dir, "catalog.txt");
+        FileWriter w = new FileWriter(schema);
+        w.write("events (id int, kind string bloom)\n");
+        w.close();
+        for (String suffix : new String[] { "", FreeSpaceMap.SUFFIX, ZoneMap.SUFFIX, BloomFilterMap.SUFFIX })
+            new File(dir, "events.dat" + suffix).deleteOnExit();
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        int tableId = Database.getCatalog().getTableId("events");
+        HeapFile events = (HeapFile) Database.getCatalog().getDbFile(tableId);
+        assertEquals(1, events.getBloomFields().length);
+        assertEquals(1, events.getBloomFields()[0]);
+
+        TransactionId tid = new TransactionId();
+        TupleDesc td = events.getTupleDesc();
+        for (int i = 0; i < 3000; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField("kind" + (i % 50), Type.STRING_LEN));
+            Database.getBufferPool().insertTuple(tid, tableId, t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        events.close();
+
+        List<Predicate> absent = Collections.singletonList(
+                new Predicate(1, Predicate.Op.EQUALS, new StringField("kind50", Type.STRING_LEN)));
+        List<Predicate> present = Collections.singletonList(
+                new Predicate(1, Predicate.Op.EQUALS, new StringField("kind49", Type.STRING_LEN)));
+        assertTrue(events.mayPass(0, present));
+        int passed = 0;
+        for (int i = 0; i < events.numPages(); i++)
+            passed += events.mayPass(i, absent) ? 1 : 0;
+        assertTrue(passed < events.numPages());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BloomFilterMapTest.class);
+    }
+}
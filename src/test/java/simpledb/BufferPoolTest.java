@@ -0,0 +1,299 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Iterator;
+import java.util.Properties;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolTest extends SimpleDbTestBase {
+
+    /** Number of two-column tuples that fit on one page. */
+    private static final int TUPLES_PER_PAGE = 504;
+
+    private static void readAllPages(BufferPool bp, HeapFile f) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < f.numPages(); i++)
+            bp.getPage(tid, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+    }
+
+    /**
+     * The pool must hold at most the number of pages given to the constructor.
+     */
+    @Test public void honorsNumPages() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, TUPLES_PER_PAGE * 20, null, null);
+        BufferPool bp = Database.resetBufferPool(5);
+        readAllPages(bp, f);
+        assertEquals(5L * BufferPool.PAGE_SIZE, bp.getResidentBytes());
+    }
+
+    /**
+     * Unit test for BufferPool.resize()
+     */
+    @Test public void resize() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, TUPLES_PER_PAGE * 10, null, null);
+        BufferPool bp = Database.resetBufferPool(10);
+        readAllPages(bp, f);
+        assertEquals(10L * BufferPool.PAGE_SIZE, bp.getResidentBytes());
+
+        bp.resize(4);
+        assertEquals(4, bp.getNumPages());
+        assertEquals(4L * BufferPool.PAGE_SIZE, bp.getResidentBytes());
+
+        bp.resize(20);
+        readAllPages(bp, f);
+        assertEquals(10L * BufferPool.PAGE_SIZE, bp.getResidentBytes());
+    }
+
+    /**
+     * Unit test for BufferPool.configure()
+     */
+    @Test public void configure() throws Exception {
+        BufferPool bp = new BufferPool(BufferPool.DEFAULT_PAGES);
+        Properties props = new Properties();
+        props.setProperty(BufferPool.BUDGET_BYTES_PROPERTY, "1m");
+        bp.configure(props);
+        assertEquals(1L << 20, bp.getMemoryBudget());
+        assertEquals((1 << 20) / BufferPool.PAGE_SIZE, bp.getNumPages());
+    }
+
+    /**
+     * A table with a quota only evicts its own pages once it reaches it.
+     */
+    @Test public void tableQuota() throws Exception {
+        HeapFile hot = SystemTestUtil.createRandomHeapFile(2, TUPLES_PER_PAGE * 3, null, null);
+        HeapFile scanned = SystemTestUtil.createRandomHeapFile(2, TUPLES_PER_PAGE * 30, null, null);
+        BufferPool bp = Database.resetBufferPool(10);
+        bp.setTableQuota(scanned.getId(), 4);
+
+        readAllPages(bp, hot);
+        readAllPages(bp, scanned);
+        for (int i = 0; i < hot.numPages(); i++)
+            assertTrue(bp.isCached(new HeapPageId(hot.getId(), i)));
+        assertEquals(7L * BufferPool.PAGE_SIZE, bp.getResidentBytes());
+    }
+
+    private static int countTuples(HeapFile f) throws Exception {
+        TransactionId tid = new TransactionId();
+        int count = 0;
+        for (int i = 0; i < f.numPages(); i++) {
+            HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid,
+                    new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+            count += TUPLES_PER_PAGE - p.getNumEmptySlots();
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        return count;
+    }
+
+    /** Delete the first tuple of each of the given pages, dirtying them. */
+    private static void dirtyPages(BufferPool bp, TransactionId tid, HeapFile f, int pages)
+        throws Exception {
+        for (int i = 0; i < pages; i++) {
+            HeapPage p = (HeapPage) bp.getPage(tid, new HeapPageId(f.getId(), i), Permissions.READ_WRITE);
+            bp.deleteTuple(tid, p.iterator().next());
+        }
+    }
+
+    /**
+     * Pages dirtied by a running transaction are not written to make room,
+     * so a transaction that dirties the whole pool cannot read another page.
+     */
+    @Test public void evictionKeepsUncommittedPages() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, TUPLES_PER_PAGE * 6, null, null);
+        BufferPool bp = Database.resetBufferPool(3);
+        TransactionId tid = new TransactionId();
+        dirtyPages(bp, tid, f, 3);
+        try {
+            bp.getPage(tid, new HeapPageId(f.getId(), 3), Permissions.READ_ONLY);
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+        bp.transactionComplete(tid, false);
+        assertEquals(TUPLES_PER_PAGE * 6, countTuples(f));
+    }
+
+    /** Mark a page dirty for a transaction that does not hold it any more. */
+    private static void dirtyForFinished(BufferPool bp, HeapFile f, int pgNo) throws Exception {
+        TransactionId reader = new TransactionId();
+        bp.getPage(reader, new HeapPageId(f.getId(), pgNo), Permissions.READ_ONLY)
+                .markDirty(true, new TransactionId());
+        bp.transactionComplete(reader);
+    }
+
+    /**
+     * A checkpoint writes the dirty pages of finished transactions and
+     * leaves those of running transactions in the pool.
+     */
+    @Test public void checkpointKeepsUncommittedPages() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, TUPLES_PER_PAGE * 4, null, null);
+        BufferPool bp = Database.resetBufferPool(10);
+        TransactionId tid = new TransactionId();
+        dirtyPages(bp, tid, f, 3);
+        dirtyForFinished(bp, f, 3);
+        assertEquals(6, bp.cleanFrames());
+        Database.getLogFile().logCheckpoint();
+        assertEquals(7, bp.cleanFrames());
+        bp.transactionComplete(tid, false);
+        assertEquals(TUPLES_PER_PAGE * 4, countTuples(f));
+    }
+
+    /**
+     * flushAllPages also writes the dirty pages of running transactions;
+     * they are restored when the transaction aborts.
+     */
+    @Test public void abortRestoresFlushedPages() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, TUPLES_PER_PAGE * 4, null, null);
+        BufferPool bp = Database.resetBufferPool(10);
+        TransactionId tid = new TransactionId();
+        dirtyPages(bp, tid, f, 4);
+        bp.flushAllPages();
+        assertEquals(10, bp.cleanFrames());
+        bp.transactionComplete(tid, false);
+        assertEquals(TUPLES_PER_PAGE * 4, countTuples(f));
+    }
+
+    /**
+     * A round of the background writer writes the dirty pages of finished
+     * transactions and leaves those of a running transaction dirty.
+     */
+    @Test public void backgroundWriter() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, TUPLES_PER_PAGE * 4, null, null);
+        BufferPool bp = Database.resetBufferPool(10);
+        TransactionId tid = new TransactionId();
+        dirtyPages(bp, tid, f, 3);
+        dirtyForFinished(bp, f, 3);
+        assertEquals(6, bp.cleanFrames());
+
+        assertTrue(!new BackgroundWriter(bp, 10, 2).writeRound());
+        assertEquals(7, bp.cleanFrames());
+        bp.transactionComplete(tid, true);
+        assertEquals(10, bp.cleanFrames());
+        assertEquals(TUPLES_PER_PAGE * 4 - 3, countTuples(f));
+    }
+
+    /**
+     * A sequential scan reads pages ahead of the one it is on.
+     */
+    @Test public void readAhead() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, TUPLES_PER_PAGE * 20, null, null);
+        BufferPool bp = Database.resetBufferPool(100);
+        bp.setReadAheadPages(8);
+        DbFileIterator it = f.iterator(new TransactionId());
+        it.open();
+        for (int i = 0; i < TUPLES_PER_PAGE * 2 + 1; i++)
+            it.next();
+
+        HeapPageId ahead = new HeapPageId(f.getId(), 9);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!bp.isCached(ahead) && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertTrue(bp.isCached(ahead));
+        assertTrue(!bp.isCached(new HeapPageId(f.getId(), 19)));
+
+        int count = TUPLES_PER_PAGE * 2 + 1;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(TUPLES_PER_PAGE * 20, count);
+    }
+
+    /**
+     * A scan of a table much larger than the pool recycles its own ring of
+     * frames and leaves the pages of other tables resident.
+     */
+    @Test public void ringScan() throws Exception {
+        HeapFile small = SystemTestUtil.createRandomHeapFile(2, TUPLES_PER_PAGE * 20, null, null);
+        HeapFile large = SystemTestUtil.createRandomHeapFile(2, TUPLES_PER_PAGE * 100, null, null);
+        BufferPool bp = Database.resetBufferPool(40);
+        readAllPages(bp, small);
+
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, large.getId(), "large");
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        bp.transactionComplete(tid);
+
+        assertEquals(TUPLES_PER_PAGE * 100, count);
+        for (int i = 0; i < small.numPages(); i++)
+            assertTrue(bp.isCached(new HeapPageId(small.getId(), i)));
+    }
+
+    /**
+     * Tuples inserted from an iterator are taken from it a batch at a time,
+     * each batch added to the table before the next is taken.
+     */
+    @Test public void insertTuplesInBatches() throws Exception {
+        final HeapFile f = SystemTestUtil.createRandomHeapFile(2, TUPLES_PER_PAGE, null, null);
+        BufferPool bp = Database.resetBufferPool(200);
+        final int batch = HeapFile.APPEND_PAGES * TUPLES_PER_PAGE;
+        final int total = batch + 10;
+        final int[] pagesAtSecondBatch = { -1 };
+        Iterator<Tuple> tuples = new Iterator<Tuple>() {
+            int taken = 0;
+
+            public boolean hasNext() {
+                return taken < total;
+            }
+
+            public Tuple next() {
+                if (taken == batch)
+                    pagesAtSecondBatch[0] = f.numPages();
+                return Utility.getHeapTuple(taken++, 2);
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+        TransactionId tid = new TransactionId();
+        assertEquals(total, bp.insertTuples(tid, f.getId(), tuples));
+        bp.transactionComplete(tid);
+        // the first batch filled the first page and was appended after it
+        assertEquals(1 + HeapFile.APPEND_PAGES, pagesAtSecondBatch[0]);
+        assertEquals(TUPLES_PER_PAGE + total, countTuples(f));
+    }
+
+    /**
+     * Cached pages keep their bytes off the heap, and a page that leaves the
+     * pool while a caller still holds it moves back onto the heap intact.
+     */
+    @Test public void offHeapFrames() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, TUPLES_PER_PAGE, null, null);
+        BufferPool bp = Database.resetBufferPool(2);
+        TransactionId tid = new TransactionId();
+        HeapPage first = (HeapPage) bp.getPage(tid, new HeapPageId(f.getId(), 0), Permissions.READ_ONLY);
+        assertTrue(first.isOffHeap());
+        assertTrue(bp.getOffHeapBytes() > 0);
+        byte[] before = first.getPageData();
+
+        bp.discardPage(first.getId());
+        assertTrue(!first.isOffHeap());
+        assertTrue(java.util.Arrays.equals(before, first.getPageData()));
+        assertEquals(0, first.getNumEmptySlots());
+        bp.transactionComplete(tid);
+    }
+
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolTest.class);
+    }
+}
@@ -0,0 +1,237 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BulkLoaderTest extends SimpleDbTestBase {
+
+    private static File tempFile(String suffix) throws Exception {
+        File f = File.createTempFile("bulk", suffix);
+        f.deleteOnExit();
+        for (String sidecar : new String[] { FreeSpaceMap.SUFFIX, ZoneMap.SUFFIX })
+            new File(f.getPath() + sidecar).deleteOnExit();
+        return f;
+    }
+
+    /** @return the tuples of a table in the order of its pages, as strings */
+    private static List<String> contents(HeapFile table) throws Exception {
+        List<String> rows = new ArrayList<String>();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            StringBuilder row = new StringBuilder();
+            for (int i = 0; i < t.getTupleDesc().numFields(); i++)
+                row.append(i > 0 ? "|" : "").append(t.getField(i));
+            rows.add(row.toString());
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return rows;
+    }
+
+    /**
+     * Input spanning several blocks is loaded in order by several threads,
+     * skipping blank lines, counting and skipping malformed ones, trimming
+     * fields and carriage returns, and truncating long strings.
+     */
+    @Test public void loadsText() throws Exception {
+        File in = tempFile(".txt");
+        List<String> expected = new ArrayList<String>();
+        BufferedWriter w = new BufferedWriter(new FileWriter(in));
+        char[] longString = new char[Type.STRING_LEN + 10];
+        Arrays.fill(longString, 'x');
+        // about two blocks of input
+        int rows = BulkLoader.BLOCK_BYTES / 8;
+        int malformed = 0;
+        for (int i = 0; i < rows; i++) {
+            String s = i % 1000 == 0 ? new String(longString) : "s" + (i % 97);
+            w.write(i + "; " + s + " ;" + (-i % 13) + (i % 2 == 0 ? "\r\n" : "\n"));
+            expected.add(i + "|" + (s.length() > Type.STRING_LEN ? s.substring(0, Type.STRING_LEN) : s)
+                    + "|" + (-i % 13));
+            if (i % 50000 == 1) {
+                w.write("\n");
+                w.write("1;too few\n");
+                w.write("x1;not an int;2\n");
+                malformed += 2;
+            }
+        }
+        w.close();
+
+        File out = tempFile(".dat");
+        BulkLoader loader = new BulkLoader(
+                new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE }, ';', BufferPool.PAGE_SIZE);
+        loader.setThreads(3);
+        assertEquals(rows, loader.load(in, out));
+        assertEquals(malformed, loader.getSkippedLines());
+        HeapFile table = new HeapFile(out, new TupleDesc(
+                new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE }));
+        Database.getCatalog().addTable(table, "loaded");
+        assertEquals(expected, contents(table));
+    }
+
+    /** An empty input gives a table of one empty page. */
+    @Test public void loadsEmptyInput() throws Exception {
+        File out = tempFile(".dat");
+        assertEquals(0, new BulkLoader(new Type[] { Type.INT_TYPE }, ',', BufferPool.PAGE_SIZE)
+                .load(tempFile(".txt"), out));
+        assertEquals(BufferPool.PAGE_SIZE, out.length());
+    }
+
+    /** VARCHAR(n) fields are loaded at their declared length, truncating longer values. */
+    @Test public void loadsVarchar() throws Exception {
+        File in = tempFile(".txt");
+        BufferedWriter w = new BufferedWriter(new FileWriter(in));
+        w.write("1,ab\n2,abcdefgh\n3,\n");
+        w.close();
+        File out = tempFile(".dat");
+        Type[] types = new Type[] { Type.INT_TYPE, Type.VARCHAR_TYPE };
+        int[] lengths = new int[] { 0, 5 };
+        BulkLoader loader = new BulkLoader(types, lengths, ',', BufferPool.PAGE_SIZE);
+        assertEquals(3, loader.load(in, out));
+
+        TupleDesc td = new TupleDesc(types, new String[2], lengths);
+        HeapFile table = new HeapFile(out, td);
+        Database.getCatalog().addTable(table, "varchars");
+        assertEquals(Arrays.asList("1|ab", "2|abcde", "3|"), contents(table));
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        assertEquals(Type.VARCHAR_TYPE, it.next().getField(1).getType());
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Loading a table file deletes the maps and indexes of the file it
+     * replaces, so they are rebuilt from the new tuples.
+     */
+    @Test public void loadDeletesStaleIndexes() throws Exception {
+        File out = tempFile(".dat");
+        File[] stale = { new File(out.getPath() + ZoneMap.SUFFIX), BTreeFile.indexFile(out, 0),
+                HashIndexFile.indexFile(out, 1) };
+        File other = new File(out.getPath() + ".x" + HashIndexFile.SUFFIX);
+        for (File f : stale) {
+            f.deleteOnExit();
+            assertTrue(f.createNewFile());
+        }
+        other.deleteOnExit();
+        assertTrue(other.createNewFile());
+        new BulkLoader(new Type[] { Type.INT_TYPE }, ',', BufferPool.PAGE_SIZE).load(tempFile(".txt"), out);
+        for (File f : stale)
+            assertFalse(f.exists());
+        assertTrue(other.exists());
+    }
+
+    /**
+     * Appending, as COPY does, adds the lines of a file to a table on new
+     * pages, and adds them to the indexes of the table.
+     */
+    @Test public void appendsAndIndexes() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 1000, 1000, null, tuples);
+        f.deleteOnExit();
+        HeapFile table = new HeapFile(f, Utility.getTupleDesc(2, "c"));
+        Database.getCatalog().addTable(table, "copied");
+        File indexFile = File.createTempFile("index", HashIndexFile.SUFFIX);
+        indexFile.deleteOnExit();
+        HashIndexFile index = HashIndexFile.build(indexFile, table, 0);
+        Database.getCatalog().addIndex(index);
+        int pages = table.numPages();
+
+        File in = tempFile(".txt");
+        BufferedWriter w = new BufferedWriter(new FileWriter(in));
+        for (int i = 0; i < 3000; i++)
+            w.write((5000 + i) + "|" + i + "\n");
+        w.close();
+        TransactionId tid = new TransactionId();
+        BulkLoader loader = new BulkLoader(new Type[] { Type.INT_TYPE, Type.INT_TYPE }, '|', table.getPageSize());
+        assertEquals(3000, loader.append(in, table, tid));
+        Database.getBufferPool().transactionComplete(tid);
+
+        List<String> expected = new ArrayList<String>();
+        for (ArrayList<Integer> t : tuples)
+            expected.add(t.get(0) + "|" + t.get(1));
+        for (int i = 0; i < 3000; i++)
+            expected.add((5000 + i) + "|" + i);
+        List<String> rows = contents(table);
+        // the loaded tuples follow the old ones, on pages of their own
+        assertEquals(expected.subList(1000, 4000), rows.subList(1000, 4000));
+        Collections.sort(expected);
+        Collections.sort(rows);
+        assertEquals(expected, rows);
+        assertEquals(pages + (3000 + 503) / 504, table.numPages());
+
+        tid = new TransactionId();
+        for (int key : new int[] { 5000, 6234, 7999 }) {
+            IndexScan scan = new IndexScan(tid, index, "t", Predicate.Op.EQUALS, new IntField(key));
+            scan.open();
+            assertEquals(true, scan.hasNext());
+            assertEquals(key - 5000, ((IntField) scan.next().getField(1)).getValue());
+            assertEquals(false, scan.hasNext());
+            scan.close();
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Appending locks the whole table, and an abort empties the appended
+     * pages again, along with the index entries of their tuples.
+     */
+    @Test public void abortEmptiesAppendedPages() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 1000, 1000, null, tuples);
+        f.deleteOnExit();
+        HeapFile table = new HeapFile(f, Utility.getTupleDesc(2, "c"));
+        Database.getCatalog().addTable(table, "copied");
+        File indexFile = File.createTempFile("index", HashIndexFile.SUFFIX);
+        indexFile.deleteOnExit();
+        HashIndexFile index = HashIndexFile.build(indexFile, table, 0);
+        Database.getCatalog().addIndex(index);
+        List<String> before = contents(table);
+
+        File in = tempFile(".txt");
+        BufferedWriter w = new BufferedWriter(new FileWriter(in));
+        for (int i = 0; i < 3000; i++)
+            w.write((5000 + i) + "|" + i + "\n");
+        w.close();
+        TransactionId tid = new TransactionId();
+        BulkLoader loader = new BulkLoader(new Type[] { Type.INT_TYPE, Type.INT_TYPE }, '|', table.getPageSize());
+        assertEquals(3000, loader.append(in, table, tid));
+        for (int pgNo = 0; pgNo < table.numPages(); pgNo++)
+            assertTrue(Database.getBufferPool().holdsLock(tid, new HeapPageId(table.getId(), pgNo)));
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        assertEquals(before, contents(table));
+        tid = new TransactionId();
+        IndexScan scan = new IndexScan(tid, index, "t", Predicate.Op.EQUALS, new IntField(6234));
+        scan.open();
+        assertFalse(scan.hasNext());
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BulkLoaderTest.class);
+    }
+}
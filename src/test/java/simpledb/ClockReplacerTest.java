@@ -0,0 +1,108 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ClockReplacerTest extends SimpleDbTestBase {
+
+    private static BufferFrame admit(ClockReplacer r, int pgNo) {
+        BufferFrame f = new BufferFrame(new HeapPageId(1, pgNo), BufferPool.PAGE_SIZE);
+        r.admit(f);
+        return f;
+    }
+
+    /**
+     * Unit test for ClockReplacer.victim(null) on pages that were never reused
+     */
+    @Test public void evictsColdPagesFirst() {
+        ClockReplacer r = new ClockReplacer(4);
+        BufferFrame[] frames = new BufferFrame[4];
+        for (int i = 0; i < 4; i++)
+            frames[i] = admit(r, i);
+        frames[0].referenced = true;
+        frames[2].referenced = true;
+
+        BufferFrame v1 = r.victim(null);
+        BufferFrame v2 = r.victim(null);
+        assertEquals(frames[1], v1);
+        assertEquals(frames[3], v2);
+        assertEquals(2, r.size());
+    }
+
+    /**
+     * A long run of pages that are each touched once must not push out
+     * the pages that are referenced repeatedly.
+     */
+    @Test public void scanResistance() {
+        ClockReplacer r = new ClockReplacer(8);
+        BufferFrame[] hot = new BufferFrame[4];
+        for (int i = 0; i < hot.length; i++) {
+            hot[i] = admit(r, i);
+            hot[i].referenced = true;
+        }
+        for (int i = 100; i < 1100; i++) {
+            if (r.size() == 8) {
+                BufferFrame v = r.victim(null);
+                assertNotNull(v);
+                for (BufferFrame h : hot)
+                    assertTrue(v != h);
+            }
+            admit(r, i);
+            for (BufferFrame h : hot)
+                h.referenced = true;
+        }
+    }
+
+    /**
+     * Unit test for ClockReplacer.victim(null) with pinned frames
+     */
+    @Test public void skipsPinnedFrames() {
+        ClockReplacer r = new ClockReplacer(3);
+        Set<BufferFrame> pinned = new HashSet<BufferFrame>();
+        for (int i = 0; i < 3; i++) {
+            BufferFrame f = admit(r, i);
+            assertTrue(r.pin(f));
+            pinned.add(f);
+        }
+        assertNull(r.victim(null));
+
+        BufferFrame f = pinned.iterator().next();
+        f.unpin();
+        assertEquals(f, r.victim(null));
+        // a frame that was chosen as a victim can no longer be pinned
+        assertTrue(!r.pin(f));
+    }
+
+    /**
+     * A page evicted while cold and read back soon after comes back hot.
+     */
+    @Test public void nonResidentPagesReturnHot() {
+        ClockReplacer r = new ClockReplacer(4);
+        BufferFrame f = admit(r, 7);
+        for (int i = 0; i < 3; i++)
+            admit(r, i);
+        assertEquals(f, r.victim(null));
+
+        BufferFrame back = new BufferFrame(new HeapPageId(1, 7), BufferPool.PAGE_SIZE);
+        r.admit(back);
+        assertTrue(back.hot);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ClockReplacerTest.class);
+    }
+}
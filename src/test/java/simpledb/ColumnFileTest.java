@@ -0,0 +1,180 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ColumnFileTest extends SimpleDbTestBase {
+
+    private static void roundTrip(int[] values, byte encoding) throws Exception {
+        byte[] data = ColumnEncoding.encodeInts(values, values.length);
+        assertEquals(encoding, data[0]);
+        assertArrayEquals(values, ColumnEncoding.decodeInts(data));
+    }
+
+    /**
+     * Each INT_TYPE encoding is picked for the values it suits, and decodes
+     * to the values it was given.
+     */
+    @Test public void intEncodings() throws Exception {
+        int[] runs = new int[1000];
+        int[] small = new int[1000];
+        int[] ids = new int[1000];
+        int[] random = new int[1000];
+        java.util.Random r = new java.util.Random(17);
+        for (int i = 0; i < 1000; i++) {
+            runs[i] = i / 100;
+            small[i] = -5 + r.nextInt(16);
+            ids[i] = 1000000 + 3 * i + r.nextInt(3);
+            random[i] = r.nextInt();
+        }
+        roundTrip(runs, ColumnEncoding.RLE);
+        roundTrip(small, ColumnEncoding.BITPACK);
+        roundTrip(ids, ColumnEncoding.DELTA);
+        roundTrip(random, ColumnEncoding.PLAIN);
+        roundTrip(new int[] { Integer.MIN_VALUE, Integer.MAX_VALUE, 0 }, ColumnEncoding.PLAIN);
+        // 16 distinct values take 4 bits each
+        assertEquals(1 + 4 + 4 + 1 + 1000 * 4 / 8, ColumnEncoding.encodeInts(small, 1000).length);
+
+        String[] strings = { "a", "a", "a", "b", "b", "c" };
+        byte[] data = ColumnEncoding.encodeStrings(strings, strings.length);
+        assertEquals(ColumnEncoding.RLE, data[0]);
+        assertEquals(Arrays.asList(strings), Arrays.asList(ColumnEncoding.decodeStrings(data)));
+    }
+
+    /**
+     * A column file built from a HeapFile returns the same rows, and a scan
+     * that uses two of its columns reads only their chunks.
+     */
+    @Test public void scanColumns() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile heap = SystemTestUtil.createRandomHeapFile(4, 3000, 100, null, tuples);
+        File f = File.createTempFile("columns", ".dat");
+        f.deleteOnExit();
+        for (int j = 0; j < 4; j++)
+            ColumnFile.columnFile(f, j).deleteOnExit();
+        ColumnFile columns = ColumnFile.build(f, heap.getTupleDesc(), heap.iterator(new TransactionId()));
+        Database.getCatalog().addTable(columns, SystemTestUtil.getUUID());
+        assertEquals(3000, columns.numRows());
+        assertEquals(3, columns.numChunks());
+        // values below 100 take 7 bits each
+        assertTrue(columns.columnBytes(0) < 3000);
+        SystemTestUtil.matchTuples(columns, tuples);
+
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SeqScan scan = new SeqScan(new TransactionId(), columns.getId(), "c");
+        scan.setColumns(Arrays.asList(0));
+        assertTrue(scan.addPredicate(new Predicate(2, Predicate.Op.LESS_THAN, new IntField(50))));
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertNull(t.getField(1));
+            assertTrue(((IntField) t.getField(2)).getValue() < 50);
+            count++;
+        }
+        scan.close();
+        int expected = 0;
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(2) < 50)
+                expected++;
+        }
+        assertEquals(expected, count);
+        for (int c = 0; c < 3; c++) {
+            assertTrue(bp.isCached(new HeapPageId(columns.getId(), c * 4)));
+            assertFalse(bp.isCached(new HeapPageId(columns.getId(), c * 4 + 1)));
+            assertTrue(bp.isCached(new HeapPageId(columns.getId(), c * 4 + 2)));
+            assertFalse(bp.isCached(new HeapPageId(columns.getId(), c * 4 + 3)));
+        }
+    }
+
+    /**
+     * A table stored in columns is built from the HeapFile that convert
+     * wrote for it the first time the schema is loaded, and opened as it
+     * is after that.
+     */
+    @Test public void catalogBuildsConvertedTable() throws Exception {
+        File dir = File.createTempFile("columns", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        File text = new File(dir, "sales.txt");
+        text.deleteOnExit();
+        FileWriter w = new FileWriter(text);
+        for (int i = 0; i < 2500; i++)
+            w.write(i + "," + (i % 2 == 0 ? "east" : "west") + "\n");
+        w.close();
+        File tableFile = new File(dir, "sales.dat");
+        tableFile.deleteOnExit();
+        for (int j = 0; j < 2; j++)
+            ColumnFile.columnFile(tableFile, j).deleteOnExit();
+        HeapFileEncoder.convert(text, tableFile, BufferPool.PAGE_SIZE, 2,
+                new Type[] { Type.INT_TYPE, Type.STRING_TYPE }, ',');
+        File schema = new File(dir, "catalog.txt");
+        schema.deleteOnExit();
+        w = new FileWriter(schema);
+        w.write("sales (id int, region string) column\n");
+        w.close();
+
+        for (int load = 0; load < 2; load++) {
+            Database.getCatalog().loadSchema(schema.getAbsolutePath());
+            DbFile f = Database.getCatalog().getDbFile(Database.getCatalog().getTableId("sales"));
+            assertTrue(f instanceof ColumnFile);
+            assertEquals(2500, ((ColumnFile) f).numRows());
+            assertFalse(new File(tableFile.getPath() + ".heap").exists());
+            TransactionId tid = new TransactionId();
+            DbFileIterator it = f.iterator(tid);
+            it.open();
+            for (int i = 0; i < 2500; i++) {
+                Tuple t = it.next();
+                assertEquals(new IntField(i), t.getField(0));
+                assertEquals(i % 2 == 0 ? "east" : "west", ((StringField) t.getField(1)).getValue());
+            }
+            assertFalse(it.hasNext());
+            it.close();
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    /** A chunk that cannot be read is an error, not a missing page. */
+    @Test(expected = RuntimeException.class) public void readPageThrows() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile heap = SystemTestUtil.createRandomHeapFile(2, 100, 100, null, tuples);
+        File f = File.createTempFile("columns", ".dat");
+        f.deleteOnExit();
+        for (int j = 0; j < 2; j++)
+            ColumnFile.columnFile(f, j).deleteOnExit();
+        ColumnFile columns = ColumnFile.build(f, heap.getTupleDesc(), heap.iterator(new TransactionId()));
+        new RandomAccessFile(ColumnFile.columnFile(f, 1), "rw").setLength(0);
+        columns.readPage(new HeapPageId(columns.getId(), 1));
+    }
+
+    @Test(expected = DbException.class) public void readOnly() throws Exception {
+        File f = File.createTempFile("columns", ".dat");
+        f.deleteOnExit();
+        ColumnFile columns = new ColumnFile(f, Utility.getTupleDesc(2));
+        columns.insertTuple(new TransactionId(), Utility.getHeapTuple(1, 2));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnFileTest.class);
+    }
+}
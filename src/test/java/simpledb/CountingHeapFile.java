@@ -0,0 +1,56 @@
+package simpledb;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A heap file that counts the pages it reads from disk, read-ahead
+ * included, for tests of scans that skip pages.
+ */
+class CountingHeapFile extends HeapFile {
+    int reads;
+
+    CountingHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    public Page readPage(PageId pid) {
+        reads++;
+        return super.readPage(pid);
+    }
+
+    List<Page> readPages(int firstPage, int count) throws IOException {
+        List<Page> pages = super.readPages(firstPage, count);
+        reads += pages.size();
+        return pages;
+    }
+
+    /** Empty the buffer pool and start counting reads from 0. */
+    void coldStart() {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        reads = 0;
+    }
+
+    /**
+     * @return the number of tuples a scan with a predicate returns, from a
+     *         cold buffer pool
+     */
+    int count(Predicate p) throws Exception {
+        coldStart();
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, getId(), "t");
+        assertTrue(scan.addPredicate(p));
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            n++;
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+}
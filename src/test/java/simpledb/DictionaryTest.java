@@ -0,0 +1,155 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class DictionaryTest extends SimpleDbTestBase {
+
+    private static final String[] STATUS = { "open", "shipped", "returned" };
+
+    /**
+     * Codes are handed out once per value, decode to one shared field, and
+     * compare equal to plain StringFields with the same value.
+     */
+    @Test public void codes() throws Exception {
+        Dictionary d = new Dictionary(Type.STRING_LEN);
+        assertEquals(0, d.encode("open"));
+        assertEquals(1, d.encode("shipped"));
+        assertEquals(0, d.encode("open"));
+        assertEquals(2, d.size());
+
+        DictField open = d.decode(0);
+        assertSame(open, d.decode(0));
+        assertNull(d.decode(7));
+        StringField plain = new StringField("open", Type.STRING_LEN);
+        assertTrue(open.equals(plain));
+        assertTrue(plain.equals(open));
+        assertEquals(plain.hashCode(), open.hashCode());
+        assertTrue(open.compare(Predicate.Op.EQUALS, plain));
+        assertFalse(d.decode(1).compare(Predicate.Op.EQUALS, plain));
+        assertTrue(d.decode(1).compare(Predicate.Op.NOT_EQUALS, plain));
+        // a value without a code equals nothing in the column
+        assertFalse(open.compare(Predicate.Op.EQUALS, new StringField("lost", Type.STRING_LEN)));
+        // ordering is by value, not by code
+        assertTrue(d.decode(1).compare(Predicate.Op.GREATER_THAN, open));
+    }
+
+    /**
+     * A value its dictionary cannot write fails the insert with a
+     * DbException and leaves the page as it was.
+     */
+    @Test public void failedEncodeLeavesPage() throws Exception {
+        File f = File.createTempFile("dict", Dictionary.SUFFIX);
+        f.deleteOnExit();
+        Dictionary d = Dictionary.open(f, Type.STRING_LEN);
+        d.encode("open");
+        d.close();
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE }, new String[2],
+                new int[2], new Dictionary[] { null, d });
+        File data = File.createTempFile("dict", ".dat");
+        data.deleteOnExit();
+        HeapFile table = new HeapFile(data, td);
+        Database.getCatalog().addTable(table, "dicts");
+        HeapPage page = new HeapPage(new HeapPageId(table.getId(), 0), HeapPage.createEmptyPageData());
+        byte[] before = page.getPageData();
+
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(1));
+        t.setField(1, new StringField("shipped", Type.STRING_LEN));
+        try {
+            page.insertTuple(t);
+            fail("the dictionary file is closed");
+        } catch (DbException e) {
+            // expected
+        }
+        assertTrue(Arrays.equals(before, page.getPageData()));
+    }
+
+    /**
+     * A dict column of a table declared in a catalog file takes four bytes
+     * a tuple, filters on it, and reads back the same after the catalog is
+     * loaded again.
+     */
+    @Test public void catalogTable() throws Exception {
+        File dir = File.createTempFile("dict", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        File schema = new File(dir, "catalog.txt");
+        FileWriter w = new FileWriter(schema);
+        w.write("orders (id int pk, status string dict, region varchar(20) dict)\n");
+        w.close();
+        new File(dir, "orders.dat").deleteOnExit();
+        new File(dir, "orders.dat" + FreeSpaceMap.SUFFIX).deleteOnExit();
+        new File(dir, "orders.dat" + ZoneMap.SUFFIX).deleteOnExit();
+        Dictionary.dictionaryFile(new File(dir, "orders.dat"), 1).deleteOnExit();
+        Dictionary.dictionaryFile(new File(dir, "orders.dat"), 2).deleteOnExit();
+        BTreeFile.indexFile(new File(dir, "orders.dat"), 0).deleteOnExit();
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        int tableId = Database.getCatalog().getTableId("orders");
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableId);
+        assertEquals(12, td.getSize());
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 300; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField(STATUS[i % 3], Type.STRING_LEN));
+            t.setField(2, new StringField(i < 150 ? "east" : "west", 20));
+            Database.getBufferPool().insertTuple(tid, tableId, t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(3, td.getDictionary(1).size());
+        assertEquals(2, td.getDictionary(2).size());
+        assertEquals(100, shipped(tableId));
+
+        // the dictionaries are read back with the table
+        Database.getCatalog().clear();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        tableId = Database.getCatalog().getTableId("orders");
+        assertEquals(100, shipped(tableId));
+    }
+
+    /** @return the number of shipped orders, checking what the scan reads */
+    private static int shipped(int tableId) throws Exception {
+        SeqScan scan = new SeqScan(new TransactionId(), tableId, "o");
+        assertTrue(scan.addPredicate(new Predicate(1, Predicate.Op.EQUALS,
+                new StringField("shipped", Type.STRING_LEN))));
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            int id = ((IntField) t.getField(0)).getValue();
+            assertEquals(1, id % 3);
+            assertTrue(t.getField(1) instanceof DictField);
+            assertEquals(new StringField(id < 150 ? "east" : "west", 20), t.getField(2));
+            assertEquals(Type.STRING_TYPE, t.getField(1).getType());
+            assertEquals(Type.VARCHAR_TYPE, t.getField(2).getType());
+            count++;
+        }
+        scan.close();
+        return count;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DictionaryTest.class);
+    }
+}
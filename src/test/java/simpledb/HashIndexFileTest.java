@@ -0,0 +1,236 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static simpledb.IndexTestUtil.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HashIndexFileTest extends SimpleDbTestBase {
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile table;
+    private HashIndexFile index;
+
+    /** A table of 5000 random rows, hash indexed on its first field. */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        table = SystemTestUtil.createRandomHeapFile(2, 5000, 1000, null, tuples, "c");
+        File f = File.createTempFile("index", HashIndexFile.SUFFIX);
+        f.deleteOnExit();
+        index = HashIndexFile.build(f, table, 0);
+        Database.getCatalog().addIndex(index);
+    }
+
+    /** The built index holds every tuple and looks keys up in their bucket. */
+    @Test public void buildAndLookup() throws Exception {
+        TransactionId tid = new TransactionId();
+        assertEquals(expected(tuples, Integer.MIN_VALUE, Integer.MAX_VALUE),
+                sortedKeys(new IndexScan(tid, index, "t")));
+        for (int key : new int[] { 0, 500, 999, 1000 }) {
+            assertEquals(expected(tuples, key, key),
+                    sortedKeys(new IndexScan(tid, index, "t", Predicate.Op.EQUALS, new IntField(key))));
+        }
+        IndexScan scan = new IndexScan(tid, index, "t", Predicate.Op.EQUALS, new IntField(7));
+        assertTrue(!scan.addPredicate(new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(3))));
+        assertTrue(!scan.addPredicate(new Predicate(0, Predicate.Op.EQUALS, new IntField(8))));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Tuples inserted and deleted through the BufferPool are added to and
+     * removed from the index, through overflow pages and bucket splits, and
+     * an aborted insert leaves no entry behind.
+     */
+    @Test public void maintenance() throws Exception {
+        // the pages a transaction dirties stay in the pool until it commits
+        Database.resetBufferPool(500);
+        int pages = index.numPages();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 3000; i++) {
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            row.add(i % 3 == 0 ? 2000 + i : 555);
+            row.add(i);
+            tuples.add(row);
+            Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[] { row.get(0), i }));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(index.numPages() > pages);
+
+        tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, table.getId(), "t");
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            if (((IntField) t.getField(1)).getValue() % 2 == 0)
+                Database.getBufferPool().deleteTuple(tid, t);
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        List<ArrayList<Integer>> kept = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(1) % 2 != 0)
+                kept.add(t);
+        }
+        tuples = new ArrayList<ArrayList<Integer>>(kept);
+
+        tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[] { 555, 1 }));
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        assertEquals(expected(tuples, Integer.MIN_VALUE, Integer.MAX_VALUE),
+                sortedKeys(new IndexScan(tid, index, "t")));
+        for (int key : new int[] { 555, 2003, 2009, 42 }) {
+            assertEquals(expected(tuples, key, key),
+                    sortedKeys(new IndexScan(tid, index, "t", Predicate.Op.EQUALS, new IntField(key))));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The Insert and Delete operators, which change the table in batches,
+     * keep the index up to date.
+     */
+    @Test public void batchedOperators() throws Exception {
+        // the pages a transaction dirties stay in the pool until it commits
+        Database.resetBufferPool(500);
+        TransactionId tid = new TransactionId();
+        List<Tuple> rows = new ArrayList<Tuple>();
+        for (int i = 0; i < 6000; i++) {
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            row.add(3000 + i % 700);
+            row.add(i);
+            tuples.add(row);
+            rows.add(Utility.getHeapTuple(new int[] { row.get(0), i }));
+        }
+        Insert insert = new Insert(tid, new TupleIterator(table.getTupleDesc(), rows), table.getId());
+        insert.open();
+        assertEquals(6000, ((IntField) insert.next().getField(0)).getValue());
+        insert.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        Delete delete = new Delete(tid, new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(500)),
+                new SeqScan(tid, table.getId(), "t")));
+        delete.open();
+        assertEquals(expected(tuples, Integer.MIN_VALUE, 499).size(),
+                ((IntField) delete.next().getField(0)).getValue());
+        delete.close();
+        Database.getBufferPool().transactionComplete(tid);
+        List<ArrayList<Integer>> kept = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) >= 500)
+                kept.add(t);
+        }
+        tuples = new ArrayList<ArrayList<Integer>>(kept);
+
+        tid = new TransactionId();
+        assertEquals(expected(tuples, Integer.MIN_VALUE, Integer.MAX_VALUE),
+                sortedKeys(new IndexScan(tid, index, "t")));
+        for (int key : new int[] { 3000, 3699, 250, 700 }) {
+            assertEquals(expected(tuples, key, key),
+                    sortedKeys(new IndexScan(tid, index, "t", Predicate.Op.EQUALS, new IntField(key))));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The planner reads a table through its hash index for an equality
+     * filter on the key, and probes it for each tuple of the other side of
+     * an equality join on the key.
+     */
+    @Test public void plannerUsesIndex() throws Exception {
+        String name = Database.getCatalog().getTableName(table.getId());
+        ArrayList<ArrayList<Integer>> outerTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile outer = SystemTestUtil.createRandomHeapFile(2, 50, 1000, null, outerTuples, "c");
+        String outerName = Database.getCatalog().getTableName(outer.getId());
+        Map<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(table.getId(), 1000));
+        stats.put(outerName, new TableStats(outer.getId(), 1000));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.c0", Predicate.Op.EQUALS, "42");
+        lp.addProjectField("t.c0", null);
+        lp.addProjectField("t.c1", null);
+        TransactionId tid = new TransactionId();
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        DbIterator leaf = plan;
+        while (leaf instanceof Operator)
+            leaf = ((Operator) leaf).getChildren()[0];
+        assertTrue(leaf instanceof IndexScan);
+        assertTrue(((IndexScan) leaf).getIndex() == index);
+        assertEquals(expected(tuples, 42, 42), sortedKeys(plan));
+
+        lp = new LogicalPlan();
+        lp.addScan(outer.getId(), "o");
+        lp.addScan(table.getId(), "t");
+        lp.addJoin("o.c0", "t.c0", Predicate.Op.EQUALS);
+        lp.addProjectField("t.c0", null);
+        plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof IndexNestedLoopJoin);
+        List<Integer> joined = new ArrayList<Integer>();
+        for (ArrayList<Integer> o : outerTuples)
+            joined.addAll(expected(tuples, o.get(0), o.get(0)));
+        Collections.sort(joined);
+        assertEquals(joined, sortedKeys(plan));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** A primary key marked hash in a catalog file is indexed with a HashIndexFile. */
+    @Test public void catalogTable() throws Exception {
+        File dir = File.createTempFile("hash", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        File schema = new File(dir, "catalog.txt");
+        FileWriter w = new FileWriter(schema);
+        w.write("users (id int pk hash, age int)\n");
+        w.close();
+        new File(dir, "users.dat").deleteOnExit();
+        new File(dir, "users.dat" + FreeSpaceMap.SUFFIX).deleteOnExit();
+        new File(dir, "users.dat" + ZoneMap.SUFFIX).deleteOnExit();
+        HashIndexFile.indexFile(new File(dir, "users.dat"), 0).deleteOnExit();
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        int tableId = Database.getCatalog().getTableId("users");
+        List<IndexFile> indexes = Database.getCatalog().getIndexes(tableId);
+        assertEquals(1, indexes.size());
+        assertTrue(indexes.get(0) instanceof HashIndexFile);
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 2000; i++)
+            Database.getBufferPool().insertTuple(tid, tableId, Utility.getHeapTuple(new int[] { i, i % 90 }));
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        IndexScan scan = new IndexScan(tid, indexes.get(0), "u", Predicate.Op.EQUALS, new IntField(1234));
+        scan.open();
+        assertTrue(scan.hasNext());
+        assertEquals(new IntField(1234 % 90), scan.next().getField(1));
+        assertTrue(!scan.hasNext());
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashIndexFileTest.class);
+    }
+}
@@ -121,6 +121,30 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * Unit test for HeapFile.setMemoryMapped(): mapped pages read the same
+     * bytes, copy them when first changed, and see pages added to the file.
+     */
+    @Test
+    public void memoryMapped() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        byte[] expected = ((HeapPage) hf.readPage(pid)).getPageData();
+        hf.setMemoryMapped(true);
+        HeapPage page = (HeapPage) hf.readPage(pid);
+        assertTrue(page.isMapped());
+        assertArrayEquals(expected, page.getPageData());
+
+        page.deleteTuple(page.iterator().next());
+        assertFalse(page.isMapped());
+        assertArrayEquals(expected, page.getBeforeImage().getPageData());
+        assertArrayEquals(expected, ((HeapPage) hf.readPage(pid)).getPageData());
+
+        hf.writePage(new HeapPage(new HeapPageId(hf.getId(), 1), HeapPage.createEmptyPageData()));
+        HeapPage added = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 1));
+        assertTrue(added.isMapped());
+        assertEquals(504, added.getNumEmptySlots());
+    }
+
     /**
      * JUnit suite target
      */
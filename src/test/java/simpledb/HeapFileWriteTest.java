@@ -43,6 +43,149 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Inserts find a page with room through the free-space map, without
+     * reading the full pages of the table.
+     */
+    @Test public void freeSpaceMap() throws Exception {
+        HeapFile full = simpledb.systemtest.SystemTestUtil.createRandomHeapFile(2, 504 * 10, null, null);
+        BufferPool bp = Database.resetBufferPool(20);
+        full.insertTuple(tid, Utility.getHeapTuple(1, 2));
+        assertEquals(11, full.numPages());
+        for (int i = 0; i < 10; i++)
+            assertFalse(bp.isCached(new HeapPageId(full.getId(), i)));
+
+        // a slot freed in a full page is used by the next insert
+        bp.transactionComplete(tid);
+        tid = new TransactionId();
+        HeapPage page = (HeapPage) bp.getPage(tid, new HeapPageId(full.getId(), 3), Permissions.READ_WRITE);
+        full.deleteTuple(tid, page.iterator().next());
+        full.insertTuple(tid, Utility.getHeapTuple(2, 2));
+        assertEquals(0, page.getNumEmptySlots());
+        assertEquals(11, full.numPages());
+    }
+
+    /**
+     * A batch of inserts fills the pages in turn, appending the empty pages
+     * it needs at once, and a batch of deletes changes each page once.
+     */
+    @Test public void batches() throws Exception {
+        java.util.List<Tuple> tuples = new java.util.ArrayList<Tuple>();
+        for (int i = 0; i < 504 * 3 + 10; ++i)
+            tuples.add(Utility.getHeapTuple(i, 2));
+        java.util.List<Page> pages = empty.insertTuples(tid, tuples);
+        assertEquals(4, pages.size());
+        assertEquals(4, empty.numPages());
+        for (int i = 0; i < 3; ++i)
+            assertEquals(0, ((HeapPage) pages.get(i)).getNumEmptySlots());
+        assertEquals(504 - 10, ((HeapPage) pages.get(3)).getNumEmptySlots());
+        assertEquals(new HeapPageId(empty.getId(), 3), tuples.get(504 * 3).getRecordId().getPageId());
+
+        java.util.List<Tuple> even = new java.util.ArrayList<Tuple>();
+        for (int i = 0; i < tuples.size(); i += 2)
+            even.add(tuples.get(i));
+        assertEquals(4, empty.deleteTuples(tid, even).size());
+        assertEquals(252, ((HeapPage) pages.get(0)).getNumEmptySlots());
+        assertEquals(504 - 5, ((HeapPage) pages.get(3)).getNumEmptySlots());
+
+        // the freed slots are filled before any page is appended
+        tuples.clear();
+        for (int i = 0; i < 252 * 3 + 5; ++i)
+            tuples.add(Utility.getHeapTuple(i, 2));
+        assertEquals(4, empty.insertTuples(tid, tuples).size());
+        assertEquals(4, empty.numPages());
+        assertEquals(504 - 10, ((HeapPage) pages.get(3)).getNumEmptySlots());
+    }
+
+    /**
+     * A batch that fails part way leaves the pages it changed dirty, so an
+     * abort drops them.
+     */
+    @Test public void failedBatchMarksDirty() throws Exception {
+        java.util.List<Tuple> tuples = new java.util.ArrayList<Tuple>();
+        tuples.add(Utility.getHeapTuple(1, 2));
+        tuples.add(Utility.getHeapTuple(2, 3));
+        try {
+            empty.insertTuples(tid, tuples);
+            fail("expected DbException");
+        } catch (DbException e) {
+            // the second tuple does not match the table
+        }
+        Page page = Database.getBufferPool().getPage(tid, new HeapPageId(empty.getId(), 0), Permissions.READ_ONLY);
+        assertEquals(tid, page.isDirty());
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        tuples.set(1, tuples.get(0));
+        try {
+            empty.deleteTuples(tid, tuples);
+            fail("expected DbException");
+        } catch (DbException e) {
+            // the tuple is deleted already
+        }
+        page = Database.getBufferPool().getPage(tid, new HeapPageId(empty.getId(), 0), Permissions.READ_ONLY);
+        assertEquals(tid, page.isDirty());
+    }
+
+    /**
+     * Unit test for HeapFile.writePages()
+     */
+    @Test public void writePages() throws Exception {
+        java.util.List<Page> pages = new java.util.ArrayList<Page>();
+        for (int i : new int[] { 2, 0, 1, 4 }) {
+            HeapPage page = new HeapPage(new HeapPageId(empty.getId(), i), HeapPage.createEmptyPageData());
+            page.insertTuple(Utility.getHeapTuple(i, 2));
+            pages.add(page);
+        }
+        empty.writePages(pages);
+        assertEquals(5, empty.numPages());
+        assertEquals(5L * BufferPool.PAGE_SIZE, empty.getFile().length());
+
+        for (int i : new int[] { 0, 1, 2, 4 }) {
+            HeapPage page = (HeapPage) empty.readPage(new HeapPageId(empty.getId(), i));
+            assertEquals(i, ((IntField) page.iterator().next().getField(0)).getValue());
+        }
+        assertEquals(504, ((HeapPage) empty.readPage(new HeapPageId(empty.getId(), 3))).getNumEmptySlots());
+    }
+
+    /**
+     * A table with large pages shares the buffer pool with tables of the
+     * default page size, each frame counting the bytes of its own page.
+     */
+    @Test public void largePages() throws Exception {
+        java.io.File f = java.io.File.createTempFile("large", ".dat");
+        f.deleteOnExit();
+        new java.io.File(f.getPath() + FreeSpaceMap.SUFFIX).deleteOnExit();
+        new java.io.File(f.getPath() + ZoneMap.SUFFIX).deleteOnExit();
+        HeapFile large = new HeapFile(f, Utility.getTupleDesc(2), 8 * BufferPool.PAGE_SIZE);
+        Database.getCatalog().addTable(large, "large");
+        assertEquals(8 * BufferPool.PAGE_SIZE, Database.getCatalog().getPageSize(large.getId()));
+
+        BufferPool bp = Database.resetBufferPool(20);
+        // 4032 tuples of 8 bytes fit on a page of 32KB
+        for (int i = 0; i < 4040; ++i)
+            large.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        assertEquals(2, large.numPages());
+        assertEquals(16L * BufferPool.PAGE_SIZE, f.length());
+        assertEquals(16L * BufferPool.PAGE_SIZE, bp.getResidentBytes());
+
+        empty.insertTuple(tid, Utility.getHeapTuple(0, 2));
+        assertEquals(17L * BufferPool.PAGE_SIZE, bp.getResidentBytes());
+        bp.transactionComplete(tid);
+        tid = new TransactionId();
+
+        // the pool makes room for a large page by evicting small ones
+        bp.resize(9);
+        assertTrue(bp.getResidentBytes() <= 9L * BufferPool.PAGE_SIZE);
+        HeapPage page = (HeapPage) bp.getPage(tid, new HeapPageId(large.getId(), 1), Permissions.READ_ONLY);
+        assertEquals(8 * BufferPool.PAGE_SIZE, page.getPageSize());
+        assertEquals(4032 - 8, page.getNumEmptySlots());
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void pageSizeNotPowerOfTwo() {
+        new HeapFile(new java.io.File("unused.dat"), Utility.getTupleDesc(2), 3 * BufferPool.PAGE_SIZE);
+    }
+
     /**
      * JUnit suite target
      */
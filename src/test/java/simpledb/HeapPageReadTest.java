@@ -120,6 +120,41 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Unit test for HeapPage.getField()
+     */
+    @Test public void getField() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        for (int i = 0; i < EXAMPLE_VALUES.length; ++i) {
+            assertEquals(EXAMPLE_VALUES[i][0], ((IntField) page.getField(i, 0)).getValue());
+            assertEquals(EXAMPLE_VALUES[i][1], ((IntField) page.getField(i, 1)).getValue());
+        }
+    }
+
+    /**
+     * Unit test for HeapPage.iterator(List)
+     */
+    @Test public void filteredIterator() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        List<Predicate> predicates = Arrays.asList(
+                new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(30000)),
+                new Predicate(1, Predicate.Op.LESS_THAN, new IntField(50000)));
+        Iterator<Tuple> it = page.iterator(predicates);
+
+        int row = 0;
+        for (int[] values : EXAMPLE_VALUES) {
+            if (values[0] <= 30000 || values[1] >= 50000)
+                continue;
+            assertTrue(it.hasNext());
+            Tuple tup = it.next();
+            assertEquals(values[0], ((IntField) tup.getField(0)).getValue());
+            assertEquals(values[1], ((IntField) tup.getField(1)).getValue());
+            row++;
+        }
+        assertFalse(it.hasNext());
+        assertEquals(8, row);
+    }
+
     /**
      * JUnit suite target
      */
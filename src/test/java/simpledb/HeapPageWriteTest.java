@@ -125,6 +125,47 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.getBeforeImage(): the before-image is the page
+     * before its first change, until setBeforeImage() is called on commit.
+     */
+    @Test public void beforeImage() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        byte[] original = page.getPageData();
+        assertTrue(java.util.Arrays.equals(original, page.getBeforeImage().getPageData()));
+
+        page.insertTuple(Utility.getHeapTuple(1, 2));
+        page.insertTuple(Utility.getHeapTuple(2, 2));
+        assertTrue(java.util.Arrays.equals(original, page.getBeforeImage().getPageData()));
+
+        page.setBeforeImage();
+        assertTrue(java.util.Arrays.equals(page.getPageData(), page.getBeforeImage().getPageData()));
+        assertEquals(482, page.getBeforeImage().getNumEmptySlots());
+    }
+
+    /**
+     * Unit test for HeapPage.markSlotUsed(): the header bytes written for the
+     * page match the slots, across word boundaries.
+     */
+    @Test public void markSlotUsed() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        int[] used = { 0, 63, 64, 127, 300, 503 };
+        for (int i : used)
+            page.markSlotUsed(i, true);
+        page.markSlotUsed(63, true);
+        assertEquals(504 - used.length, page.getNumEmptySlots());
+
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        assertEquals(504 - used.length, copy.getNumEmptySlots());
+        for (int i = 0; i < 504; i++)
+            assertEquals(java.util.Arrays.binarySearch(used, i) >= 0, copy.isSlotUsed(i));
+
+        copy.markSlotUsed(64, false);
+        copy.markSlotUsed(64, false);
+        assertEquals(504 - used.length + 1, copy.getNumEmptySlots());
+        assertTrue(!new HeapPage(pid, copy.getPageData()).isSlotUsed(64));
+    }
+
     /**
      * JUnit suite target
      */
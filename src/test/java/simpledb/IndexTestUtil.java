@@ -0,0 +1,37 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/** Helpers for the tests of the indexes, over tables whose first field is the key. */
+class IndexTestUtil {
+
+    /** @return the first fields of the tuples of an iterator, in order */
+    static List<Integer> keys(DbIterator it) throws Exception {
+        List<Integer> keys = new ArrayList<Integer>();
+        it.open();
+        while (it.hasNext())
+            keys.add(((IntField) it.next().getField(0)).getValue());
+        it.close();
+        return keys;
+    }
+
+    /** @return the first fields of the tuples of an iterator, sorted */
+    static List<Integer> sortedKeys(DbIterator it) throws Exception {
+        List<Integer> keys = keys(it);
+        Collections.sort(keys);
+        return keys;
+    }
+
+    /** @return the first fields of the tuples in [lo, hi], sorted */
+    static List<Integer> expected(List<? extends List<Integer>> tuples, int lo, int hi) {
+        List<Integer> keys = new ArrayList<Integer>();
+        for (List<Integer> t : tuples) {
+            if (t.get(0) >= lo && t.get(0) <= hi)
+                keys.add(t.get(0));
+        }
+        Collections.sort(keys);
+        return keys;
+    }
+}
@@ -0,0 +1,132 @@
+package simpledb;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LockManagerTest extends SimpleDbTestBase {
+
+    private static final long TIMEOUT_MILLIS = 2000;
+
+    private LockManager lm;
+    private PageId p0;
+    private PageId p1;
+    private TransactionId tid1;
+    private TransactionId tid2;
+
+    @Before public void createLockManager() {
+        lm = new LockManager();
+        p0 = new HeapPageId(1, 0);
+        p1 = new HeapPageId(1, 1);
+        tid1 = new TransactionId();
+        tid2 = new TransactionId();
+    }
+
+    /** Tries to grab a lock from another thread. */
+    private static class Grabber extends Thread {
+        private final LockManager lm;
+        private final TransactionId tid;
+        private final PageId pid;
+        private final boolean exclusive;
+        volatile boolean acquired;
+        volatile boolean aborted;
+
+        Grabber(LockManager lm, TransactionId tid, PageId pid, boolean exclusive) {
+            this.lm = lm;
+            this.tid = tid;
+            this.pid = pid;
+            this.exclusive = exclusive;
+            setDaemon(true);
+        }
+
+        public void run() {
+            try {
+                lm.acquire(tid, pid, exclusive);
+                acquired = true;
+            } catch (TransactionAbortedException e) {
+                aborted = true;
+            }
+        }
+    }
+
+    private Grabber grab(TransactionId tid, PageId pid, boolean exclusive) {
+        Grabber g = new Grabber(lm, tid, pid, exclusive);
+        g.start();
+        return g;
+    }
+
+    /**
+     * Unit test for shared locks held by two transactions
+     */
+    @Test public void sharedLocks() throws Exception {
+        lm.acquire(tid1, p0, false);
+        lm.acquire(tid2, p0, false);
+        assertTrue(lm.holdsLock(tid1, p0));
+        assertTrue(lm.holdsLock(tid2, p0));
+    }
+
+    /**
+     * An exclusive lock blocks other transactions until it is released.
+     */
+    @Test public void exclusiveBlocks() throws Exception {
+        lm.acquire(tid1, p0, true);
+        Grabber g = grab(tid2, p0, false);
+        g.join(300);
+        assertFalse(g.acquired);
+
+        lm.releaseAll(tid1);
+        g.join(TIMEOUT_MILLIS);
+        assertTrue(g.acquired);
+        assertFalse(lm.holdsLock(tid1, p0));
+    }
+
+    /**
+     * Unit test for upgrading a shared lock to an exclusive one
+     */
+    @Test public void upgrade() throws Exception {
+        lm.acquire(tid1, p0, false);
+        lm.acquire(tid1, p0, true);
+        assertTrue(lm.exclusivePages(tid1).contains(p0));
+
+        Grabber g = grab(tid2, p0, false);
+        g.join(300);
+        assertFalse(g.acquired);
+        lm.releaseAll(tid1);
+        g.join(TIMEOUT_MILLIS);
+        assertTrue(g.acquired);
+    }
+
+    /**
+     * Two transactions each waiting for a lock the other holds; one of
+     * them must be aborted.
+     */
+    @Test public void deadlock() throws Exception {
+        lm.acquire(tid1, p0, true);
+        lm.acquire(tid2, p1, true);
+
+        Grabber g1 = grab(tid1, p1, true);
+        g1.join(300);
+        assertFalse(g1.acquired);
+
+        Grabber g2 = grab(tid2, p0, true);
+        g2.join(TIMEOUT_MILLIS);
+        assertTrue(g2.aborted);
+
+        lm.releaseAll(tid2);
+        g1.join(TIMEOUT_MILLIS);
+        assertTrue(g1.acquired);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
@@ -0,0 +1,113 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PaxPageTest extends SimpleDbTestBase {
+
+    /**
+     * Tuples written to a PaxPage read back the same, from a copy of the
+     * page bytes, and each field is stored in its own mini-column.
+     */
+    @Test public void roundTrip() throws Exception {
+        Database.getCatalog().addTable(new SkeletonFile(-3, Utility.getTupleDesc(3)), SystemTestUtil.getUUID());
+        HeapPageId pid = new HeapPageId(-3, 0);
+        PaxPage page = new PaxPage(pid, PaxPage.createEmptyPageData());
+        // 4096 * 8 / (12 * 8 + 1) slots
+        assertEquals(337, page.getNumSlots());
+        Tuple[] tuples = new Tuple[3];
+        for (int i = 0; i < tuples.length; i++) {
+            tuples[i] = Utility.getHeapTuple(new int[] { i, 10 + i, 20 + i });
+            page.insertTuple(tuples[i]);
+        }
+        page.deleteTuple(tuples[1]);
+        assertEquals(337 - 2, page.getNumEmptySlots());
+
+        byte[] data = page.getPageData();
+        int header = (337 + 7) / 8;
+        // the third field of slot 2 follows the first two fields of all slots
+        assertEquals(22, java.nio.ByteBuffer.wrap(data).getInt(header + 337 * 8 + 2 * 4));
+
+        PaxPage copy = new PaxPage(pid, data);
+        Iterator<Tuple> it = copy.iterator();
+        assertEquals(Arrays.asList(0, 10, 20), SystemTestUtil.tupleToList(it.next()));
+        assertEquals(Arrays.asList(2, 12, 22), SystemTestUtil.tupleToList(it.next()));
+        assertFalse(it.hasNext());
+
+        // the emptied slot is reused
+        Tuple again = Utility.getHeapTuple(new int[] { 7, 7, 7 });
+        copy.insertTuple(again);
+        assertEquals(1, again.getRecordId().tupleno());
+    }
+
+    /**
+     * A scan of a pax table declared in a catalog file decodes only the
+     * fields it is told are used, and applies its predicates to the others.
+     */
+    @Test public void scanColumns() throws Exception {
+        File dir = File.createTempFile("pax", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        File schema = new File(dir, "catalog.txt");
+        java.io.FileWriter w = new java.io.FileWriter(schema);
+        w.write("wide (a int, b int, c string, d int) pax\n");
+        w.close();
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        new File(dir, "wide.dat").deleteOnExit();
+        new File(dir, "wide.dat" + FreeSpaceMap.SUFFIX).deleteOnExit();
+        new File(dir, "wide.dat" + ZoneMap.SUFFIX).deleteOnExit();
+        int tableId = Database.getCatalog().getTableId("wide");
+        DbFile f = Database.getCatalog().getDbFile(tableId);
+        assertTrue(f instanceof PaxFile);
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 100; i++) {
+            Tuple t = new Tuple(f.getTupleDesc());
+            t.setField(0, new IntField(i));
+            t.setField(1, new IntField(i % 10));
+            t.setField(2, new StringField("row " + i, Type.STRING_LEN));
+            t.setField(3, new IntField(-i));
+            Database.getBufferPool().insertTuple(tid, tableId, t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        SeqScan scan = new SeqScan(new TransactionId(), tableId, "wide");
+        scan.setColumns(Arrays.asList(0, 3));
+        assertTrue(scan.addPredicate(new Predicate(1, Predicate.Op.EQUALS, new IntField(3))));
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            int a = ((IntField) t.getField(0)).getValue();
+            assertEquals(3, a % 10);
+            assertNull(t.getField(1));
+            assertNull(t.getField(2));
+            assertEquals(new IntField(-a), t.getField(3));
+            count++;
+        }
+        scan.close();
+        assertEquals(10, count);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxPageTest.class);
+    }
+}
@@ -0,0 +1,150 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SlottedPageTest extends SimpleDbTestBase {
+
+    private HeapPageId pid;
+    private TupleDesc td;
+
+    /**
+     * Set up a table of an INT_TYPE and a VARCHAR(100) field.
+     */
+    @Before public void addTable() throws IOException {
+        this.pid = new HeapPageId(-2, 0);
+        this.td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.VARCHAR_TYPE },
+                new String[] { "id", "name" }, new int[] { 0, 100 });
+        Database.getCatalog().addTable(new SkeletonFile(-2, td), SystemTestUtil.getUUID());
+    }
+
+    private Tuple tuple(int id, String name) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(name, 100));
+        return t;
+    }
+
+    /**
+     * Tuples take only the bytes of their values, and read back as written.
+     */
+    @Test public void insertVarchar() throws Exception {
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        int free = page.getFreeSpace();
+        page.insertTuple(tuple(1, "a"));
+        page.insertTuple(tuple(2, "somewhat longer"));
+        assertEquals(free - 2 * SlottedPage.SLOT_SIZE - (4 + 4 + 1) - (4 + 4 + 15), page.getFreeSpace());
+
+        SlottedPage copy = new SlottedPage(pid, page.getPageData());
+        Iterator<Tuple> it = copy.iterator();
+        Tuple t = it.next();
+        assertEquals(new IntField(1), t.getField(0));
+        assertEquals("a", ((StringField) t.getField(1)).getValue());
+        assertEquals(Type.VARCHAR_TYPE, t.getField(1).getType());
+        assertEquals(new RecordId(pid, 0), t.getRecordId());
+        assertEquals("somewhat longer", ((StringField) copy.getField(1, 1)).getValue());
+        it.next();
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Deleting a tuple compacts the data of the page and keeps the slots of
+     * the other tuples.
+     */
+    @Test public void deleteCompacts() throws Exception {
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        Tuple[] tuples = new Tuple[3];
+        for (int i = 0; i < tuples.length; i++) {
+            tuples[i] = tuple(i, "name" + i);
+            page.insertTuple(tuples[i]);
+        }
+        int free = page.getFreeSpace();
+        page.deleteTuple(tuples[1]);
+        assertEquals(free + 4 + 4 + 5, page.getFreeSpace());
+        assertFalse(page.isSlotUsed(1));
+        assertEquals("name0", ((StringField) page.getField(0, 1)).getValue());
+        assertEquals("name2", ((StringField) page.getField(2, 1)).getValue());
+
+        // the emptied slot is reused
+        Tuple again = tuple(7, "seven");
+        page.insertTuple(again);
+        assertEquals(1, again.getRecordId().tupleno());
+
+        // trailing empty slots are given back, and an emptied page is all zeros
+        page.deleteTuple(tuples[2]);
+        assertEquals(2, page.getNumSlots());
+        page.deleteTuple(again);
+        page.deleteTuple(tuples[0]);
+        assertTrue(java.util.Arrays.equals(SlottedPage.createEmptyPageData(), page.getPageData()));
+    }
+
+    /**
+     * A slotted table declared in a catalog file is a SlottedFile, and its
+     * tuples survive being written and read back.
+     */
+    @Test public void slottedCatalog() throws Exception {
+        File dir = File.createTempFile("slotted", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        File schema = new File(dir, "catalog.txt");
+        java.io.FileWriter w = new java.io.FileWriter(schema);
+        w.write("people (id int pk, name varchar(40)) slotted\n");
+        w.close();
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        int tableId = Database.getCatalog().getTableId("people");
+        DbFile f = Database.getCatalog().getDbFile(tableId);
+        assertTrue(f instanceof SlottedFile);
+        assertEquals(40, f.getTupleDesc().getFieldLength(1));
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1000; i++) {
+            Tuple t = new Tuple(f.getTupleDesc());
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField("person " + i, 40));
+            Database.getBufferPool().insertTuple(tid, tableId, t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        int pages = ((HeapFile) f).numPages();
+        // a HeapFile holds 85 tuples of 48 bytes a page, so it takes 12
+        assertTrue(pages <= 8);
+        SeqScan scan = new SeqScan(new TransactionId(), tableId, "");
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertEquals("person " + ((IntField) t.getField(0)).getValue(),
+                    ((StringField) t.getField(1)).getValue());
+            count++;
+        }
+        scan.close();
+        assertEquals(1000, count);
+        new File(dir, "people.dat").deleteOnExit();
+        new File(dir, "people.dat" + FreeSpaceMap.SUFFIX).deleteOnExit();
+        new File(dir, "people.dat" + ZoneMap.SUFFIX).deleteOnExit();
+        BTreeFile.indexFile(new File(dir, "people.dat"), 0).deleteOnExit();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedPageTest.class);
+    }
+}
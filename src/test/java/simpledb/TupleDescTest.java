@@ -167,6 +167,31 @@ public class TupleDescTest extends SimpleDbTestBase {
         assertFalse(intString.equals(singleInt2));
     }
 
+    /**
+     * Unit test for TupleDesc.equals() on VARCHAR lengths, which matter,
+     * and dictionaries, which do not
+     */
+    @Test public void equalsLengthsAndDictionaries() {
+        Type[] types = new Type[] { Type.INT_TYPE, Type.VARCHAR_TYPE };
+        String[] names = new String[2];
+        TupleDesc short1 = new TupleDesc(types, names, new int[] { 0, 10 });
+        TupleDesc short2 = new TupleDesc(types, names, new int[] { 4, 10 });
+        TupleDesc longer = new TupleDesc(types, names, new int[] { 0, 20 });
+        assertTrue(short1.equals(short2));
+        assertFalse(short1.equals(longer));
+
+        Dictionary d = new Dictionary(Type.VARCHAR_TYPE, 10);
+        TupleDesc encoded1 = new TupleDesc(types, names, new int[] { 0, 10 }, new Dictionary[] { null, d });
+        TupleDesc encoded2 = new TupleDesc(types, names, new int[] { 0, 10 }, new Dictionary[] { null, d });
+        TupleDesc other = new TupleDesc(types, names, new int[] { 0, 10 },
+                new Dictionary[] { null, new Dictionary(Type.VARCHAR_TYPE, 10) });
+        assertTrue(encoded1.equals(encoded2));
+        assertTrue(encoded1.equals(short1));
+        assertTrue(short1.equals(encoded1));
+        assertTrue(encoded1.equals(other));
+        assertFalse(encoded1.equals(longer));
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,156 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+
+
+    private CountingHeapFile table;
+
+    /** A table of 20000 rows whose first field counts up from 0. */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 20000; i++) {
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            row.add(i);
+            row.add(i % 7);
+            tuples.add(row);
+        }
+        File f = File.createTempFile("zones", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + FreeSpaceMap.SUFFIX).deleteOnExit();
+        new File(f.getPath() + ZoneMap.SUFFIX).deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.PAGE_SIZE, 2);
+        table = new CountingHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, "zones");
+    }
+
+
+    /**
+     * A range scan reads only the pages whose range overlaps it, and the
+     * ranges follow inserts at once and deletes once they are written.
+     */
+    @Test public void skipsPages() throws Exception {
+        Predicate below100 = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(100));
+        // the first scan fills in the map from the pages
+        assertEquals(100, table.count(below100));
+        assertEquals(100, table.count(below100));
+        assertTrue("read " + table.reads + " pages", table.reads <= 2);
+        assertEquals(1, table.count(new Predicate(0, Predicate.Op.EQUALS, new IntField(12345))));
+        assertEquals(1, table.reads);
+        assertEquals(0, table.count(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(20000))));
+        assertEquals(0, table.reads);
+        // predicates on fields without order read every page
+        assertEquals(20000 / 7, table.count(new Predicate(1, Predicate.Op.EQUALS, new IntField(6))));
+        assertEquals(table.numPages(), table.reads);
+
+        // an insert into the last page widens its range
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[] { 5, 0 }));
+        assertEquals(101, countIn(tid, below100));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(101, table.count(below100));
+
+        // deleting the low keys of the first page narrows its range once written
+        tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, table.getId(), "z");
+        scan.addPredicate(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(50)));
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            if (t.getRecordId().getPageId().pageNumber() == 0)
+                Database.getBufferPool().deleteTuple(tid, t);
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(1, table.count(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(50))));
+        assertEquals(1, table.reads);
+    }
+
+    private int countIn(TransactionId tid, Predicate p) throws Exception {
+        SeqScan scan = new SeqScan(tid, table.getId(), "z");
+        scan.addPredicate(p);
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            n++;
+        }
+        scan.close();
+        return n;
+    }
+
+    /** @return a copy of the files of the table, as they are on disk now */
+    private CountingHeapFile copy(String name) throws Exception {
+        File f = File.createTempFile("zones", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + FreeSpaceMap.SUFFIX).deleteOnExit();
+        new File(f.getPath() + ZoneMap.SUFFIX).deleteOnExit();
+        Files.copy(table.getFile().toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Files.copy(new File(table.getFile().getPath() + ZoneMap.SUFFIX).toPath(),
+                new File(f.getPath() + ZoneMap.SUFFIX).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        CountingHeapFile copy = new CountingHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(copy, name);
+        return copy;
+    }
+
+    /**
+     * A map that was not closed, whose summaries may lag behind the pages
+     * on disk, is built again when the table is opened; a closed map is
+     * used as it is.
+     */
+    @Test public void rebuildsUnclosedMap() throws Exception {
+        Predicate below100 = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(100));
+        assertEquals(100, table.count(below100));
+        TransactionId tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(new int[] { 5, 0 });
+        Database.getBufferPool().insertTuple(tid, table.getId(), t);
+        Database.getBufferPool().transactionComplete(tid);
+
+        // the page reached the disk, but its wider summary did not
+        int pgNo = t.getRecordId().getPageId().pageNumber();
+        CountingHeapFile crashed = copy("crashed");
+        RandomAccessFile raf = new RandomAccessFile(crashed.getFile().getPath() + ZoneMap.SUFFIX, "rw");
+        raf.seek(ZoneMap.HEADER_BYTES + (long) pgNo * 2 * ZoneMap.RECORD_BYTES);
+        raf.writeLong(19000);
+        raf.writeLong(19999);
+        raf.close();
+        table = crashed;
+        assertEquals(101, table.count(below100));
+
+        table.close();
+        table = copy("closed");
+        assertEquals(101, table.count(below100));
+        assertTrue("read " + table.reads + " pages", table.reads <= 3);
+    }
+
+    /** String summaries keep the order of their prefixes. */
+    @Test public void stringKeys() {
+        assertTrue(ZoneMap.key(new StringField("abc", 10)) < ZoneMap.key(new StringField("abd", 10)));
+        assertTrue(ZoneMap.key(new StringField("ab", 10)) < ZoneMap.key(new StringField("abcde", 10)));
+        assertEquals(ZoneMap.key(new StringField("abcdx", 10)), ZoneMap.key(new StringField("abcdy", 10)));
+        assertTrue(ZoneMap.key(new StringField("", 10)) < ZoneMap.key(new StringField("\uffff", 10)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}
@@ -77,6 +77,12 @@ public class ScanTest extends SimpleDbTestBase {
                 super(f, td);
             }
 
+            @Override
+            protected boolean supportsBatchedIo() {
+                // count every page read, read-ahead included
+                return false;
+            }
+
             @Override
             public Page readPage(PageId pid) throws NoSuchElementException {
                 readCount += 1;